@@ -14,6 +14,7 @@
  */
 package org.jtalks.jcommune.model.dao;
 
+import org.joda.time.DateTime;
 import org.jtalks.common.model.dao.Crud;
 import org.jtalks.common.model.entity.Section;
 import org.jtalks.jcommune.model.entity.Branch;
@@ -22,6 +23,8 @@ import org.jtalks.jcommune.model.entity.SubscriptionAwareEntity;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * DAO for the {@link Branch} objects.
@@ -63,6 +66,25 @@ public interface BranchDao extends Crud<Branch> {
      */
     int getCountPostsInBranch(Branch branch);
 
+    /**
+     * Changes stored counts of topics and posts in the branch by one atomic statement, so
+     * concurrent changes of the same branch don't overwrite each other. The branch object
+     * itself isn't changed.
+     *
+     * @param branch           the branch
+     * @param topicsCountDelta number to add to the count of topics, negative to subtract
+     * @param postsCountDelta  number to add to the count of posts, negative to subtract
+     */
+    void adjustCounts(Branch branch, int topicsCountDelta, int postsCountDelta);
+
+    /**
+     * Repairs stored counts of topics and posts in the branches, which may drift
+     * from the actual values, e.g. because topics or posts were changed by other applications.
+     *
+     * @return count of branches which counts were repaired
+     */
+    int recalculateStatisticInfo();
+
     /**
      * Get state of unread posts in the branch.
      *
@@ -72,6 +94,27 @@ public interface BranchDao extends Crud<Branch> {
      */
     boolean isUnreadPostsInBranch(Branch branch, JCUser user);
 
+    /**
+     * Finds branches having unread posts for the user by one query. A topic is unread
+     * if its last post was created since the user marked all forum or its branch as read
+     * and it isn't read to the last post.
+     *
+     * @param user      the user
+     * @param branchIds identifiers of branches to check
+     * @return identifiers of branches with unread posts
+     */
+    Set<Long> getBranchesWithUnreadPosts(JCUser user, Collection<Long> branchIds);
+
+    /**
+     * Get the last modification times of topics in every branch. Times are kept in memory and may be
+     * later than the actual ones, e.g. after the latest topic is deleted, but topics modified by this
+     * application are reflected at once.
+     *
+     * @return time of the latest topic modification by identifiers of branches,
+     *         branches without topics are absent
+     */
+    Map<Long, DateTime> getLastTopicModificationTimes();
+
     /**
      * Get subscribers for specified branch with allowed permission to read this branch.
      *
@@ -14,13 +14,16 @@
  */
 package org.jtalks.jcommune.model.dao;
 
+import org.joda.time.DateTime;
 import org.jtalks.common.model.dao.Crud;
 import org.jtalks.jcommune.model.entity.Branch;
 import org.jtalks.jcommune.model.entity.JCUser;
 import org.jtalks.jcommune.model.entity.LastReadPost;
 import org.jtalks.jcommune.model.entity.Topic;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Interface allows to make basic CRUD operations with the
@@ -59,15 +62,65 @@ public interface LastReadPostDao extends Crud<LastReadPost> {
     List<LastReadPost> getLastReadPosts(JCUser forWhom, List<Topic> sourceTopics);
 
     /**
-     * Mark all topics as read.
+     * Get indexes of last read posts of user in all the topics he has read.
+     *
+     * @param forWhom for this user it founds indexes of last read posts
+     * @return indexes of last read posts by identifiers of topics
+     */
+    Map<Long, Integer> getLastReadPostIndexes(JCUser forWhom);
+
+    /**
+     * Counts posts created in the topics before the given time. When a topic modified after
+     * the user marked its branch or the whole forum as read has no last read post, its posts
+     * created before the mark are read.
+     *
+     * @param topicIds identifiers of topics to count posts in
+     * @param time     posts created before this time are counted
+     * @return counts of posts by identifiers of topics, topics without such posts are absent
+     */
+    Map<Long, Integer> getPostCountsCreatedBefore(Collection<Long> topicIds, DateTime time);
+
+    /**
+     * Saves indexes of last read posts of several users at once by JDBC batches, topics which
+     * don't exist anymore are skipped. Indexes of existing last read posts are only increased,
+     * so the user doesn't move back if an older index is saved concurrently.
+     *
+     * @param indexes indexes of last read posts by identifiers of topics, grouped by
+     *                identifiers of users
+     */
+    void saveLastReadPostIndexes(Map<Long, Map<Long, Integer>> indexes);
+
+    /**
+     * Mark all topics of the branch as read. Last read posts of the user in the branch are
+     * replaced by the {@link org.jtalks.jcommune.model.entity.BranchReadMark} with the current
+     * time, so it's performed by a few statements regardless of the number of topics in the branch.
+     * Concurrent marking of the same branch by the same user doesn't fail.
      *
      * @param forWhom user to find last read post for
      * @param branch branch contained topics to mark
      */
     void markAllRead(JCUser forWhom, Branch branch);
+
+    /**
+     * Get times when the user marked branches as read. Topics of the branch modified
+     * before the time are read regardless of last read posts.
+     *
+     * @param forWhom for this user it founds times of marking branches as read
+     * @return times of marking as read by identifiers of branches
+     */
+    Map<Long, DateTime> getBranchReadMarkTimes(JCUser forWhom);
+
+    /**
+     * Delete last read posts of topics which weren't modified since the user marked their
+     * branch or the whole forum as read. Such last read posts don't affect anything, positions in
+     * topics modified later are taken from {@link #getPostCountsCreatedBefore(Collection, DateTime)}.
+     *
+     * @return count of deleted last read posts
+     */
+    int deleteLastReadPostsOfReadTopics();
     
     /**
-     * Delete all last read post records for given user.
+     * Delete all last read post records and branch read marks for given user.
      * 
      * @param user for this user we delete all records that contain
      *        an information about last read post
@@ -40,7 +40,8 @@ public interface PostDao extends Crud<Post> {
      * Get all the posts that were created  by user.
      * 
      * @param author user to select posts for
-     * @param pageRequest contains information for pagination: page number, page size
+     * @param pageRequest contains information for pagination: page number, page size and
+     *                    optional identifier of the last element of the previous page
      * @return object that contains posts for one page(note, that one page may contain
      *         all posts, that were created by user) and information for pagination
      */
@@ -50,7 +51,8 @@ public interface PostDao extends Crud<Post> {
      * Get all posts in the topic of forum.
      * 
      * @param topic for this topic we will find posts
-     * @param pageRequest contains information for pagination: page number, page size
+     * @param pageRequest contains information for pagination: page number, page size and
+     *                    optional identifier of the last element of the previous page
      * @return object that contains posts for one page(note, that one page may contain
      *         all posts) and information for pagination
      */
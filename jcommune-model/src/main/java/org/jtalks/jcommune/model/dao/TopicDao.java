@@ -24,6 +24,7 @@ import org.jtalks.jcommune.model.entity.Topic;
 import org.springframework.data.domain.Page;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * DAO for the {@link Topic} objects.
@@ -60,6 +61,20 @@ public interface TopicDao extends Crud<Topic> {
      */
     Page<Topic> getUnansweredTopics(JCommunePageRequest pageRequest, JCUser user);
 
+    /**
+     * Get topics the user hasn't read: topics with posts created since the user marked all
+     * forum or their branch as read and not read by the user up to the last post. Only topics
+     * of branches visible to the user are returned, the most recently modified first.
+     * Unread topics aren't counted, so total count of the page tells only whether there
+     * is a next page.
+     *
+     * @param pageRequest contains information for pagination: page number, page size
+     * @param user        the user to find unread topics for
+     * @return object that contains unread topics for one page and information
+     *         for pagination
+     */
+    Page<Topic> getUnreadTopics(JCommunePageRequest pageRequest, JCUser user);
+
     /**
      * Find the last updated topic in the branch.
      *
@@ -72,7 +87,8 @@ public interface TopicDao extends Crud<Topic> {
      * Get topics in the branch.
      *
      * @param branch      for this branch we will find topics
-     * @param pageRequest contains information for pagination: page number, page size
+     * @param pageRequest contains information for pagination: page number, page size and
+     *                    optional identifier of the last element of the previous page
      * @return object that contains topics for one page(note, that one page may contain
      *         all topics) and information for pagination
      */
@@ -86,6 +102,14 @@ public interface TopicDao extends Crud<Topic> {
      */
     int countTopics(Branch branch);
 
+    /**
+     * Adds views to topics. Rows of all the topics are updated by one batch, the
+     * topics are evicted from the second level cache when the transaction completes.
+     *
+     * @param views counts of views to add to topics by their ids
+     */
+    void addViews(Map<Long, Integer> views);
+
     /**
      * Get subscribers for specified topic with allowed permission to read this topic.
      *
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao;
+
+import org.joda.time.DateTime;
+
+import java.util.Map;
+
+/**
+ * In-memory index of the last modification times of topics in every branch. It allows to find
+ * branches without topics modified since a user marked them as read without querying topics.
+ * <p/>
+ * Topics saved by this application are put into the index at once, changes made by other nodes
+ * of the cluster or by the administration application become visible once the index expires:
+ * it's rebuilt at least once per configured max age (TOPIC_MODIFICATION_TIMES_INDEX_MAX_AGE,
+ * one minute by default).
+ *
+ * @see org.jtalks.jcommune.model.dao.hibernate.TopicModificationTimesHibernateIndex
+ */
+public interface TopicModificationTimesIndex {
+
+    /**
+     * Get the last modification times of topics in every branch. Times may be later than the
+     * actual ones if topics were deleted or their changes were rolled back since the index
+     * was loaded.
+     *
+     * @return the last modification time of topics by branch ids, branches without topics are absent
+     */
+    Map<Long, DateTime> getLastModificationTimes();
+
+    /**
+     * Puts the modification time of the topic into the index, should be called whenever the
+     * topic is created, modified or moved to another branch.
+     *
+     * @param branchId         id of the branch the topic is in
+     * @param modificationTime modification time of the topic
+     */
+    void topicModified(long branchId, DateTime modificationTime);
+
+    /**
+     * Drops the index, so it will be loaded from topics on the next request.
+     */
+    void invalidate();
+}
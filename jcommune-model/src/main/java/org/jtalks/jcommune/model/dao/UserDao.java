@@ -87,11 +87,11 @@ public interface UserDao extends org.jtalks.common.model.dao.UserDao<JCUser> {
     List<JCUser> getByUsernames(Set<String> usernames);
 
     /**
-     * Get users by part of user name.
+     * Get users by their user's names ignoring case of letters, like {@link #getByUsername(String)}.
+     * Several users may be found for one name if their names differ only in case.
      *
-     * @param pattern part of user name
-     * @param count max count of users
+     * @param usernames the collections of user's names
      * @return the list of found users
      */
-    List<JCUser> getUsernames(String pattern, int count);
+    List<JCUser> getByUsernamesIgnoringCase(Set<String> usernames);
 }
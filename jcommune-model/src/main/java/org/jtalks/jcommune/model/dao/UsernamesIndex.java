@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao;
+
+import java.util.List;
+
+/**
+ * In-memory index of usernames of enabled users, it replaces the scan of all the users
+ * by a pattern for the autocomplete of usernames in mentions and recipients of private messages.
+ *
+ * @see org.jtalks.jcommune.model.dao.hibernate.UsernamesHibernateIndex
+ */
+public interface UsernamesIndex {
+
+    /**
+     * Gets usernames containing the pattern ignoring the case, ordered by usernames.
+     *
+     * @param pattern part of usernames
+     * @param count   maximum number of usernames to return
+     * @return found usernames, empty list if there are none
+     */
+    List<String> getUsernames(String pattern, int count);
+
+    /**
+     * Adds the username of the user who is enabled now, should be called on activation of the user.
+     *
+     * @param username the username
+     */
+    void add(String username);
+
+    /**
+     * Removes the username of the user who is disabled or deleted now.
+     *
+     * @param username the username
+     */
+    void remove(String username);
+
+    /**
+     * Drops the index, so it will be rebuilt from users on the next request.
+     */
+    void invalidate();
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao;
+
+import org.jtalks.jcommune.model.entity.JCUser;
+
+import java.util.Set;
+
+/**
+ * In-memory index of branches whose topics can be viewed by a set of groups. It replaces
+ * subqueries to the VIEW_TOPICS permissions view in queries which list topics or branches
+ * available to a user, so that such queries can be filtered by a plain list of branch ids.
+ * <p/>
+ * VIEW_TOPICS permissions are edited by the administration application, so changes made there
+ * become visible once the index expires: it's rebuilt at least once per configured max age
+ * (VISIBLE_BRANCHES_INDEX_MAX_AGE, one minute by default).
+ *
+ * @see org.jtalks.jcommune.model.dao.hibernate.VisibleBranchesHibernateIndex
+ */
+public interface VisibleBranchesIndex {
+
+    /**
+     * Get identifiers of branches which topics can be viewed by the user. For a registered
+     * user branch is visible if it's allowed for any of user's groups and isn't restricted
+     * for any of them, anonymous user sees branches allowed for anonymous users.
+     *
+     * @param user user to get visible branches for
+     * @return ids of visible branches, empty set if there are none
+     */
+    Set<Long> getVisibleBranchIds(JCUser user);
+
+    /**
+     * Drops the index, so it will be rebuilt from the permissions on the next request.
+     * Should be called if VIEW_TOPICS permissions of branches are changed by this application,
+     * otherwise changes are picked up after the index expires.
+     */
+    void invalidate();
+}
@@ -14,15 +14,24 @@
  */
 package org.jtalks.jcommune.model.dao.hibernate;
 
+import org.hibernate.Cache;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.jdbc.Work;
+import org.joda.time.DateTime;
 import org.jtalks.common.model.dao.hibernate.GenericDao;
-import org.jtalks.common.model.entity.Entity;
 import org.jtalks.common.model.entity.Section;
 import org.jtalks.jcommune.model.dao.BranchDao;
+import org.jtalks.jcommune.model.dao.TopicModificationTimesIndex;
+import org.jtalks.jcommune.model.dao.VisibleBranchesIndex;
 import org.jtalks.jcommune.model.entity.Branch;
 import org.jtalks.jcommune.model.entity.JCUser;
 import org.jtalks.jcommune.model.entity.SubscriptionAwareEntity;
 
+import javax.transaction.Synchronization;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.*;
 
 /**
@@ -36,12 +45,24 @@ import java.util.*;
  */
 public class BranchHibernateDao extends GenericDao<Branch>
         implements BranchDao {
+    private static final String ADJUST_COUNTS =
+            "UPDATE BRANCHES SET TOPICS_COUNT=TOPICS_COUNT+?, POSTS_COUNT=POSTS_COUNT+? WHERE BRANCH_ID=?";
+    private static final String SET_COUNTS =
+            "UPDATE BRANCHES SET TOPICS_COUNT=?, POSTS_COUNT=? WHERE BRANCH_ID=?";
+
+    private final VisibleBranchesIndex visibleBranchesIndex;
+    private final TopicModificationTimesIndex topicModificationTimesIndex;
 
     /**
-     * @param sessionFactory The SessionFactory.
+     * @param sessionFactory              The SessionFactory.
+     * @param visibleBranchesIndex        to get branches visible to a user
+     * @param topicModificationTimesIndex to get the last modification times of topics in branches
      */
-    public BranchHibernateDao(SessionFactory sessionFactory) {
+    public BranchHibernateDao(SessionFactory sessionFactory, VisibleBranchesIndex visibleBranchesIndex,
+                              TopicModificationTimesIndex topicModificationTimesIndex) {
         super(sessionFactory, Branch.class);
+        this.visibleBranchesIndex = visibleBranchesIndex;
+        this.topicModificationTimesIndex = topicModificationTimesIndex;
     }
 
     /**
@@ -50,9 +71,13 @@ public class BranchHibernateDao extends GenericDao<Branch>
     @SuppressWarnings("unchecked")
     @Override
     public List<Branch> getAllAvailableBranches(JCUser user) {
+        Set<Long> branchIds = visibleBranchesIndex.getVisibleBranchIds(user);
+        if (branchIds.isEmpty()) {
+            return new ArrayList<Branch>();
+        }
         List<Branch> branches = session()
                 .getNamedQuery("getAllAvailableBranches")
-                .setParameterList("groupIds", getEntityIdsStrings(new ArrayList<Entity>(user.getGroups())))
+                .setParameterList("branchIds", branchIds)
                 .list();
         return branches;
     }
@@ -63,28 +88,18 @@ public class BranchHibernateDao extends GenericDao<Branch>
     @SuppressWarnings("unchecked")
     @Override
     public List<Branch> getAllAvailableBranchesInSection(JCUser user, Section section) {
+        Set<Long> branchIds = visibleBranchesIndex.getVisibleBranchIds(user);
+        if (branchIds.isEmpty()) {
+            return new ArrayList<Branch>();
+        }
         List<Branch> branches = session()
                 .getNamedQuery("getAllAvailableBranchesInSection")
-                .setParameterList("groupIds", getEntityIdsStrings(new ArrayList<Entity>(user.getGroups())))
+                .setParameterList("branchIds", branchIds)
                 .setParameter("section", section)
                 .list();
         return branches;
     }
 
-    /**
-     * Return entity ids from list entities as strings
-     *
-     * @param entities entities
-     * @return id's entities
-     */
-    private List<String> getEntityIdsStrings(List<Entity> entities) {
-        List<String> ids = new ArrayList<String>();
-        for (Entity e : entities) {
-            ids.add(e.getId() + "");
-        }
-        return ids;
-    }
-
     /**
      * {@inheritDoc}
      */
@@ -97,17 +112,122 @@ public class BranchHibernateDao extends GenericDao<Branch>
         return count.intValue();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void adjustCounts(Branch branch, final int topicsCountDelta, final int postsCountDelta) {
+        final long branchId = branch.getId();
+        session().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement statement = connection.prepareStatement(ADJUST_COUNTS);
+                try {
+                    statement.setInt(1, topicsCountDelta);
+                    statement.setInt(2, postsCountDelta);
+                    statement.setLong(3, branchId);
+                    statement.executeUpdate();
+                } finally {
+                    statement.close();
+                }
+            }
+        });
+        evictAfterCompletion(Collections.singleton(branchId));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int recalculateStatisticInfo() {
+        @SuppressWarnings("unchecked")
+        final List<Object[]> driftedBranches = session().getNamedQuery("getBranchesStatisticsDrift").list();
+        if (driftedBranches.isEmpty()) {
+            return 0;
+        }
+        final Set<Long> branchIds = new HashSet<Long>();
+        session().doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement statement = connection.prepareStatement(SET_COUNTS);
+                try {
+                    for (Object[] statistics : driftedBranches) {
+                        statement.setInt(1, ((Number) statistics[1]).intValue());
+                        statement.setInt(2, ((Number) statistics[2]).intValue());
+                        statement.setLong(3, (Long) statistics[0]);
+                        statement.addBatch();
+                        branchIds.add((Long) statistics[0]);
+                    }
+                    statement.executeBatch();
+                } finally {
+                    statement.close();
+                }
+            }
+        });
+        evictAfterCompletion(branchIds);
+        return driftedBranches.size();
+    }
+
+    /**
+     * Evicts branches from the second level cache after the transaction is completed, counts are
+     * changed bypassing the session and a concurrent reader could cache not yet committed ones again.
+     *
+     * @param branchIds identifiers of changed branches
+     */
+    private void evictAfterCompletion(final Collection<Long> branchIds) {
+        Session session = session();
+        final Cache cache = session.getSessionFactory().getCache();
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                for (Long branchId : branchIds) {
+                    cache.evictEntity(Branch.class, branchId);
+                }
+            }
+        });
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public boolean isUnreadPostsInBranch(Branch branch, JCUser user) {
-        Number count = (Number) session()
-                .getNamedQuery("getCountUnreadPostsInBranch")
+        return !getBranchesWithUnreadPosts(user, Collections.singleton(branch.getId())).isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Long> getBranchesWithUnreadPosts(JCUser user, Collection<Long> branchIds) {
+        if (branchIds.isEmpty()) {
+            return new HashSet<Long>();
+        }
+        DateTime forumMarkedAsReadTime = user.getAllForumMarkedAsReadTime();
+        @SuppressWarnings("unchecked")
+        List<Long> unreadBranchIds = session()
+                .getNamedQuery("getBranchesWithUnreadPosts")
                 .setParameter("user", user.getId())
-                .setParameter("branch", branch.getId())
-                .uniqueResult();
-        return count.intValue() > 0 ? true : false;
+                .setParameterList("branchIds", branchIds)
+                .setTimestamp("forumMarkedAsReadTime",
+                        forumMarkedAsReadTime == null ? new Date(0) : forumMarkedAsReadTime.toDate())
+                .list();
+        return new HashSet<Long>(unreadBranchIds);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Times are taken from {@link TopicModificationTimesIndex}, so the database is queried only
+     * when the index is reloaded.
+     */
+    @Override
+    public Map<Long, DateTime> getLastTopicModificationTimes() {
+        return topicModificationTimesIndex.getLastModificationTimes();
     }
 
     /**
@@ -14,18 +14,37 @@
  */
 package org.jtalks.jcommune.model.dao.hibernate;
 
+import org.hibernate.Cache;
 import org.hibernate.SQLQuery;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.jdbc.Work;
+import org.joda.time.DateTime;
 import org.jtalks.common.model.dao.hibernate.GenericDao;
 import org.jtalks.jcommune.model.dao.LastReadPostDao;
 import org.jtalks.jcommune.model.entity.Branch;
+import org.jtalks.jcommune.model.entity.BranchReadMark;
 import org.jtalks.jcommune.model.entity.JCUser;
 import org.jtalks.jcommune.model.entity.LastReadPost;
 import org.jtalks.jcommune.model.entity.Topic;
 
+import javax.transaction.Synchronization;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 
 /**
@@ -38,6 +57,15 @@ import java.util.UUID;
  */
 public class LastReadPostHibernateDao extends GenericDao<LastReadPost>
         implements LastReadPostDao {
+    private static final String UPDATE_LAST_READ_POST =
+            "UPDATE LAST_READ_POSTS SET LAST_READ_POST_INDEX=CASE WHEN LAST_READ_POST_INDEX<? THEN ? "
+                    + "ELSE LAST_READ_POST_INDEX END WHERE USER_ID=? AND TOPIC_ID=?";
+    private static final String INSERT_LAST_READ_POST =
+            "INSERT INTO LAST_READ_POSTS(UUID,USER_ID,LAST_READ_POST_INDEX,TOPIC_ID) VALUES (?,?,?,?)";
+    private static final String UPSERT_LAST_READ_POST =
+            "INSERT INTO LAST_READ_POSTS(UUID,USER_ID,LAST_READ_POST_INDEX,TOPIC_ID) "
+                    + "SELECT ?,?,?,TOPIC_ID FROM TOPIC WHERE TOPIC_ID=? ON DUPLICATE KEY UPDATE "
+                    + "LAST_READ_POST_INDEX=GREATEST(LAST_READ_POST_INDEX,VALUES(LAST_READ_POST_INDEX))";
 
     /**
      * @param sessionFactory The SessionFactory.
@@ -87,6 +115,229 @@ public class LastReadPostHibernateDao extends GenericDao<LastReadPost>
      * {@inheritDoc}
      */
     @Override
+    public Map<Long, Integer> getLastReadPostIndexes(JCUser forWho) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> lastReadPosts = session().getNamedQuery("getLastReadPostIndexesOfUser")
+                .setParameter("user", forWho)
+                .list();
+        Map<Long, Integer> indexes = new HashMap<Long, Integer>();
+        for (Object[] lastReadPost : lastReadPosts) {
+            indexes.put((Long) lastReadPost[0], (Integer) lastReadPost[1]);
+        }
+        return indexes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Long, Integer> getPostCountsCreatedBefore(Collection<Long> topicIds, DateTime time) {
+        Map<Long, Integer> postCounts = new HashMap<Long, Integer>();
+        if (topicIds.isEmpty()) {
+            return postCounts;
+        }
+        @SuppressWarnings("unchecked")
+        List<Object[]> counts = session().getNamedQuery("getPostCountsCreatedBefore")
+                .setParameterList("topicIds", topicIds)
+                .setParameter("time", time)
+                .list();
+        for (Object[] count : counts) {
+            postCounts.put((Long) count[0], ((Number) count[1]).intValue());
+        }
+        return postCounts;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Rows are written in the order of users and topics, so that concurrent savings lock them
+     * in the same order. On MySQL every last read post is inserted or updated by one statement
+     * relying on the unique key of the user and the topic, other databases update existing last
+     * read posts first and then insert missing ones. In both cases the index is never decreased,
+     * so an older index saved concurrently doesn't move the user back.
+     */
+    @Override
+    public void saveLastReadPostIndexes(Map<Long, Map<Long, Integer>> indexes) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        Session session = session();
+        final List<long[]> rows = getSortedRows(indexes);
+        if (((SessionFactoryImplementor) session.getSessionFactory()).getDialect() instanceof MySQLDialect) {
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    upsertLastReadPosts(connection, rows);
+                }
+            });
+        } else {
+            final List<Integer> notUpdated = new ArrayList<Integer>();
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    notUpdated.addAll(updateLastReadPosts(connection, rows));
+                }
+            });
+            final Set<Long> existingTopics = getExistingTopicIds(rows, notUpdated);
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    insertLastReadPosts(connection, rows, notUpdated, existingTopics);
+                }
+            });
+        }
+        // rows are changed bypassing the session, so cached last read posts are stale
+        final Cache cache = session.getSessionFactory().getCache();
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                cache.evictEntityRegion(LastReadPost.class);
+            }
+        });
+    }
+
+    /**
+     * Orders last read posts by users and then by topics.
+     *
+     * @param indexes indexes of last read posts by topics, grouped by users
+     * @return identifiers of the user and the topic and the index of every last read post
+     */
+    private List<long[]> getSortedRows(Map<Long, Map<Long, Integer>> indexes) {
+        List<long[]> rows = new ArrayList<long[]>();
+        for (Map.Entry<Long, Map<Long, Integer>> indexesOfUser : new TreeMap<Long, Map<Long, Integer>>(indexes)
+                .entrySet()) {
+            for (Map.Entry<Long, Integer> index : new TreeMap<Long, Integer>(indexesOfUser.getValue()).entrySet()) {
+                rows.add(new long[]{indexesOfUser.getKey(), index.getKey(), index.getValue()});
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Inserts or updates last read posts by one batch, last read posts of deleted topics
+     * aren't inserted as the topic is selected to be inserted.
+     *
+     * @param connection connection to the database
+     * @param rows       identifiers of the user and the topic and the index of every last read post
+     * @throws SQLException if the batch failed
+     */
+    private void upsertLastReadPosts(Connection connection, List<long[]> rows) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(UPSERT_LAST_READ_POST);
+        try {
+            for (long[] row : rows) {
+                statement.setString(1, UUID.randomUUID().toString());
+                statement.setLong(2, row[0]);
+                statement.setInt(3, (int) row[2]);
+                statement.setLong(4, row[1]);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Updates existing last read posts by one batch.
+     *
+     * @param connection connection to the database
+     * @param rows       identifiers of the user and the topic and the index of every last read post
+     * @return positions of last read posts which don't exist yet
+     * @throws SQLException if the batch failed
+     */
+    private List<Integer> updateLastReadPosts(Connection connection, List<long[]> rows) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(UPDATE_LAST_READ_POST);
+        int[] updatedRows;
+        try {
+            for (long[] row : rows) {
+                statement.setInt(1, (int) row[2]);
+                statement.setInt(2, (int) row[2]);
+                statement.setLong(3, row[0]);
+                statement.setLong(4, row[1]);
+                statement.addBatch();
+            }
+            updatedRows = statement.executeBatch();
+        } finally {
+            statement.close();
+        }
+        List<Integer> notUpdated = new ArrayList<Integer>();
+        for (int i = 0; i < updatedRows.length; i++) {
+            // drivers reporting SUCCESS_NO_INFO don't tell whether the row exists, it's considered existing
+            if (updatedRows[i] == 0) {
+                notUpdated.add(i);
+            }
+        }
+        return notUpdated;
+    }
+
+    /**
+     * Finds topics which still exist, topics may be deleted after they were read.
+     *
+     * @param rows      identifiers of the user and the topic and the index of every last read post
+     * @param positions positions of last read posts to check topics of
+     * @return identifiers of existing topics
+     */
+    private Set<Long> getExistingTopicIds(List<long[]> rows, List<Integer> positions) {
+        Set<Long> topicIds = new HashSet<Long>();
+        for (int position : positions) {
+            topicIds.add(rows.get(position)[1]);
+        }
+        if (topicIds.isEmpty()) {
+            return topicIds;
+        }
+        @SuppressWarnings("unchecked")
+        List<Long> existingTopicIds = session().getNamedQuery("getExistingTopicIds")
+                .setParameterList("topicIds", topicIds)
+                .list();
+        return new HashSet<Long>(existingTopicIds);
+    }
+
+    /**
+     * Inserts last read posts by one batch.
+     *
+     * @param connection     connection to the database
+     * @param rows           identifiers of the user and the topic and the index of every last read post
+     * @param positions      positions of last read posts to insert
+     * @param existingTopics identifiers of topics which aren't deleted, last read posts
+     *                       of other topics are skipped
+     * @throws SQLException if the batch failed
+     */
+    private void insertLastReadPosts(Connection connection, List<long[]> rows, List<Integer> positions,
+                                     Set<Long> existingTopics) throws SQLException {
+        if (existingTopics.isEmpty()) {
+            return;
+        }
+        PreparedStatement statement = connection.prepareStatement(INSERT_LAST_READ_POST);
+        try {
+            for (int position : positions) {
+                if (!existingTopics.contains(rows.get(position)[1])) {
+                    continue;
+                }
+                statement.setString(1, UUID.randomUUID().toString());
+                statement.setLong(2, rows.get(position)[0]);
+                statement.setInt(3, (int) rows.get(position)[2]);
+                statement.setLong(4, rows.get(position)[1]);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Instead of a last read post per topic the branch gets a {@link BranchReadMark}, so marking
+     * a branch as read takes the same few statements regardless of the number of its topics.
+     * The mark is updated first and inserted only if it doesn't exist, if a concurrent request
+     * inserted it in between, the unique key is violated and the mark is updated again.
+     */
+    @Override
     public void markAllRead(JCUser forWho, Branch branch) {
         Session session = session();
 
@@ -97,24 +348,63 @@ public class LastReadPostHibernateDao extends GenericDao<LastReadPost>
                 .setParameter("branch", branch.getId())
                 .executeUpdate();
 
-        @SuppressWarnings("unchecked")
-        List<Object[]> topicsOfBranch = session.getNamedQuery("getTopicAndCountOfPostsInBranch")
-                .setParameter("branch", branch.getId())
-                .list();
+        Date markedAsReadTime = new DateTime().toDate();
+        if (updateBranchReadMark(forWho, branch, markedAsReadTime) == 0) {
+            try {
+                ((SQLQuery) session.getNamedQuery("insertBranchReadMark"))
+                        .addSynchronizedEntityClass(BranchReadMark.class)
+                        .setString("uuid", UUID.randomUUID().toString())
+                        .setParameter("user", forWho.getId())
+                        .setParameter("branch", branch.getId())
+                        .setTimestamp("time", markedAsReadTime)
+                        .executeUpdate();
+            } catch (ConstraintViolationException e) {
+                updateBranchReadMark(forWho, branch, markedAsReadTime);
+            }
+        }
+    }
 
-        SQLQuery insertQuery = (SQLQuery) session.getNamedQuery("markAllTopicsRead");
-        insertQuery
-                .addSynchronizedEntityClass(LastReadPost.class);
+    /**
+     * Changes time of the existing mark of the branch as read.
+     *
+     * @param forWho           user who marks the branch as read
+     * @param branch           branch to mark
+     * @param markedAsReadTime new time of marking the branch as read
+     * @return count of updated marks, 0 if the user has never marked the branch as read
+     */
+    private int updateBranchReadMark(JCUser forWho, Branch branch, Date markedAsReadTime) {
+        return ((SQLQuery) session().getNamedQuery("updateBranchReadMark"))
+                .addSynchronizedEntityClass(BranchReadMark.class)
+                .setParameter("user", forWho.getId())
+                .setParameter("branch", branch.getId())
+                .setTimestamp("time", markedAsReadTime)
+                .executeUpdate();
+    }
 
-        for (Object[] o : topicsOfBranch) {
-            insertQuery.setParameter("uuid", UUID.randomUUID().toString())
-                    .setParameter("user", forWho.getId())
-                    .setParameter("lastPostIndex", o[1])
-                    .setParameter("topic", o[0])
-                    .executeUpdate();
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Long, DateTime> getBranchReadMarkTimes(JCUser forWho) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> marks = session().getNamedQuery("getBranchReadMarkTimesOfUser")
+                .setParameter("user", forWho)
+                .list();
+        Map<Long, DateTime> markTimes = new HashMap<Long, DateTime>();
+        for (Object[] mark : marks) {
+            markTimes.put((Long) mark[0], (DateTime) mark[1]);
         }
+        return markTimes;
+    }
 
-        session.flush();
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int deleteLastReadPostsOfReadTopics() {
+        return ((SQLQuery) session().getNamedQuery("deleteLastReadPostsOfReadTopics"))
+                .addSynchronizedEntityClass(LastReadPost.class)
+                .executeUpdate();
     }
 
     /**
@@ -125,5 +415,8 @@ public class LastReadPostHibernateDao extends GenericDao<LastReadPost>
         session().getNamedQuery("deleteAllLastReadPostsOfUser")
                 .setParameter("user", user)
                 .executeUpdate();
+        session().getNamedQuery("deleteAllBranchReadMarksOfUser")
+                .setParameter("user", user)
+                .executeUpdate();
     }
 }
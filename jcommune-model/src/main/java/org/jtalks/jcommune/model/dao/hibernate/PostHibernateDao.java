@@ -39,6 +39,9 @@ import java.util.List;
  */
 public class PostHibernateDao extends GenericDao<Post> implements PostDao {
     private static final String TOPIC_PARAMETER_NAME = "topic";
+    private static final String USER_CREATED_PARAMETER_NAME = "userCreated";
+    private static final String CREATION_DATE_PARAMETER_NAME = "creationDate";
+    private static final String ID_PARAMETER_NAME = "id";
 
     /**
      * @param sessionFactory The SessionFactory.
@@ -49,45 +52,85 @@ public class PostHibernateDao extends GenericDao<Post> implements PostDao {
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Total count is taken from the user's post counter, so no
+     * count query is executed.
      */
     public Page<Post> getUserPosts(JCUser author, JCommunePageRequest pageRequest) {
-        Number totalCount = (Number) session()
-                .getNamedQuery("getCountPostsOfUser")
-                .setParameter("userCreated", author)
-                .uniqueResult();
+        int totalCount = author.getPostCount();
         Query query = session()
                 .getNamedQuery("getPostsOfUser")
-                .setParameter("userCreated", author);
+                .setParameter(USER_CREATED_PARAMETER_NAME, author);
         if (pageRequest.isPagingEnabled()) {
-            pageRequest.adjustPageNumber(totalCount.intValue());
-            query.setFirstResult(pageRequest.getOffset());
+            pageRequest.adjustPageNumber(totalCount);
+            Post lastSeenPost = getLastSeenPost(pageRequest);
+            if (lastSeenPost != null && lastSeenPost.getUserCreated().getId() == author.getId()) {
+                query = session()
+                        .getNamedQuery("getPostsOfUserAfter")
+                        .setParameter(USER_CREATED_PARAMETER_NAME, author);
+                setSeekParameters(query, lastSeenPost);
+            } else {
+                query.setFirstResult(pageRequest.getOffset());
+            }
             query.setMaxResults(pageRequest.getPageSize());
         }
         @SuppressWarnings("unchecked")
         List<Post> posts = (List<Post>) query.list();
-        return new PageImpl<Post>(posts, pageRequest, totalCount.intValue());
+        return new PageImpl<Post>(posts, pageRequest, totalCount);
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Total count is taken from the topic's denormalized post count, so no
+     * count query is executed.
      */
     @Override
     public Page<Post> getPosts(Topic topic, JCommunePageRequest pageRequest) {
-        Number totalCount = (Number) session()
-                .getNamedQuery("getCountPostsInTopic")
-                .setParameter(TOPIC_PARAMETER_NAME, topic)
-                .uniqueResult();
+        int totalCount = topic.getPostCount();
         Query query = session()
                 .getNamedQuery("getPostsInTopic")
                 .setParameter(TOPIC_PARAMETER_NAME, topic);
         if (pageRequest.isPagingEnabled()) {
-            pageRequest.adjustPageNumber(totalCount.intValue());
-            query.setFirstResult(pageRequest.getOffset());
+            pageRequest.adjustPageNumber(totalCount);
+            Post lastSeenPost = getLastSeenPost(pageRequest);
+            if (lastSeenPost != null && lastSeenPost.getTopic().getId() == topic.getId()) {
+                query = session()
+                        .getNamedQuery("getPostsInTopicAfter")
+                        .setParameter(TOPIC_PARAMETER_NAME, topic);
+                setSeekParameters(query, lastSeenPost);
+            } else {
+                query.setFirstResult(pageRequest.getOffset());
+            }
             query.setMaxResults(pageRequest.getPageSize());
         }
         @SuppressWarnings("unchecked")
         List<Post> posts = (List<Post>) query.list();
-        return new PageImpl<Post>(posts, pageRequest, totalCount.intValue());
+        return new PageImpl<Post>(posts, pageRequest, totalCount);
+    }
+
+    /**
+     * Gets the last post of the previous page if keyset pagination is possible for the request.
+     *
+     * @param pageRequest contains information for pagination
+     * @return the last post of the previous page or <code>null</code> if offset pagination should be used
+     */
+    private Post getLastSeenPost(JCommunePageRequest pageRequest) {
+        if (pageRequest.isSeekEnabled()) {
+            return (Post) session().get(Post.class, pageRequest.getLastSeenId());
+        }
+        return null;
+    }
+
+    /**
+     * Sets parameters of keyset pagination query, posts are ordered by creation date and identifier.
+     *
+     * @param query        query to select posts following the last seen one
+     * @param lastSeenPost the last post of the previous page
+     */
+    private void setSeekParameters(Query query, Post lastSeenPost) {
+        query.setParameter(CREATION_DATE_PARAMETER_NAME, lastSeenPost.getCreationDate())
+                .setParameter(ID_PARAMETER_NAME, lastSeenPost.getId());
     }
 
     /**
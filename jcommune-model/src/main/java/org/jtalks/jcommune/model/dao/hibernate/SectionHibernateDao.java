@@ -14,19 +14,18 @@
  */
 package org.jtalks.jcommune.model.dao.hibernate;
 
-import org.hibernate.Query;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Order;
 import org.jtalks.common.model.dao.hibernate.GenericDao;
 import org.jtalks.common.model.entity.Branch;
-import org.jtalks.common.model.entity.Entity;
-import org.jtalks.common.model.entity.Group;
 import org.jtalks.common.model.entity.Section;
 import org.jtalks.jcommune.model.dao.SectionDao;
+import org.jtalks.jcommune.model.dao.VisibleBranchesIndex;
 import org.jtalks.jcommune.model.entity.JCUser;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Hibernate DAO implementation from the {@link Section}.
@@ -36,11 +35,15 @@ import java.util.List;
 public class SectionHibernateDao extends GenericDao<Section> implements SectionDao {
 
 
+    private final VisibleBranchesIndex visibleBranchesIndex;
+
     /**
-     * @param sessionFactory The SessionFactory.
+     * @param sessionFactory       The SessionFactory.
+     * @param visibleBranchesIndex to get branches visible to a user
      */
-    public SectionHibernateDao(SessionFactory sessionFactory) {
+    public SectionHibernateDao(SessionFactory sessionFactory, VisibleBranchesIndex visibleBranchesIndex) {
         super(sessionFactory, Section.class);
+        this.visibleBranchesIndex = visibleBranchesIndex;
     }
 
     /**
@@ -61,64 +64,14 @@ public class SectionHibernateDao extends GenericDao<Section> implements SectionD
      */
     @Override
     public Long getCountAvailableBranches(JCUser user, List<Branch> branches) {
-        if (branches.isEmpty()) {
-            return 0L;
-        }
-        List<Long> branchIds = getEntityIdsLongs(new ArrayList<Entity>(branches));
-        if (!user.isAnonymous()) {
-            return countVisibleBranchesForLoggedIn(user, branchIds);
-        }
-        Query query = session().getNamedQuery("getCountAvailableBranchesForAnonymousUser");
-        query.setParameterList("branchIds", branchIds);
-        return (Long) query.uniqueResult();
-    }
-
-    /**
-     * Get count visible branches, from branch ids, for logged user
-     *
-     * @param user      user
-     * @param branchIds branch ids
-     * @return count visible branches
-     */
-    private Long countVisibleBranchesForLoggedIn(JCUser user, List<Long> branchIds) {
-        List<Group> groups = user.getGroups();
-        if (groups.isEmpty()) {
-            return 0L;
+        Set<Long> visibleBranchIds = visibleBranchesIndex.getVisibleBranchIds(user);
+        long count = 0;
+        for (Branch branch : branches) {
+            if (visibleBranchIds.contains(branch.getId())) {
+                count++;
+            }
         }
-        List<String> groupIds = new ArrayList(getEntityIdsStrings(new ArrayList<Entity>(groups)));
-
-        Query query = session().getNamedQuery("getCountAvailableBranchesByGroupsIds");
-        query.setParameterList("groupIds", groupIds);
-        query.setParameterList("branchIds", branchIds);
-        return (Long) query.uniqueResult();
-    }
-
-    /**
-     * Return entity ids from list entities as strings
-     *
-     * @param entities entities
-     * @return id's entities
-     */
-    private List<String> getEntityIdsStrings(List<Entity> entities) {
-        List<String> ids = new ArrayList<String>();
-        for (Entity e : entities) {
-            ids.add(e.getId() + "");
-        }
-        return ids;
-    }
-
-    /**
-     * Return entity id's from list entities as long numbers
-     *
-     * @param entities entities
-     * @return id's entities
-     */
-    private List<Long> getEntityIdsLongs(List<Entity> entities) {
-        List<Long> ids = new ArrayList<Long>();
-        for (Entity e : entities) {
-            ids.add(e.getId());
-        }
-        return ids;
+        return count;
     }
 
     /**
@@ -127,10 +80,13 @@ public class SectionHibernateDao extends GenericDao<Section> implements SectionD
     @Override
     @SuppressWarnings("unchecked")
     public List<Section> getAllAvailableForMoveTopicSections(JCUser user, long topicId){
-        List<String> groupIds = new ArrayList(getEntityIdsStrings(new ArrayList<Entity>(user.getGroups())));
+        Set<Long> branchIds = visibleBranchesIndex.getVisibleBranchIds(user);
+        if (branchIds.isEmpty()) {
+            return new ArrayList<Section>();
+        }
         List<Section> sections = session()
                 .getNamedQuery("getAllAvailableForMoveTopicSections")
-                .setParameterList("groupIds", groupIds)
+                .setParameterList("branchIds", branchIds)
                 .setParameter("topicId", topicId)
                 .list();
         return sections;
@@ -15,17 +15,21 @@
 package org.jtalks.jcommune.model.dao.hibernate;
 
 
+import org.hibernate.Cache;
 import org.hibernate.Query;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Property;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.jdbc.Work;
 import org.joda.time.DateTime;
 import org.jtalks.common.model.dao.hibernate.GenericDao;
 import org.jtalks.common.model.entity.Branch;
-import org.jtalks.common.model.entity.Group;
 import org.jtalks.jcommune.model.dao.TopicDao;
+import org.jtalks.jcommune.model.dao.TopicModificationTimesIndex;
+import org.jtalks.jcommune.model.dao.VisibleBranchesIndex;
 import org.jtalks.jcommune.model.dto.JCommunePageRequest;
 import org.jtalks.jcommune.model.entity.JCUser;
 import org.jtalks.jcommune.model.entity.SubscriptionAwareEntity;
@@ -33,6 +37,10 @@ import org.jtalks.jcommune.model.entity.Topic;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 
+import javax.transaction.Synchronization;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.*;
 
 /**
@@ -47,90 +55,79 @@ import java.util.*;
 public class TopicHibernateDao extends GenericDao<Topic> implements TopicDao {
     private static final String BRANCH = "branch";
     private static final String MAX_MOD_DATE = "maxModDate";
-    private static final String GROUP_IDS = "groupIds";
+    private static final String BRANCH_IDS = "branchIds";
     private static final String UNCHECKED = "unchecked";
+    private static final String ADD_VIEWS = "UPDATE TOPIC SET VIEWS = VIEWS + ? WHERE TOPIC_ID = ?";
+
+    private final VisibleBranchesIndex visibleBranchesIndex;
+    private final TopicModificationTimesIndex topicModificationTimesIndex;
 
     /**
-     * @param sessionFactory The SessionFactory.
+     * @param sessionFactory              The SessionFactory.
+     * @param visibleBranchesIndex        to get branches visible to a user
+     * @param topicModificationTimesIndex to put modification times of saved topics into
      */
-    public TopicHibernateDao(SessionFactory sessionFactory) {
+    public TopicHibernateDao(SessionFactory sessionFactory, VisibleBranchesIndex visibleBranchesIndex,
+                             TopicModificationTimesIndex topicModificationTimesIndex) {
         super(sessionFactory, Topic.class);
+        this.visibleBranchesIndex = visibleBranchesIndex;
+        this.topicModificationTimesIndex = topicModificationTimesIndex;
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Modification time of the topic is put into {@link TopicModificationTimesIndex}, as the topic
+     * may be created, answered or moved to another branch.
      */
     @Override
-    public Page<Topic> getTopicsUpdatedSince(DateTime timeStamp, JCommunePageRequest pageRequest, JCUser user) {
-        if (!user.isAnonymous()) {
-            return getRecentTopicsByGroupIds(getGroupIds(user), timeStamp, pageRequest);
+    public void saveOrUpdate(Topic topic) {
+        super.saveOrUpdate(topic);
+        if (topic.getBranch() != null && topic.getModificationDate() != null) {
+            topicModificationTimesIndex.topicModified(topic.getBranch().getId(), topic.getModificationDate());
         }
-        return getRecentTopicsForAnonymousUser(timeStamp, pageRequest);
     }
 
-
     /**
      * {@inheritDoc}
      */
     @Override
-    public Page<Topic> getUnansweredTopics(JCommunePageRequest pageRequest, JCUser user) {
-        if (!user.isAnonymous()) {
-            return getUnansweredTopicsByGroupIds(getGroupIds(user), pageRequest);
+    public Page<Topic> getTopicsUpdatedSince(DateTime timeStamp, JCommunePageRequest pageRequest, JCUser user) {
+        Set<Long> branchIds = visibleBranchesIndex.getVisibleBranchIds(user);
+        if (branchIds.isEmpty()) {
+            return new PageImpl<Topic>(new ArrayList<Topic>(), pageRequest, 0);
         }
-        return getUnansweredTopicsForAnonymousUser(pageRequest);
-    }
+        Query query = session().getNamedQuery("getCountRecentTopicsInBranches");
+        query.setParameter(MAX_MOD_DATE, timeStamp);
+        query.setParameterList(BRANCH_IDS, branchIds);
+        Number totalCount = (Number) query.uniqueResult();
+        pageRequest.adjustPageNumber(totalCount.intValue());
 
-    /**
-     * Return group ids for select branches with VIEW_TOPICS permission
-     *
-     * @param user current user
-     * @return group ids
-     */
-    private List<String> getGroupIds(JCUser user) {
-        List<Group> groups = user.getGroups();
-        List<String> groupIds = new ArrayList<String>();
-        for (Group g : groups) {
-            groupIds.add(g.getId() + "");
-        }
-        return groupIds;
+        query = session().getNamedQuery("getRecentTopicsInBranches");
+        query.setParameter(MAX_MOD_DATE, timeStamp);
+        query.setParameterList(BRANCH_IDS, branchIds);
+        query.setFirstResult(pageRequest.getOffset()).setMaxResults(pageRequest.getPageSize());
+        @SuppressWarnings(UNCHECKED)
+        List<Topic> recentTopics = (List<Topic>) query.list();
+        return new PageImpl<Topic>(recentTopics, pageRequest, totalCount.intValue());
     }
 
     /**
-     * Return unanswered topics with VIEW_TOPICS permission by group ids
-     *
-     * @param groupIds    group ids
-     * @param pageRequest ontains information for pagination: page number, page size
-     * @return unanswered topics
+     * {@inheritDoc}
      */
-    private PageImpl<Topic> getUnansweredTopicsByGroupIds(List<String> groupIds, JCommunePageRequest pageRequest) {
-        if (!groupIds.isEmpty()) {
-            Query query = session().getNamedQuery("getCountUnansweredTopicsByGroups");
-            query.setParameterList(GROUP_IDS, groupIds);
-            Number totalCount = (Number) query.uniqueResult();
-            pageRequest.adjustPageNumber(totalCount.intValue());
-
-            query = session().getNamedQuery("getUnansweredTopicsByGroups");
-            query.setParameterList(GROUP_IDS, groupIds);
-            query.setFirstResult(pageRequest.getOffset()).setMaxResults(pageRequest.getPageSize());
-            @SuppressWarnings(UNCHECKED)
-            List<Topic> unansweredTopics = (List<Topic>) query.list();
-            return new PageImpl<Topic>(unansweredTopics, pageRequest, totalCount.intValue());
+    @Override
+    public Page<Topic> getUnansweredTopics(JCommunePageRequest pageRequest, JCUser user) {
+        Set<Long> branchIds = visibleBranchesIndex.getVisibleBranchIds(user);
+        if (branchIds.isEmpty()) {
+            return new PageImpl<Topic>(new ArrayList<Topic>(), pageRequest, 0);
         }
-        return new PageImpl<Topic>(new ArrayList<Topic>(), pageRequest, 0);
-    }
-
-    /**
-     * Return unanswered topics with VIEW_TOPICS permission for anonymous user
-     *
-     * @param pageRequest ontains information for pagination: page number, page size
-     * @return unanswered topics
-     */
-    private PageImpl<Topic> getUnansweredTopicsForAnonymousUser(JCommunePageRequest pageRequest) {
-        Query query = session().getNamedQuery("getCountUnansweredTopicsForAnonymousUser");
+        Query query = session().getNamedQuery("getCountUnansweredTopicsInBranches");
+        query.setParameterList(BRANCH_IDS, branchIds);
         Number totalCount = (Number) query.uniqueResult();
         pageRequest.adjustPageNumber(totalCount.intValue());
 
-        query = session().getNamedQuery("getUnansweredTopicsForAnonymousUser");
+        query = session().getNamedQuery("getUnansweredTopicsInBranches");
+        query.setParameterList(BRANCH_IDS, branchIds);
         query.setFirstResult(pageRequest.getOffset()).setMaxResults(pageRequest.getPageSize());
         @SuppressWarnings(UNCHECKED)
         List<Topic> unansweredTopics = (List<Topic>) query.list();
@@ -138,52 +135,45 @@ public class TopicHibernateDao extends GenericDao<Topic> implements TopicDao {
     }
 
     /**
-     * Return recent topics with VIEW_TOPICS permission by group ids
-     *
-     * @param groupIds    group ids
-     * @param timeStamp   user's last login date and time
-     * @param pageRequest ontains information for pagination: page number, page size
-     * @return recent topics
+     * {@inheritDoc}
+     * <p/>
+     * Unread topics aren't counted, as it would check read state of all the topics modified
+     * since the user marked forum as read. Instead one topic more than the page size is
+     * selected, so total count is known only up to the next page: it's the number of topics
+     * on the previous pages plus the selected ones.
      */
-    private PageImpl<Topic> getRecentTopicsByGroupIds(List<String> groupIds, DateTime timeStamp,
-                                                      JCommunePageRequest pageRequest) {
-        if (!groupIds.isEmpty()) {
-            Query query = session().getNamedQuery("getCountRecentTopicsByGroups");
-            query.setParameter(MAX_MOD_DATE, timeStamp);
-            query.setParameterList(GROUP_IDS, groupIds);
-            Number totalCount = (Number) query.uniqueResult();
-            pageRequest.adjustPageNumber(totalCount.intValue());
-
-            query = session().getNamedQuery("getRecentTopicsByGroups");
-            query.setParameter(MAX_MOD_DATE, timeStamp);
-            query.setParameterList(GROUP_IDS, groupIds);
-            query.setFirstResult(pageRequest.getOffset()).setMaxResults(pageRequest.getPageSize());
-            @SuppressWarnings(UNCHECKED)
-            List<Topic> recentTopics = (List<Topic>) query.list();
-            return new PageImpl<Topic>(recentTopics, pageRequest, totalCount.intValue());
+    @Override
+    public Page<Topic> getUnreadTopics(JCommunePageRequest pageRequest, JCUser user) {
+        Set<Long> branchIds = visibleBranchesIndex.getVisibleBranchIds(user);
+        if (branchIds.isEmpty()) {
+            return new PageImpl<Topic>(new ArrayList<Topic>(), pageRequest, 0);
+        }
+        Query query = setUnreadTopicsParameters(session().getNamedQuery("getUnreadTopicsInBranches"), user, branchIds);
+        query.setFirstResult(pageRequest.getOffset()).setMaxResults(pageRequest.getPageSize() + 1);
+        @SuppressWarnings(UNCHECKED)
+        List<Topic> unreadTopics = (List<Topic>) query.list();
+        int knownCount = pageRequest.getOffset() + unreadTopics.size();
+        if (unreadTopics.size() > pageRequest.getPageSize()) {
+            unreadTopics = new ArrayList<Topic>(unreadTopics.subList(0, pageRequest.getPageSize()));
         }
-        return new PageImpl<Topic>(new ArrayList<Topic>(), pageRequest, 0);
+        return new PageImpl<Topic>(unreadTopics, pageRequest, knownCount);
     }
 
     /**
-     * Return recent topics with VIEW_TOPICS permission for anonymous user
+     * Sets parameters of queries for unread topics.
      *
-     * @param timeStamp   user's last login date and time
-     * @param pageRequest ontains information for pagination: page number, page size
-     * @return recent topics
+     * @param query     query for unread topics
+     * @param user      the user to find unread topics for
+     * @param branchIds identifiers of branches visible to the user
+     * @return the same query
      */
-    private PageImpl<Topic> getRecentTopicsForAnonymousUser(DateTime timeStamp, JCommunePageRequest pageRequest) {
-        Query query = session().getNamedQuery("getCountRecentTopicsForAnonymousUser");
-        query.setParameter(MAX_MOD_DATE, timeStamp);
-        Number totalCount = (Number) query.uniqueResult();
-        pageRequest.adjustPageNumber(totalCount.intValue());
-
-        query = session().getNamedQuery("getRecentTopicsForAnonymousUser");
-        query.setParameter(MAX_MOD_DATE, timeStamp);
-        query.setFirstResult(pageRequest.getOffset()).setMaxResults(pageRequest.getPageSize());
-        @SuppressWarnings(UNCHECKED)
-        List<Topic> recentTopics = (List<Topic>) query.list();
-        return new PageImpl<Topic>(recentTopics, pageRequest, totalCount.intValue());
+    private Query setUnreadTopicsParameters(Query query, JCUser user, Set<Long> branchIds) {
+        DateTime forumMarkedAsReadTime = user.getAllForumMarkedAsReadTime();
+        return query
+                .setParameter("user", user)
+                .setParameter("forumMarkedAsReadTime",
+                        forumMarkedAsReadTime == null ? new DateTime(0) : forumMarkedAsReadTime)
+                .setParameterList(BRANCH_IDS, branchIds);
     }
 
     /**
@@ -210,22 +200,50 @@ public class TopicHibernateDao extends GenericDao<Topic> implements TopicDao {
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Total count of topics is taken from the count stored in the branch, so it isn't queried.
      */
     @Override
     public Page<Topic> getTopics(Branch branch, JCommunePageRequest pageRequest) {
-        int totalCount = countTopics(branch);
+        int totalCount = branch.getTopicCount();
         Query query = session().getNamedQuery("getTopicsInBranch")
                 .setParameter(BRANCH, branch);
         if (pageRequest.isPagingEnabled()) {
             pageRequest.adjustPageNumber(totalCount);
-            query = query.setFirstResult(pageRequest.getOffset())
-                    .setMaxResults(pageRequest.getPageSize());
+            Topic lastSeenTopic = getLastSeenTopic(branch, pageRequest);
+            if (lastSeenTopic != null) {
+                query = session().getNamedQuery("getTopicsInBranchAfter")
+                        .setParameter(BRANCH, branch)
+                        .setParameter("sticked", lastSeenTopic.isSticked())
+                        .setParameter("modificationDate", lastSeenTopic.getModificationDate())
+                        .setParameter("id", lastSeenTopic.getId());
+            } else {
+                query = query.setFirstResult(pageRequest.getOffset());
+            }
+            query = query.setMaxResults(pageRequest.getPageSize());
         }
         @SuppressWarnings(UNCHECKED)
         List<Topic> topics = (List<Topic>) query.list();
         return new PageImpl<Topic>(topics, pageRequest, totalCount);
     }
 
+    /**
+     * Gets the last topic of the previous page if keyset pagination is possible for the request.
+     *
+     * @param branch      branch the page is requested for
+     * @param pageRequest contains information for pagination
+     * @return the last topic of the previous page or <code>null</code> if offset pagination should be used
+     */
+    private Topic getLastSeenTopic(Branch branch, JCommunePageRequest pageRequest) {
+        if (pageRequest.isSeekEnabled()) {
+            Topic topic = (Topic) session().get(Topic.class, pageRequest.getLastSeenId());
+            if (topic != null && topic.getBranch().getId() == branch.getId()) {
+                return topic;
+            }
+        }
+        return null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -238,6 +256,47 @@ public class TopicHibernateDao extends GenericDao<Topic> implements TopicDao {
         return count.intValue();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addViews(final Map<Long, Integer> views) {
+        if (views.isEmpty()) {
+            return;
+        }
+        Session session = session();
+        session.doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement statement = connection.prepareStatement(ADD_VIEWS);
+                try {
+                    for (Map.Entry<Long, Integer> topicViews : views.entrySet()) {
+                        statement.setInt(1, topicViews.getValue());
+                        statement.setLong(2, topicViews.getKey());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                } finally {
+                    statement.close();
+                }
+            }
+        });
+        // evicted after completion, otherwise a concurrent reader could cache not yet committed views again
+        final Cache cache = session.getSessionFactory().getCache();
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                for (Long topicId : views.keySet()) {
+                    cache.evictEntity(Topic.class, topicId);
+                }
+            }
+        });
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao.hibernate;
+
+import org.hibernate.SessionFactory;
+import org.joda.time.DateTime;
+import org.jtalks.jcommune.model.dao.TopicModificationTimesIndex;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Implementation of {@link TopicModificationTimesIndex} loaded with Hibernate by one query which
+ * groups topics by branches.
+ * <p/>
+ * Topics saved after the index is loaded are put into it at once. Changes made while the index is
+ * being loaded may be not committed yet and thus missed by the query, so they are carried over into
+ * the newly loaded index. Index is reloaded when it gets older than configured age or after
+ * {@link #invalidate()} is called. Only one thread reloads the index, the others keep using the
+ * previous one meanwhile.
+ */
+public class TopicModificationTimesHibernateIndex implements TopicModificationTimesIndex {
+    private final SessionFactory sessionFactory;
+    private final long maxAgeMillis;
+    private final AtomicLong generation = new AtomicLong();
+    private final Lock loadLock = new ReentrantLock();
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param sessionFactory Hibernate SessionFactory to load modification times with
+     * @param maxAgeMillis   time in milliseconds after which index is reloaded even if it wasn't invalidated
+     */
+    public TopicModificationTimesHibernateIndex(SessionFactory sessionFactory, long maxAgeMillis) {
+        this.sessionFactory = sessionFactory;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Long, DateTime> getLastModificationTimes() {
+        return Collections.unmodifiableMap(getSnapshot().times);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void topicModified(long branchId, DateTime modificationTime) {
+        // if index isn't loaded yet, it will be loaded with the topic
+        Snapshot current = snapshot;
+        while (current != null) {
+            current.modified(branchId, modificationTime);
+            // the index may be replaced by the reloaded one meanwhile, then the change is put into it as well
+            Snapshot actual = snapshot;
+            if (actual == current) {
+                return;
+            }
+            current = actual;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Returns actual index, loads it from the database if current one is invalidated or expired.
+     * Index is loaded by one thread at a time, while it's reloaded other threads get the previous
+     * one, they wait only for the very first load.
+     *
+     * @return actual index
+     */
+    private Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (!isOutdated(current, generation.get())) {
+            return current;
+        }
+        if (current == null) {
+            loadLock.lock();
+        } else if (!loadLock.tryLock()) {
+            return current;
+        }
+        try {
+            // index may be already reloaded by the thread which held the lock
+            current = snapshot;
+            long currentGeneration = generation.get();
+            if (isOutdated(current, currentGeneration)) {
+                // if index is invalidated while loading, generation won't match and it will be reloaded by next request
+                current = load(currentGeneration, current);
+                snapshot = current;
+            }
+            return current;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * @param current           current index, may be <code>null</code> if it isn't loaded yet
+     * @param currentGeneration actual generation of the index
+     * @return <code>true</code> if index must be loaded as it's not loaded yet, invalidated or expired
+     */
+    private boolean isOutdated(Snapshot current, long currentGeneration) {
+        return current == null || current.generation != currentGeneration
+                || System.currentTimeMillis() - current.creationTime > maxAgeMillis;
+    }
+
+    /**
+     * Loads the last modification times of topics in every branch.
+     *
+     * @param snapshotGeneration generation of the index being loaded
+     * @param previous           index being replaced, <code>null</code> if it isn't loaded yet
+     * @return index built from the modification times
+     */
+    private Snapshot load(long snapshotGeneration, Snapshot previous) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> modificationTimes = sessionFactory.getCurrentSession()
+                .getNamedQuery("getLastTopicModificationTimesOfBranches")
+                .list();
+        Snapshot loaded = new Snapshot(snapshotGeneration);
+        for (Object[] modificationTime : modificationTimes) {
+            loaded.times.put((Long) modificationTime[0], (DateTime) modificationTime[1]);
+        }
+        if (previous != null) {
+            for (Map.Entry<Long, DateTime> change : previous.changes.entrySet()) {
+                putLatest(loaded.times, change.getKey(), change.getValue());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Puts the time into the map unless the map already has the same or a later one for the branch.
+     *
+     * @param times    modification times by branch ids
+     * @param branchId id of the branch
+     * @param time     modification time of a topic in the branch
+     */
+    private static void putLatest(ConcurrentMap<Long, DateTime> times, Long branchId, DateTime time) {
+        while (true) {
+            DateTime current = times.get(branchId);
+            if (current == null) {
+                if (times.putIfAbsent(branchId, time) == null) {
+                    return;
+                }
+            } else if (!current.isBefore(time) || times.replace(branchId, current, time)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * State of the index, immutable except for topics modified since it's loaded.
+     */
+    private static final class Snapshot {
+        private final long generation;
+        private final long creationTime = System.currentTimeMillis();
+        private final ConcurrentMap<Long, DateTime> times = new ConcurrentHashMap<Long, DateTime>();
+        /** Topics modified since the index is loaded, they are carried over into the reloaded index */
+        private final ConcurrentMap<Long, DateTime> changes = new ConcurrentHashMap<Long, DateTime>();
+
+        /**
+         * @param generation generation of the index this state belongs to
+         */
+        private Snapshot(long generation) {
+            this.generation = generation;
+        }
+
+        /**
+         * @param branchId         id of the branch the topic is in
+         * @param modificationTime modification time of the topic
+         */
+        private void modified(Long branchId, DateTime modificationTime) {
+            putLatest(changes, branchId, modificationTime);
+            putLatest(times, branchId, modificationTime);
+        }
+    }
+}
@@ -15,7 +15,6 @@
 package org.jtalks.jcommune.model.dao.hibernate;
 
 import org.hibernate.SessionFactory;
-import org.hibernate.criterion.Property;
 import org.hibernate.criterion.Restrictions;
 import org.jtalks.common.model.dao.hibernate.GenericDao;
 import org.jtalks.common.model.entity.User;
@@ -23,6 +22,7 @@ import org.jtalks.jcommune.model.dao.UserDao;
 import org.jtalks.jcommune.model.entity.JCUser;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -129,15 +129,17 @@ public class UserHibernateDao extends GenericDao<JCUser>
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("unchecked")
     @Override
-    public List<JCUser> getUsernames(String pattern, int count){
-        return session()
-                .createCriteria(JCUser.class)
-                .add(Restrictions.like("username", "%" + pattern + "%").ignoreCase())
-                .add(Restrictions.eq("enabled", true))
-                .setMaxResults(count)
-                .addOrder(Property.forName("username").asc())
+    public List<JCUser> getByUsernamesIgnoringCase(Set<String> usernames) {
+        Set<String> lowerCaseUsernames = new HashSet<String>();
+        for (String username : usernames) {
+            lowerCaseUsernames.add(username.toLowerCase());
+        }
+        @SuppressWarnings("unchecked")
+        List<JCUser> foundUsers = (List<JCUser>) session()
+                .getNamedQuery("getByUsernamesIgnoringCase")
+                .setParameterList("usernames", lowerCaseUsernames)
                 .list();
+        return foundUsers;
     }
 }
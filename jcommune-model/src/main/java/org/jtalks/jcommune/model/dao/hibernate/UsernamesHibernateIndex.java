@@ -0,0 +1,352 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao.hibernate;
+
+import org.hibernate.SessionFactory;
+import org.jtalks.jcommune.model.dao.UsernamesIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Implementation of {@link UsernamesIndex} built from usernames of enabled users loaded with Hibernate.
+ * Usernames are kept sorted and case folded, every n-gram of up to {@link #MAX_GRAM_LENGTH} characters
+ * maps to the sorted positions of usernames containing it. A pattern is looked up by the rarest n-gram of
+ * it, so usernames are checked only if they can contain the pattern, and the first found ones are already
+ * in the order of usernames.
+ * <p/>
+ * Usernames added and removed after the index is loaded are kept aside and merged into results, the index
+ * is rebuilt lazily when there are too many of them or after {@link #invalidate()} is called. As users are
+ * also changed by other nodes of the cluster and by the administration application sharing the database,
+ * index is rebuilt when it gets older than configured age as well. Only one thread rebuilds the index,
+ * the others keep using the previous one meanwhile.
+ */
+public class UsernamesHibernateIndex implements UsernamesIndex {
+    /** Longest indexed n-grams, patterns are looked up by n-grams of their length up to this one */
+    static final int MAX_GRAM_LENGTH = 3;
+    /** Number of usernames added and removed since the index is loaded after which it's rebuilt */
+    static final int MAX_PENDING_CHANGES = 1000;
+    /** Usernames are ordered case insensitively, equal ones by their case */
+    private static final Comparator<String> USERNAME_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String first, String second) {
+            int result = fold(first).compareTo(fold(second));
+            return result != 0 ? result : first.compareTo(second);
+        }
+    };
+
+    private final SessionFactory sessionFactory;
+    private final long maxAgeMillis;
+    private final AtomicLong generation = new AtomicLong();
+    private final Lock loadLock = new ReentrantLock();
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param sessionFactory Hibernate SessionFactory to load usernames with
+     * @param maxAgeMillis   time in milliseconds after which index is rebuilt even if it wasn't invalidated
+     */
+    public UsernamesHibernateIndex(SessionFactory sessionFactory, long maxAgeMillis) {
+        this.sessionFactory = sessionFactory;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> getUsernames(String pattern, int count) {
+        Snapshot current = getSnapshot();
+        String foldedPattern = fold(pattern);
+        List<String> found = current.find(foldedPattern, count);
+        List<String> added = current.findAdded(foldedPattern, count);
+        if (added.isEmpty()) {
+            return found;
+        }
+        List<String> merged = new ArrayList<String>(found);
+        merged.addAll(added);
+        Collections.sort(merged, USERNAME_ORDER);
+        return merged.size() > count ? new ArrayList<String>(merged.subList(0, count)) : merged;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void add(String username) {
+        Snapshot current = snapshot;
+        // if index isn't loaded yet, it will be loaded with the user
+        if (current != null) {
+            current.removed.remove(username);
+            if (!current.contains(username)) {
+                current.added.add(username);
+            }
+            countChange(current);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove(String username) {
+        Snapshot current = snapshot;
+        if (current != null) {
+            current.added.remove(username);
+            if (current.contains(username)) {
+                current.removed.add(username);
+            }
+            countChange(current);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Invalidates the index if it has too many changes since it was loaded.
+     *
+     * @param current index the change is made in
+     */
+    private void countChange(Snapshot current) {
+        if (current.changes.incrementAndGet() > MAX_PENDING_CHANGES) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Returns actual index, loads it from the database if current one is invalidated or expired.
+     * Index is loaded by one thread at a time, while it's reloaded other threads get the previous
+     * one, they wait only for the very first load.
+     *
+     * @return actual index
+     */
+    private Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (!isOutdated(current, generation.get())) {
+            return current;
+        }
+        if (current == null) {
+            loadLock.lock();
+        } else if (!loadLock.tryLock()) {
+            return current;
+        }
+        try {
+            // index may be already reloaded by the thread which held the lock
+            current = snapshot;
+            long currentGeneration = generation.get();
+            if (isOutdated(current, currentGeneration)) {
+                // if index is invalidated while loading, generation won't match and it will be reloaded by next request
+                current = load(currentGeneration);
+                snapshot = current;
+            }
+            return current;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * @param current           current index, may be <code>null</code> if it isn't loaded yet
+     * @param currentGeneration actual generation of the index
+     * @return <code>true</code> if index must be loaded as it's not loaded yet, invalidated or expired
+     */
+    private boolean isOutdated(Snapshot current, long currentGeneration) {
+        return current == null || current.generation != currentGeneration
+                || System.currentTimeMillis() - current.creationTime > maxAgeMillis;
+    }
+
+    /**
+     * Loads usernames of all the enabled users.
+     *
+     * @param snapshotGeneration generation of the index being loaded
+     * @return index built from the usernames
+     */
+    private Snapshot load(long snapshotGeneration) {
+        @SuppressWarnings("unchecked")
+        List<String> usernames = sessionFactory.getCurrentSession()
+                .getNamedQuery("getEnabledUsernames")
+                .list();
+        return new Snapshot(snapshotGeneration, usernames);
+    }
+
+    /**
+     * @param text the text
+     * @return the text in the case usernames are compared in
+     */
+    private static String fold(String text) {
+        return text.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * State of the index, immutable except for changes made since it's loaded.
+     */
+    private static final class Snapshot {
+        private final long generation;
+        private final long creationTime = System.currentTimeMillis();
+        private final String[] usernames;
+        private final String[] foldedUsernames;
+        private final Map<String, int[]> positionsByGram = new HashMap<String, int[]>();
+        private final NavigableSet<String> added = new ConcurrentSkipListSet<String>(USERNAME_ORDER);
+        private final Set<String> removed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final AtomicInteger changes = new AtomicInteger();
+
+        /**
+         * @param generation generation of the index this state belongs to
+         * @param loadedUsernames usernames of enabled users
+         */
+        private Snapshot(long generation, List<String> loadedUsernames) {
+            this.generation = generation;
+            usernames = loadedUsernames.toArray(new String[loadedUsernames.size()]);
+            Arrays.sort(usernames, USERNAME_ORDER);
+            foldedUsernames = new String[usernames.length];
+            Map<String, PositionsBuilder> builders = new HashMap<String, PositionsBuilder>();
+            for (int position = 0; position < usernames.length; position++) {
+                String folded = fold(usernames[position]);
+                foldedUsernames[position] = folded;
+                for (int length = 1; length <= MAX_GRAM_LENGTH; length++) {
+                    for (int start = 0; start + length <= folded.length(); start++) {
+                        String gram = folded.substring(start, start + length);
+                        PositionsBuilder builder = builders.get(gram);
+                        if (builder == null) {
+                            builder = new PositionsBuilder();
+                            builders.put(gram, builder);
+                        }
+                        builder.add(position);
+                    }
+                }
+            }
+            for (Map.Entry<String, PositionsBuilder> entry : builders.entrySet()) {
+                positionsByGram.put(entry.getKey(), entry.getValue().build());
+            }
+        }
+
+        /**
+         * @param username the username
+         * @return <code>true</code> if the username was loaded into the index
+         */
+        private boolean contains(String username) {
+            return Arrays.binarySearch(usernames, username, USERNAME_ORDER) >= 0;
+        }
+
+        /**
+         * Finds loaded usernames which contain the pattern and weren't removed since.
+         *
+         * @param foldedPattern the case folded pattern
+         * @param count maximum number of usernames
+         * @return found usernames in their order
+         */
+        private List<String> find(String foldedPattern, int count) {
+            List<String> found = new ArrayList<String>(count);
+            int[] candidates = getCandidates(foldedPattern);
+            int candidatesCount = candidates == null ? usernames.length : candidates.length;
+            for (int i = 0; i < candidatesCount && found.size() < count; i++) {
+                int position = candidates == null ? i : candidates[i];
+                if (foldedUsernames[position].contains(foldedPattern) && !removed.contains(usernames[position])) {
+                    found.add(usernames[position]);
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Gets positions of usernames which may contain the pattern, they are the positions of
+         * the rarest n-gram of the pattern.
+         *
+         * @param foldedPattern the case folded pattern
+         * @return sorted positions or <code>null</code> if all the usernames are candidates
+         */
+        private int[] getCandidates(String foldedPattern) {
+            int length = Math.min(foldedPattern.length(), MAX_GRAM_LENGTH);
+            int[] candidates = null;
+            for (int start = 0; length > 0 && start + length <= foldedPattern.length(); start++) {
+                int[] positions = positionsByGram.get(foldedPattern.substring(start, start + length));
+                if (positions == null) {
+                    return new int[0];
+                }
+                if (candidates == null || positions.length < candidates.length) {
+                    candidates = positions;
+                }
+            }
+            return candidates;
+        }
+
+        /**
+         * Finds usernames added since the index is loaded which contain the pattern.
+         *
+         * @param foldedPattern the case folded pattern
+         * @param count maximum number of usernames
+         * @return found usernames in their order
+         */
+        private List<String> findAdded(String foldedPattern, int count) {
+            List<String> found = new ArrayList<String>();
+            Iterator<String> iterator = added.iterator();
+            while (iterator.hasNext() && found.size() < count) {
+                String username = iterator.next();
+                if (fold(username).contains(foldedPattern)) {
+                    found.add(username);
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * Collects ascending positions of usernames containing an n-gram, each position once.
+     */
+    private static final class PositionsBuilder {
+        private int[] positions = new int[4];
+        private int size;
+
+        /**
+         * @param position position of the username, not less than the last added one
+         */
+        private void add(int position) {
+            if (size > 0 && positions[size - 1] == position) {
+                return;
+            }
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        /**
+         * @return collected positions
+         */
+        private int[] build() {
+            return Arrays.copyOf(positions, size);
+        }
+    }
+}
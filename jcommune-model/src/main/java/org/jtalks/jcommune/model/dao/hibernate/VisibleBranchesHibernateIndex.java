@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao.hibernate;
+
+import org.hibernate.SessionFactory;
+import org.jtalks.common.model.entity.Group;
+import org.jtalks.jcommune.model.dao.VisibleBranchesIndex;
+import org.jtalks.jcommune.model.entity.JCUser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementation of {@link VisibleBranchesIndex} built from VIEW_TOPICS permissions loaded
+ * with Hibernate. All the permissions are loaded by one query and visible branches are
+ * calculated in memory once per distinct set of groups.
+ * <p/>
+ * Index is rebuilt lazily after {@link #invalidate()} is called. As permissions may also be
+ * changed by the administration application sharing the database, index is rebuilt when
+ * it gets older than configured age as well.
+ */
+public class VisibleBranchesHibernateIndex implements VisibleBranchesIndex {
+    /**
+     * Security identifier used in permissions given to anonymous users
+     */
+    private static final String ANONYMOUS_SID = "anonymousUser";
+
+    private final SessionFactory sessionFactory;
+    private final long maxAgeMillis;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param sessionFactory Hibernate SessionFactory to load permissions with
+     * @param maxAgeMillis   time in milliseconds after which index is rebuilt even if it wasn't invalidated
+     */
+    public VisibleBranchesHibernateIndex(SessionFactory sessionFactory, long maxAgeMillis) {
+        this.sessionFactory = sessionFactory;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Long> getVisibleBranchIds(JCUser user) {
+        Snapshot current = getSnapshot();
+        if (user.isAnonymous()) {
+            return current.getAllowedBranchIds(ANONYMOUS_SID);
+        }
+        Set<String> sids = new HashSet<String>();
+        for (Group group : user.getGroups()) {
+            sids.add(String.valueOf(group.getId()));
+        }
+        return current.getVisibleBranchIds(sids);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Returns actual index, loads it from the database if current one is invalidated or expired.
+     *
+     * @return actual index
+     */
+    private Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        long currentGeneration = generation.get();
+        if (current == null || current.generation != currentGeneration
+                || System.currentTimeMillis() - current.creationTime > maxAgeMillis) {
+            // if index is invalidated while loading, generation won't match and it will be reloaded by next request
+            current = load(currentGeneration);
+            snapshot = current;
+        }
+        return current;
+    }
+
+    /**
+     * Loads all the VIEW_TOPICS permissions of branches.
+     *
+     * @param snapshotGeneration generation of the index being loaded
+     * @return index built from the permissions
+     */
+    private Snapshot load(long snapshotGeneration) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> permissions = sessionFactory.getCurrentSession()
+                .getNamedQuery("getAllViewTopicsPermissions")
+                .list();
+        Snapshot loaded = new Snapshot(snapshotGeneration);
+        for (Object[] permission : permissions) {
+            Long branchId = (Long) permission[0];
+            String sid = (String) permission[1];
+            boolean granting = (Boolean) permission[2];
+            loaded.add(granting ? loaded.allowed : loaded.restricted, sid, branchId);
+        }
+        return loaded;
+    }
+
+    /**
+     * Immutable state of the index, caches visible branches calculated for sets of groups.
+     */
+    private static final class Snapshot {
+        private final long generation;
+        private final long creationTime = System.currentTimeMillis();
+        private final Map<String, Set<Long>> allowed = new HashMap<String, Set<Long>>();
+        private final Map<String, Set<Long>> restricted = new HashMap<String, Set<Long>>();
+        private final ConcurrentMap<Set<String>, Set<Long>> visibleBySids =
+                new ConcurrentHashMap<Set<String>, Set<Long>>();
+
+        /**
+         * @param generation generation of the index this state belongs to
+         */
+        private Snapshot(long generation) {
+            this.generation = generation;
+        }
+
+        /**
+         * Adds permission to the index, used only while index is being loaded.
+         *
+         * @param permissions allowed or restricted permissions
+         * @param sid         security identifier permission is given to
+         * @param branchId    id of the branch permission is given on
+         */
+        private void add(Map<String, Set<Long>> permissions, String sid, Long branchId) {
+            Set<Long> branchIds = permissions.get(sid);
+            if (branchIds == null) {
+                branchIds = new HashSet<Long>();
+                permissions.put(sid, branchIds);
+            }
+            branchIds.add(branchId);
+        }
+
+        /**
+         * @param sid security identifier
+         * @return ids of branches allowed for the sid
+         */
+        private Set<Long> getAllowedBranchIds(String sid) {
+            Set<Long> branchIds = allowed.get(sid);
+            return branchIds == null
+                    ? Collections.<Long>emptySet()
+                    : Collections.unmodifiableSet(branchIds);
+        }
+
+        /**
+         * @param sids security identifiers of user's groups
+         * @return ids of branches allowed for any of sids and not restricted for any of them
+         */
+        private Set<Long> getVisibleBranchIds(Set<String> sids) {
+            Set<Long> visible = visibleBySids.get(sids);
+            if (visible == null) {
+                Set<Long> branchIds = new HashSet<Long>();
+                for (String sid : sids) {
+                    branchIds.addAll(getAllowedBranchIds(sid));
+                }
+                for (String sid : sids) {
+                    Set<Long> restrictedIds = restricted.get(sid);
+                    if (restrictedIds != null) {
+                        branchIds.removeAll(restrictedIds);
+                    }
+                }
+                visible = Collections.unmodifiableSet(branchIds);
+                visibleBySids.putIfAbsent(sids, visible);
+            }
+            return visible;
+        }
+    }
+}
@@ -14,9 +14,12 @@
  */
 package org.jtalks.jcommune.model.dao.search;
 
+import org.jtalks.jcommune.model.dto.IndexRebuildProgress;
 import org.jtalks.jcommune.model.dto.JCommunePageRequest;
+import org.jtalks.jcommune.model.dto.TopicSearchFilter;
+import org.jtalks.jcommune.model.dto.TopicSearchResult;
+import org.jtalks.jcommune.model.entity.JCUser;
 import org.jtalks.jcommune.model.entity.Topic;
-import org.springframework.data.domain.Page;
 
 /**
  * This interface describes the contract of the DAO for full-text search of topics.
@@ -29,19 +32,51 @@ public interface TopicSearchDao {
 
     /**
      * Performs the full-text search by the topic title and
-     * his content(the list of posts).
+     * his content(the list of posts). Each topic is found once however
+     * many of its posts match the search text. Only topics of branches visible to the user
+     * are found and counted. Every found topic comes with the highlighted fragment of its most
+     * relevant post taken from the index, so posts of topics aren't loaded.
+     * <p/>
+     * Only matching posts passing the filter are taken into account. Facets of branches
+     * and authors of found topics are counted by the same search.
      * 
      * @param searchText the search text
+     * @param filter narrows the search down to a branch, an author and a range of creation dates
      * @param pageRequest contains information for pagination: page number, page size
+     * @param user the user who searches
      * @return object that contains search results for one page(note, that one page
-     *         may contain all search results) and information for pagination
+     *         may contain all search results), information for pagination and facets
      */
-    Page<Topic> searchByTitleAndContent(String searchText, JCommunePageRequest pageRequest);
+    TopicSearchResult searchByTitleAndContent(String searchText, TopicSearchFilter filter,
+                                              JCommunePageRequest pageRequest, JCUser user);
 
     /**
      * Indexes the data from the database.
      * This functionality is required either when data exists in the database,
      * but the index doesn't contain this data or the index is re-created.
+     * The rebuild runs in the background, if it's already running, the call is ignored.
      */
     void rebuildIndex();
+
+    /**
+     * @return the progress of the current or the last rebuild of the index
+     */
+    IndexRebuildProgress getIndexRebuildProgress();
+
+    /**
+     * Indexes all the posts of the topic again. Posts are indexed along with the title
+     * and the branch of their topic, so it's needed when the topic is renamed or moved.
+     *
+     * @param topic the topic to reindex posts of
+     */
+    void reindexPosts(Topic topic);
+
+    /**
+     * Waits until the changes of posts made by the author are written to the index, so
+     * the author can find them. Returns at once if changes are written synchronously or
+     * the consistency of the index doesn't require waiting.
+     *
+     * @param author the author of posts
+     */
+    void awaitIndexingOfPostsBy(JCUser author);
 }
@@ -18,6 +18,8 @@ import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.search.FullTextSession;
 import org.hibernate.search.Search;
+import org.hibernate.search.engine.SearchFactoryImplementor;
+import org.hibernate.search.util.ContextHelper;
 
 /**
  * The base class for full-text search.
@@ -50,4 +52,14 @@ public abstract class AbstractHibernateSearchDao {
         Session session = sessionFactory.getCurrentSession();
         return Search.getFullTextSession(session);
     }
+
+    /**
+     * Gets the internal search factory, that provides access to the backend
+     * writing changes to the index.
+     *
+     * @return the search factory of the current session
+     */
+    protected SearchFactoryImplementor getSearchFactoryImplementor() {
+        return ContextHelper.getSearchFactory(sessionFactory.getCurrentSession());
+    }
 }
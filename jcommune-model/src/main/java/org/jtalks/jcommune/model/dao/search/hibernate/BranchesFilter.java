@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao.search.hibernate;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.OpenBitSet;
+import org.jtalks.jcommune.model.entity.Post;
+
+/**
+ * Lucene filter which lets only posts of the given branches through. It's applied
+ * inside the search, so the number of found topics and pages are calculated only
+ * from posts the user can see.
+ */
+class BranchesFilter extends Filter {
+    private static final long serialVersionUID = 3718046226504367852L;
+    private final Set<Long> branchIds;
+
+    /**
+     * @param branchIds identifiers of branches which posts should be found
+     */
+    BranchesFilter(Set<Long> branchIds) {
+        this.branchIds = branchIds;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DocIdSet getDocIdSet(IndexReader reader) throws IOException {
+        OpenBitSet documents = new OpenBitSet(reader.maxDoc());
+        TermDocs termDocs = reader.termDocs();
+        try {
+            for (Long branchId : branchIds) {
+                termDocs.seek(new Term(Post.POST_BRANCH_ID_FIELD, String.valueOf(branchId)));
+                while (termDocs.next()) {
+                    documents.set(termDocs.doc());
+                }
+            }
+        } finally {
+            termDocs.close();
+        }
+        return documents;
+    }
+}
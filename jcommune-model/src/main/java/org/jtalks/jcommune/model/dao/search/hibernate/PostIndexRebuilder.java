@@ -0,0 +1,456 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao.search.hibernate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.search.FullTextSession;
+import org.hibernate.search.Search;
+import org.hibernate.search.SearchException;
+import org.hibernate.search.SearchFactory;
+import org.hibernate.search.backend.BackendQueueProcessorFactory;
+import org.hibernate.search.reader.ReaderProvider;
+import org.hibernate.search.util.ContextHelper;
+import org.jtalks.jcommune.model.dto.IndexRebuildProgress;
+import org.jtalks.jcommune.model.entity.Post;
+import org.jtalks.jcommune.model.search.AsyncIndexingBackend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rebuilds the search index of posts in the background.
+ * <p/>
+ * Identifiers of posts are read in batches in ascending order, batches are loaded and indexed
+ * by several threads, each in its own session. Documents are replaced one by one, so the index
+ * stays complete and searchable during the rebuild; documents of posts which don't exist
+ * anymore are purged at the end.
+ * <p/>
+ * The greatest identifier below which all the posts are indexed is saved to the checkpoint file
+ * after every batch. If the rebuild is interrupted by an error or by the shutdown, it continues
+ * from the checkpoint on the next start. The rebuild is also started on start if the index has
+ * no posts at all.
+ */
+public class PostIndexRebuilder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PostIndexRebuilder.class);
+    /** Field of the index with identifiers of posts */
+    private static final String ID_FIELD = "id";
+    private static final String POST_IDS = "postIds";
+    private static final long WRITE_TIMEOUT = 60000;
+
+    private final SessionFactory sessionFactory;
+    private final File checkpointFile;
+    private final File temporaryCheckpointFile;
+    private final int threads;
+    private final int batchSize;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong indexedPosts = new AtomicLong();
+    private volatile IndexRebuildProgress.State state = IndexRebuildProgress.State.IDLE;
+    private volatile long totalPosts;
+    private volatile long startTime;
+    private volatile long finishTime;
+
+    /**
+     * @param sessionFactory the Hibernate SessionFactory
+     * @param checkpointFile file to save the progress to
+     * @param threads        number of threads loading and indexing posts
+     * @param batchSize      number of posts loaded and indexed at once
+     */
+    public PostIndexRebuilder(SessionFactory sessionFactory, File checkpointFile, int threads, int batchSize) {
+        this.sessionFactory = sessionFactory;
+        this.checkpointFile = checkpointFile;
+        this.temporaryCheckpointFile = new File(checkpointFile.getPath() + ".tmp");
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Continues the rebuild interrupted before the last shutdown, if any. Otherwise starts the
+     * rebuild if the index has no posts while the database has them, e.g. when the forum is
+     * started with a new or deleted index.
+     */
+    public void startIfRequired() {
+        if (checkpointFile.exists() || temporaryCheckpointFile.exists()) {
+            LOGGER.info("Search index rebuild was interrupted, continuing from the checkpoint");
+            start();
+        } else if (isIndexEmpty() && countPostsAfter(0) > 0) {
+            LOGGER.info("Search index has no posts, starting its rebuild");
+            start();
+        }
+    }
+
+    /**
+     * Starts the rebuild in the background. If the previous rebuild failed, continues it.
+     *
+     * @return <code>false</code> if the rebuild is already running
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                rebuild();
+            }
+        }, "search-index-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * @return the progress of the current or the last rebuild
+     */
+    public IndexRebuildProgress getProgress() {
+        IndexRebuildProgress.State currentState = state;
+        long elapsedMillis = 0;
+        if (currentState == IndexRebuildProgress.State.RUNNING) {
+            elapsedMillis = System.currentTimeMillis() - startTime;
+        } else if (currentState != IndexRebuildProgress.State.IDLE) {
+            elapsedMillis = finishTime - startTime;
+        }
+        return new IndexRebuildProgress(currentState, totalPosts, indexedPosts.get(), elapsedMillis);
+    }
+
+    /**
+     * Runs the rebuild in the current thread.
+     */
+    private void rebuild() {
+        try {
+            long checkpoint = readCheckpoint();
+            // written at once, so the rebuild is continued even if it's interrupted before the first batch
+            writeCheckpoint(checkpoint);
+            indexedPosts.set(0);
+            totalPosts = countPostsAfter(checkpoint);
+            startTime = System.currentTimeMillis();
+            state = IndexRebuildProgress.State.RUNNING;
+            LOGGER.info("Search index rebuild is started for {} posts after post {}", totalPosts, checkpoint);
+
+            indexPostsAfter(checkpoint);
+            purgeDeletedPosts();
+            temporaryCheckpointFile.delete();
+            if (!checkpointFile.delete()) {
+                LOGGER.warn("Unable to delete the checkpoint of the search index rebuild {}", checkpointFile);
+            }
+            state = IndexRebuildProgress.State.FINISHED;
+            LOGGER.info("Search index rebuild is finished, {} posts are indexed", indexedPosts.get());
+        } catch (Exception e) {
+            state = IndexRebuildProgress.State.FAILED;
+            LOGGER.error("Search index rebuild failed, it will continue from the checkpoint on the next start", e);
+        } finally {
+            finishTime = System.currentTimeMillis();
+            running.set(false);
+        }
+    }
+
+    /**
+     * Indexes posts by batches in several threads.
+     *
+     * @param checkpoint identifier of the post after which indexing starts
+     * @throws InterruptedException if the rebuild is interrupted
+     * @throws ExecutionException   if indexing of some batch failed
+     */
+    private void indexPostsAfter(long checkpoint) throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // don't read identifiers far ahead of indexing
+        final Semaphore batchesInProgress = new Semaphore(threads * 2);
+        final Checkpoints checkpoints = new Checkpoints(checkpoint);
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        try {
+            List<Long> ids = getPostIdsAfter(checkpoint);
+            while (!ids.isEmpty()) {
+                final List<Long> batch = ids;
+                batchesInProgress.acquire();
+                checkpoints.started(batch);
+                results.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            indexPosts(batch);
+                            writeCheckpoint(checkpoints.finished(batch));
+                        } finally {
+                            batchesInProgress.release();
+                        }
+                    }
+                }));
+                ids = getPostIdsAfter(batch.get(batch.size() - 1));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param lastId identifier of the post after which the batch starts
+     * @return identifiers of the next batch of posts
+     */
+    @SuppressWarnings("unchecked")
+    private List<Long> getPostIdsAfter(long lastId) {
+        Session session = sessionFactory.openSession();
+        try {
+            return session.getNamedQuery("getPostIdsAfter")
+                    .setParameter("lastId", lastId)
+                    .setMaxResults(batchSize)
+                    .list();
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * @param lastId identifier of the post after which posts are counted
+     * @return number of posts to index
+     */
+    private long countPostsAfter(long lastId) {
+        Session session = sessionFactory.openSession();
+        try {
+            Number count = (Number) session.getNamedQuery("getCountPostsAfter")
+                    .setParameter("lastId", lastId)
+                    .uniqueResult();
+            return count.longValue();
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Loads and indexes posts in a separate session. Waits until the documents are written
+     * to the index, so the checkpoint never gets ahead of the index.
+     *
+     * @param ids identifiers of posts
+     */
+    @SuppressWarnings("unchecked")
+    private void indexPosts(List<Long> ids) {
+        FullTextSession fullTextSession = Search.getFullTextSession(sessionFactory.openSession());
+        fullTextSession.setFlushMode(FlushMode.MANUAL);
+        fullTextSession.setCacheMode(CacheMode.IGNORE);
+        Transaction transaction = fullTextSession.beginTransaction();
+        try {
+            List<Post> posts = fullTextSession.getNamedQuery("getPostsToIndex")
+                    .setParameterList(POST_IDS, ids)
+                    .list();
+            for (Post post : posts) {
+                fullTextSession.index(post);
+            }
+            transaction.commit();
+            awaitWrites(fullTextSession);
+            indexedPosts.addAndGet(ids.size());
+        } catch (RuntimeException e) {
+            transaction.rollback();
+            throw e;
+        } finally {
+            fullTextSession.close();
+        }
+    }
+
+    /**
+     * Waits for the asynchronous backend to write the documents of the session.
+     *
+     * @param session the session which changed the index
+     */
+    private void awaitWrites(Session session) {
+        BackendQueueProcessorFactory backend = ContextHelper.getSearchFactory(session).getBackendQueueProcessorFactory();
+        if (backend instanceof AsyncIndexingBackend
+                && !((AsyncIndexingBackend) backend).awaitQueuedWrites(WRITE_TIMEOUT)) {
+            throw new SearchException("Indexed posts weren't written to the index in " + WRITE_TIMEOUT + " ms");
+        }
+    }
+
+    /**
+     * Purges documents of posts which are in the index, but not in the database.
+     */
+    @SuppressWarnings("unchecked")
+    private void purgeDeletedPosts() {
+        FullTextSession fullTextSession = Search.getFullTextSession(sessionFactory.openSession());
+        Transaction transaction = fullTextSession.beginTransaction();
+        try {
+            List<Long> indexedIds = getIndexedPostIds(fullTextSession.getSearchFactory());
+            int purged = 0;
+            for (int from = 0; from < indexedIds.size(); from += batchSize) {
+                List<Long> batch = indexedIds.subList(from, Math.min(from + batchSize, indexedIds.size()));
+                Set<Long> existingIds = new HashSet<Long>(fullTextSession.getNamedQuery("getExistingPostIds")
+                        .setParameterList(POST_IDS, batch)
+                        .list());
+                for (Long id : batch) {
+                    if (!existingIds.contains(id)) {
+                        fullTextSession.purge(Post.class, id);
+                        purged++;
+                    }
+                }
+            }
+            transaction.commit();
+            awaitWrites(fullTextSession);
+            LOGGER.info("{} documents of deleted posts are purged from the search index", purged);
+        } catch (RuntimeException e) {
+            transaction.rollback();
+            throw e;
+        } finally {
+            fullTextSession.close();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if there are no documents of posts in the index
+     */
+    private boolean isIndexEmpty() {
+        FullTextSession fullTextSession = Search.getFullTextSession(sessionFactory.openSession());
+        try {
+            SearchFactory searchFactory = fullTextSession.getSearchFactory();
+            ReaderProvider readerProvider = searchFactory.getReaderProvider();
+            IndexReader reader = readerProvider.openReader(searchFactory.getDirectoryProviders(Post.class));
+            try {
+                return reader.numDocs() == 0;
+            } finally {
+                readerProvider.closeReader(reader);
+            }
+        } finally {
+            fullTextSession.close();
+        }
+    }
+
+    /**
+     * @param searchFactory the search factory
+     * @return identifiers of all the posts in the index
+     */
+    private List<Long> getIndexedPostIds(SearchFactory searchFactory) {
+        ReaderProvider readerProvider = searchFactory.getReaderProvider();
+        IndexReader reader = readerProvider.openReader(searchFactory.getDirectoryProviders(Post.class));
+        List<Long> ids = new ArrayList<Long>();
+        try {
+            TermEnum terms = reader.terms(new Term(ID_FIELD, ""));
+            try {
+                Term term = terms.term();
+                while (term != null && ID_FIELD.equals(term.field())) {
+                    ids.add(Long.valueOf(term.text()));
+                    term = terms.next() ? terms.term() : null;
+                }
+            } finally {
+                terms.close();
+            }
+        } catch (IOException e) {
+            throw new SearchException("Unable to read identifiers of indexed posts", e);
+        } finally {
+            readerProvider.closeReader(reader);
+        }
+        return ids;
+    }
+
+    /**
+     * @return identifier of the post after which the interrupted rebuild should continue,
+     *         0 if there is no interrupted rebuild
+     * @throws IOException if the checkpoint can't be read
+     */
+    private long readCheckpoint() throws IOException {
+        // the temporary file is left alone only if the crash happened while it was renamed
+        File file = checkpointFile.exists() ? checkpointFile : temporaryCheckpointFile;
+        if (!file.exists()) {
+            return 0;
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String checkpoint = reader.readLine();
+            return checkpoint == null || checkpoint.trim().isEmpty() ? 0 : Long.parseLong(checkpoint.trim());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Saves the checkpoint, so the rebuild is continued from it after the restart. The checkpoint
+     * is written to a temporary file first, so a crash never leaves a half-written checkpoint.
+     *
+     * @param checkpoint identifier of the post below which all the posts are indexed
+     */
+    private synchronized void writeCheckpoint(long checkpoint) {
+        try {
+            checkpointFile.getAbsoluteFile().getParentFile().mkdirs();
+            Writer writer = new FileWriter(temporaryCheckpointFile);
+            try {
+                writer.write(String.valueOf(checkpoint));
+            } finally {
+                writer.close();
+            }
+            // renaming over an existing file fails on some platforms
+            checkpointFile.delete();
+            if (!temporaryCheckpointFile.renameTo(checkpointFile)) {
+                throw new IOException("Unable to rename " + temporaryCheckpointFile + " to " + checkpointFile);
+            }
+        } catch (IOException e) {
+            throw new SearchException("Unable to save the checkpoint of the search index rebuild", e);
+        }
+    }
+
+    /**
+     * Tracks batches being indexed to find the checkpoint: batches may finish in any order,
+     * so the checkpoint is just before the first unfinished batch.
+     */
+    private static final class Checkpoints {
+        private final SortedMap<Long, Long> unfinishedBatches = new TreeMap<Long, Long>();
+        private long lastStartedId;
+
+        /**
+         * @param checkpoint identifier of the post after which indexing starts
+         */
+        private Checkpoints(long checkpoint) {
+            this.lastStartedId = checkpoint;
+        }
+
+        /**
+         * @param batch identifiers of posts in ascending order
+         */
+        private synchronized void started(List<Long> batch) {
+            lastStartedId = batch.get(batch.size() - 1);
+            unfinishedBatches.put(batch.get(0), lastStartedId);
+        }
+
+        /**
+         * @param batch identifiers of posts in ascending order
+         * @return the new checkpoint
+         */
+        private synchronized long finished(List<Long> batch) {
+            unfinishedBatches.remove(batch.get(0));
+            return unfinishedBatches.isEmpty() ? lastStartedId : unfinishedBatches.firstKey() - 1;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao.search.hibernate;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of identifiers of topics, fragments of their posts and facets found for a page of search
+ * results. The key is the filtered search text with criteria of the search filter, the set of branches
+ * visible to the user and the requested page, so users with the same permissions share results.
+ * <p/>
+ * Every result belongs to a generation of the index, which changes with every commit to it.
+ * When a newer generation is seen, all the cached results are dropped.
+ */
+public class SearchResultCache {
+    private final int maxResults;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final Map<Key, Result> results;
+    /** Generation of the index cached results belong to, guarded by results */
+    private long generation;
+
+    /**
+     * @param maxResults max number of cached pages of results, the least recently used are evicted
+     */
+    public SearchResultCache(int maxResults) {
+        this.maxResults = maxResults;
+        this.results = new LinkedHashMap<Key, Result>(16, 0.75f, true) {
+            private static final long serialVersionUID = 4592076518829217375L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+                return size() > SearchResultCache.this.maxResults;
+            }
+        };
+    }
+
+    /**
+     * Gets cached result of the search.
+     *
+     * @param searchText      the filtered search text
+     * @param branchIds       identifiers of branches visible to the user
+     * @param pageNumber      requested page number
+     * @param pageSize        size of the page
+     * @param indexGeneration generation of the index the search would run against
+     * @return the cached result or <code>null</code> if there is no result for the generation
+     */
+    public Result get(String searchText, Set<Long> branchIds, int pageNumber, int pageSize, long indexGeneration) {
+        Result result;
+        synchronized (results) {
+            updateGeneration(indexGeneration);
+            result = results.get(new Key(searchText, branchIds, pageNumber, pageSize));
+        }
+        if (result == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Puts the result of the search to the cache.
+     *
+     * @param searchText      the filtered search text
+     * @param branchIds       identifiers of branches visible to the user
+     * @param pageNumber      requested page number
+     * @param pageSize        size of the page
+     * @param indexGeneration generation of the index the search ran against
+     * @param result          the result to cache
+     */
+    public void put(String searchText, Set<Long> branchIds, int pageNumber, int pageSize, long indexGeneration,
+                    Result result) {
+        synchronized (results) {
+            // the index could change while the search was running
+            if (generation == indexGeneration) {
+                results.put(new Key(searchText, branchIds, pageNumber, pageSize), result);
+            }
+        }
+    }
+
+    /**
+     * Drops the cached results if the index was changed.
+     *
+     * @param indexGeneration the current generation of the index
+     */
+    private void updateGeneration(long indexGeneration) {
+        if (generation != indexGeneration) {
+            results.clear();
+            generation = indexGeneration;
+        }
+    }
+
+    /**
+     * @return number of searches answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of searches which weren't found in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return share of searches answered from the cache, from 0 to 1
+     */
+    public double getHitRatio() {
+        long currentHits = hits.get();
+        long total = currentHits + misses.get();
+        return total == 0 ? 0 : (double) currentHits / total;
+    }
+
+    /**
+     * @return number of cached pages of results
+     */
+    public int getSize() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    /**
+     * Found topics of one page with fragments of their most relevant posts and facets of all the found topics.
+     */
+    public static final class Result {
+        private final List<Long> topicIds;
+        private final List<String> fragments;
+        private final int totalTopics;
+        private final Map<Long, Integer> branchCounts;
+        private final Map<Long, Integer> authorCounts;
+
+        /**
+         * @param topicIds     identifiers of topics of the page in the order of relevance
+         * @param fragments    highlighted fragments of posts of the topics in the same order
+         * @param totalTopics  number of topics found for all the pages
+         * @param branchCounts identifiers of branches mapped to numbers of found topics, the most frequent first
+         * @param authorCounts identifiers of authors mapped to numbers of found topics, the most frequent first
+         */
+        public Result(List<Long> topicIds, List<String> fragments, int totalTopics,
+                      Map<Long, Integer> branchCounts, Map<Long, Integer> authorCounts) {
+            this.topicIds = topicIds;
+            this.fragments = fragments;
+            this.totalTopics = totalTopics;
+            this.branchCounts = branchCounts;
+            this.authorCounts = authorCounts;
+        }
+
+        /**
+         * @return identifiers of topics of the page in the order of relevance
+         */
+        public List<Long> getTopicIds() {
+            return topicIds;
+        }
+
+        /**
+         * @return highlighted fragments of posts of the topics in the order of their identifiers
+         */
+        public List<String> getFragments() {
+            return fragments;
+        }
+
+        /**
+         * @return number of topics found for all the pages
+         */
+        public int getTotalTopics() {
+            return totalTopics;
+        }
+
+        /**
+         * @return identifiers of branches mapped to numbers of found topics, the most frequent first
+         */
+        public Map<Long, Integer> getBranchCounts() {
+            return branchCounts;
+        }
+
+        /**
+         * @return identifiers of authors mapped to numbers of found topics, the most frequent first
+         */
+        public Map<Long, Integer> getAuthorCounts() {
+            return authorCounts;
+        }
+    }
+
+    /**
+     * Key of the cached result.
+     */
+    private static final class Key {
+        private final String searchText;
+        private final Set<Long> branchIds;
+        private final int pageNumber;
+        private final int pageSize;
+
+        /**
+         * @param searchText the filtered search text
+         * @param branchIds  identifiers of branches visible to the user
+         * @param pageNumber requested page number
+         * @param pageSize   size of the page
+         */
+        private Key(String searchText, Set<Long> branchIds, int pageNumber, int pageSize) {
+            this.searchText = searchText;
+            this.branchIds = branchIds;
+            this.pageNumber = pageNumber;
+            this.pageSize = pageSize;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return pageNumber == key.pageNumber && pageSize == key.pageSize
+                    && searchText.equals(key.searchText) && branchIds.equals(key.branchIds);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            int result = searchText.hashCode();
+            result = 31 * result + branchIds.hashCode();
+            result = 31 * result + pageNumber;
+            return 31 * result + pageSize;
+        }
+    }
+}
@@ -14,21 +14,46 @@
  */
 package org.jtalks.jcommune.model.dao.search.hibernate;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeFilter;
+import org.apache.lucene.search.Query;
 import org.hibernate.SessionFactory;
-import org.hibernate.search.FullTextQuery;
 import org.hibernate.search.FullTextSession;
-import org.hibernate.search.query.dsl.QueryBuilder;
+import org.hibernate.search.SearchException;
+import org.hibernate.search.SearchFactory;
+import org.hibernate.search.backend.BackendQueueProcessorFactory;
+import org.hibernate.search.reader.ReaderProvider;
+import org.jtalks.jcommune.model.dao.VisibleBranchesIndex;
 import org.jtalks.jcommune.model.dao.search.TopicSearchDao;
+import org.jtalks.jcommune.model.dto.IndexRebuildProgress;
 import org.jtalks.jcommune.model.dto.JCommunePageRequest;
+import org.jtalks.jcommune.model.dto.SearchFacet;
+import org.jtalks.jcommune.model.dto.TopicSearchFilter;
+import org.jtalks.jcommune.model.dto.TopicSearchHit;
+import org.jtalks.jcommune.model.dto.TopicSearchResult;
+import org.jtalks.jcommune.model.entity.Branch;
+import org.jtalks.jcommune.model.entity.JCUser;
 import org.jtalks.jcommune.model.entity.Post;
 import org.jtalks.jcommune.model.entity.Topic;
-import org.jtalks.jcommune.model.search.SearchRequestFilter;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
+import org.jtalks.jcommune.model.search.AsyncIndexingBackend;
+import org.jtalks.jcommune.model.search.SearchQueryPipeline;
+import org.jtalks.jcommune.model.search.SnippetHighlighter;
 /**
  * Hibernate Search DAO implementation for operations with a {@link Topic}.
  * 
@@ -37,116 +62,242 @@ import org.springframework.data.domain.PageImpl;
  */
 public class TopicHibernateSearchDao extends AbstractHibernateSearchDao
         implements TopicSearchDao {
+    private static final int MAX_CACHED_BRANCH_FILTERS = 1000;
+    /** Maximal number of values of a facet shown with search results */
+    private static final int MAX_FACET_VALUES = 10;
+    /** Only the snippet is read from stored fields of found posts */
+    private static final FieldSelector SNIPPET_SELECTOR = new MapFieldSelector(Post.POST_SNIPPET_FIELD);
+    private final SearchQueryPipeline queryPipeline;
+    private final PostIndexRebuilder indexRebuilder;
+    private VisibleBranchesIndex visibleBranchesIndex;
+    private final SearchResultCache resultCache;
+    private final SnippetHighlighter highlighter = new SnippetHighlighter();
     /**
-     * List of filters.
+     * Filters by sets of visible branches, the least recently used are evicted. A set of visible
+     * branches is the same for all the users with the same groups, and a cached filter reuses
+     * its bitsets for segments of the index which didn't change. When permissions change, users
+     * get other sets of visible branches, so filters of old sets are not used anymore.
      */
-    private List<SearchRequestFilter> filters = Collections.emptyList();
+    private final Map<Set<Long>, Filter> branchFilters = new LinkedHashMap<Set<Long>, Filter>(16, 0.75f, true) {
+        private static final long serialVersionUID = -6232431489576372127L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Set<Long>, Filter> eldest) {
+            return size() > MAX_CACHED_BRANCH_FILTERS;
+        }
+    };
     
     /**
      * @param sessionFactory the Hibernate SessionFactory
-     * @param filters the list of filters to correct the dirty search requests
+     * @param queryPipeline turns the search text into a query
+     * @param indexRebuilder the job rebuilding the index of posts
+     * @param visibleBranchesIndex to get branches visible to a user
+     * @param resultCache the cache of found topics
      */
-    public TopicHibernateSearchDao(SessionFactory sessionFactory, List<SearchRequestFilter> filters) {
+    public TopicHibernateSearchDao(SessionFactory sessionFactory, SearchQueryPipeline queryPipeline,
+                                   PostIndexRebuilder indexRebuilder, VisibleBranchesIndex visibleBranchesIndex,
+                                   SearchResultCache resultCache) {
         super(sessionFactory);
-        this.filters = filters;
+        this.queryPipeline = queryPipeline;
+        this.indexRebuilder = indexRebuilder;
+        this.visibleBranchesIndex = visibleBranchesIndex;
+        this.resultCache = resultCache;
     }
 
     /**
-     * Injects filters for search requests. It needed for testing.
-     * 
-     * @param filters the list of filters to correct the dirty search requests
+     * Injects the index of visible branches. It needed for testing.
+     *
+     * @param visibleBranchesIndex to get branches visible to a user
      */
-    void setFilters(List<SearchRequestFilter> filters) {
-        this.filters = filters;
+    void setVisibleBranchesIndex(VisibleBranchesIndex visibleBranchesIndex) {
+        this.visibleBranchesIndex = visibleBranchesIndex;
     }
     
     /**
      * {@inheritDoc}
+     * <p/>
+     * Posts are searched and then their hits are collapsed to topics, the most relevant
+     * topics first. Posts of branches invisible to the user and posts created out of the range of dates
+     * are filtered out by the search itself, the chosen branch and author are checked while hits are
+     * collected, so facets are counted by the same search. Found topics, fragments and facets are cached
+     * until the index changes.
      */
     @Override
-    public Page<Topic> searchByTitleAndContent(String searchText, JCommunePageRequest pageRequest) {
-       Page<Topic> searchResults = doSearch(searchText, pageRequest);
-       if (isSearchedAboveLastPage(searchResults)) {
-           pageRequest.adjustPageNumber(Long.valueOf(searchResults.getTotalElements()).intValue());
-           searchResults = doSearch(searchText, pageRequest);
-       }
-       return searchResults;
+    public TopicSearchResult searchByTitleAndContent(String searchText, TopicSearchFilter filter,
+                                                     JCommunePageRequest pageRequest, JCUser user) {
+        FullTextSession fullTextSession = getFullTextSession();
+        SearchFactory searchFactory = fullTextSession.getSearchFactory();
+        Query query = queryPipeline.build(searchText, searchFactory);
+        Set<Long> branchIds = visibleBranchesIndex.getVisibleBranchIds(user);
+        if (query == null || branchIds.isEmpty()) {
+            return TopicSearchResult.empty(pageRequest);
+        }
+        // the analyzed query is the same for texts differing only in case, stop words or punctuation
+        String cacheKey = query.toString() + " " + filter;
+        int requestedPage = pageRequest.getPageNumber();
+        ReaderProvider readerProvider = searchFactory.getReaderProvider();
+        IndexReader reader = readerProvider.openReader(searchFactory.getDirectoryProviders(Post.class));
+        SearchResultCache.Result result;
+        try {
+            long generation = getGeneration(reader);
+            result = resultCache.get(cacheKey, branchIds, requestedPage, pageRequest.getPageSize(),
+                    generation);
+            if (result == null) {
+                result = search(reader, query, filter, getBranchesFilter(branchIds), pageRequest, searchFactory);
+                resultCache.put(cacheKey, branchIds, requestedPage, pageRequest.getPageSize(),
+                        generation, result);
+            }
+        } finally {
+            readerProvider.closeReader(reader);
+        }
+        pageRequest.adjustPageNumber(result.getTotalTopics());
+        return new TopicSearchResult(getHits(fullTextSession, result), pageRequest, result.getTotalTopics(),
+                getFacets(fullTextSession, Branch.class, result.getBranchCounts()),
+                getFacets(fullTextSession, JCUser.class, result.getAuthorCounts()));
     }
-    
+
     /**
-     * Checks if this search was by made with too big page number specified
-     * @param searchResults search results
-     * @return true if page number is too big
+     * Gets the generation of the index, which changes with every commit to it.
+     *
+     * @param reader the reader of the index
+     * @return the generation of the index the reader reads
      */
-    private boolean isSearchedAboveLastPage(Page<Topic> searchResults) {
-        return !searchResults.hasContent() && searchResults.getNumber() > searchResults.getTotalPages();
+    private long getGeneration(IndexReader reader) {
+        try {
+            return reader.getVersion();
+        } catch (UnsupportedOperationException e) {
+            // readers combining indexes of several directories don't have their own version
+            IndexReader[] subReaders = reader.getSequentialSubReaders();
+            if (subReaders == null) {
+                throw e;
+            }
+            long generation = 0;
+            for (IndexReader subReader : subReaders) {
+                generation = 31 * generation + getGeneration(subReader);
+            }
+            return generation;
+        }
     }
-    
+
     /**
-     * Perform actual search
-     * @param searchText the search text
-     * @param pageRequest contains information for pagination: page number, page 
-     *                    size
-     * @return object that contains search results for one page(note, that one 
-     *         page may contain all search results) and information for pagination
+     * Gets the cached filter which lets through only posts of the given branches.
+     *
+     * @param branchIds identifiers of visible branches
+     * @return the filter caching its bitsets for segments of the index
      */
-    @SuppressWarnings("unchecked")
-    private Page<Topic> doSearch(String searchText, JCommunePageRequest pageRequest) {
-        List<Topic> topics = Collections.emptyList();
-        int resultSize = 0;
-        //TODO The latest versions of the library filtering is not needed.
-        String filteredSearchText = applyFilters(searchText, filters).trim();
-        if (!StringUtils.isEmpty(filteredSearchText)) {
-            FullTextQuery query = createSearchQuery(getFullTextSession(), filteredSearchText, pageRequest);
-            topics = query.list();
-            resultSize = query.getResultSize();
-        } 
-        return new PageImpl<Topic>(topics, pageRequest, resultSize);
+    private Filter getBranchesFilter(Set<Long> branchIds) {
+        synchronized (branchFilters) {
+            Filter filter = branchFilters.get(branchIds);
+            if (filter == null) {
+                filter = new CachingWrapperFilter(new BranchesFilter(branchIds));
+                branchFilters.put(branchIds, filter);
+            }
+            return filter;
+        }
     }
-    
+
     /**
-     * Builds a search query.
-     * 
+     * Runs the query against the index of posts and finds topics of the requested page
+     * with highlighted fragments of their most relevant posts.
+     *
+     * @param reader the reader of the index
+     * @param query the search query
+     * @param searchFilter the branch, the author and the range of creation dates of posts
+     * @param branchesFilter the filter of posts of visible branches
+     * @param pageRequest the requested page, its number is corrected if it's out of found pages
+     * @param searchFactory the search factory to get analyzers for highlighting from
+     * @return found topics of the page
+     */
+    private SearchResultCache.Result search(IndexReader reader, Query query, TopicSearchFilter searchFilter,
+                                            Filter branchesFilter, JCommunePageRequest pageRequest,
+                                            SearchFactory searchFactory) {
+        TopicHitsCollector collector = new TopicHitsCollector(searchFilter.getBranchId(), searchFilter.getAuthorId());
+        Query filteredQuery = query;
+        if (searchFilter.hasDateRange()) {
+            filteredQuery = new FilteredQuery(query, getDateRangeFilter(searchFilter));
+        }
+        try {
+            new IndexSearcher(reader).search(filteredQuery, branchesFilter, collector);
+            int totalTopics = collector.getTotalTopics();
+            pageRequest.adjustPageNumber(totalTopics);
+            List<Long> topicIds = collector.getTopicIds();
+            int fromIndex = Math.min(pageRequest.getOffset(), totalTopics);
+            int toIndex = Math.min(fromIndex + pageRequest.getPageSize(), totalTopics);
+            List<Long> pageTopicIds = new ArrayList<Long>(topicIds.subList(fromIndex, toIndex));
+            List<String> fragments = new ArrayList<String>(pageTopicIds.size());
+            for (Long topicId : pageTopicIds) {
+                Document post = reader.document(collector.getBestPostDoc(topicId), SNIPPET_SELECTOR);
+                fragments.add(highlighter.highlight(post.get(Post.POST_SNIPPET_FIELD), query, searchFactory));
+            }
+            return new SearchResultCache.Result(pageTopicIds, fragments, totalTopics,
+                    collector.getBranchCounts(MAX_FACET_VALUES), collector.getAuthorCounts(MAX_FACET_VALUES));
+        } catch (IOException e) {
+            throw new SearchException("Unable to search posts", e);
+        }
+    }
+
+    /**
+     * Makes the filter of posts created in the range of dates, the lower bound is inclusive
+     * and the upper one is exclusive.
+     *
+     * @param searchFilter the filter with the range of dates
+     * @return the filter by the numeric field of the creation date
+     */
+    private Filter getDateRangeFilter(TopicSearchFilter searchFilter) {
+        Long from = searchFilter.getFrom() == null ? null : searchFilter.getFrom().getMillis();
+        Long to = searchFilter.getTo() == null ? null : searchFilter.getTo().getMillis();
+        return NumericRangeFilter.newLongRange(Post.POST_CREATION_DATE_FIELD, from, to, true, false);
+    }
+
+    /**
+     * Loads values of a facet, the ones which don't exist anymore are skipped.
+     *
      * @param fullTextSession the Hibernate Search session
-     * @param searchText the search text
-     * @param pageRequest contains information for pagination: page number, page size
-     * @return the search query
+     * @param type the type of values
+     * @param counts identifiers of values mapped to numbers of found topics
+     * @param <T> the type of values
+     * @return values with numbers of found topics in the order of identifiers
      */
-    private FullTextQuery createSearchQuery(
-            FullTextSession fullTextSession,
-            String searchText,
-            JCommunePageRequest pageRequest) {
-        QueryBuilder queryBuilder = fullTextSession.
-                getSearchFactory().
-                buildQueryBuilder().
-                forEntity(Topic.class).
-                get();
-        org.apache.lucene.search.Query luceneQuery = queryBuilder.
-                keyword().
-                onField(Topic.TOPIC_TITLE_FIELD_DEF).
-                andField(Topic.TOPIC_TITLE_FIELD_RU).
-                andField(Topic.TOPIC_POSTS_PREFIX + Post.POST_CONTENT_FIELD_DEF).
-                andField(Topic.TOPIC_POSTS_PREFIX + Post.POST_CONTENT_FIELD_RU).
-                matching(searchText).
-                createQuery();
-        FullTextQuery query = fullTextSession.createFullTextQuery(luceneQuery);
-        query.setFirstResult(pageRequest.getOffset());
-        query.setMaxResults(pageRequest.getPageSize());
-        return query;
+    private <T> List<SearchFacet<T>> getFacets(FullTextSession fullTextSession, Class<T> type,
+                                               Map<Long, Integer> counts) {
+        List<SearchFacet<T>> facets = new ArrayList<SearchFacet<T>>(counts.size());
+        for (Map.Entry<Long, Integer> count : counts.entrySet()) {
+            T value = type.cast(fullTextSession.get(type, count.getKey()));
+            if (value != null) {
+                facets.add(new SearchFacet<T>(value, count.getValue()));
+            }
+        }
+        return facets;
     }
-    
+
     /**
-     * This method filters the text.
-     * 
-     * @param searchText the search text
-     * @param filters the list of filters
-     * @return the filtered search text
+     * Loads found topics of the page by one query keeping their order.
+     *
+     * @param fullTextSession the Hibernate Search session
+     * @param result found topics and fragments of their posts
+     * @return found topics with fragments, except topics which are already deleted
      */
-    private String applyFilters(String searchText, List<SearchRequestFilter> filters) {
-        for (SearchRequestFilter filter : filters) {
-            searchText = filter.filter(searchText);
+    @SuppressWarnings("unchecked")
+    private List<TopicSearchHit> getHits(FullTextSession fullTextSession, SearchResultCache.Result result) {
+        List<Long> topicIds = result.getTopicIds();
+        if (topicIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Topic> loadedTopics = fullTextSession.getNamedQuery("getTopicsByIds")
+                .setParameterList("topicIds", topicIds)
+                .list();
+        Map<Long, Topic> topicsById = new HashMap<Long, Topic>();
+        for (Topic topic : loadedTopics) {
+            topicsById.put(topic.getId(), topic);
         }
-        return searchText;
+        List<TopicSearchHit> hits = new ArrayList<TopicSearchHit>(topicIds.size());
+        for (int i = 0; i < topicIds.size(); i++) {
+            Topic topic = topicsById.get(topicIds.get(i));
+            if (topic != null) {
+                hits.add(new TopicSearchHit(topic, result.getFragments().get(i)));
+            }
+        }
+        return hits;
     }
     
     /**
@@ -154,6 +305,36 @@ public class TopicHibernateSearchDao extends AbstractHibernateSearchDao
      */
     @Override
     public void rebuildIndex() {
-        getFullTextSession().createIndexer(Topic.class).start();
+        indexRebuilder.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IndexRebuildProgress getIndexRebuildProgress() {
+        return indexRebuilder.getProgress();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reindexPosts(Topic topic) {
+        FullTextSession fullTextSession = getFullTextSession();
+        for (Post post : topic.getPosts()) {
+            fullTextSession.index(post);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void awaitIndexingOfPostsBy(JCUser author) {
+        BackendQueueProcessorFactory backend = getSearchFactoryImplementor().getBackendQueueProcessorFactory();
+        if (backend instanceof AsyncIndexingBackend) {
+            ((AsyncIndexingBackend) backend).awaitWritesOf(author.getId());
+        }
     }
 }
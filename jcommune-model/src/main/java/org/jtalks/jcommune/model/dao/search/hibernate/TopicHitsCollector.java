@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao.search.hibernate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Scorer;
+import org.jtalks.jcommune.model.entity.Post;
+
+/**
+ * Collapses hits of posts to their topics. A topic gets the best score
+ * of its posts, so a topic is found once regardless of the number of
+ * its posts matching the search request. The document of the best post
+ * is remembered to show its fragment.
+ * <p/>
+ * Posts are narrowed down to the chosen branch and author here rather than by a filter,
+ * so facets are counted in the same pass: a post of another branch is counted in the facet
+ * of its branch if its author is the chosen one, and a post of another author is counted
+ * in the facet of its author if it's in the chosen branch.
+ * <p/>
+ * Identifiers of topics, branches and authors are taken from the field cache of the index, so
+ * documents of posts aren't loaded.
+ */
+class TopicHitsCollector extends Collector {
+    private final Long branchId;
+    private final Long authorId;
+    private final Map<Long, TopicHit> topicHits = new HashMap<Long, TopicHit>();
+    private final Map<Long, Integer> branchCounts = new HashMap<Long, Integer>();
+    /** Topics counted in facets of branches, a topic is in one branch */
+    private final Set<Long> branchCountedTopics = new HashSet<Long>();
+    private final Map<Long, Set<Long>> authorTopics = new HashMap<Long, Set<Long>>();
+    private Scorer scorer;
+    private long[] topicIds;
+    private long[] branchIds;
+    private long[] authorIds;
+    private int docBase;
+
+    /**
+     * @param branchId identifier of the branch of posts to collect, <code>null</code> for any branch
+     * @param authorId identifier of the author of posts to collect, <code>null</code> for any author
+     */
+    TopicHitsCollector(Long branchId, Long authorId) {
+        this.branchId = branchId;
+        this.authorId = authorId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setScorer(Scorer scorer) {
+        this.scorer = scorer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setNextReader(IndexReader reader, int docBase) throws IOException {
+        topicIds = FieldCache.DEFAULT.getLongs(reader, Post.POST_TOPIC_ID_FIELD);
+        branchIds = FieldCache.DEFAULT.getLongs(reader, Post.POST_BRANCH_ID_FIELD);
+        authorIds = FieldCache.DEFAULT.getLongs(reader, Post.POST_AUTHOR_ID_FIELD);
+        this.docBase = docBase;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect(int doc) throws IOException {
+        Long topicId = topicIds[doc];
+        long postBranchId = branchIds[doc];
+        long postAuthorId = authorIds[doc];
+        boolean inBranch = branchId == null || branchId == postBranchId;
+        boolean ofAuthor = authorId == null || authorId == postAuthorId;
+        if (ofAuthor && branchCountedTopics.add(topicId)) {
+            Integer count = branchCounts.get(postBranchId);
+            branchCounts.put(postBranchId, count == null ? 1 : count + 1);
+        }
+        if (inBranch) {
+            Set<Long> topics = authorTopics.get(postAuthorId);
+            if (topics == null) {
+                topics = new HashSet<Long>();
+                authorTopics.put(postAuthorId, topics);
+            }
+            topics.add(topicId);
+        }
+        if (!inBranch || !ofAuthor) {
+            return;
+        }
+        float score = scorer.score();
+        TopicHit bestHit = topicHits.get(topicId);
+        if (bestHit == null) {
+            topicHits.put(topicId, new TopicHit(score, docBase + doc));
+        } else if (bestHit.score < score) {
+            bestHit.score = score;
+            bestHit.doc = docBase + doc;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+        return true;
+    }
+
+    /**
+     * @return the number of found topics
+     */
+    int getTotalTopics() {
+        return topicHits.size();
+    }
+
+    /**
+     * Gets identifiers of found topics, the most relevant first. Topics with
+     * the same score are ordered by identifiers, the newest first.
+     *
+     * @return identifiers of found topics
+     */
+    List<Long> getTopicIds() {
+        List<Map.Entry<Long, TopicHit>> hits = new ArrayList<Map.Entry<Long, TopicHit>>(topicHits.entrySet());
+        Collections.sort(hits, new Comparator<Map.Entry<Long, TopicHit>>() {
+            @Override
+            public int compare(Map.Entry<Long, TopicHit> first, Map.Entry<Long, TopicHit> second) {
+                int result = Float.compare(second.getValue().score, first.getValue().score);
+                return result != 0 ? result : second.getKey().compareTo(first.getKey());
+            }
+        });
+        List<Long> ids = new ArrayList<Long>(hits.size());
+        for (Map.Entry<Long, TopicHit> hit : hits) {
+            ids.add(hit.getKey());
+        }
+        return ids;
+    }
+
+    /**
+     * @param topicId identifier of a found topic
+     * @return the document of the most relevant post of the topic, relative to the top level reader
+     */
+    int getBestPostDoc(Long topicId) {
+        return topicHits.get(topicId).doc;
+    }
+
+    /**
+     * Gets the branches with the most found topics of the chosen author, ignoring the chosen branch.
+     *
+     * @param maxCount maximal number of branches
+     * @return identifiers of branches mapped to numbers of topics, the most frequent first
+     */
+    Map<Long, Integer> getBranchCounts(int maxCount) {
+        return top(branchCounts, maxCount);
+    }
+
+    /**
+     * Gets the authors of posts of the most found topics in the chosen branch, ignoring the chosen author.
+     *
+     * @param maxCount maximal number of authors
+     * @return identifiers of authors mapped to numbers of topics, the most frequent first
+     */
+    Map<Long, Integer> getAuthorCounts(int maxCount) {
+        Map<Long, Integer> authorCounts = new HashMap<Long, Integer>();
+        for (Map.Entry<Long, Set<Long>> entry : authorTopics.entrySet()) {
+            authorCounts.put(entry.getKey(), entry.getValue().size());
+        }
+        return top(authorCounts, maxCount);
+    }
+
+    /**
+     * @param counts   numbers of topics by identifiers
+     * @param maxCount maximal number of identifiers
+     * @return the identifiers with the biggest numbers of topics, the same numbers are ordered by identifiers
+     */
+    private Map<Long, Integer> top(Map<Long, Integer> counts, int maxCount) {
+        List<Map.Entry<Long, Integer>> entries = new ArrayList<Map.Entry<Long, Integer>>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<Long, Integer>>() {
+            @Override
+            public int compare(Map.Entry<Long, Integer> first, Map.Entry<Long, Integer> second) {
+                int result = second.getValue().compareTo(first.getValue());
+                return result != 0 ? result : first.getKey().compareTo(second.getKey());
+            }
+        });
+        Map<Long, Integer> top = new LinkedHashMap<Long, Integer>();
+        for (Map.Entry<Long, Integer> entry : entries.subList(0, Math.min(maxCount, entries.size()))) {
+            top.put(entry.getKey(), entry.getValue());
+        }
+        return top;
+    }
+
+    /**
+     * The best hit of posts of a topic.
+     */
+    private static final class TopicHit {
+        private float score;
+        private int doc;
+
+        /**
+         * @param score score of the post
+         * @param doc   document of the post
+         */
+        private TopicHit(float score, int doc) {
+            this.score = score;
+            this.doc = doc;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dto;
+
+/**
+ * Snapshot of the progress of the search index rebuild, which is shown
+ * to administrators while the rebuild is running.
+ */
+public class IndexRebuildProgress {
+    private static final int MILLIS_IN_SECOND = 1000;
+
+    /**
+     * State of the rebuild.
+     */
+    public enum State {
+        /** The rebuild wasn't started since the start of the application */
+        IDLE,
+        /** Posts are being indexed */
+        RUNNING,
+        /** All the posts are indexed */
+        FINISHED,
+        /** The rebuild is stopped by an error, it continues from the last checkpoint when started again */
+        FAILED
+    }
+
+    private final State state;
+    private final long totalPosts;
+    private final long indexedPosts;
+    private final long elapsedMillis;
+
+    /**
+     * @param state         state of the rebuild
+     * @param totalPosts    number of posts to index
+     * @param indexedPosts  number of posts already indexed
+     * @param elapsedMillis time of the rebuild in milliseconds
+     */
+    public IndexRebuildProgress(State state, long totalPosts, long indexedPosts, long elapsedMillis) {
+        this.state = state;
+        this.totalPosts = totalPosts;
+        this.indexedPosts = indexedPosts;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return state of the rebuild
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return number of posts to index, when the rebuild is resumed only posts after the checkpoint are counted
+     */
+    public long getTotalPosts() {
+        return totalPosts;
+    }
+
+    /**
+     * @return number of posts already indexed
+     */
+    public long getIndexedPosts() {
+        return indexedPosts;
+    }
+
+    /**
+     * @return time of the rebuild in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return average number of posts indexed per second
+     */
+    public long getPostsPerSecond() {
+        return elapsedMillis == 0 ? 0 : indexedPosts * MILLIS_IN_SECOND / elapsedMillis;
+    }
+
+    /**
+     * @return estimated number of seconds till the end of the rebuild or -1 if it can't be estimated yet
+     */
+    public long getRemainingSeconds() {
+        if (state != State.RUNNING) {
+            return 0;
+        }
+        long postsPerSecond = getPostsPerSecond();
+        return postsPerSecond == 0 ? -1 : Math.max(totalPosts - indexedPosts, 0) / postsPerSecond;
+    }
+}
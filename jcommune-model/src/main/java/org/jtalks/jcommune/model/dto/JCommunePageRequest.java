@@ -21,6 +21,12 @@ import org.springframework.data.domain.Sort;
  * Data transfer object that needed for pagination in JCommune.
  * It contains additional help methods for calculation of
  * pagination.
+ * <p/>
+ * Besides usual offset pagination it supports keyset (seek) pagination:
+ * if the identifier of the last element of the previous page is known,
+ * DAO may select elements following it instead of skipping all the
+ * elements of the previous pages. Page number is still kept, so links
+ * with page numbers only continue to work through offset pagination.
  * 
  * @author Anuar Nurmakanov
  */
@@ -30,6 +36,7 @@ public class JCommunePageRequest implements Pageable {
     private int pageNumber;
     private int pageSize;
     private boolean pagingEnabled;
+    private Long lastSeenId;
     
     /**
      * Creates a new {@link JCommunePageRequest}. 
@@ -121,6 +128,35 @@ public class JCommunePageRequest implements Pageable {
         this.pagingEnabled = pagingEnabled;
     }
 
+    /**
+     * Get an identifier of the last element of the previous page, it's
+     * used as a starting point for keyset pagination.
+     *
+     * @return identifier of the last element of the previous page or
+     *         <code>null</code> if it's unknown
+     */
+    public Long getLastSeenId() {
+        return lastSeenId;
+    }
+
+    /**
+     * @param lastSeenId identifier of the last element of the previous page
+     */
+    public void setLastSeenId(Long lastSeenId) {
+        this.lastSeenId = lastSeenId;
+    }
+
+    /**
+     * Determines whether the page can be selected with keyset pagination,
+     * that is paging is enabled and the last element of the previous page
+     * is known.
+     *
+     * @return true if keyset pagination can be used, false if offset must be used
+     */
+    public boolean isSeekEnabled() {
+        return pagingEnabled && lastSeenId != null && pageNumber > 1;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -165,7 +201,9 @@ public class JCommunePageRequest implements Pageable {
 
     /**
      * Sets page number to valid value based on total count of items (to 1 if 
-     * page number <= 1 and to last page if it is too big).
+     * page number <= 1 and to last page if it is too big). If page number is
+     * changed, the last seen element doesn't precede the page anymore, so
+     * keyset pagination is turned off.
      * @param totalCount total count of items
      */
     public void adjustPageNumber(int totalCount) {
@@ -173,6 +211,7 @@ public class JCommunePageRequest implements Pageable {
             pageNumber = 1;
         } else if (pageNumber > getPageNumber(totalCount - 1)) {
             pageNumber = getPageNumber(totalCount - 1);
+            lastSeenId = null;
         }
     }
 
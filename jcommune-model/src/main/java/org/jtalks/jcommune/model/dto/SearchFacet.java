@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dto;
+
+/**
+ * A value of a facet of search results, like a branch or an author, with the number
+ * of found topics having it.
+ *
+ * @param <T> type of the value
+ */
+public class SearchFacet<T> {
+    private final T value;
+    private final int count;
+
+    /**
+     * @param value the value of the facet
+     * @param count number of found topics with the value
+     */
+    public SearchFacet(T value, int count) {
+        this.value = value;
+        this.count = count;
+    }
+
+    /**
+     * @return the value of the facet
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return number of found topics with the value
+     */
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dto;
+
+import org.joda.time.DateTime;
+
+/**
+ * Narrows the full-text search of topics down to posts of a branch, of an author and created
+ * in a range of dates. Any of the criteria may be absent.
+ */
+public class TopicSearchFilter {
+    /** The filter letting all the posts through */
+    public static final TopicSearchFilter NONE = new TopicSearchFilter(null, null, null, null);
+
+    private final Long branchId;
+    private final Long authorId;
+    private final DateTime from;
+    private final DateTime to;
+
+    /**
+     * @param branchId identifier of the branch of posts, <code>null</code> for any branch
+     * @param authorId identifier of the author of posts, <code>null</code> for any author
+     * @param from     posts created at this moment or later are found, <code>null</code> for no lower bound
+     * @param to       posts created before this moment are found, <code>null</code> for no upper bound
+     */
+    public TopicSearchFilter(Long branchId, Long authorId, DateTime from, DateTime to) {
+        this.branchId = branchId;
+        this.authorId = authorId;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @return identifier of the branch of posts, <code>null</code> for any branch
+     */
+    public Long getBranchId() {
+        return branchId;
+    }
+
+    /**
+     * @return identifier of the author of posts, <code>null</code> for any author
+     */
+    public Long getAuthorId() {
+        return authorId;
+    }
+
+    /**
+     * @return the inclusive lower bound of the creation date of posts, <code>null</code> if there is none
+     */
+    public DateTime getFrom() {
+        return from;
+    }
+
+    /**
+     * @return the exclusive upper bound of the creation date of posts, <code>null</code> if there is none
+     */
+    public DateTime getTo() {
+        return to;
+    }
+
+    /**
+     * @return <code>true</code> if posts are filtered by the date of creation
+     */
+    public boolean hasDateRange() {
+        return from != null || to != null;
+    }
+
+    /**
+     * The string is the same for filters with the same criteria, so it's used as a part
+     * of the key of cached search results.
+     *
+     * @return all the criteria of the filter
+     */
+    @Override
+    public String toString() {
+        return "branch:" + branchId + " author:" + authorId
+                + " created:[" + (from == null ? null : from.getMillis())
+                + " TO " + (to == null ? null : to.getMillis()) + ")";
+    }
+}
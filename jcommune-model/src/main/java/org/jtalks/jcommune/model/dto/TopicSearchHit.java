@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dto;
+
+import org.jtalks.jcommune.model.entity.Topic;
+
+/**
+ * Topic found by the full-text search together with the fragment of its most relevant post.
+ */
+public class TopicSearchHit {
+    private final Topic topic;
+    private final String fragment;
+
+    /**
+     * @param topic    the found topic
+     * @param fragment HTML of the fragment of the most relevant post with highlighted words,
+     *                 <code>null</code> if there is none
+     */
+    public TopicSearchHit(Topic topic, String fragment) {
+        this.topic = topic;
+        this.fragment = fragment;
+    }
+
+    /**
+     * @return the found topic
+     */
+    public Topic getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return HTML of the fragment of the most relevant post with highlighted words, the text in it
+     *         is escaped; <code>null</code> if there is no fragment
+     */
+    public String getFragment() {
+        return fragment;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dto;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.jtalks.jcommune.model.entity.Branch;
+import org.jtalks.jcommune.model.entity.JCUser;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+/**
+ * A page of topics found by the full-text search with facets of all the found topics:
+ * branches they're in and authors of their matching posts, the most frequent first.
+ * <p/>
+ * Counts of branches respect the author and the date range of the filter but not its branch, and
+ * counts of authors respect the branch and the date range but not the author, so they show how
+ * many topics would be found if another branch or author were chosen.
+ */
+public class TopicSearchResult extends PageImpl<TopicSearchHit> {
+    private static final long serialVersionUID = 5214770453268392713L;
+    private final List<SearchFacet<Branch>> branchFacets;
+    private final List<SearchFacet<JCUser>> authorFacets;
+
+    /**
+     * @param hits         found topics of the page
+     * @param pageable     the requested page
+     * @param total        number of topics found for all the pages
+     * @param branchFacets branches of found topics with numbers of topics
+     * @param authorFacets authors of matching posts with numbers of topics
+     */
+    public TopicSearchResult(List<TopicSearchHit> hits, Pageable pageable, long total,
+                             List<SearchFacet<Branch>> branchFacets, List<SearchFacet<JCUser>> authorFacets) {
+        super(hits, pageable, total);
+        this.branchFacets = branchFacets;
+        this.authorFacets = authorFacets;
+    }
+
+    /**
+     * Creates the result without found topics.
+     *
+     * @param pageable the requested page
+     * @return the empty result
+     */
+    public static TopicSearchResult empty(Pageable pageable) {
+        return new TopicSearchResult(Collections.<TopicSearchHit>emptyList(), pageable, 0,
+                Collections.<SearchFacet<Branch>>emptyList(), Collections.<SearchFacet<JCUser>>emptyList());
+    }
+
+    /**
+     * @return branches of found topics with numbers of topics, the most frequent first
+     */
+    public List<SearchFacet<Branch>> getBranchFacets() {
+        return branchFacets;
+    }
+
+    /**
+     * @return authors of matching posts with numbers of topics, the most frequent first
+     */
+    public List<SearchFacet<JCUser>> getAuthorFacets() {
+        return authorFacets;
+    }
+}
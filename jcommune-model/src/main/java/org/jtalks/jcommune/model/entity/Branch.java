@@ -14,7 +14,6 @@
  */
 package org.jtalks.jcommune.model.entity;
 
-import ch.lambdaj.Lambda;
 import org.apache.commons.lang.Validate;
 
 import java.util.ArrayList;
@@ -38,8 +37,8 @@ public class Branch extends org.jtalks.common.model.entity.Branch
     private List<Topic> topics = new ArrayList<Topic>();
     private Set<JCUser> subscribers = new HashSet<JCUser>();
 
-    private Integer topicsCount;
-    private Integer postsCount;
+    private int topicsCount;
+    private int postsCount;
     private boolean unreadPosts;
     private Post lastPost;
 
@@ -123,46 +122,51 @@ public class Branch extends org.jtalks.common.model.entity.Branch
     }
 
     /**
-     * Add topic to branch.
+     * Add topic to branch. Counts of topics and posts in the branch are
+     * increased accordingly, stored counts aren't updated with the branch and
+     * are changed by {@link org.jtalks.jcommune.model.dao.BranchDao#adjustCounts}.
      *
      * @param topic topic
      */
     public void addTopic(Topic topic) {
         topic.setBranch(this);
         this.topics.add(topic);
+        topicsCount++;
+        postsCount += topic.getPostCount();
     }
 
     /**
-     * Delete topic from branch.
+     * Delete topic from branch. Counts of topics and posts in the branch are
+     * decreased accordingly, stored counts aren't updated with the branch and
+     * are changed by {@link org.jtalks.jcommune.model.dao.BranchDao#adjustCounts}.
      *
      * @param topic topic
      */
     public void deleteTopic(Topic topic) {
         this.topics.remove(topic);
+        topicsCount--;
+        postsCount -= topic.getPostCount();
     }
 
     /**
+     * Returns count of topics in the branch. The value is stored in the branch itself,
+     * so the collection of topics isn't loaded to get it.
+     *
      * @return count topics in branch
      */
     public int getTopicCount() {
-        if (topicsCount == null) {
-            return topics.size();
-        }
         return topicsCount;
     }
 
     /**
-     * Returns a sum of all topic's post count for that branch.
-     * <p/>
-     * Value is computed only for the first time (if not set explicitly before),
-     * so it may not take into account the posts added later
+     * Returns a sum of all topic's post count for that branch. The value is stored
+     * in the branch itself and is changed by
+     * {@link org.jtalks.jcommune.model.dao.BranchDao#adjustCounts} when posts are
+     * added to or removed from topics of the branch.
      *
      * @return sum of post count for all the topics in this branch
      */
     public int getPostCount() {
-        if (postsCount == null) {
-            postsCount = Lambda.sumFrom(topics, Topic.class).getPostCount();
-        }
         return postsCount;
     }
 
@@ -194,9 +198,9 @@ public class Branch extends org.jtalks.common.model.entity.Branch
     /**
      * Set count of topics in this branch.
      *
-     * @param topicsCount count of posts in this branch
+     * @param topicsCount count of topics in this branch
      */
-    public void setTopicsCount(Integer topicsCount) {
+    public void setTopicsCount(int topicsCount) {
         this.topicsCount = topicsCount;
     }
 
@@ -205,7 +209,7 @@ public class Branch extends org.jtalks.common.model.entity.Branch
      *
      * @param postsCount count of posts in this branch
      */
-    public void setPostsCount(Integer postsCount) {
+    public void setPostsCount(int postsCount) {
         this.postsCount = postsCount;
     }
 
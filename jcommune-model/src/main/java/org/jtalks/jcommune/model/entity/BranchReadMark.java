@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.entity;
+
+import org.joda.time.DateTime;
+import org.jtalks.common.model.entity.Entity;
+
+/**
+ * Read state of the whole branch for the user: all topics of the branch modified
+ * before the mark time are read. Only topics modified after it are tracked
+ * individually by {@link LastReadPost}, so the branch doesn't need a record
+ * per topic to be marked as read.
+ */
+public class BranchReadMark extends Entity {
+    private JCUser user;
+    private Branch branch;
+    private DateTime markedAsReadTime;
+
+    /**
+     * For hibernate use only
+     */
+    protected BranchReadMark() {
+    }
+
+    /**
+     * @param user             user who marked the branch as read
+     * @param branch           branch marked as read
+     * @param markedAsReadTime time the branch was marked as read
+     */
+    public BranchReadMark(JCUser user, Branch branch, DateTime markedAsReadTime) {
+        this.user = user;
+        this.branch = branch;
+        this.markedAsReadTime = markedAsReadTime;
+    }
+
+    /**
+     * @return user who marked the branch as read
+     */
+    public JCUser getUser() {
+        return user;
+    }
+
+    /**
+     * @param user user who marked the branch as read
+     */
+    protected void setUser(JCUser user) {
+        this.user = user;
+    }
+
+    /**
+     * @return branch marked as read
+     */
+    public Branch getBranch() {
+        return branch;
+    }
+
+    /**
+     * @param branch branch marked as read
+     */
+    protected void setBranch(Branch branch) {
+        this.branch = branch;
+    }
+
+    /**
+     * @return time the branch was marked as read, topics modified before it are read
+     */
+    public DateTime getMarkedAsReadTime() {
+        return markedAsReadTime;
+    }
+
+    /**
+     * @param markedAsReadTime time the branch was marked as read
+     */
+    public void setMarkedAsReadTime(DateTime markedAsReadTime) {
+        this.markedAsReadTime = markedAsReadTime;
+    }
+}
@@ -16,13 +16,12 @@ package org.jtalks.jcommune.model.entity;
 
 import java.util.Set;
 
-import org.hibernate.search.annotations.Analyzer;
-import org.hibernate.search.annotations.Field;
-import org.hibernate.search.annotations.FieldBridge;
-import org.hibernate.search.annotations.Fields;
+import org.apache.solr.analysis.*;
+import org.hibernate.search.annotations.*;
 import org.joda.time.DateTime;
 import org.jtalks.common.model.entity.Entity;
-import org.jtalks.jcommune.model.search.BbCodeFilterBridge;
+import org.jtalks.jcommune.model.search.LanguageRoutingBridge;
+import org.jtalks.jcommune.model.search.SnippetBridge;
 
 /**
  * Represents the simple version of post of the forum
@@ -30,19 +29,93 @@ import org.jtalks.jcommune.model.search.BbCodeFilterBridge;
  * Always included in the {@link Topic}. Topic itself should contain at lest one Post <br/>
  * All fields of this object are required and can't be null.<br/>
  * The topic field will be updated automatically when called Topic.addPost(Post). <br/>
- * The Post deletes automatically if the parent Topic deleted.
+ * The Post deletes automatically if the parent Topic deleted.<br/>
+ * Posts are indexed for the full-text search one by one, along with the title, the identifier
+ * and the branch of their topic, so a reply doesn't cause reindexing of the whole topic.
  *
  * @author Pavel Vervenko
  * @author Kirill Afonin
  * @author Anuar Nurmakanov
  */
-
+@AnalyzerDefs({
+        /*
+        * Describes the analyzer for Russian.
+        */
+        @AnalyzerDef(name = "russianJtalksAnalyzer",
+                tokenizer = @TokenizerDef(factory = StandardTokenizerFactory.class),
+                filters = {
+                        /*
+                        * All "terms" of the search text will be converted to lower case.
+                        */
+                        @TokenFilterDef(factory = LowerCaseFilterFactory.class),
+                        /*
+                        * Several words in language doesn't have a significant value.
+                        * These filters exclude those words from the index.
+                        */
+                        @TokenFilterDef(factory = StopFilterFactory.class,
+                                params = {
+                                        @Parameter(name = "words",
+                                                value = "org/jtalks/jcommune/lucene/english_stop.txt"),
+                                        @Parameter(name = "ignoreCase", value = "true")
+                                }),
+                        @TokenFilterDef(factory = StopFilterFactory.class,
+                                params = {
+                                        @Parameter(name = "words",
+                                                value = "org/jtalks/jcommune/lucene/russian_stop.txt"),
+                                        @Parameter(name = "ignoreCase", value = "true")
+                                }),
+                        /*
+                        * Provides the search by a root of a word.
+                        * If two words have the same root, then they are equal in the terminology of search.
+                        */
+                        @TokenFilterDef(factory = SnowballPorterFilterFactory.class,
+                                params = @Parameter(name = "language", value = "Russian"))
+                }
+        ),
+        /*
+        * Describes the analyzer for default language(English).
+        */
+        @AnalyzerDef(name = "defaultJtalksAnalyzer",
+                tokenizer = @TokenizerDef(factory = StandardTokenizerFactory.class),
+                filters = {
+                        @TokenFilterDef(factory = StandardFilterFactory.class),
+                        /*
+                        * All "terms" of the search text will be converted to lower case.
+                        */
+                        @TokenFilterDef(factory = LowerCaseFilterFactory.class),
+                        /*
+                        * Several words in language don't have a significant value.
+                        * These filters exclude those words from the index.
+                        */
+                        @TokenFilterDef(factory = StopFilterFactory.class,
+                                params = {
+                                        @Parameter(name = "words",
+                                                value = "org/jtalks/jcommune/lucene/english_stop.txt"),
+                                        @Parameter(name = "ignoreCase", value = "true")
+                                }),
+                        @TokenFilterDef(factory = StopFilterFactory.class,
+                                params = {
+                                        @Parameter(name = "words",
+                                                value = "org/jtalks/jcommune/lucene/russian_stop.txt"),
+                                        @Parameter(name = "ignoreCase", value = "true")
+                                }),
+                        /*
+                        * Provides the search by a root of a word.
+                        * If two words have the same root, then they are equal in the terminology of search.
+                        */
+                        @TokenFilterDef(factory = SnowballPorterFilterFactory.class)
+                }
+        )
+})
+@Indexed
 public class Post extends Entity {
 
     private DateTime creationDate;
     private DateTime modificationDate;
     private JCUser userCreated;
     private String postContent;
+    private String renderedContent;
+    private int renderedVersion;
     private Topic topic;
 
     public static final int MAX_LENGTH = 20000;
@@ -50,12 +123,43 @@ public class Post extends Entity {
     
     /**
      * Name of the field in the index for Russian.
+     * The content is indexed either in this field or in the default one depending on its language.
      */
     public static final String POST_CONTENT_FIELD_RU = "postContentRu";
     /**
      * Name of the field in the index for default language(English).
      */
     public static final String POST_CONTENT_FIELD_DEF = "postContent";
+    /**
+     * Name of the field in the index for the title of the topic in Russian.
+     * The title is indexed either in this field or in the default one depending on its language.
+     */
+    public static final String POST_TOPIC_TITLE_FIELD_RU = "topicTitleRu";
+    /**
+     * Name of the field in the index for the title of the topic in default language(English).
+     */
+    public static final String POST_TOPIC_TITLE_FIELD_DEF = "topicTitle";
+    /**
+     * Name of the stored, not searchable field in the index with the compact text of the post
+     * shown in search results.
+     */
+    public static final String POST_SNIPPET_FIELD = "snippet";
+    /**
+     * Name of the field in the index for the identifier of the topic.
+     */
+    public static final String POST_TOPIC_ID_FIELD = "topicId";
+    /**
+     * Name of the field in the index for the identifier of the branch of the topic.
+     */
+    public static final String POST_BRANCH_ID_FIELD = "branchId";
+    /**
+     * Name of the field in the index for the identifier of the author of the post.
+     */
+    public static final String POST_AUTHOR_ID_FIELD = "authorId";
+    /**
+     * Name of the numeric field in the index for the creation time of the post in milliseconds.
+     */
+    public static final String POST_CREATION_DATE_FIELD = "creationDate";
 
     /**
      * For Hibernate use only
@@ -153,11 +257,18 @@ public class Post extends Entity {
      */
     @Fields({
         @Field(name = POST_CONTENT_FIELD_RU,
-            analyzer = @Analyzer(definition = "russianJtalksAnalyzer")),
+            analyzer = @Analyzer(definition = "russianJtalksAnalyzer"),
+            bridge = @FieldBridge(impl = LanguageRoutingBridge.class, params = {
+                @Parameter(name = LanguageRoutingBridge.LANGUAGE, value = LanguageRoutingBridge.RUSSIAN),
+                @Parameter(name = LanguageRoutingBridge.STRIP_BB_CODES, value = "true")})),
         @Field(name = POST_CONTENT_FIELD_DEF,
-            analyzer = @Analyzer(definition = "defaultJtalksAnalyzer"))
+            analyzer = @Analyzer(definition = "defaultJtalksAnalyzer"),
+            bridge = @FieldBridge(impl = LanguageRoutingBridge.class, params = {
+                @Parameter(name = LanguageRoutingBridge.LANGUAGE, value = LanguageRoutingBridge.DEFAULT),
+                @Parameter(name = LanguageRoutingBridge.STRIP_BB_CODES, value = "true")})),
+        @Field(name = POST_SNIPPET_FIELD, index = Index.NO, store = Store.YES,
+            bridge = @FieldBridge(impl = SnippetBridge.class))
     })
-    @FieldBridge(impl = BbCodeFilterBridge.class)
     public String getPostContent() {
         return postContent;
     }
@@ -169,6 +280,34 @@ public class Post extends Entity {
         this.postContent = postContent;
     }
 
+    /**
+     * @return HTML rendered from the content when the post was written, <code>null</code> if it isn't rendered yet
+     */
+    public String getRenderedContent() {
+        return renderedContent;
+    }
+
+    /**
+     * @param renderedContent HTML rendered from the content
+     */
+    public void setRenderedContent(String renderedContent) {
+        this.renderedContent = renderedContent;
+    }
+
+    /**
+     * @return version of the renderer which produced the HTML, 0 if the post isn't rendered yet
+     */
+    public int getRenderedVersion() {
+        return renderedVersion;
+    }
+
+    /**
+     * @param renderedVersion version of the renderer which produced the HTML
+     */
+    public void setRenderedVersion(int renderedVersion) {
+        this.renderedVersion = renderedVersion;
+    }
+
     /**
      * @return the topic
      */
@@ -183,6 +322,65 @@ public class Post extends Entity {
         this.topic = topic;
     }
 
+    /**
+     * @return the title of the topic of this post, is used by the search index
+     */
+    @Fields({
+        @Field(name = POST_TOPIC_TITLE_FIELD_RU,
+            analyzer = @Analyzer(definition = "russianJtalksAnalyzer"),
+            bridge = @FieldBridge(impl = LanguageRoutingBridge.class,
+                params = @Parameter(name = LanguageRoutingBridge.LANGUAGE, value = LanguageRoutingBridge.RUSSIAN))),
+        @Field(name = POST_TOPIC_TITLE_FIELD_DEF,
+            analyzer = @Analyzer(definition = "defaultJtalksAnalyzer"),
+            bridge = @FieldBridge(impl = LanguageRoutingBridge.class,
+                params = @Parameter(name = LanguageRoutingBridge.LANGUAGE, value = LanguageRoutingBridge.DEFAULT)))
+    })
+    public String getTopicTitle() {
+        return topic == null ? null : topic.getTitle();
+    }
+
+    /**
+     * @return the identifier of the topic of this post, is used by the search index
+     */
+    @Field(name = POST_TOPIC_ID_FIELD, index = Index.UN_TOKENIZED)
+    public Long getTopicId() {
+        return topic == null ? null : topic.getId();
+    }
+
+    /**
+     * @return the identifier of the branch of the topic of this post, is used by the search index
+     */
+    @Field(name = POST_BRANCH_ID_FIELD, index = Index.UN_TOKENIZED)
+    public Long getBranchId() {
+        return topic == null || topic.getBranch() == null ? null : topic.getBranch().getId();
+    }
+
+    /**
+     * @return the identifier of the author of this post, is used by the search index
+     */
+    @Field(name = POST_AUTHOR_ID_FIELD, index = Index.UN_TOKENIZED)
+    public Long getAuthorId() {
+        return userCreated == null ? null : userCreated.getId();
+    }
+
+    /**
+     * @return the creation time of this post in milliseconds, is used by the search index
+     */
+    @Field(name = POST_CREATION_DATE_FIELD, index = Index.UN_TOKENIZED)
+    @NumericField(forField = POST_CREATION_DATE_FIELD)
+    public Long getCreationTime() {
+        return creationDate == null ? null : creationDate.getMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @DocumentId
+    @Override
+    public long getId() {
+        return super.getId();
+    }
+
     /**
      * @return subscribers of topic of this post
      */
@@ -36,6 +36,8 @@ public class PrivateMessage extends Entity {
     private JCUser userTo;
     private String title;
     private String body;
+    private String renderedBody;
+    private int renderedVersion;
     private boolean read;
 
     private PrivateMessageStatus status = PrivateMessageStatus.NEW;
@@ -80,6 +82,34 @@ public class PrivateMessage extends Entity {
         this.body = body;
     }
 
+    /**
+     * @return HTML rendered from the body when the message was sent, <code>null</code> if it isn't rendered yet
+     */
+    public String getRenderedBody() {
+        return renderedBody;
+    }
+
+    /**
+     * @param renderedBody HTML rendered from the body
+     */
+    public void setRenderedBody(String renderedBody) {
+        this.renderedBody = renderedBody;
+    }
+
+    /**
+     * @return version of the renderer which produced the HTML, 0 if the message isn't rendered yet
+     */
+    public int getRenderedVersion() {
+        return renderedVersion;
+    }
+
+    /**
+     * @param renderedVersion version of the renderer which produced the HTML
+     */
+    public void setRenderedVersion(int renderedVersion) {
+        this.renderedVersion = renderedVersion;
+    }
+
     /**
      * Get the creation timestamp of the message.
      *
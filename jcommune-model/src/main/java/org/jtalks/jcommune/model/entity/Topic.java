@@ -14,8 +14,6 @@
  */
 package org.jtalks.jcommune.model.entity;
 
-import org.apache.solr.analysis.*;
-import org.hibernate.search.annotations.*;
 import org.hibernate.validator.constraints.NotBlank;
 import org.joda.time.DateTime;
 import org.jtalks.common.model.entity.Entity;
@@ -40,77 +38,6 @@ import java.util.Set;
  * @author Max Malakhov
  * @author Anuar Nurmakanov
  */
-@AnalyzerDefs({
-        /*
-        * Describes the analyzer for Russian.
-        */
-        @AnalyzerDef(name = "russianJtalksAnalyzer",
-                tokenizer = @TokenizerDef(factory = StandardTokenizerFactory.class),
-                filters = {
-                        /*
-                        * All "terms" of the search text will be converted to lower case.
-                        */
-                        @TokenFilterDef(factory = LowerCaseFilterFactory.class),
-                        /*
-                        * Several words in language doesn't have a significant value.
-                        * These filters exclude those words from the index.
-                        */
-                        @TokenFilterDef(factory = StopFilterFactory.class,
-                                params = {
-                                        @Parameter(name = "words",
-                                                value = "org/jtalks/jcommune/lucene/english_stop.txt"),
-                                        @Parameter(name = "ignoreCase", value = "true")
-                                }),
-                        @TokenFilterDef(factory = StopFilterFactory.class,
-                                params = {
-                                        @Parameter(name = "words",
-                                                value = "org/jtalks/jcommune/lucene/russian_stop.txt"),
-                                        @Parameter(name = "ignoreCase", value = "true")
-                                }),
-                        /*
-                        * Provides the search by a root of a word.
-                        * If two words have the same root, then they are equal in the terminology of search.
-                        */
-                        @TokenFilterDef(factory = SnowballPorterFilterFactory.class,
-                                params = @Parameter(name = "language", value = "Russian"))
-                }
-        ),
-        /*
-        * Describes the analyzer for default language(English).
-        */
-        @AnalyzerDef(name = "defaultJtalksAnalyzer",
-                tokenizer = @TokenizerDef(factory = StandardTokenizerFactory.class),
-                filters = {
-                        @TokenFilterDef(factory = StandardFilterFactory.class),
-                        /*
-                        * All "terms" of the search text will be converted to lower case.
-                        */
-                        @TokenFilterDef(factory = LowerCaseFilterFactory.class),
-                        /*
-                        * Several words in language don't have a significant value.
-                        * These filters exclude those words from the index.
-                        */
-                        @TokenFilterDef(factory = StopFilterFactory.class,
-                                params = {
-                                        @Parameter(name = "words",
-                                                value = "org/jtalks/jcommune/lucene/english_stop.txt"),
-                                        @Parameter(name = "ignoreCase", value = "true")
-                                }),
-                        @TokenFilterDef(factory = StopFilterFactory.class,
-                                params = {
-                                        @Parameter(name = "words",
-                                                value = "org/jtalks/jcommune/lucene/russian_stop.txt"),
-                                        @Parameter(name = "ignoreCase", value = "true")
-                                }),
-                        /*
-                        * Provides the search by a root of a word.
-                        * If two words have the same root, then they are equal in the terminology of search.
-                        */
-                        @TokenFilterDef(factory = SnowballPorterFilterFactory.class)
-                }
-        )
-})
-@Indexed
 public class Topic extends Entity implements SubscriptionAwareEntity {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(Topic.class);
@@ -127,10 +54,14 @@ public class Topic extends Entity implements SubscriptionAwareEntity {
     private boolean closed;
     private Branch branch;
     private int views;
+    private int pendingViews;
     @Valid
     private Poll poll;
     private CodeReview codeReview;    
     private List<Post> posts = new ArrayList<Post>();
+    private int postCount;
+    private Post lastPost;
+    private DateTime lastPostDate;
     private Set<JCUser> subscribers = new HashSet<JCUser>();
 
     // transient, makes sense for current user only if set explicitly
@@ -139,19 +70,6 @@ public class Topic extends Entity implements SubscriptionAwareEntity {
     public static final int MIN_NAME_SIZE = 1;
     public static final int MAX_NAME_SIZE = 120;
 
-    /**
-     * Name of the field in the index for Russian.
-     */
-    public static final String TOPIC_TITLE_FIELD_RU = "topicTitleRu";
-    /**
-     * Name of the field in the index for default language(English).
-     */
-    public static final String TOPIC_TITLE_FIELD_DEF = "topicTitle";
-    /**
-     * Name of the prefix for collection of posts.
-     */
-    public static final String TOPIC_POSTS_PREFIX = "topicPosts.";
-
 
     /**
      * Creates the Topic instance.
@@ -183,6 +101,7 @@ public class Topic extends Entity implements SubscriptionAwareEntity {
         post.setTopic(this);
         updateModificationDate();
         this.posts.add(post);
+        updatePostsSummary();
     }
 
     /**
@@ -192,6 +111,23 @@ public class Topic extends Entity implements SubscriptionAwareEntity {
      */
     public void removePost(Post postToRemove) {
         posts.remove(postToRemove);
+        updatePostsSummary();
+    }
+
+    /**
+     * Refreshes denormalized post count and last post information after
+     * the list of posts was changed. These values are stored in the topic
+     * itself so that topic listings don't need to load the posts collection.
+     */
+    private void updatePostsSummary() {
+        postCount = posts.size();
+        if (posts.isEmpty()) {
+            lastPost = null;
+            lastPostDate = null;
+        } else {
+            lastPost = posts.get(posts.size() - 1);
+            lastPostDate = lastPost.getCreationDate();
+        }
     }
 
     /**
@@ -246,12 +182,6 @@ public class Topic extends Entity implements SubscriptionAwareEntity {
      *
      * @return the topicName
      */
-    @Fields({
-            @Field(name = TOPIC_TITLE_FIELD_RU,
-                    analyzer = @Analyzer(definition = "russianJtalksAnalyzer")),
-            @Field(name = TOPIC_TITLE_FIELD_DEF,
-                    analyzer = @Analyzer(definition = "defaultJtalksAnalyzer"))
-    })
     public String getTitle() {
         return title;
     }
@@ -275,7 +205,6 @@ public class Topic extends Entity implements SubscriptionAwareEntity {
     /**
      * @return the list of posts in the topic, always not null and not empty
      */
-    @IndexedEmbedded(prefix = TOPIC_POSTS_PREFIX)
     public List<Post> getPosts() {
         return posts;
     }
@@ -310,11 +239,37 @@ public class Topic extends Entity implements SubscriptionAwareEntity {
     
     /**
      * Get the last post in the topic. Topics are guaranteed to have at least the first post.
+     * Value is denormalized, so calling this method doesn't load the posts collection.
      * 
      * @return last post in the topic.
      */
     public Post getLastPost() {
-        return posts.get(posts.size() - 1);
+        return lastPost;
+    }
+
+    /**
+     * @param lastPost last post in the topic, for Hibernate use only
+     */
+    protected void setLastPost(Post lastPost) {
+        this.lastPost = lastPost;
+    }
+
+    /**
+     * Get the creation date of the last post in the topic. Allows to show the
+     * date in topic listings without loading either the posts collection or
+     * the last post itself.
+     *
+     * @return creation date of the last post in the topic
+     */
+    public DateTime getLastPostDate() {
+        return lastPostDate;
+    }
+
+    /**
+     * @param lastPostDate creation date of the last post in the topic, for Hibernate use only
+     */
+    protected void setLastPostDate(DateTime lastPostDate) {
+        this.lastPostDate = lastPostDate;
     }
 
     /**
@@ -384,28 +339,46 @@ public class Topic extends Entity implements SubscriptionAwareEntity {
     }
 
     /**
-     * Get count of post in topic.
+     * Get count of post in topic. Value is denormalized, so calling this
+     * method doesn't load the posts collection.
      *
      * @return count of post
      */
     public int getPostCount() {
-        return posts.size();
+        return postCount;
     }
 
     /**
-     * @return topic page views
+     * @param postCount count of posts in topic, for Hibernate use only
+     */
+    protected void setPostCount(int postCount) {
+        this.postCount = postCount;
+    }
+
+    /**
+     * @return topic page views including views which aren't saved yet
      */
     public int getViews() {
-        return views;
+        return views + pendingViews;
     }
 
     /**
-     * @param views topic page views
+     * @param views saved topic page views
      */
     public void setViews(int views) {
         this.views = views;
     }
 
+    /**
+     * Sets views of the topic which are counted but not saved yet. They aren't
+     * persisted, but are added to the saved views to show them.
+     *
+     * @param pendingViews topic page views which aren't saved yet
+     */
+    public void setPendingViews(int pendingViews) {
+        this.pendingViews = pendingViews;
+    }
+
     /**
      * Get the poll for this topic.
      *
@@ -448,12 +421,12 @@ public class Topic extends Entity implements SubscriptionAwareEntity {
      *              (0 means first post is the last read one)
      */
     public void setLastReadPostIndex(int index) {
-        if (index < posts.size()) {
+        if (index < postCount) {
             lastReadPostIndex = index;
         } else {
             LOGGER.warn("Last read post index ({}) is bigger than last post index ({}) in the topic (TOPID ID: {})",
-                new Object[] {index, posts.size() - 1, getId()});
-            lastReadPostIndex = posts.size() - 1;
+                new Object[] {index, postCount - 1, getId()});
+            lastReadPostIndex = postCount - 1;
         }
     }
     
@@ -465,6 +438,9 @@ public class Topic extends Entity implements SubscriptionAwareEntity {
      * Returns first unread post for current user. If no unread post
      * information has been set explicitly this method will return
      * first topic's post id, considering all topic as unread.
+     * <p/>
+     * Note, that this method loads the posts collection, so topic listings
+     * should link to the "first unread post" page of the topic instead.
      *
      * @return returns first unread post id for the current user
      */
@@ -483,7 +459,7 @@ public class Topic extends Entity implements SubscriptionAwareEntity {
      * @return if current topic has posts still unread by the current user
      */
     public boolean isHasUpdates() {
-        return (lastReadPostIndex == null) || (lastReadPostIndex + 1 < posts.size());
+        return (lastReadPostIndex == null) || (lastReadPostIndex + 1 < postCount);
     }
 
     /**
@@ -496,15 +472,6 @@ public class Topic extends Entity implements SubscriptionAwareEntity {
         return poll != null;
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @DocumentId
-    @Override
-    public long getId() {
-        return super.getId();
-    }
-
     /**
      * {@inheritDoc}
      */
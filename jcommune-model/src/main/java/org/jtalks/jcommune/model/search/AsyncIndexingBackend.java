@@ -0,0 +1,481 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.search.backend.AddLuceneWork;
+import org.hibernate.search.backend.BackendQueueProcessorFactory;
+import org.hibernate.search.backend.DeleteLuceneWork;
+import org.hibernate.search.backend.LuceneWork;
+import org.hibernate.search.backend.impl.lucene.LuceneBackendQueueProcessorFactory;
+import org.hibernate.search.spi.WorkerBuildContext;
+import org.hibernate.search.store.DirectoryProvider;
+import org.jtalks.jcommune.model.entity.Post;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Backend of Hibernate Search which writes changes of the index asynchronously.
+ * Transactions only put their works into a bounded queue (and wait if it's full),
+ * the single writer thread takes works of many transactions at once, drops the works
+ * superseded by the later works for the same entity and applies the rest to the index
+ * with one commit.
+ * <p/>
+ * Searches may not see the latest changes, in the {@link Consistency#AUTHOR} mode
+ * the author of posts can wait until his changes are written to the index.
+ * <p/>
+ * Is enabled by the <code>hibernate.search.worker.backend</code> property set to the name
+ * of this class and configured by the properties:
+ * <ul>
+ * <li><code>hibernate.search.worker.async.queue_size</code> - max number of transactions in the queue</li>
+ * <li><code>hibernate.search.worker.async.batch_size</code> - max number of works in one commit</li>
+ * <li><code>hibernate.search.worker.async.consistency</code> - <code>eventual</code> or <code>author</code></li>
+ * <li><code>hibernate.search.worker.async.wait_timeout</code> - max time in milliseconds
+ * to wait for the changes of the author</li>
+ * </ul>
+ */
+public class AsyncIndexingBackend implements BackendQueueProcessorFactory {
+    public static final String QUEUE_SIZE_PROPERTY = "hibernate.search.worker.async.queue_size";
+    public static final String BATCH_SIZE_PROPERTY = "hibernate.search.worker.async.batch_size";
+    public static final String CONSISTENCY_PROPERTY = "hibernate.search.worker.async.consistency";
+    public static final String WAIT_TIMEOUT_PROPERTY = "hibernate.search.worker.async.wait_timeout";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncIndexingBackend.class);
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final long DEFAULT_WAIT_TIMEOUT = 5000;
+    /** Tells the writer thread to stop after the works queued before it */
+    private static final QueuedWorks STOP = new QueuedWorks(0, Collections.<LuceneWork>emptyList());
+
+    /**
+     * Whether searches should see the latest changes.
+     */
+    public enum Consistency {
+        /** Changes are visible once the writer thread gets to them */
+        EVENTUAL,
+        /** The author of changes waits until they are written before searching */
+        AUTHOR
+    }
+
+    private final LuceneBackendQueueProcessorFactory delegate = new LuceneBackendQueueProcessorFactory();
+    private final Object enqueueLock = new Object();
+    private final Object processedMonitor = new Object();
+    private final ConcurrentMap<String, Long> lastSequencesOfAuthors = new ConcurrentHashMap<String, Long>();
+    private final AtomicInteger queuedWorks = new AtomicInteger();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong committedWorks = new AtomicLong();
+    private final AtomicLong coalescedWorks = new AtomicLong();
+    private final AtomicLong totalCommitMillis = new AtomicLong();
+    private volatile long lastCommitMillis;
+    private volatile long maxCommitMillis;
+    private long enqueuedSequence;
+    private long processedSequence;
+    private BlockingQueue<QueuedWorks> queue;
+    private int batchSize;
+    private Consistency consistency;
+    private long waitTimeout;
+    private Thread writer;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void initialize(Properties props, WorkerBuildContext context) {
+        delegate.initialize(props, context);
+        queue = new ArrayBlockingQueue<QueuedWorks>(
+                Integer.parseInt(props.getProperty(QUEUE_SIZE_PROPERTY, String.valueOf(DEFAULT_QUEUE_SIZE))));
+        batchSize = Integer.parseInt(props.getProperty(BATCH_SIZE_PROPERTY, String.valueOf(DEFAULT_BATCH_SIZE)));
+        consistency = Consistency.valueOf(
+                props.getProperty(CONSISTENCY_PROPERTY, Consistency.AUTHOR.name()).toUpperCase(Locale.ENGLISH));
+        waitTimeout = Long.parseLong(props.getProperty(WAIT_TIMEOUT_PROPERTY, String.valueOf(DEFAULT_WAIT_TIMEOUT)));
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeQueuedWorks();
+            }
+        }, "search-index-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The returned processor only puts works into the queue.
+     */
+    @Override
+    public Runnable getProcessor(List<LuceneWork> works) {
+        final List<LuceneWork> queuedWorks = new ArrayList<LuceneWork>(works);
+        return new Runnable() {
+            @Override
+            public void run() {
+                enqueue(queuedWorks);
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Writes the works which are still in the queue before closing the index.
+     */
+    @Override
+    public void close() {
+        try {
+            queue.put(STOP);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Interrupted while waiting for the search index writer to stop", e);
+        }
+        delegate.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void updateDirectoryProviders(Set<DirectoryProvider<?>> providers, WorkerBuildContext context) {
+        delegate.updateDirectoryProviders(providers, context);
+    }
+
+    /**
+     * Waits until all the changes of posts of the author are written to the index,
+     * if it's required by the consistency mode.
+     *
+     * @param authorId identifier of the author
+     * @return <code>false</code> if the changes weren't written in the configured time
+     */
+    public boolean awaitWritesOf(long authorId) {
+        if (consistency != Consistency.AUTHOR) {
+            return true;
+        }
+        Long sequence = lastSequencesOfAuthors.get(String.valueOf(authorId));
+        if (sequence == null) {
+            return true;
+        }
+        if (!awaitProcessed(sequence, waitTimeout)) {
+            LOGGER.warn("Changes of the user {} weren't written to the search index in {} ms", authorId, waitTimeout);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits until all the works queued before the call are written to the index.
+     *
+     * @param timeoutMillis max time to wait in milliseconds
+     * @return <code>false</code> if the works weren't written in the given time
+     */
+    public boolean awaitQueuedWrites(long timeoutMillis) {
+        long sequence;
+        synchronized (enqueueLock) {
+            sequence = enqueuedSequence;
+        }
+        return awaitProcessed(sequence, timeoutMillis);
+    }
+
+    /**
+     * Waits until the transaction with the given sequence number is written to the index.
+     *
+     * @param sequence number of the transaction in the queue
+     * @param timeoutMillis max time to wait in milliseconds
+     * @return <code>false</code> if the transaction wasn't written in the given time
+     */
+    private boolean awaitProcessed(long sequence, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (processedMonitor) {
+            while (processedSequence < sequence) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    processedMonitor.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Puts works of one transaction into the queue, waits if the queue is full.
+     *
+     * @param works works of the transaction
+     */
+    private void enqueue(List<LuceneWork> works) {
+        if (works.isEmpty()) {
+            return;
+        }
+        long sequence;
+        //sequences must grow in the order of the queue to know which transactions are written
+        synchronized (enqueueLock) {
+            sequence = ++enqueuedSequence;
+            queuedWorks.addAndGet(works.size());
+            try {
+                queue.put(new QueuedWorks(sequence, works));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queuedWorks.addAndGet(-works.size());
+                LOGGER.warn("Interrupted while waiting for the search index queue, works are written synchronously");
+                delegate.getProcessor(works).run();
+                return;
+            }
+        }
+        for (LuceneWork work : works) {
+            if (work instanceof AddLuceneWork) {
+                String authorId = work.getDocument().get(Post.POST_AUTHOR_ID_FIELD);
+                if (authorId != null) {
+                    lastSequencesOfAuthors.put(authorId, sequence);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loop of the writer thread.
+     */
+    private void writeQueuedWorks() {
+        List<QueuedWorks> batch = new ArrayList<QueuedWorks>();
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                QueuedWorks next = queue.take();
+                int works = 0;
+                while (next != null) {
+                    if (next == STOP) {
+                        stopped = true;
+                        break;
+                    }
+                    batch.add(next);
+                    works += next.works.size();
+                    next = works < batchSize ? queue.poll() : null;
+                }
+                if (!batch.isEmpty()) {
+                    write(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warn("Search index writer is interrupted", e);
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.error("Unable to write changes to the search index", e);
+                markProcessed(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes works of transactions to the index with one commit.
+     *
+     * @param batch queued works of transactions
+     */
+    private void write(List<QueuedWorks> batch) {
+        List<LuceneWork> works = new ArrayList<LuceneWork>();
+        for (QueuedWorks queued : batch) {
+            works.addAll(queued.works);
+        }
+        List<LuceneWork> coalesced = coalesce(works);
+        long start = System.currentTimeMillis();
+        delegate.getProcessor(coalesced).run();
+        long commitMillis = System.currentTimeMillis() - start;
+
+        commits.incrementAndGet();
+        committedWorks.addAndGet(coalesced.size());
+        coalescedWorks.addAndGet(works.size() - coalesced.size());
+        totalCommitMillis.addAndGet(commitMillis);
+        lastCommitMillis = commitMillis;
+        maxCommitMillis = Math.max(maxCommitMillis, commitMillis);
+        markProcessed(batch);
+    }
+
+    /**
+     * Notifies the authors waiting for the written transactions.
+     *
+     * @param batch queued works of transactions
+     */
+    private void markProcessed(List<QueuedWorks> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int works = 0;
+        for (QueuedWorks queued : batch) {
+            works += queued.works.size();
+        }
+        queuedWorks.addAndGet(-works);
+        long sequence = batch.get(batch.size() - 1).sequence;
+        synchronized (processedMonitor) {
+            processedSequence = sequence;
+            processedMonitor.notifyAll();
+        }
+        for (Map.Entry<String, Long> authorSequence : lastSequencesOfAuthors.entrySet()) {
+            if (authorSequence.getValue() <= sequence) {
+                lastSequencesOfAuthors.remove(authorSequence.getKey(), authorSequence.getValue());
+            }
+        }
+    }
+
+    /**
+     * Drops the works superseded by the later works for the same entity: the later deletion
+     * supersedes everything before it, the later addition supersedes the previous addition
+     * (the deletion before it is kept to remove the old document). Works for whole indexes,
+     * like purging, are never dropped and nothing is moved across them.
+     *
+     * @param works works in the order of their transactions
+     * @return the works to apply in the same order
+     */
+    static List<LuceneWork> coalesce(List<LuceneWork> works) {
+        List<LuceneWork> result = new ArrayList<LuceneWork>(works.size());
+        Map<String, List<LuceneWork>> worksByEntity = new LinkedHashMap<String, List<LuceneWork>>();
+        for (LuceneWork work : works) {
+            if (work.getIdInString() == null) {
+                flush(worksByEntity, result);
+                result.add(work);
+                continue;
+            }
+            String key = work.getEntityClass().getName() + '#' + work.getIdInString();
+            List<LuceneWork> entityWorks = worksByEntity.get(key);
+            if (entityWorks == null) {
+                entityWorks = new ArrayList<LuceneWork>(2);
+                worksByEntity.put(key, entityWorks);
+            }
+            if (work instanceof DeleteLuceneWork) {
+                entityWorks.clear();
+            } else if (work instanceof AddLuceneWork) {
+                LuceneWork previous = entityWorks.isEmpty() ? null : entityWorks.get(entityWorks.size() - 1);
+                if (previous instanceof AddLuceneWork) {
+                    entityWorks.remove(entityWorks.size() - 1);
+                }
+            }
+            entityWorks.add(work);
+        }
+        flush(worksByEntity, result);
+        return result;
+    }
+
+    /**
+     * Moves collected works of entities to the result.
+     *
+     * @param worksByEntity collected works of entities
+     * @param result works to apply
+     */
+    private static void flush(Map<String, List<LuceneWork>> worksByEntity, List<LuceneWork> result) {
+        for (List<LuceneWork> entityWorks : worksByEntity.values()) {
+            result.addAll(entityWorks);
+        }
+        worksByEntity.clear();
+    }
+
+    /**
+     * @return the current consistency mode
+     */
+    public Consistency getConsistency() {
+        return consistency;
+    }
+
+    /**
+     * @return number of works waiting in the queue or being written
+     */
+    public int getQueuedWorks() {
+        return queuedWorks.get();
+    }
+
+    /**
+     * @return time in milliseconds the oldest transaction in the queue waits to be written
+     */
+    public long getLagMillis() {
+        QueuedWorks oldest = queue.peek();
+        return oldest == null || oldest == STOP ? 0 : System.currentTimeMillis() - oldest.enqueuedTime;
+    }
+
+    /**
+     * @return number of commits to the index
+     */
+    public long getCommits() {
+        return commits.get();
+    }
+
+    /**
+     * @return number of works applied to the index
+     */
+    public long getCommittedWorks() {
+        return committedWorks.get();
+    }
+
+    /**
+     * @return number of works dropped because they were superseded by later works
+     */
+    public long getCoalescedWorks() {
+        return coalescedWorks.get();
+    }
+
+    /**
+     * @return duration of the last commit in milliseconds
+     */
+    public long getLastCommitMillis() {
+        return lastCommitMillis;
+    }
+
+    /**
+     * @return average duration of commits in milliseconds
+     */
+    public long getAverageCommitMillis() {
+        long count = commits.get();
+        return count == 0 ? 0 : totalCommitMillis.get() / count;
+    }
+
+    /**
+     * @return max duration of commits in milliseconds
+     */
+    public long getMaxCommitMillis() {
+        return maxCommitMillis;
+    }
+
+    /**
+     * Works of one transaction waiting in the queue.
+     */
+    private static final class QueuedWorks {
+        private final long sequence;
+        private final List<LuceneWork> works;
+        private final long enqueuedTime = System.currentTimeMillis();
+
+        /**
+         * @param sequence number of the transaction in the queue
+         * @param works works of the transaction
+         */
+        private QueuedWorks(long sequence, List<LuceneWork> works) {
+            this.sequence = sequence;
+            this.works = works;
+        }
+    }
+}
@@ -28,7 +28,8 @@ import org.hibernate.search.bridge.StringBridge;
  * @see FieldBridge
  */
 public class BbCodeFilterBridge implements StringBridge {
-    private static final String BB_CODE_REGEXP_TEMPLATE = "\\[.*?\\]";
+    private static final char TAG_START = '[';
+    private static final char TAG_END = ']';
     
     /**
      * {@inheritDoc}
@@ -36,9 +37,91 @@ public class BbCodeFilterBridge implements StringBridge {
     @Override
     public String objectToString(Object object) {
         if (object instanceof String) {
-            String value = (String) object;
-            return value.replaceAll(BB_CODE_REGEXP_TEMPLATE, " ");
+            return stripBbCodes((String) object);
         }
         return ObjectUtils.toString(object);
     }
+
+    /**
+     * Replaces every bbcode tag, that is any text in square brackets on a single line, with a space.
+     *
+     * @param text the text with bbcodes
+     * @return the text without bbcodes
+     */
+    public static String stripBbCodes(String text) {
+        return replaceBbCodes(text, " ");
+    }
+
+    /**
+     * Cuts out every bbcode tag, that is any text in square brackets on a single line. The result is the same as
+     * of <code>text.replaceAll("\\[.*?\\]", "")</code>, but no regular expression is involved.
+     *
+     * @param text the text with bbcodes
+     * @return the text without bbcodes
+     */
+    public static String removeBbCodes(String text) {
+        return replaceBbCodes(text, "");
+    }
+
+    /**
+     * Replaces every bbcode tag with the given replacement.
+     * The text is passed only once: an unclosed bracket remembers how far there is no closing one,
+     * so following brackets before that position are kept without scanning again.
+     *
+     * @param text        the text with bbcodes
+     * @param replacement the text to put instead of each tag
+     * @return the text without bbcodes
+     */
+    private static String replaceBbCodes(String text, String replacement) {
+        if (text.indexOf(TAG_START) < 0) {
+            return text;
+        }
+        StringBuilder result = new StringBuilder(text.length());
+        int length = text.length();
+        int unclosedUntil = -1;
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == TAG_START && i > unclosedUntil) {
+                int tagEnd = findTagEnd(text, i + 1);
+                if (text.charAt(tagEnd) == TAG_END) {
+                    result.append(replacement);
+                    i = tagEnd + 1;
+                    continue;
+                }
+                unclosedUntil = tagEnd;
+            }
+            result.append(c);
+            i++;
+        }
+        return result.toString();
+    }
+
+    /**
+     * Finds where the tag started before the given position ends.
+     *
+     * @param text the text
+     * @param from the position to look from
+     * @return the position of the closing bracket, or of the line end or the last character
+     *         if the tag isn't closed
+     */
+    private static int findTagEnd(String text, int from) {
+        int i = from;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == TAG_END || isLineEnd(c)) {
+                return i;
+            }
+            i++;
+        }
+        return text.length() - 1;
+    }
+
+    /**
+     * @param c the character
+     * @return <code>true</code> if the character ends a line, tags can't span several lines
+     */
+    private static boolean isLineEnd(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
 }
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.search;
+
+import java.util.Map;
+
+import org.hibernate.search.bridge.ParameterizedBridge;
+import org.hibernate.search.bridge.StringBridge;
+
+/**
+ * Indexes the text only in the field of its language, so the text is analyzed once
+ * instead of once per language. The bridge is declared for every field of the same property,
+ * each field with its own language:
+ * <pre>
+ * &#64;Field(name = "contentRu", analyzer = &#64;Analyzer(definition = "russianJtalksAnalyzer"),
+ *     bridge = &#64;FieldBridge(impl = LanguageRoutingBridge.class,
+ *         params = &#64;Parameter(name = LanguageRoutingBridge.LANGUAGE, value = LanguageRoutingBridge.RUSSIAN)))
+ * </pre>
+ * The language is detected by the script of letters, which is enough to tell Russian texts from the others.
+ * Texts mixing scripts go to the Russian field if it has a noticeable share of Cyrillic letters, latin words
+ * aren't stemmed there but still can be found as they are.
+ *
+ * @see BbCodeFilterBridge
+ */
+public class LanguageRoutingBridge implements StringBridge, ParameterizedBridge {
+    /** Name of the parameter with the language of the field */
+    public static final String LANGUAGE = "language";
+    /** Name of the parameter telling whether bbcodes should be removed, <code>false</code> by default */
+    public static final String STRIP_BB_CODES = "stripBbCodes";
+    /** The field is for Russian texts */
+    public static final String RUSSIAN = "russian";
+    /** The field is for texts in all the other languages */
+    public static final String DEFAULT = "default";
+    /** A text is Russian if at least one of this number of its letters is Cyrillic */
+    private static final int CYRILLIC_SHARE_DIVISOR = 4;
+
+    private boolean russian;
+    private boolean stripBbCodes;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void setParameterValues(Map parameters) {
+        Object language = parameters.get(LANGUAGE);
+        if (RUSSIAN.equals(language)) {
+            russian = true;
+        } else if (DEFAULT.equals(language)) {
+            russian = false;
+        } else {
+            throw new IllegalArgumentException("Unknown language of the field: " + language);
+        }
+        stripBbCodes = Boolean.valueOf(String.valueOf(parameters.get(STRIP_BB_CODES)));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the text or <code>null</code> if it's in the language of another field,
+     *         then the field isn't added to the document
+     */
+    @Override
+    public String objectToString(Object object) {
+        if (object == null) {
+            return null;
+        }
+        String text = object.toString();
+        if (stripBbCodes) {
+            text = BbCodeFilterBridge.stripBbCodes(text);
+        }
+        return isRussian(text) == russian ? text : null;
+    }
+
+    /**
+     * Detects the language of the text by its letters in one pass.
+     *
+     * @param text the text
+     * @return <code>true</code> if the text is Russian
+     */
+    static boolean isRussian(CharSequence text) {
+        int letters = 0;
+        int cyrillicLetters = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '\u0400' && c <= '\u04FF') {
+                cyrillicLetters++;
+                letters++;
+            } else if (Character.isLetter(c)) {
+                letters++;
+            }
+        }
+        return cyrillicLetters > 0 && cyrillicLetters * CYRILLIC_SHARE_DIVISOR >= letters;
+    }
+}
@@ -0,0 +1,341 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.search;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.Version;
+import org.apache.solr.analysis.StopFilterFactory;
+import org.hibernate.search.SearchException;
+import org.hibernate.search.SearchFactory;
+import org.hibernate.search.util.HibernateSearchResourceLoader;
+import org.jtalks.jcommune.model.entity.Post;
+
+/**
+ * Turns the search text into a query over the indexed title and content of posts.
+ * <p/>
+ * Words of the text are analyzed with the same analyzers as the fields were indexed with,
+ * so they are stemmed and stop words are skipped just like on indexing. Words in double quotes
+ * are searched as a phrase, a word ending with an asterisk is searched as a prefix, for example
+ * <code>"spring security" config*</code>. Characters other than letters and digits are ignored.
+ * <p/>
+ * The pipeline is built once: stop words are loaded on creation and analyzers of the search factory
+ * are resolved on the first query and then reused, their token streams are reused per thread.
+ *
+ * @see Post
+ */
+public class SearchQueryPipeline {
+    /** Name of the analyzer of fields with the Russian text */
+    public static final String RUSSIAN_ANALYZER = "russianJtalksAnalyzer";
+    /** Name of the analyzer of fields with the text in other languages */
+    public static final String DEFAULT_ANALYZER = "defaultJtalksAnalyzer";
+    /** Shorter prefixes match too many terms to be useful */
+    static final int MIN_PREFIX_LENGTH = 2;
+    private static final char PHRASE_QUOTE = '"';
+    private static final char PREFIX_WILDCARD = '*';
+    /**
+     * Searched fields and names of analyzers they are indexed with. A text is indexed only in the field
+     * of its language, but words of other languages occur in it too, so every word is searched in all the fields.
+     */
+    private static final String[][] FIELDS = {
+            {Post.POST_TOPIC_TITLE_FIELD_DEF, DEFAULT_ANALYZER},
+            {Post.POST_TOPIC_TITLE_FIELD_RU, RUSSIAN_ANALYZER},
+            {Post.POST_CONTENT_FIELD_DEF, DEFAULT_ANALYZER},
+            {Post.POST_CONTENT_FIELD_RU, RUSSIAN_ANALYZER}
+    };
+
+    private final CharArraySet stopWords;
+    private volatile Map<String, Analyzer> analyzers;
+
+    /**
+     * @param stopWordsFiles files with stop words, the same as analyzers of the searched fields use
+     */
+    public SearchQueryPipeline(List<String> stopWordsFiles) {
+        CharArraySet words = new CharArraySet(Version.LUCENE_31, 1024, true);
+        HibernateSearchResourceLoader resourceLoader = new HibernateSearchResourceLoader();
+        for (String stopWordsFile : stopWordsFiles) {
+            StopFilterFactory filterFactory = new StopFilterFactory();
+            Map<String, String> arguments = new HashMap<String, String>();
+            arguments.put("words", stopWordsFile);
+            arguments.put("luceneMatchVersion", String.valueOf(Version.LUCENE_31));
+            arguments.put("ignoreCase", String.valueOf(true));
+            filterFactory.init(arguments);
+            filterFactory.inform(resourceLoader);
+            words.addAll(filterFactory.getStopWords());
+        }
+        this.stopWords = CharArraySet.unmodifiableSet(words);
+    }
+
+    /**
+     * Builds the query for the search text.
+     *
+     * @param searchText the search text as the user entered it
+     * @param searchFactory the search factory to get analyzers of the searched fields from
+     * @return the query or <code>null</code> if the text has nothing to search by
+     */
+    public Query build(String searchText, SearchFactory searchFactory) {
+        ParsedText parsedText = parse(searchText);
+        if (parsedText.isEmpty()) {
+            return null;
+        }
+        Map<String, Analyzer> fieldAnalyzers = getAnalyzers(searchFactory);
+        BooleanQuery query = new BooleanQuery();
+        for (String[] field : FIELDS) {
+            String fieldName = field[0];
+            Analyzer analyzer = fieldAnalyzers.get(field[1]);
+            if (parsedText.words.length() > 0) {
+                for (String term : analyze(analyzer, fieldName, parsedText.words.toString(), null)) {
+                    query.add(new TermQuery(new Term(fieldName, term)), BooleanClause.Occur.SHOULD);
+                }
+            }
+            for (String phrase : parsedText.phrases) {
+                Query phraseQuery = createPhraseQuery(analyzer, fieldName, phrase);
+                if (phraseQuery != null) {
+                    query.add(phraseQuery, BooleanClause.Occur.SHOULD);
+                }
+            }
+            for (String prefix : parsedText.prefixes) {
+                query.add(new PrefixQuery(new Term(fieldName, prefix)), BooleanClause.Occur.SHOULD);
+            }
+        }
+        return query.clauses().isEmpty() ? null : query;
+    }
+
+    /**
+     * Splits the search text into words, phrases and prefixes in a single pass, skipping stop words.
+     *
+     * @param searchText the search text
+     * @return parts of the text to search by
+     */
+    ParsedText parse(String searchText) {
+        ParsedText parsedText = new ParsedText();
+        StringBuilder word = new StringBuilder();
+        StringBuilder phrase = null;
+        for (int i = 0; i < searchText.length(); i++) {
+            char c = searchText.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (c == PHRASE_QUOTE) {
+                if (phrase == null) {
+                    parsedText.addWord(word);
+                    phrase = new StringBuilder();
+                } else {
+                    appendWord(phrase, word);
+                    parsedText.addPhrase(phrase);
+                    phrase = null;
+                }
+            } else if (c == PREFIX_WILDCARD && phrase == null && word.length() > 0) {
+                parsedText.addPrefix(word);
+            } else if (phrase != null) {
+                appendWord(phrase, word);
+            } else {
+                parsedText.addWord(word);
+            }
+        }
+        if (phrase != null) {
+            // the quote isn't closed, so words are searched as usual
+            appendWord(phrase, word);
+            parsedText.addWord(phrase);
+        } else {
+            parsedText.addWord(word);
+        }
+        return parsedText;
+    }
+
+    /**
+     * Moves the word to the phrase.
+     *
+     * @param phrase the phrase
+     * @param word the word, it's cleared
+     */
+    private void appendWord(StringBuilder phrase, StringBuilder word) {
+        if (word.length() > 0) {
+            if (phrase.length() > 0) {
+                phrase.append(' ');
+            }
+            phrase.append(word);
+            word.setLength(0);
+        }
+    }
+
+    /**
+     * Creates the query for the phrase, analyzed words keep their positions relative to each other.
+     *
+     * @param analyzer the analyzer of the field
+     * @param fieldName the name of the field
+     * @param phrase the phrase
+     * @return the query or <code>null</code> if the phrase consists of stop words only
+     */
+    private Query createPhraseQuery(Analyzer analyzer, String fieldName, String phrase) {
+        List<Integer> positions = new ArrayList<Integer>();
+        List<String> terms = analyze(analyzer, fieldName, phrase, positions);
+        if (terms.isEmpty()) {
+            return null;
+        }
+        if (terms.size() == 1) {
+            return new TermQuery(new Term(fieldName, terms.get(0)));
+        }
+        PhraseQuery query = new PhraseQuery();
+        for (int i = 0; i < terms.size(); i++) {
+            query.add(new Term(fieldName, terms.get(i)), positions.get(i));
+        }
+        return query;
+    }
+
+    /**
+     * Analyzes the text reusing the token stream of the analyzer in the current thread.
+     *
+     * @param analyzer the analyzer
+     * @param fieldName the name of the field the text is analyzed for
+     * @param text the text
+     * @param positions positions of terms are added to if not <code>null</code>
+     * @return terms of the text
+     */
+    private List<String> analyze(Analyzer analyzer, String fieldName, String text, List<Integer> positions) {
+        List<String> terms = new ArrayList<String>();
+        try {
+            TokenStream stream = analyzer.reusableTokenStream(fieldName, new StringReader(text));
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute positionIncrement = stream.addAttribute(PositionIncrementAttribute.class);
+            stream.reset();
+            int position = -1;
+            while (stream.incrementToken()) {
+                position += positionIncrement.getPositionIncrement();
+                terms.add(term.toString());
+                if (positions != null) {
+                    positions.add(position);
+                }
+            }
+            stream.end();
+            stream.close();
+        } catch (IOException e) {
+            throw new SearchException("Unable to analyze the search text", e);
+        }
+        return terms;
+    }
+
+    /**
+     * Gets analyzers of the searched fields, they're resolved once.
+     *
+     * @param searchFactory the search factory
+     * @return analyzers by their names
+     */
+    private Map<String, Analyzer> getAnalyzers(SearchFactory searchFactory) {
+        Map<String, Analyzer> resolved = analyzers;
+        if (resolved == null) {
+            resolved = new HashMap<String, Analyzer>();
+            resolved.put(RUSSIAN_ANALYZER, searchFactory.getAnalyzer(RUSSIAN_ANALYZER));
+            resolved.put(DEFAULT_ANALYZER, searchFactory.getAnalyzer(DEFAULT_ANALYZER));
+            analyzers = resolved;
+        }
+        return resolved;
+    }
+
+    /**
+     * Parts of the search text to search by.
+     */
+    final class ParsedText {
+        private final StringBuilder words = new StringBuilder();
+        private final List<String> phrases = new ArrayList<String>();
+        private final List<String> prefixes = new ArrayList<String>();
+
+        /**
+         * Moves the word to words of the text unless it's a stop word.
+         *
+         * @param word the word, it's cleared
+         */
+        private void addWord(StringBuilder word) {
+            if (word.length() > 0 && !stopWords.contains(word)) {
+                if (words.length() > 0) {
+                    words.append(' ');
+                }
+                words.append(word);
+            }
+            word.setLength(0);
+        }
+
+        /**
+         * Moves the phrase to phrases of the text, a phrase of a single word is searched as a word.
+         *
+         * @param phrase the phrase, it's cleared
+         */
+        private void addPhrase(StringBuilder phrase) {
+            if (phrase.indexOf(" ") < 0) {
+                addWord(phrase);
+            } else {
+                phrases.add(phrase.toString());
+                phrase.setLength(0);
+            }
+        }
+
+        /**
+         * Moves the word to prefixes of the text. Prefixes aren't stemmed, so they're only lower cased.
+         *
+         * @param word the word, it's cleared
+         */
+        private void addPrefix(StringBuilder word) {
+            if (word.length() >= MIN_PREFIX_LENGTH && !stopWords.contains(word)) {
+                prefixes.add(word.toString().toLowerCase(Locale.ENGLISH));
+            }
+            word.setLength(0);
+        }
+
+        /**
+         * @return words of the text separated by spaces
+         */
+        String getWords() {
+            return words.toString();
+        }
+
+        /**
+         * @return phrases of the text
+         */
+        List<String> getPhrases() {
+            return phrases;
+        }
+
+        /**
+         * @return lower cased prefixes of the text
+         */
+        List<String> getPrefixes() {
+            return prefixes;
+        }
+
+        /**
+         * @return <code>true</code> if there is nothing to search by
+         */
+        boolean isEmpty() {
+            return words.length() == 0 && phrases.isEmpty() && prefixes.isEmpty();
+        }
+    }
+}
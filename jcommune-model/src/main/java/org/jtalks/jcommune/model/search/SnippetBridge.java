@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.search;
+
+import org.hibernate.search.bridge.StringBridge;
+
+/**
+ * Makes the compact text of a post to be stored in the index and shown in search results.
+ * Bbcodes are removed, runs of whitespaces are collapsed to a single space and the text
+ * is cut to {@link #MAX_LENGTH} characters.
+ *
+ * @see SnippetHighlighter
+ */
+public class SnippetBridge implements StringBridge {
+    /** Maximal length of the stored text, terms after it aren't highlighted in search results */
+    public static final int MAX_LENGTH = 1000;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String objectToString(Object object) {
+        if (object == null) {
+            return null;
+        }
+        String text = BbCodeFilterBridge.stripBbCodes(object.toString());
+        StringBuilder snippet = new StringBuilder(Math.min(text.length(), MAX_LENGTH));
+        boolean whitespace = false;
+        for (int i = 0; i < text.length() && snippet.length() < MAX_LENGTH; i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                whitespace = snippet.length() > 0;
+            } else {
+                if (whitespace) {
+                    if (snippet.length() + 1 == MAX_LENGTH) {
+                        break;
+                    }
+                    snippet.append(' ');
+                    whitespace = false;
+                }
+                snippet.append(c);
+            }
+        }
+        return snippet.toString();
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.search;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.hibernate.search.SearchException;
+import org.hibernate.search.SearchFactory;
+import org.jtalks.jcommune.model.entity.Post;
+
+/**
+ * Makes a fragment of the stored snippet of a found post with terms of the search query highlighted.
+ * The snippet is analyzed with the analyzer of the field of its language, so the highlighted words
+ * are the ones that matched, including other forms of the searched words.
+ *
+ * @see SnippetBridge
+ * @see SearchQueryPipeline
+ */
+public class SnippetHighlighter {
+    /** Approximate length of the fragment */
+    public static final int FRAGMENT_LENGTH = 200;
+    /** Number of characters shown before the first highlighted word */
+    private static final int CONTEXT_LENGTH = 50;
+    private static final String HIGHLIGHT_START = "<b>";
+    private static final String HIGHLIGHT_END = "</b>";
+    private static final String ELLIPSIS = "...";
+
+    /**
+     * Makes the fragment of the snippet around the first word matching the query.
+     *
+     * @param snippet the stored snippet of the post
+     * @param query the search query, built by {@link SearchQueryPipeline}
+     * @param searchFactory the search factory to get analyzers from
+     * @return HTML of the fragment with highlighted words, the text is escaped;
+     *         the beginning of the snippet if there are no matching words in it,
+     *         <code>null</code> if there is no snippet
+     */
+    public String highlight(String snippet, Query query, SearchFactory searchFactory) {
+        if (snippet == null || snippet.length() == 0) {
+            return null;
+        }
+        boolean russian = LanguageRoutingBridge.isRussian(snippet);
+        String field = russian ? Post.POST_CONTENT_FIELD_RU : Post.POST_CONTENT_FIELD_DEF;
+        Analyzer analyzer = searchFactory.getAnalyzer(
+                russian ? SearchQueryPipeline.RUSSIAN_ANALYZER : SearchQueryPipeline.DEFAULT_ANALYZER);
+        Set<String> terms = new HashSet<String>();
+        List<String> prefixes = new ArrayList<String>();
+        collectTerms(query, field, terms, prefixes);
+        List<int[]> highlights = findHighlights(snippet, field, analyzer, terms, prefixes);
+        return makeFragment(snippet, highlights);
+    }
+
+    /**
+     * Collects terms and prefixes of the field the query searches for.
+     *
+     * @param query the query
+     * @param field the name of the field
+     * @param terms terms are added to
+     * @param prefixes prefixes are added to
+     */
+    private void collectTerms(Query query, String field, Set<String> terms, List<String> prefixes) {
+        if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+                if (!clause.isProhibited()) {
+                    collectTerms(clause.getQuery(), field, terms, prefixes);
+                }
+            }
+        } else if (query instanceof TermQuery) {
+            addTerm(((TermQuery) query).getTerm(), field, terms);
+        } else if (query instanceof PhraseQuery) {
+            for (Term term : ((PhraseQuery) query).getTerms()) {
+                addTerm(term, field, terms);
+            }
+        } else if (query instanceof PrefixQuery) {
+            Term prefix = ((PrefixQuery) query).getPrefix();
+            if (field.equals(prefix.field())) {
+                prefixes.add(prefix.text());
+            }
+        }
+    }
+
+    /**
+     * @param term the term
+     * @param field the name of the field
+     * @param terms the term is added to if it's of the field
+     */
+    private void addTerm(Term term, String field, Set<String> terms) {
+        if (field.equals(term.field())) {
+            terms.add(term.text());
+        }
+    }
+
+    /**
+     * Finds words of the snippet matching terms or prefixes.
+     *
+     * @param snippet the snippet
+     * @param field the name of the field the snippet is analyzed for
+     * @param analyzer the analyzer of the field
+     * @param terms analyzed terms of the query
+     * @param prefixes lower cased prefixes of the query
+     * @return start and end offsets of matching words in their order
+     */
+    private List<int[]> findHighlights(String snippet, String field, Analyzer analyzer,
+                                       Set<String> terms, List<String> prefixes) {
+        List<int[]> highlights = new ArrayList<int[]>();
+        if (terms.isEmpty() && prefixes.isEmpty()) {
+            return highlights;
+        }
+        try {
+            TokenStream stream = analyzer.reusableTokenStream(field, new StringReader(snippet));
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                int start = offset.startOffset();
+                int end = offset.endOffset();
+                if (terms.contains(term.toString()) || startsWithAny(snippet.substring(start, end), prefixes)) {
+                    highlights.add(new int[]{start, end});
+                }
+            }
+            stream.end();
+            stream.close();
+        } catch (IOException e) {
+            throw new SearchException("Unable to analyze the snippet", e);
+        }
+        return highlights;
+    }
+
+    /**
+     * @param word the word
+     * @param prefixes lower cased prefixes
+     * @return <code>true</code> if the word starts with any of prefixes ignoring the case
+     */
+    private boolean startsWithAny(String word, List<String> prefixes) {
+        String lowerCaseWord = word.toLowerCase(Locale.ENGLISH);
+        for (String prefix : prefixes) {
+            if (lowerCaseWord.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cuts the fragment around the first highlighted word at word boundaries and highlights words in it.
+     *
+     * @param snippet the snippet
+     * @param highlights offsets of words to highlight
+     * @return HTML of the fragment
+     */
+    private String makeFragment(String snippet, List<int[]> highlights) {
+        int start = 0;
+        if (!highlights.isEmpty() && highlights.get(0)[0] > CONTEXT_LENGTH) {
+            int firstHighlight = highlights.get(0)[0];
+            int wordStart = snippet.indexOf(' ', firstHighlight - CONTEXT_LENGTH) + 1;
+            start = wordStart > 0 && wordStart <= firstHighlight ? wordStart : firstHighlight;
+        }
+        int end = snippet.length();
+        if (end - start > FRAGMENT_LENGTH) {
+            end = start + FRAGMENT_LENGTH;
+            int wordEnd = snippet.lastIndexOf(' ', end);
+            if (wordEnd > start) {
+                end = wordEnd;
+            }
+        }
+        StringBuilder fragment = new StringBuilder(FRAGMENT_LENGTH + HIGHLIGHT_START.length() * 4);
+        if (start > 0) {
+            fragment.append(ELLIPSIS);
+        }
+        int position = start;
+        for (int[] highlight : highlights) {
+            if (highlight[0] < position) {
+                continue;
+            }
+            if (highlight[1] > end) {
+                break;
+            }
+            fragment.append(StringEscapeUtils.escapeHtml(snippet.substring(position, highlight[0])))
+                    .append(HIGHLIGHT_START)
+                    .append(StringEscapeUtils.escapeHtml(snippet.substring(highlight[0], highlight[1])))
+                    .append(HIGHLIGHT_END);
+            position = highlight[1];
+        }
+        fragment.append(StringEscapeUtils.escapeHtml(snippet.substring(position, end)));
+        if (end < snippet.length()) {
+            fragment.append(ELLIPSIS);
+        }
+        return fragment.toString();
+    }
+}
@@ -14,6 +14,7 @@
  */
 package org.jtalks.jcommune.model.validation.validators;
 
+import org.jtalks.jcommune.model.search.BbCodeFilterBridge;
 import org.jtalks.jcommune.model.validation.annotations.BbCodeAwareSize;
 
 import javax.validation.ConstraintValidator;
@@ -59,6 +60,6 @@ public class BbCodeAwareSizeValidator implements ConstraintValidator<BbCodeAware
      * @return plain text without BB tags
      */
     private String removeBBCodes(String source) {
-        return source.replaceAll("\\[.*?\\]", "");
+        return BbCodeFilterBridge.removeBbCodes(source);
     }
 }
@@ -0,0 +1,26 @@
+ALTER TABLE TOPIC ADD POST_COUNT INT(11) NOT NULL DEFAULT 0;
+ALTER TABLE TOPIC ADD LAST_POST_ID BIGINT(20) DEFAULT NULL;
+ALTER TABLE TOPIC ADD LAST_POST_DATE DATETIME DEFAULT NULL;
+ALTER TABLE TOPIC ADD
+  CONSTRAINT FK_TOPIC_LAST_POST
+  FOREIGN KEY (LAST_POST_ID)
+  REFERENCES POST(POST_ID)
+  ON DELETE SET NULL;
+
+UPDATE TOPIC
+SET POST_COUNT = (
+    SELECT COUNT(*) FROM POST WHERE POST.TOPIC_ID = TOPIC.TOPIC_ID
+);
+
+UPDATE TOPIC
+SET LAST_POST_ID = (
+    SELECT POST.POST_ID FROM POST
+    WHERE POST.TOPIC_ID = TOPIC.TOPIC_ID
+    ORDER BY POST.LIST_INDEX DESC
+    LIMIT 1
+);
+
+UPDATE TOPIC
+SET LAST_POST_DATE = (
+    SELECT POST.POST_DATE FROM POST WHERE POST.POST_ID = TOPIC.LAST_POST_ID
+);
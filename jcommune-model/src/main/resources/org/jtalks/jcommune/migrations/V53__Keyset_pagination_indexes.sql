@@ -0,0 +1,3 @@
+CREATE INDEX IDX_TOPIC_BRANCH_ORDER ON TOPIC (BRANCH_ID, STICKED, MODIFICATION_DATE, TOPIC_ID);
+CREATE INDEX IDX_POST_TOPIC_ORDER ON POST (TOPIC_ID, POST_DATE, POST_ID);
+CREATE INDEX IDX_POST_USER_ORDER ON POST (USER_CREATED, POST_DATE, POST_ID);
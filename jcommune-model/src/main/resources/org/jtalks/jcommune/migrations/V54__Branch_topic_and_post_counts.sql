@@ -0,0 +1,12 @@
+ALTER TABLE BRANCHES ADD TOPICS_COUNT INT(11) NOT NULL DEFAULT 0;
+ALTER TABLE BRANCHES ADD POSTS_COUNT INT(11) NOT NULL DEFAULT 0;
+
+UPDATE BRANCHES
+SET TOPICS_COUNT = (
+    SELECT COUNT(*) FROM TOPIC WHERE TOPIC.BRANCH_ID = BRANCHES.BRANCH_ID
+);
+
+UPDATE BRANCHES
+SET POSTS_COUNT = (
+    SELECT COALESCE(SUM(TOPIC.POST_COUNT), 0) FROM TOPIC WHERE TOPIC.BRANCH_ID = BRANCHES.BRANCH_ID
+);
@@ -0,0 +1,39 @@
+CREATE TABLE BRANCH_READ_MARKS (
+  ID BIGINT(20) NOT NULL AUTO_INCREMENT,
+  UUID VARCHAR(255) COLLATE utf8_bin NOT NULL,
+  USER_ID BIGINT(20) NOT NULL,
+  BRANCH_ID BIGINT(20) NOT NULL,
+  MARKED_AS_READ_TIME DATETIME NOT NULL,
+  PRIMARY KEY (ID),
+  UNIQUE KEY UK_BRANCH_READ_MARK (USER_ID, BRANCH_ID),
+  CONSTRAINT FK_USER_BRANCH_READ_MARKS FOREIGN KEY (USER_ID) REFERENCES USERS (ID) ON DELETE CASCADE,
+  CONSTRAINT FK_BRANCH_BRANCH_READ_MARKS FOREIGN KEY (BRANCH_ID) REFERENCES BRANCHES (BRANCH_ID) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_bin;
+
+-- Posts of a branch created before the mark are read by the user, so the mark is the creation of the
+-- oldest post the user hasn't read: the posts after the last read one, and the posts of topics the user
+-- has never opened unless they are covered by the forum mark. If the user has read everything, all the
+-- posts created till now are read.
+INSERT INTO BRANCH_READ_MARKS (UUID, USER_ID, BRANCH_ID, MARKED_AS_READ_TIME)
+SELECT CONCAT('branch-read-mark-', pairs.USER_ID, '-', pairs.BRANCH_ID), pairs.USER_ID, pairs.BRANCH_ID, COALESCE(
+    (SELECT MIN(p.POST_DATE)
+     FROM POST p
+     JOIN TOPIC unread ON unread.TOPIC_ID = p.TOPIC_ID
+     JOIN JC_USER_DETAILS u ON u.USER_ID = pairs.USER_ID
+     LEFT JOIN LAST_READ_POSTS r ON r.TOPIC_ID = unread.TOPIC_ID AND r.USER_ID = pairs.USER_ID
+     WHERE unread.BRANCH_ID = pairs.BRANCH_ID
+     AND (u.ALL_FORUM_MARKED_AS_READ_TIME IS NULL OR unread.MODIFICATION_DATE >= u.ALL_FORUM_MARKED_AS_READ_TIME)
+     AND ((r.ID IS NULL AND (u.ALL_FORUM_MARKED_AS_READ_TIME IS NULL OR p.POST_DATE >= u.ALL_FORUM_MARKED_AS_READ_TIME))
+          OR p.LIST_INDEX > r.LAST_READ_POST_INDEX)),
+    CURRENT_TIMESTAMP)
+FROM (SELECT DISTINCT lrp.USER_ID, t.BRANCH_ID
+      FROM LAST_READ_POSTS lrp
+      JOIN TOPIC t ON t.TOPIC_ID = lrp.TOPIC_ID) pairs;
+
+-- A topic modified before the mark has no unread posts, so its last read post is covered by the mark.
+-- Topics read only partially keep their last read posts
+DELETE FROM LAST_READ_POSTS
+WHERE EXISTS (
+    SELECT 1 FROM TOPIC t JOIN BRANCH_READ_MARKS m ON m.BRANCH_ID = t.BRANCH_ID
+    WHERE t.TOPIC_ID = LAST_READ_POSTS.TOPIC_ID AND m.USER_ID = LAST_READ_POSTS.USER_ID
+    AND t.MODIFICATION_DATE < m.MARKED_AS_READ_TIME);
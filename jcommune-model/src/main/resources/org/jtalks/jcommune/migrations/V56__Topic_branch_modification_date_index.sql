@@ -0,0 +1 @@
+CREATE INDEX IDX_TOPIC_BRANCH_MODIFICATION ON TOPIC (BRANCH_ID, MODIFICATION_DATE);
@@ -0,0 +1,2 @@
+CREATE INDEX IDX_TOPIC_MODIFICATION ON TOPIC (MODIFICATION_DATE, TOPIC_ID);
+CREATE INDEX IDX_LAST_READ_POSTS_USER_TOPIC ON LAST_READ_POSTS (USER_ID, TOPIC_ID, LAST_READ_POST_INDEX);
@@ -0,0 +1,4 @@
+ALTER TABLE POST ADD RENDERED_CONTENT LONGTEXT NULL;
+ALTER TABLE POST ADD RENDERED_VERSION INT(11) NOT NULL DEFAULT 0;
+ALTER TABLE PRIVATE_MESSAGE ADD RENDERED_BODY LONGTEXT NULL;
+ALTER TABLE PRIVATE_MESSAGE ADD RENDERED_VERSION INT(11) NOT NULL DEFAULT 0;
@@ -0,0 +1,7 @@
+-- Concurrent saving could duplicate last read posts, the furthest one of the user in the topic is kept
+DELETE lrp FROM LAST_READ_POSTS lrp
+JOIN LAST_READ_POSTS other ON other.USER_ID = lrp.USER_ID AND other.TOPIC_ID = lrp.TOPIC_ID
+AND (other.LAST_READ_POST_INDEX > lrp.LAST_READ_POST_INDEX
+     OR (other.LAST_READ_POST_INDEX = lrp.LAST_READ_POST_INDEX AND other.ID > lrp.ID));
+
+ALTER TABLE LAST_READ_POSTS ADD UNIQUE KEY UK_LAST_READ_POST (USER_ID, TOPIC_ID);
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.migrations;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.joda.time.DateTime;
+import org.jtalks.jcommune.model.PersistedObjectsFactory;
+import org.jtalks.jcommune.model.entity.Branch;
+import org.jtalks.jcommune.model.entity.JCUser;
+import org.jtalks.jcommune.model.entity.LastReadPost;
+import org.jtalks.jcommune.model.entity.ObjectsFactory;
+import org.jtalks.jcommune.model.entity.Post;
+import org.jtalks.jcommune.model.entity.Topic;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.testng.AbstractTransactionalTestNGSpringContextTests;
+import org.springframework.test.context.transaction.TransactionConfiguration;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Transactional;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@ContextConfiguration(locations = {"classpath:/org/jtalks/jcommune/model/entity/applicationContext-dao.xml"})
+@TransactionConfiguration(transactionManager = "transactionManager", defaultRollback = true)
+@Transactional
+public class BranchReadMarksMigrationTest extends AbstractTransactionalTestNGSpringContextTests {
+    private static final String MIGRATION = "/org/jtalks/jcommune/migrations/V55__Branch_read_marks.sql";
+
+    @Autowired
+    private SessionFactory sessionFactory;
+    private Session session;
+    private JCUser user;
+    private Branch branch;
+
+    @BeforeMethod
+    public void setUp() {
+        session = sessionFactory.getCurrentSession();
+        PersistedObjectsFactory.setSession(session);
+        user = PersistedObjectsFactory.getDefaultUser();
+        branch = ObjectsFactory.getDefaultBranch();
+        session.save(branch);
+    }
+
+    @Test
+    public void markShouldStopAtFirstUnreadPostOfPartiallyReadTopic() throws Exception {
+        Topic readTopic = createTopic(date(1), date(2));
+        Topic partiallyReadTopic = createTopic(date(3), date(4), date(5));
+        session.save(new LastReadPost(user, readTopic, 1));
+        session.save(new LastReadPost(user, partiallyReadTopic, 0));
+
+        migrate();
+
+        assertEquals(getMarkTime(), date(4).toDate());
+        assertEquals(getLastReadPostTopicIds(), idsOf(partiallyReadTopic));
+    }
+
+    @Test
+    public void markShouldStopAtFirstPostOfNeverOpenedTopic() throws Exception {
+        Topic neverOpenedTopic = createTopic(date(1), date(4));
+        Topic readTopic = createTopic(date(2), date(3));
+        session.save(new LastReadPost(user, readTopic, 1));
+
+        migrate();
+
+        assertEquals(getMarkTime(), date(1).toDate());
+        assertEquals(getLastReadPostTopicIds(), idsOf(readTopic));
+        assertEquals(countPostsCreatedBefore(neverOpenedTopic, getMarkTime()), 0);
+    }
+
+    @Test
+    public void neverOpenedTopicCoveredByForumMarkShouldNotStopMark() throws Exception {
+        createTopic(date(1), date(2));
+        Topic readTopic = createTopic(date(3), date(4));
+        session.save(new LastReadPost(user, readTopic, 1));
+        user.setAllForumMarkedAsReadTime(date(2).plusMinutes(1));
+        session.save(user);
+
+        migrate();
+
+        assertTrue(getMarkTime().after(date(4).toDate()));
+        assertTrue(getLastReadPostTopicIds().isEmpty());
+    }
+
+    @Test
+    public void markShouldCoverAllPostsWhenEverythingIsRead() throws Exception {
+        Topic firstTopic = createTopic(date(1), date(2));
+        Topic secondTopic = createTopic(date(3));
+        session.save(new LastReadPost(user, firstTopic, 1));
+        session.save(new LastReadPost(user, secondTopic, 0));
+
+        migrate();
+
+        assertTrue(getMarkTime().after(date(3).toDate()));
+        assertTrue(getLastReadPostTopicIds().isEmpty());
+    }
+
+    /**
+     * Creates a topic in the branch with posts created at the given dates, the topic is modified
+     * when the last post is created.
+     */
+    private Topic createTopic(DateTime... postDates) {
+        Topic topic = ObjectsFactory.getTopic(user, postDates.length);
+        for (int i = 0; i < postDates.length; i++) {
+            ReflectionTestUtils.setField(topic.getPosts().get(i), "creationDate", postDates[i]);
+        }
+        ReflectionTestUtils.setField(topic, "modificationDate", postDates[postDates.length - 1]);
+        branch.addTopic(topic);
+        session.save(topic);
+        return topic;
+    }
+
+    private DateTime date(int day) {
+        return new DateTime(2013, 1, day, 0, 0, 0, 0);
+    }
+
+    /**
+     * Runs the statements of the migration which move the data, the tables are already created
+     * from the mappings.
+     */
+    private void migrate() throws IOException {
+        session.flush();
+        for (String statement : readMigration().split(";")) {
+            String sql = statement.trim();
+            if (sql.length() > 0 && !sql.startsWith("CREATE TABLE")) {
+                session.createSQLQuery(sql).executeUpdate();
+            }
+        }
+        session.clear();
+    }
+
+    private String readMigration() throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(getClass().getResourceAsStream(MIGRATION), "UTF-8"));
+        try {
+            StringBuilder sql = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().startsWith("--")) {
+                    sql.append(line).append('\n');
+                }
+            }
+            return sql.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private Date getMarkTime() {
+        Date time = (Date) session.createSQLQuery(
+                "SELECT MARKED_AS_READ_TIME FROM BRANCH_READ_MARKS WHERE USER_ID = :user AND BRANCH_ID = :branch")
+                .setParameter("user", user.getId())
+                .setParameter("branch", branch.getId())
+                .uniqueResult();
+        return new Date(time.getTime());
+    }
+
+    private List<Long> getLastReadPostTopicIds() {
+        List<Long> ids = new ArrayList<Long>();
+        List<?> rows = session.createSQLQuery("SELECT TOPIC_ID FROM LAST_READ_POSTS WHERE USER_ID = :user")
+                .setParameter("user", user.getId())
+                .list();
+        for (Object id : rows) {
+            ids.add(((Number) id).longValue());
+        }
+        return ids;
+    }
+
+    private int countPostsCreatedBefore(Topic topic, Date time) {
+        int count = 0;
+        for (Post post : topic.getPosts()) {
+            if (post.getCreationDate().toDate().before(time)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private List<Long> idsOf(Topic topic) {
+        List<Long> ids = new ArrayList<Long>();
+        ids.add(topic.getId());
+        return ids;
+    }
+}
@@ -180,6 +180,7 @@ public final class PersistedObjectsFactory {
             posts.add(newPost);
             session.save(newPost);
         }
+        author.setPostCount(topic.getPostCount());
         session.save(topic);
         return posts;
     }
@@ -302,20 +303,6 @@ public final class PersistedObjectsFactory {
         return component;
     }
 
-    public static void createViewUnreadPostsInBranch() {
-        session.createSQLQuery("CREATE VIEW COUNT_POSTS_TOPICS_VIEW AS SELECT tp.TOPIC_ID, tp.BRANCH_ID," +
-                " COUNT(*)-1 as POSTS_COUNT FROM TOPIC tp join POST p ON p.TOPIC_ID=tp.TOPIC_ID group by tp.TOPIC_ID")
-                .executeUpdate();
-    }
-
-    /**
-     * Used in manual rollback
-     */
-    public static void deleteViewUnreadPostsInBranch() {
-        session.createSQLQuery("DROP VIEW COUNT_POSTS_TOPICS_VIEW")
-                .executeUpdate();
-    }
-
     private static <T> T persist(T entity) {
         session.save(entity);
         return entity;
@@ -16,24 +16,31 @@ package org.jtalks.jcommune.model.dao.hibernate;
 
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.joda.time.DateTime;
 import org.jtalks.common.model.entity.Group;
 import org.jtalks.common.model.entity.Section;
 import org.jtalks.jcommune.model.PersistedObjectsFactory;
 import org.jtalks.jcommune.model.dao.BranchDao;
 import org.jtalks.jcommune.model.dao.LastReadPostDao;
+import org.jtalks.jcommune.model.dao.TopicModificationTimesIndex;
+import org.jtalks.jcommune.model.dao.VisibleBranchesIndex;
 import org.jtalks.jcommune.model.entity.*;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.test.annotation.Rollback;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.testng.AbstractTransactionalTestNGSpringContextTests;
 import org.springframework.test.context.transaction.TransactionConfiguration;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.transaction.annotation.Transactional;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import javax.validation.ConstraintViolationException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.testng.Assert.*;
 import static org.unitils.reflectionassert.ReflectionAssert.assertReflectionEquals;
@@ -52,6 +59,10 @@ public class BranchHibernateDaoTest extends AbstractTransactionalTestNGSpringCon
     @Autowired
     private BranchDao dao;
     @Autowired
+    private VisibleBranchesIndex visibleBranchesIndex;
+    @Autowired
+    private TopicModificationTimesIndex topicModificationTimesIndex;
+    @Autowired
     private LastReadPostDao lastReadPostDao;
     private Session session;
     Branch branch;
@@ -60,6 +71,9 @@ public class BranchHibernateDaoTest extends AbstractTransactionalTestNGSpringCon
     public void setUp() throws Exception {
         session = sessionFactory.getCurrentSession();
         PersistedObjectsFactory.setSession(session);
+        // permissions are created by each test, so the index loaded by previous one is stale
+        visibleBranchesIndex.invalidate();
+        topicModificationTimesIndex.invalidate();
         branch = ObjectsFactory.getDefaultBranch();
     }
 
@@ -279,59 +293,102 @@ public class BranchHibernateDaoTest extends AbstractTransactionalTestNGSpringCon
     }
 
     @Test
-    @Rollback(false)
-    /**
-     * User have unread posts in branch
-     */
     public void testUnreadPostsInBranchWithExist() {
         Topic topic = PersistedObjectsFactory.getDefaultTopic();
         Branch branch = topic.getBranch();
         JCUser user = topic.getTopicStarter();
-        //add post
-        topic.addPost(new Post(topic.getTopicStarter(), "New post"));
+        topic.addPost(new Post(user, "New post"));
+        session.save(topic);
+        session.save(new LastReadPost(user, topic, 0));
 
-        session.save(branch);
+        assertTrue(dao.isUnreadPostsInBranch(branch, user), "State of unread posts in the branch is wrong");
+    }
 
-        PersistedObjectsFactory.createViewUnreadPostsInBranch();
-        boolean expectedState = true;
-        boolean actualState = dao.isUnreadPostsInBranch(branch, user);
+    @Test
+    public void testUnreadPostsInBranchWithoutExist() {
+        Topic topic = PersistedObjectsFactory.getDefaultTopic();
+        Branch branch = topic.getBranch();
+        JCUser user = topic.getTopicStarter();
+        topic.addPost(new Post(user, "New post"));
+        session.save(topic);
+        session.save(new LastReadPost(user, topic, 1));
 
-        //manual rollback
-        session.delete(branch);
-        session.delete(user);
-        PersistedObjectsFactory.deleteViewUnreadPostsInBranch();
-        session.flush();
+        assertFalse(dao.isUnreadPostsInBranch(branch, user), "State of unread posts in the branch is wrong");
+    }
 
-        assertEquals(actualState, expectedState, "State of unread posts in the branch is wrong");
+    @Test
+    public void getBranchesWithUnreadPostsShouldReturnOnlyBranchesWithUnreadTopics() {
+        Topic readTopic = PersistedObjectsFactory.getDefaultTopic();
+        JCUser user = readTopic.getTopicStarter();
+        Branch readBranch = readTopic.getBranch();
+        session.save(new LastReadPost(user, readTopic, 0));
+        Branch unreadBranch = ObjectsFactory.getDefaultBranch();
+        unreadBranch.addTopic(newTopicWithPost(user));
+        session.save(unreadBranch);
+        Branch emptyBranch = ObjectsFactory.getDefaultBranch();
+        session.save(emptyBranch);
+
+        Set<Long> unreadBranchIds = dao.getBranchesWithUnreadPosts(user,
+                Arrays.asList(readBranch.getId(), unreadBranch.getId(), emptyBranch.getId()));
+
+        assertEquals(unreadBranchIds, Collections.singleton(unreadBranch.getId()));
     }
 
     @Test
-    @Rollback(false)
-    /**
-     * User have't unread posts in branch
-     */
-    public void testUnreadPostsInBranchWithoutExist() {
+    public void getBranchesWithUnreadPostsShouldTakeIntoAccountBranchReadMarks() {
         Topic topic = PersistedObjectsFactory.getDefaultTopic();
-        Branch branch = topic.getBranch();
         JCUser user = topic.getTopicStarter();
-        //add post
-        topic.addPost(new Post(topic.getTopicStarter(), "New post"));
+        Branch branch = topic.getBranch();
+        session.save(new BranchReadMark(user, branch, topic.getModificationDate().plusDays(1)));
 
-        session.save(branch);
+        Set<Long> unreadBranchIds = dao.getBranchesWithUnreadPosts(user, Collections.singleton(branch.getId()));
 
-        PersistedObjectsFactory.createViewUnreadPostsInBranch();
-        lastReadPostDao.markAllRead(topic.getTopicStarter(), branch);
-        boolean expectedState = false;
-        boolean actualState = dao.isUnreadPostsInBranch(branch, user);
+        assertTrue(unreadBranchIds.isEmpty());
+    }
 
-        //manual rollback
-        session.delete(branch);
-        session.delete(user);
-        PersistedObjectsFactory.deleteViewUnreadPostsInBranch();
-        session.delete(lastReadPostDao.getLastReadPost(user, topic));
+    @Test
+    public void getBranchesWithUnreadPostsShouldNotReturnBranchesWithPostsOnlyEditedSinceMarkedAsRead() {
+        Topic topic = PersistedObjectsFactory.getDefaultTopic();
+        JCUser user = topic.getTopicStarter();
+        Branch branch = topic.getBranch();
+        session.save(new BranchReadMark(user, branch, topic.getLastPostDate().plusDays(1)));
+        ReflectionTestUtils.setField(topic, "modificationDate", topic.getLastPostDate().plusDays(2));
         session.flush();
 
-        assertEquals(actualState, expectedState, "State of unread posts in the branch is wrong");
+        Set<Long> unreadBranchIds = dao.getBranchesWithUnreadPosts(user, Collections.singleton(branch.getId()));
+
+        assertTrue(unreadBranchIds.isEmpty());
+    }
+
+    @Test
+    public void getBranchesWithUnreadPostsShouldTakeIntoAccountMarkingAllForumAsRead() {
+        Topic topic = PersistedObjectsFactory.getDefaultTopic();
+        JCUser user = topic.getTopicStarter();
+        Branch branch = topic.getBranch();
+        user.setAllForumMarkedAsReadTime(topic.getModificationDate().plusDays(1));
+
+        Set<Long> unreadBranchIds = dao.getBranchesWithUnreadPosts(user, Collections.singleton(branch.getId()));
+
+        assertTrue(unreadBranchIds.isEmpty());
+    }
+
+    @Test
+    public void getLastTopicModificationTimesShouldReturnTimesOfBranchesWithTopics() {
+        Topic topic = PersistedObjectsFactory.getDefaultTopic();
+        Branch emptyBranch = ObjectsFactory.getDefaultBranch();
+        session.save(emptyBranch);
+
+        Map<Long, DateTime> modificationTimes = dao.getLastTopicModificationTimes();
+
+        assertEquals(modificationTimes.get(topic.getBranch().getId()).getMillis(),
+                topic.getModificationDate().getMillis());
+        assertFalse(modificationTimes.containsKey(emptyBranch.getId()));
+    }
+
+    private Topic newTopicWithPost(JCUser author) {
+        Topic topic = new Topic(author, "topic title");
+        topic.addPost(new Post(author, "post content"));
+        return topic;
     }
 
     @Test
@@ -354,4 +411,84 @@ public class BranchHibernateDaoTest extends AbstractTransactionalTestNGSpringCon
         assertEquals(dao.getAllowedSubscribers(branch).size(), 0,
             "Should not return subscribers which are contained in any group with disallowed VIEW_TOPIC permission.");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testGetAllAvailableBranchesShouldReturnOnlyVisibleBranches() {
+        JCUser user = PersistedObjectsFactory.getDefaultUserWithGroups();
+        Section section = ObjectsFactory.getDefaultSection();
+        Branch visible = new Branch("visible", "description");
+        Branch restricted = new Branch("restricted", "description");
+        section.addOrUpdateBranch(visible);
+        section.addOrUpdateBranch(restricted);
+        visible.setSection(section);
+        restricted.setSection(section);
+        session.save(section);
+        PersistedObjectsFactory.createAndSaveViewTopicsBranchesEntity(
+                visible.getId(), String.valueOf(user.getGroups().get(0).getId()), true);
+        PersistedObjectsFactory.createAndSaveViewTopicsBranchesEntity(
+                restricted.getId(), String.valueOf(user.getGroups().get(0).getId()), true);
+        PersistedObjectsFactory.createAndSaveViewTopicsBranchesEntity(
+                restricted.getId(), String.valueOf(user.getGroups().get(1).getId()), false);
+
+        List<Branch> branches = dao.getAllAvailableBranches(user);
+
+        assertEquals(branches.size(), 1);
+        assertEquals(branches.get(0).getId(), visible.getId());
+    }
+
+    @Test
+    public void recalculateStatisticInfoShouldRepairDriftedCounts() {
+        List<Topic> topics = PersistedObjectsFactory.createAndSaveTopicListWithPosts(3);
+        Branch branch = topics.get(0).getBranch();
+        topics.get(0).addPost(new Post(topics.get(0).getTopicStarter(), "content"));
+        session.flush();
+        session.createSQLQuery("UPDATE BRANCHES SET TOPICS_COUNT = 1 WHERE BRANCH_ID = :branch")
+                .setParameter("branch", branch.getId())
+                .executeUpdate();
+
+        assertTrue(dao.recalculateStatisticInfo() >= 1);
+        session.refresh(branch);
+        assertEquals(branch.getTopicCount(), 3);
+        assertEquals(branch.getPostCount(), 4);
+    }
+
+    @Test
+    public void recalculateStatisticInfoShouldNotChangeActualCounts() {
+        List<Topic> topics = PersistedObjectsFactory.createAndSaveTopicListWithPosts(3);
+        Branch branch = topics.get(0).getBranch();
+        session.flush();
+
+        dao.recalculateStatisticInfo();
+
+        assertEquals(branch.getTopicCount(), 3);
+        assertEquals(branch.getPostCount(), 3);
+    }
+
+    @Test
+    public void adjustCountsShouldAddDeltasToStoredCounts() {
+        List<Topic> topics = PersistedObjectsFactory.createAndSaveTopicListWithPosts(3);
+        Branch branch = topics.get(0).getBranch();
+        session.flush();
+
+        dao.adjustCounts(branch, -1, 2);
+        session.refresh(branch);
+
+        assertEquals(branch.getTopicCount(), 2);
+        assertEquals(branch.getPostCount(), 5);
+    }
+
+    @Test
+    public void changedCountsShouldNotBeUpdatedWithBranch() {
+        List<Topic> topics = PersistedObjectsFactory.createAndSaveTopicListWithPosts(3);
+        Branch branch = topics.get(0).getBranch();
+        session.flush();
+        dao.adjustCounts(branch, 0, 1);
+
+        branch.setPostsCount(0);
+        dao.saveOrUpdate(branch);
+        session.flush();
+        session.refresh(branch);
+
+        assertEquals(branch.getPostCount(), 4);
+    }
+}
@@ -17,10 +17,15 @@ package org.jtalks.jcommune.model.dao.hibernate;
 import org.hibernate.SQLQuery;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.stat.Statistics;
+import org.joda.time.DateTime;
 import org.jtalks.jcommune.model.PersistedObjectsFactory;
 import org.jtalks.jcommune.model.dao.LastReadPostDao;
+import org.jtalks.jcommune.model.entity.BranchReadMark;
 import org.jtalks.jcommune.model.entity.JCUser;
 import org.jtalks.jcommune.model.entity.LastReadPost;
+import org.jtalks.jcommune.model.entity.Post;
 import org.jtalks.jcommune.model.entity.Topic;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
@@ -87,12 +92,12 @@ public class LastReadPostHibernateDaoTest extends AbstractTransactionalTestNGSpr
         List<Topic> topics = PersistedObjectsFactory.createAndSaveTopicListWithPosts(10);
         JCUser user = PersistedObjectsFactory.getDefaultUser();
 
-        //records of posts in topics
-        Map<Long, Integer> listCountPostsToTopics = markAllTopicsASRead(topics, user);
-        //records in database about read topic
-        Map<Long, Integer> actualCountPostsToTopics = getActualListCountPostsToTopics(topics, user);
+        lastReadPostDao.markAllRead(user, topics.get(0).getBranch());
 
-        assertEquals(actualCountPostsToTopics, listCountPostsToTopics);
+        assertEquals(lastReadPostDao.getBranchReadMarkTimes(user).keySet(),
+                Collections.singleton(topics.get(0).getBranch().getId()));
+        assertTrue(getActualListCountPostsToTopics(topics, user).isEmpty(),
+                "Branch mark should be used instead of last read post per topic.");
     }
 
     @Test
@@ -122,13 +127,14 @@ public class LastReadPostHibernateDaoTest extends AbstractTransactionalTestNGSpr
         Map<Long, Integer> actualCountOfPosts = getTopicAndCountOfPostsInBranch(topics);
         Map<Long, Integer> resultOfGetTopics = new HashMap<Long, Integer>();
         @SuppressWarnings("unchecked")
-        List<Object[]> resultCheckGetTopics = session.getNamedQuery("getTopicAndCountOfPostsInBranch")
-                .setParameter("branch", topics.get(0).getBranch().getId())
+        List<Object[]> resultCheckGetTopics = session.getNamedQuery("getTopicIdsAndPostCountsInBranch")
+                .setParameter("branch", topics.get(0).getBranch())
                 .setCacheable(false)
                 .list();
 
         for (Object[] record : resultCheckGetTopics) {
-            resultOfGetTopics.put(new Long(record[0].toString()), new Integer(record[1].toString()));
+            //second parameter it's index of last post
+            resultOfGetTopics.put((Long) record[0], ((Number) record[1]).intValue() - 1);
         }
 
         assertEquals(resultOfGetTopics, actualCountOfPosts);
@@ -139,23 +145,112 @@ public class LastReadPostHibernateDaoTest extends AbstractTransactionalTestNGSpr
         JCUser user = PersistedObjectsFactory.getDefaultUser();
         List<Topic> topicsOfFirstBranch = PersistedObjectsFactory.createAndSaveTopicListWithPosts(10);
         List<Topic> topicsOfSecondBranch = PersistedObjectsFactory.createAndSaveTopicListWithPosts(10);
-        //records of posts in topics
-        Map<Long, Integer> listCountPostsToTopicsInFBranch = new HashMap<Long, Integer>();
-        Map<Long, Integer> listCountPostsToTopicsInSBranch = new HashMap<Long, Integer>();
-        //records in database about read topic
-        Map<Long, Integer> actualCountPostsToTopicsInFBranch = new HashMap<Long, Integer>();
-        Map<Long, Integer> actualCountPostsToTopicsInSBranch = new HashMap<Long, Integer>();
-
-        listCountPostsToTopicsInFBranch = markAllTopicsASRead(topicsOfFirstBranch, user);
-        listCountPostsToTopicsInSBranch = markAllTopicsASRead(topicsOfSecondBranch, user);
-        actualCountPostsToTopicsInFBranch = getActualListCountPostsToTopics(topicsOfFirstBranch, user);
-        actualCountPostsToTopicsInSBranch = getActualListCountPostsToTopics(topicsOfSecondBranch, user);
-
-        //concatenate  results from first and second branches
-        listCountPostsToTopicsInFBranch.putAll(listCountPostsToTopicsInSBranch);
-        actualCountPostsToTopicsInFBranch.putAll(actualCountPostsToTopicsInSBranch);
-
-        assertEquals(listCountPostsToTopicsInFBranch, actualCountPostsToTopicsInFBranch);
+
+        lastReadPostDao.markAllRead(user, topicsOfFirstBranch.get(0).getBranch());
+        lastReadPostDao.markAllRead(user, topicsOfSecondBranch.get(0).getBranch());
+
+        Set<Long> expectedBranches = new HashSet<Long>(Arrays.asList(
+                topicsOfFirstBranch.get(0).getBranch().getId(), topicsOfSecondBranch.get(0).getBranch().getId()));
+        assertEquals(lastReadPostDao.getBranchReadMarkTimes(user).keySet(), expectedBranches);
+    }
+
+    @Test
+    public void markAllReadShouldReplacePreviousMarksInBranch() {
+        List<Topic> topics = PersistedObjectsFactory.createAndSaveTopicListWithPosts(3);
+        JCUser user = PersistedObjectsFactory.getDefaultUser();
+        LastReadPost outdated = new LastReadPost(user, topics.get(0), 0);
+        session.save(outdated);
+        topics.get(0).addPost(new Post(user, "new content"));
+        session.flush();
+
+        lastReadPostDao.markAllRead(user, topics.get(0).getBranch());
+        lastReadPostDao.markAllRead(user, topics.get(0).getBranch());
+
+        assertTrue(getActualListCountPostsToTopics(topics, user).isEmpty());
+        assertEquals(lastReadPostDao.getBranchReadMarkTimes(user).size(), 1);
+    }
+
+    @Test
+    public void markAllReadShouldNotDependOnCountOfTopics() {
+        List<Topic> topics = PersistedObjectsFactory.createAndSaveTopicListWithPosts(100);
+        JCUser user = PersistedObjectsFactory.getDefaultUser();
+        session.flush();
+        Statistics statistics = sessionFactory.getStatistics();
+        boolean statisticsEnabled = statistics.isStatisticsEnabled();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        try {
+            lastReadPostDao.markAllRead(user, topics.get(0).getBranch());
+
+            //delete last read posts, update and insert the branch mark
+            assertTrue(statistics.getPrepareStatementCount() <= 3);
+        } finally {
+            statistics.setStatisticsEnabled(statisticsEnabled);
+        }
+    }
+
+    @Test
+    public void deleteLastReadPostsOfReadTopicsShouldDeleteOnlyLastReadPostsCoveredByBranchMarks() {
+        List<Topic> topics = PersistedObjectsFactory.createAndSaveTopicListWithPosts(1);
+        Topic topic = topics.get(0);
+        JCUser reader = PersistedObjectsFactory.getDefaultUser();
+        JCUser author = topic.getTopicStarter();
+        session.save(new LastReadPost(reader, topic, 0));
+        session.save(new LastReadPost(author, topic, 0));
+        session.save(new BranchReadMark(reader, topic.getBranch(), topic.getModificationDate().plusDays(1)));
+        session.save(new BranchReadMark(author, topic.getBranch(), topic.getModificationDate().minusDays(1)));
+        session.flush();
+
+        int deleted = lastReadPostDao.deleteLastReadPostsOfReadTopics();
+        session.clear();
+
+        assertEquals(deleted, 1);
+        assertTrue(getActualListCountPostsToTopics(topics, reader).isEmpty());
+        assertEquals(getActualListCountPostsToTopics(topics, author).size(), 1);
+    }
+
+    @Test
+    public void markAllReadShouldMoveExistingMarkOfBranch() {
+        List<Topic> topics = PersistedObjectsFactory.createAndSaveTopicListWithPosts(1);
+        JCUser user = PersistedObjectsFactory.getDefaultUser();
+        DateTime oldMarkTime = new DateTime().minusDays(1);
+        session.save(new BranchReadMark(user, topics.get(0).getBranch(), oldMarkTime));
+        session.flush();
+
+        lastReadPostDao.markAllRead(user, topics.get(0).getBranch());
+        session.clear();
+
+        Map<Long, DateTime> markTimes = lastReadPostDao.getBranchReadMarkTimes(user);
+        assertEquals(markTimes.size(), 1);
+        assertTrue(markTimes.get(topics.get(0).getBranch().getId()).isAfter(oldMarkTime));
+    }
+
+    @Test
+    public void getPostCountsCreatedBeforeShouldCountOnlyPostsCreatedBeforeTime() {
+        Topic topic = PersistedObjectsFactory.createAndSaveTopicListWithPosts(1).get(0);
+        DateTime firstPostDate = topic.getPosts().get(0).getCreationDate();
+        session.flush();
+
+        Map<Long, Integer> afterPosts = lastReadPostDao.getPostCountsCreatedBefore(
+                Collections.singleton(topic.getId()), new DateTime().plusDays(1));
+        Map<Long, Integer> beforePosts = lastReadPostDao.getPostCountsCreatedBefore(
+                Collections.singleton(topic.getId()), firstPostDate);
+
+        assertEquals(afterPosts, Collections.singletonMap(topic.getId(), topic.getPostCount()));
+        assertTrue(beforePosts.isEmpty());
+    }
+
+    @Test
+    public void getPostCountsCreatedBeforeShouldNotQueryForEmptyListOfTopics() {
+        assertTrue(lastReadPostDao.getPostCountsCreatedBefore(
+                Collections.<Long>emptyList(), new DateTime()).isEmpty());
+    }
+
+    @Test
+    public void getBranchReadMarkTimesShouldReturnEmptyMapWhenBranchesWereNotMarked() {
+        JCUser user = PersistedObjectsFactory.getDefaultUser();
+
+        assertTrue(lastReadPostDao.getBranchReadMarkTimes(user).isEmpty());
     }
 
     /*===== Specific methods =====*/
@@ -207,10 +302,64 @@ public class LastReadPostHibernateDaoTest extends AbstractTransactionalTestNGSpr
         
     }
     
+    @Test
+    public void getLastReadPostIndexesShouldReturnIndexesOfUserByTopics() {
+        LastReadPost post = PersistedObjectsFactory.getDefaultLastReadPost();
+        session.save(post);
+
+        Map<Long, Integer> indexes = lastReadPostDao.getLastReadPostIndexes(post.getUser());
+
+        assertEquals(indexes, Collections.singletonMap(post.getTopic().getId(), post.getPostIndex()));
+    }
+
+    @Test
+    public void saveLastReadPostIndexesShouldUpdateExistingAndInsertNewLastReadPosts() {
+        List<Topic> topics = PersistedObjectsFactory.createAndSaveTopicListWithPosts(2);
+        JCUser user = PersistedObjectsFactory.getDefaultUser();
+        session.save(new LastReadPost(user, topics.get(0), 0));
+        session.flush();
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        expected.put(topics.get(0).getId(), 1);
+        expected.put(topics.get(1).getId(), 2);
+
+        Map<Long, Integer> indexes = new HashMap<Long, Integer>(expected);
+        indexes.put(-1L, 3);
+        lastReadPostDao.saveLastReadPostIndexes(Collections.singletonMap(user.getId(), indexes));
+        session.clear();
+
+        assertEquals(lastReadPostDao.getLastReadPostIndexes(user), expected,
+                "Existing last read posts should be updated, deleted topics should be skipped.");
+    }
+
+    @Test
+    public void saveLastReadPostIndexesShouldNotMoveLastReadPostBack() {
+        Topic topic = PersistedObjectsFactory.createAndSavePostList(3).get(0).getTopic();
+        JCUser user = topic.getTopicStarter();
+        session.save(new LastReadPost(user, topic, 2));
+        session.flush();
+
+        lastReadPostDao.saveLastReadPostIndexes(
+                Collections.singletonMap(user.getId(), Collections.singletonMap(topic.getId(), 1)));
+        session.clear();
+
+        assertEquals(lastReadPostDao.getLastReadPostIndexes(user), Collections.singletonMap(topic.getId(), 2),
+                "Older index saved concurrently shouldn't replace the newer one.");
+    }
+
+    @Test(expectedExceptions = ConstraintViolationException.class)
+    public void lastReadPostOfUserInTopicShouldBeUnique() {
+        LastReadPost lastReadPost = PersistedObjectsFactory.getDefaultLastReadPost();
+        session.save(lastReadPost);
+        session.save(new LastReadPost(lastReadPost.getUser(), lastReadPost.getTopic(), 0));
+
+        session.flush();
+    }
+
     @Test
     public void deleteLastReadPostsShouldDeleteAllRecodrsForGivenUser() {
         List<Topic> topics = PersistedObjectsFactory.createAndSaveTopicListWithPosts(10);
         JCUser user = PersistedObjectsFactory.getDefaultUser();
+        lastReadPostDao.markAllRead(user, topics.get(0).getBranch());
         markAllTopicsASRead(topics, user);
         
         lastReadPostDao.deleteLastReadPostsFor(user);
@@ -219,6 +368,7 @@ public class LastReadPostHibernateDaoTest extends AbstractTransactionalTestNGSpr
         List<LastReadPost> lastReadPostsOfUser = session.getNamedQuery("getAllOfUser")
             .setParameter("user", user).list();
         assertTrue(lastReadPostsOfUser.isEmpty(), "User shouldn't have any records, because they were cleared");
+        assertTrue(lastReadPostDao.getBranchReadMarkTimes(user).isEmpty(), "Branch marks should be cleared too");
         
     }
 
@@ -230,20 +380,11 @@ public class LastReadPostHibernateDaoTest extends AbstractTransactionalTestNGSpr
      * @return list of count posts for each topic, for verification
      */
     private Map<Long, Integer> markAllTopicsASRead(List<Topic> topics, JCUser user) {
-        SQLQuery insertQuery = (SQLQuery) session.getNamedQuery("markAllTopicsRead");
-        insertQuery.setCacheable(false);
-        Map<Long, Integer> listCountPostsToTopics = new HashMap<Long, Integer>();
-
-        for (Topic tp : topics) {
-            Integer indexReadPosts = tp.getPosts().size() - 1;
-            insertQuery.setParameter("uuid", UUID.randomUUID().toString())
-                    .setParameter("user", user.getId())
-                    .setParameter("lastPostIndex", indexReadPosts)
-                    .setParameter("topic", tp.getId())
-                    .executeUpdate();
-            listCountPostsToTopics.put(tp.getId(), indexReadPosts);
+        for (Topic topic : topics) {
+            session.save(new LastReadPost(user, topic, topic.getPostCount() - 1));
         }
-        return listCountPostsToTopics;
+        session.flush();
+        return getTopicAndCountOfPostsInBranch(topics);
     }
 
     /**
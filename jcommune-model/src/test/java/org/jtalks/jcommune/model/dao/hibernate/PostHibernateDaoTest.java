@@ -243,6 +243,57 @@ public class PostHibernateDaoTest extends AbstractTransactionalTestNGSpringConte
         assertEquals(postsPage.getTotalElements(), size, "Incorrect total count.");
     }
 
+    @Test
+    public void testGetPostsAfterLastSeenPost() {
+        int totalSize = 50;
+        int pageSize = totalSize / 2;
+        List<Post> posts = PersistedObjectsFactory.createAndSavePostList(totalSize);
+        Topic topic = posts.get(0).getTopic();
+        Page<Post> firstPage = dao.getPosts(topic, JCommunePageRequest.createWithPagingEnabled(1, pageSize));
+        JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(2, pageSize);
+        pageRequest.setLastSeenId(firstPage.getContent().get(pageSize - 1).getId());
+
+        Page<Post> postsPage = dao.getPosts(topic, pageRequest);
+
+        assertEquals(postsPage.getContent(),
+                dao.getPosts(topic, JCommunePageRequest.createWithPagingEnabled(2, pageSize)).getContent(),
+                "Keyset pagination should return the same posts as offset pagination.");
+        assertEquals(postsPage.getTotalElements(), totalSize, "Incorrect total count.");
+    }
+
+    @Test
+    public void testGetPostsAfterNonExistentPostFallsBackToOffset() {
+        int totalSize = 50;
+        int pageSize = totalSize / 2;
+        List<Post> posts = PersistedObjectsFactory.createAndSavePostList(totalSize);
+        Topic topic = posts.get(0).getTopic();
+        JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(2, pageSize);
+        pageRequest.setLastSeenId(-1L);
+
+        Page<Post> postsPage = dao.getPosts(topic, pageRequest);
+
+        assertEquals(postsPage.getContent(),
+                dao.getPosts(topic, JCommunePageRequest.createWithPagingEnabled(2, pageSize)).getContent());
+    }
+
+    @Test
+    public void testPostsOfUserAfterLastSeenPost() {
+        int totalSize = 50;
+        int pageSize = totalSize / 2;
+        List<Post> posts = PersistedObjectsFactory.createAndSavePostList(totalSize);
+        JCUser author = posts.get(0).getUserCreated();
+        Page<Post> firstPage = dao.getUserPosts(author, JCommunePageRequest.createWithPagingEnabled(1, pageSize));
+        JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(2, pageSize);
+        pageRequest.setLastSeenId(firstPage.getContent().get(pageSize - 1).getId());
+
+        Page<Post> postsPage = dao.getUserPosts(author, pageRequest);
+
+        assertEquals(postsPage.getContent(),
+                dao.getUserPosts(author, JCommunePageRequest.createWithPagingEnabled(2, pageSize)).getContent(),
+                "Keyset pagination should return the same posts as offset pagination.");
+        assertEquals(postsPage.getTotalElements(), totalSize, "Incorrect total count.");
+    }
+
     @Test
     public void testGetLastPostForBranch() {
         int size = 2;
@@ -21,6 +21,7 @@ import org.jtalks.common.model.entity.Section;
 import org.jtalks.jcommune.model.PersistedObjectsFactory;
 import org.jtalks.jcommune.model.dao.BranchDao;
 import org.jtalks.jcommune.model.dao.SectionDao;
+import org.jtalks.jcommune.model.dao.VisibleBranchesIndex;
 import org.jtalks.jcommune.model.entity.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
@@ -51,6 +52,8 @@ public class SectionHibernateDaoTest extends AbstractTransactionalTestNGSpringCo
     @Autowired
     private SectionDao dao;
     @Autowired
+    private VisibleBranchesIndex visibleBranchesIndex;
+    @Autowired
     private BranchDao branchDao;
     private Session session;
 
@@ -58,6 +61,8 @@ public class SectionHibernateDaoTest extends AbstractTransactionalTestNGSpringCo
     public void setUp() throws Exception {
         session = sessionFactory.getCurrentSession();
         PersistedObjectsFactory.setSession(session);
+        // permissions are created by each test, so the index loaded by previous one is stale
+        visibleBranchesIndex.invalidate();
     }
 
     /*===== Common methods =====*/
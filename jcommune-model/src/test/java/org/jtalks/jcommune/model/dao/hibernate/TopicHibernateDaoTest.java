@@ -19,6 +19,8 @@ import org.hibernate.SessionFactory;
 import org.joda.time.DateTime;
 import org.jtalks.jcommune.model.PersistedObjectsFactory;
 import org.jtalks.jcommune.model.dao.TopicDao;
+import org.jtalks.jcommune.model.dao.TopicModificationTimesIndex;
+import org.jtalks.jcommune.model.dao.VisibleBranchesIndex;
 import org.jtalks.jcommune.model.dto.JCommunePageRequest;
 import org.jtalks.jcommune.model.entity.*;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -32,7 +34,10 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.not;
@@ -51,12 +56,19 @@ public class TopicHibernateDaoTest extends AbstractTransactionalTestNGSpringCont
     private SessionFactory sessionFactory;
     @Autowired
     private TopicDao dao;
+    @Autowired
+    private VisibleBranchesIndex visibleBranchesIndex;
+    @Autowired
+    private TopicModificationTimesIndex topicModificationTimesIndex;
     private Session session;
 
     @BeforeMethod
     public void setUp() throws Exception {
         session = sessionFactory.getCurrentSession();
         PersistedObjectsFactory.setSession(session);
+        // permissions are created by each test, so the index loaded by previous one is stale
+        visibleBranchesIndex.invalidate();
+        topicModificationTimesIndex.invalidate();
     }
 
     /*===== Common methods =====*/
@@ -94,6 +106,18 @@ public class TopicHibernateDaoTest extends AbstractTransactionalTestNGSpringCont
         assertEquals(result.getTitle(), newTitle);
     }
 
+    @Test
+    public void modificationTimeOfSavedTopicShouldBePutIntoIndex() {
+        Topic topic = PersistedObjectsFactory.getDefaultTopic();
+        topicModificationTimesIndex.getLastModificationTimes();
+        ReflectionTestUtils.setField(topic, "modificationDate", topic.getModificationDate().plusDays(1));
+
+        dao.saveOrUpdate(topic);
+
+        assertEquals(topicModificationTimesIndex.getLastModificationTimes().get(topic.getBranch().getId()),
+                topic.getModificationDate());
+    }
+
     @Test(expectedExceptions = Exception.class)
     public void testUpdateNotNullViolation() {
         Topic topic = ObjectsFactory.getDefaultTopic();
@@ -317,6 +341,121 @@ public class TopicHibernateDaoTest extends AbstractTransactionalTestNGSpringCont
         return author;
     }
 
+    @Test
+    public void getUnreadTopicsShouldReturnTopicsNotReadUpToTheLastPost() {
+        JCUser user = PersistedObjectsFactory.getDefaultUserWithGroups();
+        List<Topic> topics = createAndSaveVisibleTopics(user, 3);
+        session.save(new LastReadPost(user, topics.get(0), 1));
+        session.save(new LastReadPost(user, topics.get(1), 0));
+        JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(1, 10);
+
+        Page<Topic> result = dao.getUnreadTopics(pageRequest, user);
+
+        assertEquals(result.getTotalElements(), 2);
+        assertEquals(result.getContent(), Arrays.asList(topics.get(2), topics.get(1)));
+    }
+
+    @Test
+    public void getUnreadTopicsShouldCountTopicsOnlyUpToTheNextPage() {
+        JCUser user = PersistedObjectsFactory.getDefaultUserWithGroups();
+        List<Topic> topics = createAndSaveVisibleTopics(user, 3);
+        JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(1, 1);
+
+        Page<Topic> result = dao.getUnreadTopics(pageRequest, user);
+
+        assertEquals(result.getTotalElements(), 2);
+        assertEquals(result.getContent(), Arrays.asList(topics.get(2)));
+    }
+
+    @Test
+    public void getUnreadTopicsShouldCountAllTopicsOnTheLastPage() {
+        JCUser user = PersistedObjectsFactory.getDefaultUserWithGroups();
+        List<Topic> topics = createAndSaveVisibleTopics(user, 3);
+        JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(2, 2);
+
+        Page<Topic> result = dao.getUnreadTopics(pageRequest, user);
+
+        assertEquals(result.getTotalElements(), 3);
+        assertEquals(result.getContent(), Arrays.asList(topics.get(0)));
+    }
+
+    @Test
+    public void getUnreadTopicsShouldNotReturnTopicsWithoutPostsSinceBranchMarkedAsRead() {
+        JCUser user = PersistedObjectsFactory.getDefaultUserWithGroups();
+        List<Topic> topics = createAndSaveVisibleTopics(user, 2);
+        session.save(new BranchReadMark(user, topics.get(0).getBranch(), new DateTime(2100, 1, 1, 0, 0, 0, 0)));
+        JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(1, 10);
+
+        Page<Topic> result = dao.getUnreadTopics(pageRequest, user);
+
+        assertEquals(result.getTotalElements(), 1);
+        assertEquals(result.getContent(), Arrays.asList(topics.get(1)));
+    }
+
+    @Test
+    public void getUnreadTopicsShouldNotReturnTopicsWithoutPostsSinceForumMarkedAsRead() {
+        JCUser user = PersistedObjectsFactory.getDefaultUserWithGroups();
+        List<Topic> topics = createAndSaveVisibleTopics(user, 2);
+        user.setAllForumMarkedAsReadTime(new DateTime(2100, 1, 1, 0, 0, 0, 0));
+        JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(1, 10);
+
+        Page<Topic> result = dao.getUnreadTopics(pageRequest, user);
+
+        assertEquals(result.getTotalElements(), 1);
+        assertEquals(result.getContent(), Arrays.asList(topics.get(1)));
+    }
+
+    @Test
+    public void getUnreadTopicsShouldNotReturnTopicsWithPostsOnlyEditedSinceBranchMarkedAsRead() {
+        JCUser user = PersistedObjectsFactory.getDefaultUserWithGroups();
+        Topic topic = createAndSaveVisibleTopics(user, 1).get(0);
+        session.save(new BranchReadMark(user, topic.getBranch(), new DateTime(2100, 1, 1, 0, 0, 0, 0)));
+        ReflectionTestUtils.setField(topic, "modificationDate", new DateTime(2101, 1, 1, 0, 0, 0, 0));
+        session.flush();
+        JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(1, 10);
+
+        Page<Topic> result = dao.getUnreadTopics(pageRequest, user);
+
+        assertEquals(result.getTotalElements(), 0);
+        assertTrue(result.getContent().isEmpty());
+    }
+
+    @Test
+    public void getUnreadTopicsShouldReturnOnlyTopicsOfVisibleBranches() {
+        JCUser user = PersistedObjectsFactory.getDefaultUserWithGroups();
+        Branch branch = ObjectsFactory.getDefaultBranch();
+        branch.addTopic(ObjectsFactory.getTopic(user, 1));
+        session.save(branch);
+        JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(1, 10);
+
+        Page<Topic> result = dao.getUnreadTopics(pageRequest, user);
+
+        assertEquals(result.getTotalElements(), 0);
+        assertTrue(result.getContent().isEmpty());
+    }
+
+    /**
+     * Creates topics with two posts in different branches visible to the user, the last post
+     * of each next topic is created later than the one of the previous topic, topics are modified
+     * at the same time. The first topic is modified before 2100 year, the others after it.
+     */
+    private List<Topic> createAndSaveVisibleTopics(JCUser user, int count) {
+        List<Topic> topics = new ArrayList<Topic>();
+        for (int i = 0; i < count; i++) {
+            Branch branch = ObjectsFactory.getDefaultBranch();
+            Topic topic = ObjectsFactory.getTopic(user, 2);
+            DateTime modificationDate = new DateTime(2099 + i, 1, 1, 0, 0, 0, 0);
+            ReflectionTestUtils.setField(topic, "modificationDate", modificationDate);
+            ReflectionTestUtils.setField(topic, "lastPostDate", modificationDate);
+            branch.addTopic(topic);
+            session.save(branch);
+            PersistedObjectsFactory.createAndSaveViewTopicsBranchesEntity(branch.getId(),
+                    String.valueOf(user.getGroups().get(0).getId()), true);
+            topics.add(topic);
+        }
+        return topics;
+    }
+
 
     @Test
     public void testGetLastUpdatedTopicInBranch() {
@@ -432,6 +571,43 @@ public class TopicHibernateDaoTest extends AbstractTransactionalTestNGSpringCont
         assertEquals(topicsPage.getTotalElements(), size, "Incorrect total count.");
     }
 
+    @Test
+    public void testGetTopicsAfterLastSeenTopic() {
+        int totalSize = 50;
+        int pageSize = totalSize / 2;
+        List<Topic> topicList = PersistedObjectsFactory.createAndSaveTopicList(totalSize);
+        for (Topic topic : topicList.subList(0, pageSize + 5)) {
+            topic.setSticked(true);
+        }
+        session.flush();
+        Branch branch = topicList.get(0).getBranch();
+        Page<Topic> firstPage = dao.getTopics(branch, JCommunePageRequest.createWithPagingEnabled(1, pageSize));
+        JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(2, pageSize);
+        pageRequest.setLastSeenId(firstPage.getContent().get(pageSize - 1).getId());
+
+        Page<Topic> topicsPage = dao.getTopics(branch, pageRequest);
+
+        assertEquals(topicsPage.getContent(),
+                dao.getTopics(branch, JCommunePageRequest.createWithPagingEnabled(2, pageSize)).getContent(),
+                "Keyset pagination should return the same topics as offset pagination.");
+        assertEquals(topicsPage.getTotalElements(), totalSize, "Incorrect total count.");
+    }
+
+    @Test
+    public void testGetTopicsAfterNonExistentTopicFallsBackToOffset() {
+        int totalSize = 50;
+        int pageSize = totalSize / 2;
+        List<Topic> topicList = PersistedObjectsFactory.createAndSaveTopicList(totalSize);
+        Branch branch = topicList.get(0).getBranch();
+        JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(2, pageSize);
+        pageRequest.setLastSeenId(-1L);
+
+        Page<Topic> topicsPage = dao.getTopics(branch, pageRequest);
+
+        assertEquals(topicsPage.getContent(),
+                dao.getTopics(branch, JCommunePageRequest.createWithPagingEnabled(2, pageSize)).getContent());
+    }
+
     @Test
     public void testAddCodeReview() {
         Topic topic = PersistedObjectsFactory.getDefaultTopic();
@@ -490,6 +666,25 @@ public class TopicHibernateDaoTest extends AbstractTransactionalTestNGSpringCont
             "Should not return subscribers which are contained in any group with disallowed VIEW_TOPIC permission.");
     }
 
+    @Test
+    public void addViewsShouldIncreaseViewsOfTopics() {
+        List<Topic> topics = PersistedObjectsFactory.createAndSaveTopicListWithPosts(2);
+        Topic first = topics.get(0);
+        Topic second = topics.get(1);
+        first.setViews(5);
+        session.flush();
+        Map<Long, Integer> views = new HashMap<Long, Integer>();
+        views.put(first.getId(), 3);
+        views.put(second.getId(), 1);
+
+        dao.addViews(views);
+        session.refresh(first);
+        session.refresh(second);
+
+        assertEquals(first.getViews(), 8);
+        assertEquals(second.getViews(), 1);
+    }
+
     private Topic createAndSaveTopicWithSubscribers(){
         JCUser subscriber = PersistedObjectsFactory.getDefaultUserWithGroups();
         Branch branch = ObjectsFactory.getDefaultBranch();
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao.hibernate;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.joda.time.DateTime;
+import org.jtalks.jcommune.model.PersistedObjectsFactory;
+import org.jtalks.jcommune.model.dao.TopicModificationTimesIndex;
+import org.jtalks.jcommune.model.entity.Branch;
+import org.jtalks.jcommune.model.entity.ObjectsFactory;
+import org.jtalks.jcommune.model.entity.Topic;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.testng.AbstractTransactionalTestNGSpringContextTests;
+import org.springframework.test.context.transaction.TransactionConfiguration;
+import org.springframework.transaction.annotation.Transactional;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+@ContextConfiguration(locations = {"classpath:/org/jtalks/jcommune/model/entity/applicationContext-dao.xml"})
+@TransactionConfiguration(transactionManager = "transactionManager", defaultRollback = true)
+@Transactional
+public class TopicModificationTimesHibernateIndexTest extends AbstractTransactionalTestNGSpringContextTests {
+    @Autowired
+    private SessionFactory sessionFactory;
+    @Autowired
+    private TopicModificationTimesIndex index;
+    private Statistics statistics;
+    private boolean statisticsEnabled;
+    private Topic topic;
+
+    @BeforeMethod
+    public void setUp() {
+        PersistedObjectsFactory.setSession(sessionFactory.getCurrentSession());
+        statistics = sessionFactory.getStatistics();
+        statisticsEnabled = statistics.isStatisticsEnabled();
+        statistics.setStatisticsEnabled(true);
+        // topics are created by each test, so the index loaded by previous one is stale
+        index.invalidate();
+        topic = PersistedObjectsFactory.getDefaultTopic();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        statistics.setStatisticsEnabled(statisticsEnabled);
+    }
+
+    @Test
+    public void timesShouldBeLoadedFromTopics() {
+        Branch emptyBranch = ObjectsFactory.getDefaultBranch();
+        sessionFactory.getCurrentSession().save(emptyBranch);
+
+        Map<Long, DateTime> modificationTimes = index.getLastModificationTimes();
+
+        assertEquals(modificationTimes.get(branchId()).getMillis(), topic.getModificationDate().getMillis());
+        assertFalse(modificationTimes.containsKey(emptyBranch.getId()));
+    }
+
+    @Test
+    public void secondCallShouldNotQueryDatabase() {
+        index.getLastModificationTimes();
+        long queriesCount = statistics.getQueryExecutionCount();
+
+        Map<Long, DateTime> modificationTimes = index.getLastModificationTimes();
+
+        assertEquals(statistics.getQueryExecutionCount(), queriesCount);
+        assertEquals(modificationTimes.get(branchId()).getMillis(), topic.getModificationDate().getMillis());
+    }
+
+    @Test
+    public void modifiedTopicShouldBeReflectedWithoutQueryingDatabase() {
+        index.getLastModificationTimes();
+        long queriesCount = statistics.getQueryExecutionCount();
+        DateTime modificationTime = topic.getModificationDate().plusDays(1);
+
+        index.topicModified(branchId(), modificationTime);
+
+        assertEquals(index.getLastModificationTimes().get(branchId()), modificationTime);
+        assertEquals(statistics.getQueryExecutionCount(), queriesCount);
+    }
+
+    @Test
+    public void earlierModificationShouldNotReplaceLaterOne() {
+        DateTime loadedTime = index.getLastModificationTimes().get(branchId());
+
+        index.topicModified(branchId(), loadedTime.minusDays(1));
+
+        assertEquals(index.getLastModificationTimes().get(branchId()), loadedTime);
+    }
+
+    @Test
+    public void modificationShouldBeKeptAfterReload() {
+        index.getLastModificationTimes();
+        DateTime modificationTime = topic.getModificationDate().plusDays(1);
+        index.topicModified(branchId(), modificationTime);
+
+        index.invalidate();
+
+        assertEquals(index.getLastModificationTimes().get(branchId()), modificationTime);
+    }
+
+    @Test
+    public void indexShouldBeReloadedAfterInvalidation() {
+        index.getLastModificationTimes();
+        Topic newTopic = PersistedObjectsFactory.getDefaultTopic();
+
+        assertFalse(index.getLastModificationTimes().containsKey(newTopic.getBranch().getId()),
+                "Index shouldn't be reloaded until invalidated");
+        index.invalidate();
+        assertEquals(index.getLastModificationTimes().get(newTopic.getBranch().getId()).getMillis(),
+                newTopic.getModificationDate().getMillis());
+    }
+
+    @Test
+    public void expiredIndexShouldBeReloaded() {
+        TopicModificationTimesIndex expiringIndex = new TopicModificationTimesHibernateIndex(sessionFactory, -1);
+        expiringIndex.getLastModificationTimes();
+        long queriesCount = statistics.getQueryExecutionCount();
+
+        expiringIndex.getLastModificationTimes();
+
+        assertEquals(statistics.getQueryExecutionCount(), queriesCount + 1);
+    }
+
+    private long branchId() {
+        return topic.getBranch().getId();
+    }
+}
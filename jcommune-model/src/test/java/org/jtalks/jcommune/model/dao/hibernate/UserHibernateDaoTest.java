@@ -312,6 +312,19 @@ public class UserHibernateDaoTest extends AbstractTransactionalTestNGSpringConte
         assertTrue(foundByUsernames.isEmpty(), "It should return empty list, cause found users not exist.");
     }
     
+    @Test
+    public void getByUsernamesIgnoringCaseShouldReturnUsersWithNamesInOtherCase() {
+        JCUser firstExistsUser = givenJCUserWithUsernameStoredInDb("Shogun");
+        JCUser secondExistsUser = givenJCUserWithUsernameStoredInDb("masyan");
+
+        List<JCUser> foundByUsernames = dao.getByUsernamesIgnoringCase(
+                new HashSet<String>(asList("shogun", "MASYAN", "jk1")));
+
+        assertEquals(foundByUsernames.size(), 2);
+        assertTrue(foundByUsernames.contains(firstExistsUser));
+        assertTrue(foundByUsernames.contains(secondExistsUser));
+    }
+
     private JCUser givenJCUserWithUsernameStoredInDb(String username) {
         JCUser expected = new JCUser(username, username + "@mail.com", username + "pass");
         session.save(expected);
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao.hibernate;
+
+import org.hibernate.Query;
+import org.hibernate.SessionFactory;
+import org.hibernate.classic.Session;
+import org.jtalks.jcommune.model.dao.UsernamesIndex;
+import org.jtalks.jcommune.model.entity.JCUser;
+import org.jtalks.jcommune.model.entity.ObjectsFactory;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.testng.AbstractTransactionalTestNGSpringContextTests;
+import org.springframework.test.context.transaction.TransactionConfiguration;
+import org.springframework.transaction.annotation.Transactional;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@ContextConfiguration(locations = {"classpath:/org/jtalks/jcommune/model/entity/applicationContext-dao.xml"})
+@TransactionConfiguration(transactionManager = "transactionManager", defaultRollback = true)
+@Transactional
+public class UsernamesHibernateIndexTest extends AbstractTransactionalTestNGSpringContextTests {
+    @Autowired
+    private SessionFactory sessionFactory;
+    @Autowired
+    private UsernamesIndex index;
+
+    @BeforeMethod
+    public void setUp() {
+        index.invalidate();
+        saveUser("Masyan", true);
+        saveUser("masyanya", true);
+        saveUser("Shogun", true);
+        saveUser("jk1", true);
+        saveUser("notActivatedMasyan", false);
+    }
+
+    @Test
+    public void usernamesContainingPatternShouldBeFoundIgnoringCase() {
+        assertEquals(index.getUsernames("MASYAN", 10), Arrays.asList("Masyan", "masyanya"));
+        assertEquals(index.getUsernames("yan", 10), Arrays.asList("Masyan", "masyanya"));
+        assertEquals(index.getUsernames("g", 10), Collections.singletonList("Shogun"));
+    }
+
+    @Test
+    public void usernamesShouldBeOrderedAndLimited() {
+        assertEquals(index.getUsernames("", 3), Arrays.asList("jk1", "Masyan", "masyanya"));
+        assertEquals(index.getUsernames("a", 1), Collections.singletonList("Masyan"));
+    }
+
+    @Test
+    public void notMatchingPatternShouldFindNothing() {
+        assertTrue(index.getUsernames("masyanyan", 10).isEmpty());
+        assertTrue(index.getUsernames("xyz", 10).isEmpty());
+    }
+
+    @Test
+    public void disabledUsersShouldNotBeFound() {
+        assertEquals(index.getUsernames("notActivated", 10), Collections.<String>emptyList());
+    }
+
+    @Test
+    public void addedUsernamesShouldBeFoundWithoutReloading() {
+        index.getUsernames("", 10);
+        index.add("Masyanka");
+        index.remove("masyanya");
+
+        assertEquals(index.getUsernames("masy", 10), Arrays.asList("Masyan", "Masyanka"));
+    }
+
+    @Test
+    public void removedAndAddedAgainUsernameShouldBeFound() {
+        index.getUsernames("", 10);
+        index.remove("Shogun");
+        assertTrue(index.getUsernames("shog", 10).isEmpty());
+
+        index.add("Shogun");
+        assertEquals(index.getUsernames("shog", 10), Collections.singletonList("Shogun"));
+    }
+
+    @Test
+    public void invalidatedIndexShouldBeReloaded() {
+        index.getUsernames("", 10);
+        saveUser("Shoguness", true);
+        index.invalidate();
+
+        assertEquals(index.getUsernames("shog", 10), Arrays.asList("Shogun", "Shoguness"));
+    }
+
+    @Test
+    public void tooManyChangesShouldReloadIndex() {
+        index.getUsernames("", 10);
+        saveUser("Shoguness", true);
+        for (int i = 0; i <= UsernamesHibernateIndex.MAX_PENDING_CHANGES; i++) {
+            index.remove("jk1");
+        }
+
+        assertEquals(index.getUsernames("jk", 10), Collections.singletonList("jk1"));
+        assertEquals(index.getUsernames("shog", 10), Arrays.asList("Shogun", "Shoguness"));
+    }
+
+    @Test
+    public void previousIndexShouldBeUsedWhileIndexIsReloaded() throws InterruptedException {
+        final CountDownLatch reloadStarted = new CountDownLatch(1);
+        final CountDownLatch reloadAllowed = new CountDownLatch(1);
+        Query query = mock(Query.class);
+        when(query.list()).thenReturn(Arrays.asList("Masyan")).thenAnswer(new Answer<List<String>>() {
+            @Override
+            public List<String> answer(InvocationOnMock invocation) throws Throwable {
+                reloadStarted.countDown();
+                reloadAllowed.await();
+                return Arrays.asList("Masyan", "Shogun");
+            }
+        });
+        Session session = mock(Session.class);
+        when(session.getNamedQuery("getEnabledUsernames")).thenReturn(query);
+        SessionFactory factory = mock(SessionFactory.class);
+        when(factory.getCurrentSession()).thenReturn(session);
+        final UsernamesIndex reloadedIndex = new UsernamesHibernateIndex(factory, 60000);
+        reloadedIndex.getUsernames("", 10);
+        reloadedIndex.invalidate();
+
+        Thread reloading = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reloadedIndex.getUsernames("", 10);
+            }
+        });
+        reloading.start();
+        reloadStarted.await();
+        assertEquals(reloadedIndex.getUsernames("", 10), Collections.singletonList("Masyan"));
+
+        reloadAllowed.countDown();
+        reloading.join();
+        assertEquals(reloadedIndex.getUsernames("", 10), Arrays.asList("Masyan", "Shogun"));
+    }
+
+    private void saveUser(String username, boolean enabled) {
+        JCUser user = ObjectsFactory.getUser(username, username + "@mail.com");
+        user.setEnabled(enabled);
+        sessionFactory.getCurrentSession().save(user);
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao.hibernate;
+
+import org.hibernate.SessionFactory;
+import org.jtalks.jcommune.model.PersistedObjectsFactory;
+import org.jtalks.jcommune.model.dao.VisibleBranchesIndex;
+import org.jtalks.jcommune.model.entity.AnonymousUser;
+import org.jtalks.jcommune.model.entity.JCUser;
+import org.jtalks.jcommune.model.entity.ObjectsFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.testng.AbstractTransactionalTestNGSpringContextTests;
+import org.springframework.test.context.transaction.TransactionConfiguration;
+import org.springframework.transaction.annotation.Transactional;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@ContextConfiguration(locations = {"classpath:/org/jtalks/jcommune/model/entity/applicationContext-dao.xml"})
+@TransactionConfiguration(transactionManager = "transactionManager", defaultRollback = true)
+@Transactional
+public class VisibleBranchesHibernateIndexTest extends AbstractTransactionalTestNGSpringContextTests {
+    private static final String ANONYMOUS_SID = "anonymousUser";
+
+    @Autowired
+    private SessionFactory sessionFactory;
+    @Autowired
+    private VisibleBranchesIndex index;
+    private JCUser user;
+
+    @BeforeMethod
+    public void setUp() {
+        PersistedObjectsFactory.setSession(sessionFactory.getCurrentSession());
+        index.invalidate();
+        user = PersistedObjectsFactory.getDefaultUserWithGroups();
+    }
+
+    @Test
+    public void branchAllowedForAnyOfGroupsShouldBeVisible() {
+        PersistedObjectsFactory.createAndSaveViewTopicsBranchesEntity(1L, sidOfGroup(0), true);
+        PersistedObjectsFactory.createAndSaveViewTopicsBranchesEntity(2L, sidOfGroup(1), true);
+        PersistedObjectsFactory.createAndSaveViewTopicsBranchesEntity(3L, "otherGroup", true);
+
+        assertEquals(index.getVisibleBranchIds(user), new HashSet<Long>(Arrays.asList(1L, 2L)));
+    }
+
+    @Test
+    public void branchRestrictedForAnyOfGroupsShouldNotBeVisible() {
+        PersistedObjectsFactory.createAndSaveViewTopicsBranchesEntity(1L, sidOfGroup(0), true);
+        PersistedObjectsFactory.createAndSaveViewTopicsBranchesEntity(1L, sidOfGroup(1), false);
+
+        assertTrue(index.getVisibleBranchIds(user).isEmpty());
+    }
+
+    @Test
+    public void userWithoutGroupsShouldNotSeeBranches() {
+        PersistedObjectsFactory.createAndSaveViewTopicsBranchesEntity(1L, sidOfGroup(0), true);
+        JCUser userWithoutGroups = ObjectsFactory.getUser("withoutGroups", "without@groups.com");
+
+        assertTrue(index.getVisibleBranchIds(userWithoutGroups).isEmpty());
+    }
+
+    @Test
+    public void anonymousUserShouldSeeBranchesAllowedForAnonymous() {
+        PersistedObjectsFactory.createAndSaveViewTopicsBranchesEntity(1L, ANONYMOUS_SID, true);
+        PersistedObjectsFactory.createAndSaveViewTopicsBranchesEntity(2L, sidOfGroup(0), true);
+
+        assertEquals(index.getVisibleBranchIds(new AnonymousUser()), Collections.singleton(1L));
+    }
+
+    @Test
+    public void indexShouldBeRebuiltAfterInvalidation() {
+        PersistedObjectsFactory.createAndSaveViewTopicsBranchesEntity(1L, sidOfGroup(0), true);
+        Set<Long> before = index.getVisibleBranchIds(user);
+        PersistedObjectsFactory.createAndSaveViewTopicsBranchesEntity(2L, sidOfGroup(0), true);
+
+        assertEquals(index.getVisibleBranchIds(user), before, "Index shouldn't be reloaded until invalidated");
+        index.invalidate();
+        assertEquals(index.getVisibleBranchIds(user), new HashSet<Long>(Arrays.asList(1L, 2L)));
+    }
+
+    private String sidOfGroup(int index) {
+        return String.valueOf(user.getGroups().get(index).getId());
+    }
+}
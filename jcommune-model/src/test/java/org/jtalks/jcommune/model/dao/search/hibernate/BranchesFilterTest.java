@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao.search.hibernate;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.jtalks.jcommune.model.entity.Post;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class BranchesFilterTest {
+    private Directory directory;
+    private IndexReader reader;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory,
+                new IndexWriterConfig(Version.LUCENE_31, new KeywordAnalyzer()));
+        for (long branchId : new long[]{1, 2, 3, 2}) {
+            Document document = new Document();
+            document.add(new Field(Post.POST_BRANCH_ID_FIELD, String.valueOf(branchId),
+                    Field.Store.NO, Field.Index.NOT_ANALYZED));
+            writer.addDocument(document);
+        }
+        writer.close();
+        reader = IndexReader.open(directory);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void onlyPostsOfGivenBranchesShouldPass() throws IOException {
+        BranchesFilter filter = new BranchesFilter(new HashSet<Long>(Arrays.asList(2L, 3L)));
+
+        DocIdSetIterator documents = filter.getDocIdSet(reader).iterator();
+
+        assertEquals(documents.nextDoc(), 1);
+        assertEquals(documents.nextDoc(), 2);
+        assertEquals(documents.nextDoc(), 3);
+        assertEquals(documents.nextDoc(), DocIdSetIterator.NO_MORE_DOCS);
+    }
+
+    @Test
+    public void nothingShouldPassForUnknownBranches() throws IOException {
+        BranchesFilter filter = new BranchesFilter(new HashSet<Long>(Arrays.asList(42L)));
+
+        DocIdSetIterator documents = filter.getDocIdSet(reader).iterator();
+
+        assertEquals(documents.nextDoc(), DocIdSetIterator.NO_MORE_DOCS);
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao.search.hibernate;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.hibernate.SessionFactory;
+import org.jtalks.jcommune.model.dto.IndexRebuildProgress;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.testng.AbstractTestNGSpringContextTests;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * The rebuilder works in its own sessions and transactions, so the test isn't transactional.
+ */
+@ContextConfiguration(locations = {"classpath:/org/jtalks/jcommune/model/entity/applicationContext-dao.xml"})
+public class PostIndexRebuilderTest extends AbstractTestNGSpringContextTests {
+    private static final long REBUILD_TIMEOUT = 10000;
+    @Autowired
+    private SessionFactory sessionFactory;
+    private File checkpointFile;
+    private PostIndexRebuilder rebuilder;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        checkpointFile = File.createTempFile("post-index-rebuild", ".checkpoint");
+        checkpointFile.delete();
+        rebuilder = new PostIndexRebuilder(sessionFactory, checkpointFile, 2, 10);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        checkpointFile.delete();
+    }
+
+    @Test
+    public void rebuildShouldFinishAndDeleteCheckpoint() throws InterruptedException {
+        assertTrue(rebuilder.start());
+
+        IndexRebuildProgress progress = waitForRebuild();
+
+        assertEquals(progress.getState(), IndexRebuildProgress.State.FINISHED);
+        assertEquals(progress.getIndexedPosts(), progress.getTotalPosts());
+        assertFalse(checkpointFile.exists());
+    }
+
+    @Test
+    public void interruptedRebuildShouldContinueFromCheckpoint() throws Exception {
+        writeCheckpoint(Long.MAX_VALUE);
+
+        rebuilder.startIfRequired();
+        IndexRebuildProgress progress = waitForRebuild();
+
+        assertEquals(progress.getState(), IndexRebuildProgress.State.FINISHED);
+        assertEquals(progress.getTotalPosts(), 0);
+        assertFalse(checkpointFile.exists());
+    }
+
+    @Test
+    public void rebuildShouldNotBeStartedWithoutCheckpointAndPostsToIndex() {
+        rebuilder.startIfRequired();
+
+        assertEquals(rebuilder.getProgress().getState(), IndexRebuildProgress.State.IDLE);
+    }
+
+    private IndexRebuildProgress waitForRebuild() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + REBUILD_TIMEOUT;
+        IndexRebuildProgress progress = rebuilder.getProgress();
+        while (!isCompleted(progress) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            progress = rebuilder.getProgress();
+        }
+        return progress;
+    }
+
+    private boolean isCompleted(IndexRebuildProgress progress) {
+        return progress.getState() == IndexRebuildProgress.State.FINISHED
+                || progress.getState() == IndexRebuildProgress.State.FAILED;
+    }
+
+    private void writeCheckpoint(long checkpoint) throws IOException {
+        Writer writer = new FileWriter(checkpointFile);
+        try {
+            writer.write(String.valueOf(checkpoint));
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dao.search.hibernate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+public class SearchResultCacheTest {
+    private static final String SEARCH_TEXT = "jcommune";
+    private static final Set<Long> BRANCH_IDS = new HashSet<Long>(Arrays.asList(1L, 2L));
+    private static final int PAGE_SIZE = 50;
+    private SearchResultCache cache;
+    private SearchResultCache.Result result = new SearchResultCache.Result(Arrays.asList(3L, 4L),
+            Arrays.asList("first <b>fragment</b>", "second <b>fragment</b>"), 2,
+            Collections.singletonMap(1L, 2), Collections.singletonMap(5L, 2));
+
+    @BeforeMethod
+    public void setUp() {
+        cache = new SearchResultCache(2);
+    }
+
+    @Test
+    public void cachedResultShouldBeReturnedForSameTextBranchesAndPage() {
+        assertNull(cache.get(SEARCH_TEXT, BRANCH_IDS, 1, PAGE_SIZE, 1));
+        cache.put(SEARCH_TEXT, BRANCH_IDS, 1, PAGE_SIZE, 1, result);
+
+        assertSame(cache.get(SEARCH_TEXT, new HashSet<Long>(BRANCH_IDS), 1, PAGE_SIZE, 1), result);
+        assertEquals(cache.getHits(), 1);
+        assertEquals(cache.getMisses(), 1);
+        assertEquals(cache.getHitRatio(), 0.5);
+    }
+
+    @Test
+    public void resultShouldNotBeSharedWithOtherBranchesOrPages() {
+        cache.get(SEARCH_TEXT, BRANCH_IDS, 1, PAGE_SIZE, 1);
+        cache.put(SEARCH_TEXT, BRANCH_IDS, 1, PAGE_SIZE, 1, result);
+
+        assertNull(cache.get(SEARCH_TEXT, Collections.singleton(1L), 1, PAGE_SIZE, 1));
+        assertNull(cache.get(SEARCH_TEXT, BRANCH_IDS, 2, PAGE_SIZE, 1));
+    }
+
+    @Test
+    public void resultsShouldBeDroppedWhenIndexGenerationChanges() {
+        cache.get(SEARCH_TEXT, BRANCH_IDS, 1, PAGE_SIZE, 1);
+        cache.put(SEARCH_TEXT, BRANCH_IDS, 1, PAGE_SIZE, 1, result);
+
+        assertNull(cache.get(SEARCH_TEXT, BRANCH_IDS, 1, PAGE_SIZE, 2));
+        assertEquals(cache.getSize(), 0);
+    }
+
+    @Test
+    public void resultOfOutdatedGenerationShouldNotBeCached() {
+        cache.get(SEARCH_TEXT, BRANCH_IDS, 1, PAGE_SIZE, 2);
+
+        cache.put(SEARCH_TEXT, BRANCH_IDS, 1, PAGE_SIZE, 1, result);
+
+        assertEquals(cache.getSize(), 0);
+    }
+
+    @Test
+    public void leastRecentlyUsedResultShouldBeEvicted() {
+        cache.get(SEARCH_TEXT, BRANCH_IDS, 1, PAGE_SIZE, 1);
+        cache.put(SEARCH_TEXT, BRANCH_IDS, 1, PAGE_SIZE, 1, result);
+        cache.put(SEARCH_TEXT, BRANCH_IDS, 2, PAGE_SIZE, 1, result);
+        cache.get(SEARCH_TEXT, BRANCH_IDS, 1, PAGE_SIZE, 1);
+
+        cache.put(SEARCH_TEXT, BRANCH_IDS, 3, PAGE_SIZE, 1, result);
+
+        assertEquals(cache.getSize(), 2);
+        assertNull(cache.get(SEARCH_TEXT, BRANCH_IDS, 2, PAGE_SIZE, 1));
+        assertSame(cache.get(SEARCH_TEXT, BRANCH_IDS, 1, PAGE_SIZE, 1), result);
+    }
+}
@@ -16,20 +16,32 @@ package org.jtalks.jcommune.model.dao.search.hibernate;
 
 import static org.testng.Assert.assertEquals;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.search.FullTextSession;
 import org.hibernate.search.Search;
+import org.joda.time.DateTime;
 
 import org.jtalks.jcommune.model.PersistedObjectsFactory;
+import org.jtalks.jcommune.model.dao.VisibleBranchesIndex;
 import org.jtalks.jcommune.model.dto.JCommunePageRequest;
+import org.jtalks.jcommune.model.dto.TopicSearchFilter;
+import org.jtalks.jcommune.model.dto.TopicSearchHit;
+import org.jtalks.jcommune.model.dto.TopicSearchResult;
 
+import org.jtalks.jcommune.model.entity.Branch;
+import org.jtalks.jcommune.model.entity.JCUser;
+import org.jtalks.jcommune.model.entity.ObjectsFactory;
+import org.jtalks.jcommune.model.entity.Post;
 import org.jtalks.jcommune.model.entity.Topic;
-import org.jtalks.jcommune.model.search.SearchRequestFilter;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -57,14 +69,15 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
 	private static final int PAGE_SIZE = 50;
     private static final String TOPIC_CONTENT = "topicContent";
     private static final JCommunePageRequest DEFAULT_PAGE_REQUEST = JCommunePageRequest.createWithPagingEnabled(1, 50);
+    private static final JCUser USER = new JCUser("username", "email@mail.com", "password");
     @Autowired
 	private SessionFactory sessionFactory;
 	@Autowired
 	private TopicHibernateSearchDao topicSearchDao;
+	@Autowired
+	private SearchResultCache resultCache;
 	@Mock
-	private SearchRequestFilter invalidCharactersFilter;
-	@Mock
-	private SearchRequestFilter stopWordsFilter;
+	private VisibleBranchesIndex visibleBranchesIndex;
 	
 	private FullTextSession fullTextSession;
 	
@@ -74,13 +87,16 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
         PersistedObjectsFactory.setSession(session);
         
         MockitoAnnotations.initMocks(this);
-        List<SearchRequestFilter> filters = Arrays.asList(invalidCharactersFilter, stopWordsFilter);
-        topicSearchDao.setFilters(filters);
+        topicSearchDao.setVisibleBranchesIndex(visibleBranchesIndex);
 	}
 	
-	private void configureMocks(String searchText, String result) {
-		Mockito.when(invalidCharactersFilter.filter(searchText)).thenReturn(result);
-		Mockito.when(stopWordsFilter.filter(searchText)).thenReturn(result);
+	/**
+	 * Makes branches of all the saved topics visible.
+	 */
+	private void makeBranchesVisible() {
+		@SuppressWarnings("unchecked")
+		List<Long> branchIds = fullTextSession.createQuery("SELECT DISTINCT t.branch.id FROM Topic t").list();
+		Mockito.when(visibleBranchesIndex.getVisibleBranchIds(USER)).thenReturn(new HashSet<Long>(branchIds));
 	}
 	
 	@BeforeMethod
@@ -92,7 +108,7 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
 	
 	@AfterMethod
 	public void clearIndexes() {
-		fullTextSession.purgeAll(Topic.class);
+		fullTextSession.purgeAll(Post.class);
 		fullTextSession.flushToIndexes();
 	}
 	 
@@ -111,10 +127,10 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
         }
         
         saveAndFlushIndexes(topicList);
-        configureMocks(searchText, searchText);
+        makeBranchesVisible();
         
-        Page<Topic> searchResultPage = topicSearchDao.searchByTitleAndContent(
-                searchText, pageRequest);
+        Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+                searchText, TopicSearchFilter.NONE, pageRequest, USER);
         
         assertEquals(searchResultPage.getContent().size(), pageSize, "Incorrect count of topics in one page.");
         assertEquals(searchResultPage.getTotalElements(), totalSize, "Incorrect total count.");
@@ -122,14 +138,240 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
         
 	}
 	
+	@Test
+	public void topicShouldBeFoundOnceWhenManyPostsMatch() {
+	    String searchText = "JCommune";
+	    Topic expectedTopic = PersistedObjectsFactory.getDefaultTopic();
+	    expectedTopic.getFirstPost().setPostContent(searchText);
+	    List<Post> replies = new ArrayList<Post>();
+	    for (int i = 0; i < 3; i++) {
+	        Post reply = new Post(expectedTopic.getTopicStarter(), searchText + " reply");
+	        expectedTopic.addPost(reply);
+	        replies.add(reply);
+	    }
+	    
+	    saveAndFlushIndexes(replies);
+	    makeBranchesVisible();
+	    
+	    Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+	            searchText, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
+	    
+	    assertEquals(searchResultPage.getTotalElements(), 1, "Topic should be found once.");
+	    assertEquals(topicsOf(searchResultPage), Arrays.asList(expectedTopic));
+	}
+	
+	@Test
+	public void renamedTopicShouldBeFoundByNewTitleAfterReindexingPosts() {
+	    String newTitle = "JCommune";
+	    Topic expectedTopic = PersistedObjectsFactory.getDefaultTopic();
+	    saveAndFlushIndexes(Arrays.asList(expectedTopic));
+	    expectedTopic.setTitle(newTitle);
+	    
+	    topicSearchDao.reindexPosts(expectedTopic);
+	    fullTextSession.flushToIndexes();
+	    makeBranchesVisible();
+	    
+	    Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+	            newTitle, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
+	    
+	    assertEquals(topicsOf(searchResultPage), Arrays.asList(expectedTopic));
+	}
+	
+	@Test(timeOut = 1000)
+	public void awaitingIndexingShouldNotBlockWithSynchronousBackend() {
+	    Topic expectedTopic = PersistedObjectsFactory.getDefaultTopic();
+	    saveAndFlushIndexes(Arrays.asList(expectedTopic));
+	    
+	    topicSearchDao.awaitIndexingOfPostsBy(expectedTopic.getTopicStarter());
+	}
+	
+	@Test
+	public void topicsOfInvisibleBranchesShouldNotBeFoundNorCounted() {
+	    String searchText = "JCommune";
+	    List<Topic> topics = PersistedObjectsFactory.createAndSaveTopicList(3);
+	    for (Topic topic : topics) {
+	        topic.setTitle(searchText);
+	    }
+	    Topic visibleTopic = topics.get(0);
+	    JCUser author = visibleTopic.getTopicStarter();
+	    Topic invisibleTopic = new Topic(author, searchText);
+	    invisibleTopic.addPost(new Post(author, "post content"));
+	    Branch invisibleBranch = ObjectsFactory.getDefaultBranch();
+	    invisibleBranch.addTopic(invisibleTopic);
+	    List<Object> savedEntities = new ArrayList<Object>(topics);
+	    savedEntities.add(invisibleBranch);
+	    saveAndFlushIndexes(savedEntities);
+	    makeBranchesVisible();
+	    Set<Long> visibleBranchIds = new HashSet<Long>(Arrays.asList(visibleTopic.getBranch().getId()));
+	    Mockito.when(visibleBranchesIndex.getVisibleBranchIds(USER)).thenReturn(visibleBranchIds);
+	    
+	    Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+	            searchText, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
+	    
+	    assertEquals(searchResultPage.getTotalElements(), 3, "Only topics of visible branch should be counted.");
+	    Assert.assertFalse(topicsOf(searchResultPage).contains(invisibleTopic));
+	}
+	
+	@Test
+	public void searchShouldBeNarrowedToBranchAndCountTopicsOfOtherBranches() {
+	    String searchText = "JCommune";
+	    List<Topic> topics = PersistedObjectsFactory.createAndSaveTopicList(2);
+	    for (Topic topic : topics) {
+	        topic.setTitle(searchText);
+	    }
+	    JCUser author = topics.get(0).getTopicStarter();
+	    Topic otherTopic = new Topic(author, searchText);
+	    otherTopic.addPost(new Post(author, "post content"));
+	    Branch otherBranch = ObjectsFactory.getDefaultBranch();
+	    otherBranch.addTopic(otherTopic);
+	    List<Object> savedEntities = new ArrayList<Object>(topics);
+	    savedEntities.add(otherBranch);
+	    saveAndFlushIndexes(savedEntities);
+	    makeBranchesVisible();
+	    Branch branch = topics.get(0).getBranch();
+	    TopicSearchFilter filter = new TopicSearchFilter(branch.getId(), null, null, null);
+	    
+	    TopicSearchResult searchResult = topicSearchDao.searchByTitleAndContent(
+	            searchText, filter, DEFAULT_PAGE_REQUEST, USER);
+	    
+	    assertEquals(searchResult.getTotalElements(), 2, "Only topics of the chosen branch should be found.");
+	    Assert.assertFalse(topicsOf(searchResult).contains(otherTopic));
+	    assertEquals(searchResult.getBranchFacets().size(), 2);
+	    assertEquals(searchResult.getBranchFacets().get(0).getValue(), branch);
+	    assertEquals(searchResult.getBranchFacets().get(0).getCount(), 2);
+	    assertEquals(searchResult.getBranchFacets().get(1).getValue(), otherBranch);
+	    assertEquals(searchResult.getBranchFacets().get(1).getCount(), 1);
+	    assertEquals(searchResult.getAuthorFacets().size(), 1);
+	    assertEquals(searchResult.getAuthorFacets().get(0).getValue(), author);
+	    assertEquals(searchResult.getAuthorFacets().get(0).getCount(), 2, "Authors should be counted in the branch.");
+	}
+	
+	@Test
+	public void searchShouldBeNarrowedToPostsOfAuthorAndCountTopicsOfOtherAuthors() {
+	    String searchText = "JCommune";
+	    Topic authorTopic = PersistedObjectsFactory.getDefaultTopic();
+	    authorTopic.getFirstPost().setPostContent(searchText);
+	    JCUser topicStarter = authorTopic.getTopicStarter();
+	    Topic otherTopic = new Topic(topicStarter, "title");
+	    otherTopic.addPost(new Post(topicStarter, searchText));
+	    authorTopic.getBranch().addTopic(otherTopic);
+	    JCUser author = ObjectsFactory.getRandomUser();
+	    Post reply = new Post(author, searchText + " reply");
+	    authorTopic.addPost(reply);
+	    saveAndFlushIndexes(Arrays.asList(author, reply, otherTopic));
+	    makeBranchesVisible();
+	    TopicSearchFilter filter = new TopicSearchFilter(null, author.getId(), null, null);
+	    
+	    TopicSearchResult searchResult = topicSearchDao.searchByTitleAndContent(
+	            searchText, filter, DEFAULT_PAGE_REQUEST, USER);
+	    
+	    assertEquals(topicsOf(searchResult), Arrays.asList(authorTopic));
+	    assertEquals(searchResult.getAuthorFacets().size(), 2);
+	    assertEquals(searchResult.getAuthorFacets().get(0).getValue(), topicStarter);
+	    assertEquals(searchResult.getAuthorFacets().get(0).getCount(), 2);
+	    assertEquals(searchResult.getAuthorFacets().get(1).getValue(), author);
+	    assertEquals(searchResult.getAuthorFacets().get(1).getCount(), 1);
+	}
+	
+	@Test(dataProvider = "parameterSearchByDateRange")
+	public void searchShouldBeNarrowedToPostsCreatedInDateRange(int fromDays, int toDays, boolean found) {
+	    Topic topic = PersistedObjectsFactory.getDefaultTopic();
+	    topic.setTitle(TOPIC_CONTENT);
+	    saveAndFlushIndexes(Arrays.asList(topic));
+	    makeBranchesVisible();
+	    DateTime now = new DateTime();
+	    TopicSearchFilter filter = new TopicSearchFilter(null, null, now.plusDays(fromDays), now.plusDays(toDays));
+	    
+	    TopicSearchResult searchResult = topicSearchDao.searchByTitleAndContent(
+	            TOPIC_CONTENT, filter, DEFAULT_PAGE_REQUEST, USER);
+	    
+	    assertEquals(searchResult.hasContent(), found);
+	}
+	
+	@DataProvider(name = "parameterSearchByDateRange")
+	public Object[][] parameterSearchByDateRange() {
+	    return new Object[][] {
+	            {-1, 1, true},
+	            {-2, -1, false},
+	            {1, 2, false}
+	    };
+	}
+	
+	@Test
+	public void resultsWithDifferentFiltersShouldBeCachedSeparately() {
+	    Topic topic = PersistedObjectsFactory.getDefaultTopic();
+	    topic.setTitle(TOPIC_CONTENT);
+	    saveAndFlushIndexes(Arrays.asList(topic));
+	    makeBranchesVisible();
+	    TopicSearchFilter filter = new TopicSearchFilter(null, topic.getTopicStarter().getId() + 1, null, null);
+	    Page<TopicSearchHit> unfilteredResult = topicSearchDao.searchByTitleAndContent(
+	            TOPIC_CONTENT, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
+	    Assert.assertTrue(unfilteredResult.hasContent());
+	    
+	    TopicSearchResult searchResult = topicSearchDao.searchByTitleAndContent(
+	            TOPIC_CONTENT, filter, DEFAULT_PAGE_REQUEST, USER);
+	    
+	    Assert.assertFalse(searchResult.hasContent(), "Result of the search without filter should not be reused.");
+	}
+	
+	@Test
+	public void nothingShouldBeFoundWhenNoBranchesAreVisible() {
+	    Topic topic = PersistedObjectsFactory.getDefaultTopic();
+	    topic.setTitle(TOPIC_CONTENT);
+	    saveAndFlushIndexes(Arrays.asList(topic));
+	    makeBranchesVisible();
+	    Mockito.when(visibleBranchesIndex.getVisibleBranchIds(USER)).thenReturn(Collections.<Long>emptySet());
+	    
+	    Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+	            TOPIC_CONTENT, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
+	    
+	    Assert.assertFalse(searchResultPage.hasContent(), "Search result must be empty.");
+	}
+	
+	@Test
+	public void repeatedSearchShouldBeAnsweredFromCache() {
+	    Topic expectedTopic = PersistedObjectsFactory.getDefaultTopic();
+	    expectedTopic.setTitle(TOPIC_CONTENT);
+	    saveAndFlushIndexes(Arrays.asList(expectedTopic));
+	    makeBranchesVisible();
+	    topicSearchDao.searchByTitleAndContent(
+	            TOPIC_CONTENT, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
+	    long hits = resultCache.getHits();
+	    
+	    Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+	            TOPIC_CONTENT, TopicSearchFilter.NONE, JCommunePageRequest.createWithPagingEnabled(1, 50), USER);
+	    
+	    assertEquals(resultCache.getHits(), hits + 1);
+	    assertEquals(topicsOf(searchResultPage), Arrays.asList(expectedTopic));
+	}
+	
+	@Test
+	public void cachedResultShouldNotBeUsedAfterIndexChanges() {
+	    Topic firstTopic = PersistedObjectsFactory.getDefaultTopic();
+	    firstTopic.setTitle(TOPIC_CONTENT);
+	    saveAndFlushIndexes(Arrays.asList(firstTopic));
+	    makeBranchesVisible();
+	    topicSearchDao.searchByTitleAndContent(
+	            TOPIC_CONTENT, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
+	    Topic secondTopic = new Topic(firstTopic.getTopicStarter(), TOPIC_CONTENT);
+	    secondTopic.addPost(new Post(firstTopic.getTopicStarter(), "post content"));
+	    firstTopic.getBranch().addTopic(secondTopic);
+	    saveAndFlushIndexes(Arrays.asList(secondTopic));
+	    
+	    Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+	            TOPIC_CONTENT, TopicSearchFilter.NONE, JCommunePageRequest.createWithPagingEnabled(1, 50), USER);
+	    
+	    assertEquals(searchResultPage.getTotalElements(), 2);
+	}
+	
 	/*===== Testing of different variations of the search. =====*/
 	
 	@Test
 	public void testSearchWithFullyDirtySearchText() {
-		configureMocks(StringUtils.EMPTY, StringUtils.EMPTY);
+		makeBranchesVisible();
 		
-		Page<Topic> searchResultPage = topicSearchDao.searchByTitleAndContent(
-		        StringUtils.EMPTY, DEFAULT_PAGE_REQUEST);
+		Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+		        StringUtils.EMPTY, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
 		
 		Assert.assertTrue(!searchResultPage.hasContent(), "Search result must be empty.");
 	}
@@ -140,13 +382,13 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
 		expectedTopic.setTitle(content);
 		
 		saveAndFlushIndexes(Arrays.asList(expectedTopic));
-		configureMocks(content, content);
+		makeBranchesVisible();
 		
-		Page<Topic> searchResultPage = topicSearchDao.searchByTitleAndContent(
-		        content, DEFAULT_PAGE_REQUEST);
+		Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+		        content, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
 		
 		Assert.assertTrue(searchResultPage.hasContent(), "Search result must not be empty.");
-		for (Topic topic : searchResultPage.getContent()) {
+		for (Topic topic : topicsOf(searchResultPage)) {
 			Assert.assertEquals(expectedTopic.getTitle(), topic.getTitle(), 
 					"Content from the index should be the same as in the database.");
 		}
@@ -158,15 +400,15 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
         expectedTopic.setTitle(TOPIC_CONTENT);
         
         saveAndFlushIndexes(Arrays.asList(expectedTopic));
-        configureMocks(TOPIC_CONTENT, TOPIC_CONTENT);
+        makeBranchesVisible();
         
         JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(-1, PAGE_SIZE);
-        Page<Topic> searchResultPage = topicSearchDao.searchByTitleAndContent(
-                TOPIC_CONTENT, pageRequest);
+        Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+                TOPIC_CONTENT, TopicSearchFilter.NONE, pageRequest, USER);
         
         Assert.assertEquals(searchResultPage.getNumber(), 1);
         Assert.assertTrue(searchResultPage.hasContent(), "Search result must not be empty.");
-        for (Topic topic : searchResultPage.getContent()) {
+        for (Topic topic : topicsOf(searchResultPage)) {
             Assert.assertEquals(expectedTopic.getTitle(), topic.getTitle(), 
                     "Content from the index should be the same as in the database.");
         }
@@ -178,15 +420,15 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
         expectedTopic.setTitle(TOPIC_CONTENT);
         
         saveAndFlushIndexes(Arrays.asList(expectedTopic));
-        configureMocks(TOPIC_CONTENT, TOPIC_CONTENT);
+        makeBranchesVisible();
         
         JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(1000, 50);
-        Page<Topic> searchResultPage = topicSearchDao.searchByTitleAndContent(
-                TOPIC_CONTENT, pageRequest);
+        Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+                TOPIC_CONTENT, TopicSearchFilter.NONE, pageRequest, USER);
         
         Assert.assertEquals(searchResultPage.getNumber(), 1);
         Assert.assertTrue(searchResultPage.hasContent(), "Search result must not be empty.");
-        for (Topic topic : searchResultPage.getContent()) {
+        for (Topic topic : topicsOf(searchResultPage)) {
             Assert.assertEquals(expectedTopic.getTitle(), topic.getTitle(), 
                     "Content from the index should be the same as in the database.");
         }
@@ -198,13 +440,13 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
 	    expectedTopic.getLastPost().setPostContent(content);
 	    
 	    saveAndFlushIndexes(Arrays.asList(expectedTopic));
-        configureMocks(content, content);
+        makeBranchesVisible();
 	    
-	    Page<Topic> searchResultPage = topicSearchDao.searchByTitleAndContent(
-	            content, DEFAULT_PAGE_REQUEST);
+	    Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+	            content, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
         
         Assert.assertTrue(searchResultPage.hasContent(), "Search result must not be empty.");
-        for (Topic topic : searchResultPage.getContent()) {
+        for (Topic topic : topicsOf(searchResultPage)) {
             Assert.assertEquals(expectedTopic.getTitle(), topic.getTitle(), 
                     "Content from the index should be the same as in the database.");
         }
@@ -232,10 +474,10 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
 		saveAndFlushIndexes(Arrays.asList(expectedTopic));
 		
 		for (String piece: Arrays.asList(firstPiece, secondPiece)) {
-			configureMocks(piece, piece);
+			makeBranchesVisible();
 			
-			Page<Topic> searchResultPage = topicSearchDao.searchByTitleAndContent(
-			        piece, DEFAULT_PAGE_REQUEST);
+			Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+			        piece, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
 			
 			Assert.assertTrue(searchResultPage.hasContent(), "Search result must not be empty.");
 		}
@@ -255,10 +497,10 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
         expectedTopic.setTitle(correct);
 		
 		saveAndFlushIndexes(Arrays.asList(expectedTopic));
-		configureMocks(incorrect, incorrect);
+		makeBranchesVisible();
 		
-		Page<Topic> searchResultPage = topicSearchDao.searchByTitleAndContent(
-		        incorrect, DEFAULT_PAGE_REQUEST);
+		Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+		        incorrect, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
 		
 		Assert.assertTrue(!searchResultPage.hasContent(), "Search result must be empty.");
 	}
@@ -284,10 +526,10 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
         expectedTopic.setTitle(word);
 		
 		saveAndFlushIndexes(Arrays.asList(expectedTopic));
-		configureMocks(wordWithSameRoot, wordWithSameRoot);
+		makeBranchesVisible();
 		
-		Page<Topic> searchResultPage = topicSearchDao.searchByTitleAndContent(
-		        wordWithSameRoot, DEFAULT_PAGE_REQUEST);
+		Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+		        wordWithSameRoot, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
 		Assert.assertTrue(searchResultPage.hasContent(), "Search result must not be empty.");
 	}
 	
@@ -309,10 +551,10 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
         expectedTopic.getLastPost().setPostContent(content);
         
         saveAndFlushIndexes(Arrays.asList(expectedTopic));
-        configureMocks(bbCode, bbCode);
+        makeBranchesVisible();
         
-        Page<Topic> searchResultPage = topicSearchDao.searchByTitleAndContent(
-                bbCode, DEFAULT_PAGE_REQUEST);
+        Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+                bbCode, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
         Assert.assertTrue(!searchResultPage.hasContent(), "Search result must be empty.");
 	}
 	
@@ -330,10 +572,10 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
         expectedTopic.getLastPost().setPostContent(content);
         
         saveAndFlushIndexes(Arrays.asList(expectedTopic));
-        configureMocks(bbCodeContent, bbCodeContent);
+        makeBranchesVisible();
         
-        Page<Topic> searchResultPage = topicSearchDao.searchByTitleAndContent(
-                bbCodeContent, DEFAULT_PAGE_REQUEST);
+        Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+                bbCodeContent, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
         Assert.assertTrue(searchResultPage.hasContent(), "Search result must not be empty.");
 	}
 	
@@ -344,4 +586,109 @@ public class TopicHibernateSearchDaoTest extends AbstractTransactionalTestNGSpri
                 {"[b]b[/b]", "b"}
         };
 	}
+
+	@Test
+	public void testSearchByStopWordsOnly() {
+	    Topic expectedTopic = PersistedObjectsFactory.getDefaultTopic();
+	    expectedTopic.setTitle("The book");
+	    
+	    saveAndFlushIndexes(Arrays.asList(expectedTopic));
+	    makeBranchesVisible();
+	    
+	    Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+	            "the, and!", DEFAULT_PAGE_REQUEST, USER);
+	    Assert.assertTrue(!searchResultPage.hasContent(), "Search result must be empty.");
+	}
+	
+	@Test(dataProvider = "parameterPhraseSearch")
+	public void testPhraseSearch(String content, String phrase, boolean found) {
+	    Topic expectedTopic = PersistedObjectsFactory.getDefaultTopic();
+	    expectedTopic.getLastPost().setPostContent(content);
+	    
+	    saveAndFlushIndexes(Arrays.asList(expectedTopic));
+	    makeBranchesVisible();
+	    
+	    Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+	            phrase, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
+	    Assert.assertEquals(searchResultPage.hasContent(), found);
+	}
+	
+	@DataProvider(name = "parameterPhraseSearch")
+	public Object[][] parameterPhraseSearch() {
+	    return new Object[][] {
+	            {"Spring security configuration", "\"spring security\"", true},
+	            {"Security of spring configuration", "\"spring security\"", false},
+	            {"Тесты полетов", "\"тест полета\"", true},
+	            {"Полеты тестов", "\"тест полета\"", false}
+	    };
+	}
+	
+	@Test(dataProvider = "parameterPrefixSearch")
+	public void testPrefixSearch(String content, String prefix, boolean found) {
+	    Topic expectedTopic = PersistedObjectsFactory.getDefaultTopic();
+	    expectedTopic.setTitle(content);
+	    
+	    saveAndFlushIndexes(Arrays.asList(expectedTopic));
+	    makeBranchesVisible();
+	    
+	    Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+	            prefix, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
+	    Assert.assertEquals(searchResultPage.hasContent(), found);
+	}
+	
+	@DataProvider(name = "parameterPrefixSearch")
+	public Object[][] parameterPrefixSearch() {
+	    return new Object[][] {
+	            {"JCommune", "jcomm*", true},
+	            {"Барабан", "Бара*", true},
+	            {"JCommune", "forum*", false}
+	    };
+	}
+
+	@Test(dataProvider = "parameterMixedLanguageSearch")
+	public void testMixedLanguageSearch(String content, String searchText) {
+	    Topic expectedTopic = PersistedObjectsFactory.getDefaultTopic();
+	    expectedTopic.getLastPost().setPostContent(content);
+	    
+	    saveAndFlushIndexes(Arrays.asList(expectedTopic));
+	    makeBranchesVisible();
+	    
+	    Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+	            searchText, TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
+	    Assert.assertTrue(searchResultPage.hasContent(), "Search result must not be empty.");
+	}
+	
+	@DataProvider(name = "parameterMixedLanguageSearch")
+	public Object[][] parameterMixedLanguageSearch() {
+	    return new Object[][] {
+	            {"Настройка Spring Security", "spring"},
+	            {"Настройка Spring Security", "настройки"},
+	            {"How to say [b]привет[/b] in English language", "привет"},
+	            {"How to say [b]привет[/b] in English language", "saying"}
+	    };
+	}
+
+	@Test
+	public void foundTopicShouldHaveHighlightedFragmentOfItsPost() {
+	    Topic expectedTopic = PersistedObjectsFactory.getDefaultTopic();
+	    expectedTopic.getLastPost().setPostContent("How to configure [b]Spring Security[/b] for <a> forum");
+
+	    saveAndFlushIndexes(Arrays.asList(expectedTopic));
+	    makeBranchesVisible();
+
+	    Page<TopicSearchHit> searchResultPage = topicSearchDao.searchByTitleAndContent(
+	            "security", TopicSearchFilter.NONE, DEFAULT_PAGE_REQUEST, USER);
+
+	    assertEquals(searchResultPage.getContent().size(), 1);
+	    assertEquals(searchResultPage.getContent().get(0).getFragment(),
+	            "How to configure Spring <b>Security</b> for &lt;a&gt; forum");
+	}
+
+	private List<Topic> topicsOf(Page<TopicSearchHit> searchResultPage) {
+	    List<Topic> topics = new ArrayList<Topic>();
+	    for (TopicSearchHit hit : searchResultPage.getContent()) {
+	        topics.add(hit.getTopic());
+	    }
+	    return topics;
+	}
 }
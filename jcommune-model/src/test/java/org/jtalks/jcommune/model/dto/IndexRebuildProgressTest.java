@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.dto;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class IndexRebuildProgressTest {
+
+    @Test
+    public void rateAndRemainingTimeShouldBeCalculatedFromIndexedPosts() {
+        IndexRebuildProgress progress = new IndexRebuildProgress(
+                IndexRebuildProgress.State.RUNNING, 1000, 200, 2000);
+
+        assertEquals(progress.getPostsPerSecond(), 100);
+        assertEquals(progress.getRemainingSeconds(), 8);
+    }
+
+    @Test
+    public void remainingTimeShouldBeUnknownBeforeFirstPostsAreIndexed() {
+        IndexRebuildProgress progress = new IndexRebuildProgress(
+                IndexRebuildProgress.State.RUNNING, 1000, 0, 0);
+
+        assertEquals(progress.getPostsPerSecond(), 0);
+        assertEquals(progress.getRemainingSeconds(), -1);
+    }
+
+    @Test
+    public void nothingShouldRemainWhenRebuildIsFinished() {
+        IndexRebuildProgress progress = new IndexRebuildProgress(
+                IndexRebuildProgress.State.FINISHED, 1000, 1000, 5000);
+
+        assertEquals(progress.getRemainingSeconds(), 0);
+    }
+}
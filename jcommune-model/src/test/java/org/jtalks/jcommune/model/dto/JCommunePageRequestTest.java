@@ -17,6 +17,8 @@ package org.jtalks.jcommune.model.dto;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class JCommunePageRequestTest {
     
@@ -91,6 +93,47 @@ public class JCommunePageRequestTest {
         assertEquals(pageRequest.getPageNumber(), adjustedPageNumber);
     }
     
+    @Test
+    public void seekShouldBeEnabledWhenLastSeenElementIsKnown() {
+        pageRequest = new JCommunePageRequest(PAGE_NUMBER, PAGE_SIZE, PAGING_ENABLED);
+        pageRequest.setLastSeenId(1L);
+
+        assertTrue(pageRequest.isSeekEnabled());
+    }
+
+    @Test
+    public void seekShouldBeDisabledWithoutLastSeenElement() {
+        pageRequest = new JCommunePageRequest(PAGE_NUMBER, PAGE_SIZE, PAGING_ENABLED);
+
+        assertFalse(pageRequest.isSeekEnabled());
+    }
+
+    @Test
+    public void seekShouldBeDisabledForFirstPage() {
+        pageRequest = new JCommunePageRequest(1, PAGE_SIZE, PAGING_ENABLED);
+        pageRequest.setLastSeenId(1L);
+
+        assertFalse(pageRequest.isSeekEnabled());
+    }
+
+    @Test
+    public void seekShouldBeDisabledWhenPagingIsDisabled() {
+        pageRequest = JCommunePageRequest.createWithPagingDisabled(PAGE_NUMBER, PAGE_SIZE);
+        pageRequest.setLastSeenId(1L);
+
+        assertFalse(pageRequest.isSeekEnabled());
+    }
+
+    @Test
+    public void seekShouldBeDisabledWhenPageNumberIsAdjusted() {
+        pageRequest = new JCommunePageRequest(PAGE_NUMBER, PAGE_SIZE, PAGING_ENABLED);
+        pageRequest.setLastSeenId(1L);
+
+        pageRequest.adjustPageNumber(PAGE_SIZE * 2);
+
+        assertFalse(pageRequest.isSeekEnabled());
+    }
+
     @DataProvider(name="pageNumbersToAdjust")
     public Integer[][] getPageNumbersToAdjust() {
         return new Integer[][] {
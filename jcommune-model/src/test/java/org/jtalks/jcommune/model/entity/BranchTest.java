@@ -75,16 +75,36 @@ public class BranchTest {
 
     @Test
     public void testPostCount() {
+        Branch emptyBranch = new Branch("empty branch", "empty branch");
         first.addPost(new Post());
         second.addPost(new Post());
-        third.addPost(new Post());
-        assertEquals(branch.getPostCount(), 3);
+        second.addPost(new Post());
+        emptyBranch.addTopic(first);
+        emptyBranch.addTopic(second);
+
+        assertEquals(emptyBranch.getTopicCount(), 2);
+        assertEquals(emptyBranch.getPostCount(), 3);
     }
 
     @Test
     public void testPostCountWithoutTopics() {
-        branch.setTopics(new ArrayList<Topic>());
-        assertEquals(branch.getPostCount(), 0);
+        Branch emptyBranch = new Branch("empty branch", "empty branch");
+        assertEquals(emptyBranch.getTopicCount(), 0);
+        assertEquals(emptyBranch.getPostCount(), 0);
+    }
+
+    @Test
+    public void deleteTopicShouldDecreaseCounts() {
+        Branch emptyBranch = new Branch("empty branch", "empty branch");
+        first.addPost(new Post());
+        second.addPost(new Post());
+        emptyBranch.addTopic(first);
+        emptyBranch.addTopic(second);
+
+        emptyBranch.deleteTopic(first);
+
+        assertEquals(emptyBranch.getTopicCount(), 1);
+        assertEquals(emptyBranch.getPostCount(), 1);
     }
     
     @Test
@@ -145,6 +145,25 @@ public class TopicTest {
         assertFalse(topic.getPosts().contains(post1), "The post isn't removed from the topic");
     }
 
+    @Test
+    public void addPostShouldUpdatePostCountAndLastPost() {
+        Post post3 = new Post(new JCUser(), "content");
+
+        topic.addPost(post3);
+
+        assertEquals(topic.getPostCount(), 3);
+        assertEquals(topic.getLastPost(), post3);
+        assertEquals(topic.getLastPostDate(), post3.getCreationDate());
+    }
+
+    @Test
+    public void removeLastPostShouldUpdatePostCountAndLastPost() {
+        topic.removePost(post2);
+
+        assertEquals(topic.getPostCount(), 1);
+        assertEquals(topic.getLastPost(), post1);
+    }
+
     @Test
     public void testUserSubscribed() {
         JCUser subscribedUser = new JCUser();
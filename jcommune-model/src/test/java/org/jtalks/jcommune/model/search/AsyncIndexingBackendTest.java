@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.hibernate.search.backend.AddLuceneWork;
+import org.hibernate.search.backend.DeleteLuceneWork;
+import org.hibernate.search.backend.LuceneWork;
+import org.hibernate.search.backend.PurgeAllLuceneWork;
+import org.jtalks.jcommune.model.entity.Post;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class AsyncIndexingBackendTest {
+
+    @Test
+    public void worksOfDifferentEntitiesShouldBeKept() {
+        LuceneWork first = add(1);
+        LuceneWork second = add(2);
+
+        List<LuceneWork> result = AsyncIndexingBackend.coalesce(Arrays.asList(first, second));
+
+        assertEquals(result, Arrays.asList(first, second));
+    }
+
+    @Test
+    public void laterUpdateShouldReplaceEarlierUpdateOfSameEntity() {
+        LuceneWork firstDelete = delete(1);
+        LuceneWork firstAdd = add(1);
+        LuceneWork secondDelete = delete(1);
+        LuceneWork secondAdd = add(1);
+
+        List<LuceneWork> result = AsyncIndexingBackend.coalesce(
+                Arrays.asList(firstDelete, firstAdd, secondDelete, secondAdd));
+
+        assertEquals(result, Arrays.asList(secondDelete, secondAdd));
+    }
+
+    @Test
+    public void laterAdditionShouldKeepDeletionBeforeEarlierAddition() {
+        LuceneWork delete = delete(1);
+        LuceneWork firstAdd = add(1);
+        LuceneWork secondAdd = add(1);
+
+        List<LuceneWork> result = AsyncIndexingBackend.coalesce(Arrays.asList(delete, firstAdd, secondAdd));
+
+        assertEquals(result, Arrays.asList(delete, secondAdd));
+    }
+
+    @Test
+    public void deletionShouldReplaceEarlierWorksOfSameEntity() {
+        LuceneWork add = add(1);
+        LuceneWork other = add(2);
+        LuceneWork delete = delete(1);
+
+        List<LuceneWork> result = AsyncIndexingBackend.coalesce(Arrays.asList(add, other, delete));
+
+        assertEquals(result, Arrays.asList(delete, other));
+    }
+
+    @Test
+    public void worksShouldNotBeCoalescedAcrossPurge() {
+        LuceneWork addBeforePurge = add(1);
+        LuceneWork purge = new PurgeAllLuceneWork(Post.class);
+        LuceneWork addAfterPurge = add(1);
+
+        List<LuceneWork> result = AsyncIndexingBackend.coalesce(
+                Arrays.asList(addBeforePurge, purge, addAfterPurge));
+
+        assertEquals(result, Arrays.asList(addBeforePurge, purge, addAfterPurge));
+    }
+
+    private LuceneWork add(long id) {
+        return new AddLuceneWork(id, String.valueOf(id), Post.class, new Document());
+    }
+
+    private LuceneWork delete(long id) {
+        return new DeleteLuceneWork(id, String.valueOf(id), Post.class);
+    }
+}
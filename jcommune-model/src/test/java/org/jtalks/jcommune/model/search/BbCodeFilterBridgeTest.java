@@ -42,9 +42,46 @@ public class BbCodeFilterBridgeTest {
                 {"[b]spring security[/b]", " spring security "},
                 {"[code=java]spring security[/code]", " spring security "},
                 {"spring security", "spring security"},
+                {"[b][i]spring[/i] security[/b]", "  spring  security "},
+                {"[]spring", " spring"},
+                {"[[b]spring", " spring"},
+                {"array[0", "array[0"},
+                {"[spring\n]security[b]", "[spring\n]security "},
+                {"[ [ [b]", " "},
+                {"spring[", "spring["}
         };
     }
     
+    @Test(dataProvider = "textsWithBbCodes")
+    public void removeBbCodesShouldCutOutTagsAsRegularExpressionDoes(String value) {
+        String result = BbCodeFilterBridge.removeBbCodes(value);
+
+        Assert.assertEquals(result, value.replaceAll("\\[.*?\\]", ""));
+    }
+
+    @DataProvider(name = "textsWithBbCodes")
+    public Object[][] textsWithBbCodes() {
+        return new Object[][] {
+                {"[b]spring security[/b]"},
+                {"[code=java]spring security[/code]"},
+                {"spring security"},
+                {"[b][i]spring[/i] security[/b]"},
+                {"[]spring"},
+                {"[[b]spring"},
+                {"array[0"},
+                {"[spring\n]security[b]"},
+                {"[spring\r\n]security[b]"},
+                {"[spring\u2028]security[b]"},
+                {"[ [ [b]"},
+                {"spring["},
+                {"["},
+                {"]"},
+                {"[list][*]first[*]second[/list]"},
+                {"[url=http://jtalks.org]jtalks[/url] [ unclosed\n[b]closed[/b]"},
+                {"a[b[c]d]e"}
+        };
+    }
+
     /*Was isolated in a separate test for better understanding.*/
     @Test(dataProvider = "parameterRemoveBbCodesInNotStringValue")
     public void testRemoveBbCodesInNotStringValue(Object value, String expected) {
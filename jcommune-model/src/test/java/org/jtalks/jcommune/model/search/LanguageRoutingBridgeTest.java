@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.search;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class LanguageRoutingBridgeTest {
+
+    @Test(dataProvider = "parameterIsRussian")
+    public void testIsRussian(String text, boolean russian) {
+        Assert.assertEquals(LanguageRoutingBridge.isRussian(text), russian);
+    }
+
+    @DataProvider(name = "parameterIsRussian")
+    public Object[][] parameterIsRussian() {
+        return new Object[][] {
+                {"Содержимое темы", true},
+                {"Topic content", false},
+                {"Настройка Spring Security", true},
+                {"How to say 'да' in Russian", false},
+                {"12345 !!!", false},
+                {"", false}
+        };
+    }
+
+    @Test
+    public void testTextIsIndexedOnlyInFieldOfItsLanguage() {
+        LanguageRoutingBridge russianBridge = createBridge(LanguageRoutingBridge.RUSSIAN, null);
+        LanguageRoutingBridge defaultBridge = createBridge(LanguageRoutingBridge.DEFAULT, null);
+
+        Assert.assertEquals(russianBridge.objectToString("Содержимое"), "Содержимое");
+        Assert.assertNull(defaultBridge.objectToString("Содержимое"));
+        Assert.assertNull(russianBridge.objectToString("content"));
+        Assert.assertEquals(defaultBridge.objectToString("content"), "content");
+        Assert.assertNull(russianBridge.objectToString(null));
+    }
+
+    @Test
+    public void testBbCodesAreStrippedBeforeDetection() {
+        LanguageRoutingBridge russianBridge = createBridge(LanguageRoutingBridge.RUSSIAN, "true");
+
+        Assert.assertEquals(russianBridge.objectToString("[quote=\"someone\"]цитата[/quote]"), " цитата ");
+    }
+
+    @Test
+    public void testBbCodesAreKeptByDefault() {
+        LanguageRoutingBridge defaultBridge = createBridge(LanguageRoutingBridge.DEFAULT, null);
+
+        Assert.assertEquals(defaultBridge.objectToString("[SOLVED] title"), "[SOLVED] title");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownLanguage() {
+        createBridge("klingon", null);
+    }
+
+    private LanguageRoutingBridge createBridge(String language, String stripBbCodes) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put(LanguageRoutingBridge.LANGUAGE, language);
+        parameters.put(LanguageRoutingBridge.STRIP_BB_CODES, stripBbCodes);
+        LanguageRoutingBridge bridge = new LanguageRoutingBridge();
+        bridge.setParameterValues(parameters);
+        return bridge;
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.search.Search;
+import org.hibernate.search.SearchFactory;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * Measures the overhead of turning the search text into a query, it's not run with tests.
+ * Compares the pipeline built once with the pipeline built for every query, which is how stop words
+ * were loaded before. Run it with the test classpath, optionally passing the number of iterations.
+ */
+public final class SearchQueryPipelineBenchmark {
+    private static final List<String> STOP_WORDS_FILES = Arrays.asList(
+            "org/jtalks/jcommune/lucene/english_stop.txt", "org/jtalks/jcommune/lucene/russian_stop.txt");
+    private static final String[] SEARCH_TEXTS = {
+            "spring security configuration",
+            "Как настроить \"Spring Security\"?",
+            "the best forum engine*",
+            "jcommune, jtalks & poulpe: installation"
+    };
+
+    private SearchQueryPipelineBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(
+                "/org/jtalks/jcommune/model/entity/applicationContext-dao.xml");
+        try {
+            Session session = context.getBean(SessionFactory.class).openSession();
+            try {
+                SearchFactory searchFactory = Search.getFullTextSession(session).getSearchFactory();
+                SearchQueryPipeline pipeline = new SearchQueryPipeline(STOP_WORDS_FILES);
+                // warm up both variants before measuring
+                measureReused(pipeline, searchFactory, iterations);
+                measureRebuilt(searchFactory, iterations / 100);
+                report("built once", measureReused(pipeline, searchFactory, iterations), iterations);
+                report("built per query", measureRebuilt(searchFactory, iterations / 100), iterations / 100);
+            } finally {
+                session.close();
+            }
+        } finally {
+            context.close();
+        }
+    }
+
+    private static long measureReused(SearchQueryPipeline pipeline, SearchFactory searchFactory, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            pipeline.build(SEARCH_TEXTS[i % SEARCH_TEXTS.length], searchFactory);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long measureRebuilt(SearchFactory searchFactory, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            new SearchQueryPipeline(STOP_WORDS_FILES).build(SEARCH_TEXTS[i % SEARCH_TEXTS.length], searchFactory);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String variant, long nanos, int iterations) {
+        System.out.println(String.format("Pipeline %s: %d queries, %.2f us per query",
+                variant, iterations, nanos / 1000.0 / Math.max(iterations, 1)));
+    }
+}
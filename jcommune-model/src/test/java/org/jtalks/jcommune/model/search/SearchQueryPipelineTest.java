@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.search;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.apache.lucene.analysis.SimpleAnalyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.Version;
+import org.hibernate.search.SearchFactory;
+import org.jtalks.jcommune.model.entity.Post;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class SearchQueryPipelineTest {
+    private static final String TEST_STOP_WORDS_FILE = "org/jtalks/jcommune/lucene/test_stopwords.txt";
+    private SearchQueryPipeline pipeline;
+    private SearchFactory searchFactory;
+
+    @BeforeMethod
+    public void init() {
+        pipeline = new SearchQueryPipeline(Arrays.asList(TEST_STOP_WORDS_FILE));
+        searchFactory = mock(SearchFactory.class);
+        when(searchFactory.getAnalyzer(SearchQueryPipeline.RUSSIAN_ANALYZER))
+                .thenReturn(new SimpleAnalyzer(Version.LUCENE_31));
+        when(searchFactory.getAnalyzer(SearchQueryPipeline.DEFAULT_ANALYZER))
+                .thenReturn(new SimpleAnalyzer(Version.LUCENE_31));
+    }
+
+    @Test(dataProvider = "parameterParseWords")
+    public void testParseWords(String searchText, String expectedWords) {
+        SearchQueryPipeline.ParsedText parsedText = pipeline.parse(searchText);
+
+        Assert.assertEquals(parsedText.getWords(), expectedWords);
+    }
+
+    @DataProvider(name = "parameterParseWords")
+    public Object[][] parameterParseWords() {
+        return new Object[][] {
+                {"nice book", "nice book"},
+                {"The book", "book"},
+                {"  nice,book!!  ", "nice book"},
+                {"@#$%^&", ""},
+                {"Содержимое темы.", "Содержимое темы"},
+                {"\"nice book", "nice book"},
+                {"\"book\"", "book"}
+        };
+    }
+
+    @Test
+    public void testParsePhrases() {
+        SearchQueryPipeline.ParsedText parsedText = pipeline.parse("nice \"spring, security\" book");
+
+        Assert.assertEquals(parsedText.getWords(), "nice book");
+        Assert.assertEquals(parsedText.getPhrases(), Arrays.asList("spring security"));
+    }
+
+    @Test
+    public void testParsePrefixes() {
+        SearchQueryPipeline.ParsedText parsedText = pipeline.parse("Spring* s* the* * book");
+
+        Assert.assertEquals(parsedText.getWords(), "book");
+        Assert.assertEquals(parsedText.getPrefixes(), Arrays.asList("spring"));
+    }
+
+    @Test
+    public void testBuildWithoutAnythingToSearch() {
+        Assert.assertNull(pipeline.build("the, a!", searchFactory));
+        Assert.assertNull(pipeline.build("", searchFactory));
+    }
+
+    @Test
+    public void testBuildSearchesAllFields() {
+        BooleanQuery query = (BooleanQuery) pipeline.build("Book", searchFactory);
+
+        BooleanClause[] clauses = query.getClauses();
+        Assert.assertEquals(clauses.length, 4);
+        Assert.assertEquals(((TermQuery) clauses[0].getQuery()).getTerm(),
+                new Term(Post.POST_TOPIC_TITLE_FIELD_DEF, "book"));
+        Assert.assertEquals(((TermQuery) clauses[3].getQuery()).getTerm(),
+                new Term(Post.POST_CONTENT_FIELD_RU, "book"));
+    }
+
+    @Test
+    public void testBuildPhraseAndPrefix() {
+        BooleanQuery query = (BooleanQuery) pipeline.build("\"Spring security\" conf*", searchFactory);
+
+        BooleanClause[] clauses = query.getClauses();
+        Assert.assertEquals(clauses.length, 8);
+        PhraseQuery phraseQuery = (PhraseQuery) clauses[0].getQuery();
+        Assert.assertEquals(phraseQuery.getTerms(), new Term[] {
+                new Term(Post.POST_TOPIC_TITLE_FIELD_DEF, "spring"),
+                new Term(Post.POST_TOPIC_TITLE_FIELD_DEF, "security")});
+        Assert.assertEquals(((PrefixQuery) clauses[1].getQuery()).getPrefix(),
+                new Term(Post.POST_TOPIC_TITLE_FIELD_DEF, "conf"));
+    }
+
+    @Test
+    public void testAnalyzersAreResolvedOnce() {
+        Query first = pipeline.build("nice book", searchFactory);
+        Query second = pipeline.build("nice book", searchFactory);
+
+        Assert.assertEquals(first, second);
+        verify(searchFactory, times(1)).getAnalyzer(SearchQueryPipeline.RUSSIAN_ANALYZER);
+        verify(searchFactory, times(1)).getAnalyzer(SearchQueryPipeline.DEFAULT_ANALYZER);
+    }
+}
@@ -14,34 +14,36 @@
  */
 package org.jtalks.jcommune.model.search;
 
-import org.jtalks.jcommune.model.search.InvalidCharactersFilter;
+import org.apache.commons.lang.StringUtils;
 import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
-/**
- * 
- * @author Anuar_Nurmakanov
- *
- */
-public class InvalidCharactersFilterTest {
-	private InvalidCharactersFilter filter = new InvalidCharactersFilter();
-	
-	@Test
-	public void testRemovePunctuationMarks() {
-		String searchText = "φ@#nice-book.!Ω";
-		String expectedResult = "nice book";
-		
-		String filterResult = filter.filter(searchText);
-		
-		Assert.assertEquals(filterResult, expectedResult, "Punctuation marks aren't removed.");
-	}
-	
-	@Test
-	public void testFilterCorrectSearchText() {
-		String searchText = "nice book";
-		
-		String filterResult = filter.filter(searchText);
-		
-		Assert.assertEquals(filterResult, filterResult, "The search text should remain the same.");
-	}
+public class SnippetBridgeTest {
+    private SnippetBridge bridge;
+
+    @BeforeMethod
+    public void init() {
+        bridge = new SnippetBridge();
+    }
+
+    @Test
+    public void bbCodesShouldBeRemovedAndWhitespacesCollapsed() {
+        String snippet = bridge.objectToString("  [b]Spring[/b]\n\n\t[i]Security[/i]  ");
+
+        Assert.assertEquals(snippet, "Spring Security");
+    }
+
+    @Test
+    public void longTextShouldBeCut() {
+        String snippet = bridge.objectToString(StringUtils.repeat("ab ", SnippetBridge.MAX_LENGTH));
+
+        Assert.assertEquals(snippet.length(), SnippetBridge.MAX_LENGTH);
+        Assert.assertTrue(snippet.startsWith("ab ab"));
+    }
+
+    @Test
+    public void nullShouldStayNull() {
+        Assert.assertNull(bridge.objectToString(null));
+    }
 }
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.model.search;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.analysis.SimpleAnalyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.Version;
+import org.hibernate.search.SearchFactory;
+import org.jtalks.jcommune.model.entity.Post;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SnippetHighlighterTest {
+    private SnippetHighlighter highlighter;
+    private SearchFactory searchFactory;
+
+    @BeforeMethod
+    public void init() {
+        highlighter = new SnippetHighlighter();
+        searchFactory = mock(SearchFactory.class);
+        when(searchFactory.getAnalyzer(SearchQueryPipeline.RUSSIAN_ANALYZER))
+                .thenReturn(new SimpleAnalyzer(Version.LUCENE_31));
+        when(searchFactory.getAnalyzer(SearchQueryPipeline.DEFAULT_ANALYZER))
+                .thenReturn(new SimpleAnalyzer(Version.LUCENE_31));
+    }
+
+    @Test
+    public void termsShouldBeHighlighted() {
+        Query query = new TermQuery(new Term(Post.POST_CONTENT_FIELD_DEF, "security"));
+
+        String fragment = highlighter.highlight("Spring Security and security", query, searchFactory);
+
+        Assert.assertEquals(fragment, "Spring <b>Security</b> and <b>security</b>");
+    }
+
+    @Test
+    public void prefixesAndPhrasesShouldBeHighlighted() {
+        BooleanQuery query = new BooleanQuery();
+        query.add(new PrefixQuery(new Term(Post.POST_CONTENT_FIELD_DEF, "sec")), BooleanClause.Occur.SHOULD);
+        PhraseQuery phrase = new PhraseQuery();
+        phrase.add(new Term(Post.POST_CONTENT_FIELD_DEF, "nice"));
+        phrase.add(new Term(Post.POST_CONTENT_FIELD_DEF, "book"));
+        query.add(phrase, BooleanClause.Occur.SHOULD);
+
+        String fragment = highlighter.highlight("Nice book about Security", query, searchFactory);
+
+        Assert.assertEquals(fragment, "<b>Nice</b> <b>book</b> about <b>Security</b>");
+    }
+
+    @Test
+    public void termsOfFieldOfOtherLanguageShouldNotBeHighlighted() {
+        Query query = new TermQuery(new Term(Post.POST_CONTENT_FIELD_RU, "security"));
+
+        String fragment = highlighter.highlight("Spring Security", query, searchFactory);
+
+        Assert.assertEquals(fragment, "Spring Security");
+    }
+
+    @Test
+    public void russianSnippetShouldBeHighlightedByTermsOfRussianField() {
+        Query query = new TermQuery(new Term(Post.POST_CONTENT_FIELD_RU, "привет"));
+
+        String fragment = highlighter.highlight("Скажи привет", query, searchFactory);
+
+        Assert.assertEquals(fragment, "Скажи <b>привет</b>");
+    }
+
+    @Test
+    public void fragmentShouldBeEscaped() {
+        Query query = new TermQuery(new Term(Post.POST_CONTENT_FIELD_DEF, "b"));
+
+        String fragment = highlighter.highlight("a < b & <script>", query, searchFactory);
+
+        Assert.assertEquals(fragment, "a &lt; <b>b</b> &amp; &lt;script&gt;");
+    }
+
+    @Test
+    public void fragmentShouldStartNearFirstHighlightedWord() {
+        Query query = new TermQuery(new Term(Post.POST_CONTENT_FIELD_DEF, "security"));
+        String snippet = StringUtils.repeat("word ", 40) + "security " + StringUtils.repeat("text ", 60);
+
+        String fragment = highlighter.highlight(snippet.trim(), query, searchFactory);
+
+        Assert.assertTrue(fragment.startsWith("...word "), fragment);
+        Assert.assertTrue(fragment.contains("<b>security</b>"), fragment);
+        Assert.assertTrue(fragment.endsWith("text..."), fragment);
+        Assert.assertTrue(fragment.length() < SnippetHighlighter.FRAGMENT_LENGTH + 20, fragment);
+    }
+
+    @Test
+    public void beginningOfSnippetShouldBeReturnedIfNothingMatches() {
+        Query query = new TermQuery(new Term(Post.POST_CONTENT_FIELD_DEF, "security"));
+        String snippet = StringUtils.repeat("word ", 100).trim();
+
+        String fragment = highlighter.highlight(snippet, query, searchFactory);
+
+        Assert.assertTrue(fragment.startsWith("word word"), fragment);
+        Assert.assertTrue(fragment.endsWith("..."), fragment);
+    }
+
+    @Test
+    public void emptySnippetShouldNotBeHighlighted() {
+        Query query = new TermQuery(new Term(Post.POST_CONTENT_FIELD_DEF, "security"));
+
+        Assert.assertNull(highlighter.highlight("", query, searchFactory));
+        Assert.assertNull(highlighter.highlight(null, query, searchFactory));
+    }
+}
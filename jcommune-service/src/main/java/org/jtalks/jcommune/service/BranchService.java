@@ -50,13 +50,19 @@ public interface BranchService extends EntityService<Branch> {
     List<Branch> getAvailableBranchesInSection(long sectionId, long currentTopicId) throws NotFoundException;
     
     /**
-     * Fills the statistical information for each branch from the list:
-     * 1)count of topics in the branch
-     * 2)count of posts in the branch
+     * Fills the statistical information for each branch from the list, which
+     * isn't stored in the branch itself. Counts of topics and posts are stored
+     * in the branch and don't need to be filled.
      *  
      * @param branches list of branches
      */
     void fillStatisticInfo(List<org.jtalks.common.model.entity.Branch> branches);
+
+    /**
+     * Repairs counts of topics and posts stored in branches if they differ from
+     * the actual ones. Is invoked by timer.
+     */
+    void recalculateStatisticInfo();
     
     /**
      * Deletes all topics in this branch and recalculates user posts.
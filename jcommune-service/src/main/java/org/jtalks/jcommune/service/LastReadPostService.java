@@ -85,6 +85,15 @@ public interface LastReadPostService {
      */
     List<Topic> fillLastReadPostForTopics(List<Topic> topics);
 
+    /**
+     * Fills branches with the state of unread posts for the current user. All branches
+     * are processed at once, so it's suitable for pages listing many branches.
+     * Branches are always read for anonymous users.
+     *
+     * @param branches branches to set the state of unread posts for
+     */
+    void fillUnreadPostsInBranches(List<Branch> branches);
+
     /**
      * Updates last read post number to be correct when post is deleted.
      * Basically this is for last read posts located after the post we're trying to delete.
@@ -93,4 +102,23 @@ public interface LastReadPostService {
      * @param post post we're trying to delete
      */
     void updateLastReadPostsWhenPostDeleted(Post post);
+
+    /**
+     * Saves last read posts of the current user which are kept in memory, so that
+     * queries over read state of the user take them into account.
+     */
+    void saveLastReadPostsOfCurrentUser();
+
+    /**
+     * Saves last read posts changed since the last call. Reading of topics doesn't update
+     * last read posts in the database, they are kept in memory and saved by batches.
+     * Is invoked by timer and on application shutdown.
+     */
+    void flushLastReadPosts();
+
+    /**
+     * Deletes last read posts of topics which weren't modified since their branch or all forum
+     * was marked as read, such records are redundant. Is invoked by timer.
+     */
+    void purgeLastReadPosts();
 }
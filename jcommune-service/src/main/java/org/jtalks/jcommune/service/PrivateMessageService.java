@@ -123,4 +123,10 @@ public interface PrivateMessageService extends EntityService<PrivateMessage> {
      * @param senderId an identifier of sender of private message
      */
     void checkPermissionsToSend(Long senderId);
+
+    /**
+     * Saves HTML of private messages which were rendered again when shown because their stored HTML was produced by
+     * an older version of the renderer. Is invoked by timer.
+     */
+    void saveRenderedBodies();
 }
@@ -14,6 +14,9 @@
  */
 package org.jtalks.jcommune.service;
 
+import org.jtalks.jcommune.model.dto.IndexRebuildProgress;
+import org.jtalks.jcommune.model.dto.TopicSearchFilter;
+import org.jtalks.jcommune.model.dto.TopicSearchResult;
 import org.jtalks.jcommune.model.entity.Branch;
 import org.jtalks.jcommune.model.entity.Topic;
 import org.springframework.data.domain.Page;
@@ -28,12 +31,14 @@ public interface TopicFetchService extends EntityService<Topic>{
      *
      * @param branch        for this branch we will find topics
      * @param page          page number, for which we will find topics
+     * @param lastSeenId    identifier of the last topic of the previous page, may be <code>null</code>;
+     *                      allows to fetch the page without skipping all the preceding topics
      * @param pagingEnabled if true, then it returns topics for one page, otherwise it
      *                      return all topics in the branch
      * @return object that contains topics for one page(note, that one page may contain
      *         all topics) and information for pagination
      */
-    Page<Topic> getTopics(Branch branch, int page, boolean pagingEnabled);
+    Page<Topic> getTopics(Branch branch, int page, Long lastSeenId, boolean pagingEnabled);
 
     /**
      * Get topics that have been updated in the last 24 hours.
@@ -53,21 +58,55 @@ public interface TopicFetchService extends EntityService<Topic>{
      */
     Page<Topic> getUnansweredTopics(int page);
 
+    /**
+     * Get topics the current user hasn't read, the most recently modified first.
+     * There are no unread topics for anonymous users.
+     *
+     * @param page page number, for which we will find topics
+     * @return object that contains unread topics for one page and information for
+     *         pagination
+     */
+    Page<Topic> getUnreadTopics(int page);
+
     /**
      * Search by topics, title and content of which corresponds to the text of search.
      *
      * @param phrase search request from the user
+     * @param filter narrows the search down to a branch, an author and a range of creation dates of posts
      * @param page requested page number, page size is calculated based on user's preferences
-     * @return search results page
+     * @return search results page, found topics with highlighted fragments of their posts
+     *         and facets of branches and authors
+     */
+    TopicSearchResult searchByTitleAndContent(String phrase, TopicSearchFilter filter, int page);
+
+    /**
+     * Waits until the posts changed by the current user are written to the search index,
+     * so the user finds them. Should be called before the search, it's not run in
+     * a transaction, so database connection isn't held while waiting.
      */
-    Page<Topic> searchByTitleAndContent(String phrase, int page);
+    void awaitIndexingOfOwnPosts();
 
     /**
      * Indexing topics from the database.
      * This functionality is required either when data exists in the database,
      * but the index doesn't contain this data or the index is re-created.
+     * The index is rebuilt in the background.
      */
     void rebuildSearchIndex();
+
+    /**
+     * Gets the progress of the search index rebuild to show it to administrators.
+     *
+     * @return the progress of the current or the last rebuild
+     */
+    IndexRebuildProgress getSearchIndexRebuildProgress();
+
+    /**
+     * Saves views of topics counted since the last call. Views aren't saved on
+     * every topic fetching, they are accumulated in memory and saved by batches.
+     * Is invoked by timer and on application shutdown.
+     */
+    void flushViews();
     
     /**
      * Check if user has given permission. Throws 
@@ -162,6 +162,13 @@ public interface UserService extends EntityService<JCUser> {
      */
     String processUserBbCodesInPost(String postContent);
 
+    /**
+     * Looks up users mentioned in the posts which have no HTML rendered by the current
+     * renderer yet with one query, so the page of posts is rendered without a query per post.
+     * @param posts posts to be shown
+     */
+    void cacheMentionedUsers(List<Post> posts);
+
     /**
      * Sends email to user that was mentioned in the post
      * and mark BB code as already notified users
@@ -21,6 +21,9 @@ import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -37,10 +40,13 @@ import java.util.regex.Pattern;
  */
 public class BBForeignLinksPostprocessor implements TextPostProcessor {
 
-    private static final String LINK_PATTERN = "<a .*?href=(\"|').*?(\"|')";
+    private static final String LINK_START = "<a ";
 
-    private static final String URL_PATTERN = "<a .*?href=(\"|')(((http|ftp|https)://)?" +
-            "([\\w\\-_]+(\\.[\\w\\-_]+)+|localhost)+([\\w\\-\\.,@?^=%&amp;:/~\\+#]*[\\w\\-\\@?^=%&amp;/~\\+#])?)(\"|')";
+    private static final Pattern LINK_PATTERN = Pattern.compile("<a .*?href=(\"|').*?(\"|')", Pattern.DOTALL);
+
+    private static final Pattern URL_PATTERN = Pattern.compile("<a .*?href=(\"|')(((http|ftp|https)://)?" +
+            "([\\w\\-_]+(\\.[\\w\\-_]+)+|localhost)+([\\w\\-\\.,@?^=%&amp;:/~\\+#]*[\\w\\-\\@?^=%&amp;/~\\+#])?)(\"|')",
+            Pattern.DOTALL);
 
      /**
      * Process incoming text with adding attribute rel="nofollow" to foreign links
@@ -50,33 +56,52 @@ public class BBForeignLinksPostprocessor implements TextPostProcessor {
      */
     @Override
     public String postProcess(String bbDecodedText) {
-        HttpServletRequest httpServletRequest = getServletRequest();
-        return addNofollowToForeignLinks(bbDecodedText, httpServletRequest.getServerName());
+        if (!bbDecodedText.contains(LINK_START)) {
+            return bbDecodedText;
+        }
+        StringWriter result = new StringWriter(bbDecodedText.length());
+        try {
+            addNofollowToForeignLinks(bbDecodedText, getServletRequest().getServerName(), result);
+        } catch (IOException e) {
+            throw new IllegalStateException("StringWriter never throws IOException", e);
+        }
+        return result.toString();
     }
 
-    private String addNofollowToForeignLinks(String decodedText, String serverName){
-        Pattern linkPattern = Pattern.compile(LINK_PATTERN, Pattern.DOTALL);
-        Matcher linkMatcher = linkPattern.matcher(decodedText);
-        Pattern pattern = Pattern.compile(URL_PATTERN, Pattern.DOTALL);
-        Matcher matcher;
-        StringBuilder result = new StringBuilder();
+    /**
+     * Process incoming text with adding attribute rel="nofollow" to foreign links, parts of the text between links
+     * are written to the output as is.
+     *
+     * @param bbDecodedText text returned after to BBCode processor
+     * @param out           where to write resultant text
+     * @throws IOException if the text can't be written
+     */
+    @Override
+    public void postProcess(String bbDecodedText, Writer out) throws IOException {
+        if (!bbDecodedText.contains(LINK_START)) {
+            out.write(bbDecodedText);
+            return;
+        }
+        addNofollowToForeignLinks(bbDecodedText, getServletRequest().getServerName(), out);
+    }
+
+    private void addNofollowToForeignLinks(String decodedText, String serverName, Writer out) throws IOException {
+        String lowerCaseServerName = serverName.toLowerCase();
+        Matcher linkMatcher = LINK_PATTERN.matcher(decodedText);
+        Matcher matcher = URL_PATTERN.matcher(decodedText);
         int lastEnd = 0;
         while (linkMatcher.find())
         {
-            matcher = pattern.matcher(linkMatcher.group());
-            result.append(decodedText.substring(lastEnd, linkMatcher.start()));
-            if(matcher.matches() && matcher.group(5).toLowerCase().endsWith(serverName.toLowerCase())){
-                result.append(linkMatcher.group());
-            } else {
-                String replacement = String.format("%s rel=\"nofollow\"", linkMatcher.group());
-                result.append(replacement);
+            out.write(decodedText, lastEnd, linkMatcher.end() - lastEnd);
+            matcher.region(linkMatcher.start(), linkMatcher.end());
+            if (!matcher.matches() || !matcher.group(5).toLowerCase().endsWith(lowerCaseServerName)) {
+                out.write(" rel=\"nofollow\"");
             }
 
             lastEnd = linkMatcher.end();
         }
 
-        result.append(decodedText.substring(lastEnd, decodedText.length()));
-        return result.toString();
+        out.write(decodedText, lastEnd, decodedText.length() - lastEnd);
     }
 
     /**
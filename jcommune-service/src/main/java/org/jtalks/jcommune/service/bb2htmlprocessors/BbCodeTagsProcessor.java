@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.bb2htmlprocessors;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.jtalks.jcommune.service.TopicModificationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import ru.perm.kefir.bbcode.TextProcessor;
+import ru.perm.kefir.bbcode.TextProcessorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Processor for bb2html which prepares tags of BB encoded text by one scan over them, without regular expressions:
+ * <ul>
+ * <li>list items like [*] inside of [list]...[/list] are closed with [/*], which allows formatted text in list
+ * items;</li>
+ * <li>in code review posts, which are wrapped with [code=java]...[/code], inner [/code] tags written by the user
+ * are replaced with [-code], so that they aren't treated as BB codes. Which of [-code] tags are replacements is kept
+ * in the {@link #REPLACE_HISTORY_LIST_ATTRIBUTE} attribute of the request, and {@link #postProcess(String)} puts
+ * [/code] back in HTML instead of them, see <a href="http://jira.jtalks.org/browse/JC-1261">JIRA</a>.</li>
+ * </ul>
+ * Text without list and code review tags is returned as is.
+ */
+public class BbCodeTagsProcessor extends TextProcessorAdapter implements TextProcessor, TextPostProcessor {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final String LIST_OPEN_TAG_START = "[list";
+    /** Characters one of which follows {@link #LIST_OPEN_TAG_START} in the opening tag of the list */
+    private static final String LIST_OPEN_TAG_NEXT_CHARS = "]|=?";
+    private static final String LIST_CLOSE_TAG = "[/list]";
+    private static final String LIST_ITEM_OPEN_TAG = "[*]";
+    private static final String LIST_ITEM_CLOSE_TAG = "[/*]";
+    private static final String CODE_END_REPLACEMENT = "[-code]";
+
+    /**
+     * This is an attribute in the http request which contains a list of bb-codes that should or should not be replaced
+     * back.
+     */
+    @VisibleForTesting
+    protected static final String REPLACE_HISTORY_LIST_ATTRIBUTE = "BBCodeReviewPreprocessor_replaceHistoryList";
+
+    /**
+     * Closes list items and replaces [/code] tags inside of the code review with [-code].
+     *
+     * @param bbEncodedText BB encoded text to process
+     * @return processed text
+     */
+    @Override
+    public String process(String bbEncodedText) {
+        HttpServletRequest request = getServletRequest();
+        request.removeAttribute(REPLACE_HISTORY_LIST_ATTRIBUTE);
+        boolean codeReview = isCodeReviewPost(request) && isValidCodeReviewBbCodeString(bbEncodedText);
+        if (!codeReview && !bbEncodedText.contains(LIST_OPEN_TAG_START)) {
+            return bbEncodedText;
+        }
+        int codeStart = codeReview ? TopicModificationService.CODE_JAVA_BBCODE_START.length() : 0;
+        int codeEnd = codeReview
+                ? bbEncodedText.length() - TopicModificationService.CODE_JAVA_BBCODE_END.length() : 0;
+
+        StringBuilder result = new StringBuilder(bbEncodedText.length());
+        List<Boolean> replaceHistoryList = new ArrayList<Boolean>();
+        boolean listsLeft = true;
+        int listEnd = -1;
+        boolean listItemOpen = false;
+        int copied = 0;
+        for (int tag = bbEncodedText.indexOf('['); tag != -1; tag = bbEncodedText.indexOf('[', tag + 1)) {
+            if (listEnd == -1) {
+                if (listsLeft && isListOpenTag(bbEncodedText, tag)) {
+                    listEnd = bbEncodedText.indexOf(LIST_CLOSE_TAG, tag + LIST_OPEN_TAG_START.length() + 1);
+                    listsLeft = listEnd != -1;
+                    listItemOpen = false;
+                }
+            } else if (tag == listEnd || bbEncodedText.startsWith(LIST_ITEM_OPEN_TAG, tag)) {
+                if (listItemOpen) {
+                    result.append(bbEncodedText, copied, tag).append(LIST_ITEM_CLOSE_TAG);
+                    copied = tag;
+                }
+                listItemOpen = tag != listEnd;
+                if (tag == listEnd) {
+                    listEnd = -1;
+                }
+            }
+            if (tag >= codeStart && tag + CODE_END_REPLACEMENT.length() <= codeEnd) {
+                if (bbEncodedText.startsWith(TopicModificationService.CODE_JAVA_BBCODE_END, tag)) {
+                    replaceHistoryList.add(true);
+                    result.append(bbEncodedText, copied, tag).append(CODE_END_REPLACEMENT);
+                    copied = tag + CODE_END_REPLACEMENT.length();
+                } else if (bbEncodedText.startsWith(CODE_END_REPLACEMENT, tag)) {
+                    replaceHistoryList.add(false);
+                }
+            }
+        }
+        if (!replaceHistoryList.isEmpty()) {
+            request.setAttribute(REPLACE_HISTORY_LIST_ATTRIBUTE, replaceHistoryList);
+        }
+        return result.append(bbEncodedText, copied, bbEncodedText.length()).toString();
+    }
+
+    /**
+     * Closes list items and replaces [/code] tags inside of the code review with [-code].
+     *
+     * @param bbEncodedText BB encoded text to process
+     * @return processed text
+     */
+    @Override
+    public CharSequence process(CharSequence bbEncodedText) {
+        String result = process(bbEncodedText.toString());
+        return new StringBuilder(result).subSequence(0, result.length());
+    }
+
+    /**
+     * Process incoming decoded text by replacing [-code] tags to [/code].
+     *
+     * @param bbDecodedText text returned after to BBCode processor
+     * @return resultant text
+     */
+    @Override
+    public String postProcess(String bbDecodedText) {
+        HttpServletRequest request = getServletRequest();
+        if (!isCodeReviewPost(request)) {
+            return bbDecodedText;
+        }
+        @SuppressWarnings("unchecked")
+        List<Boolean> replaceHistoryList = (List<Boolean>) request.getAttribute(REPLACE_HISTORY_LIST_ATTRIBUTE);
+        if (replaceHistoryList == null) {
+            return bbDecodedText;
+        }
+        request.removeAttribute(REPLACE_HISTORY_LIST_ATTRIBUTE);
+
+        StringBuilder result = new StringBuilder(bbDecodedText.length());
+        int index = 0;
+        int copied = 0;
+        for (int replacement = bbDecodedText.indexOf(CODE_END_REPLACEMENT); replacement != -1;
+             replacement = bbDecodedText.indexOf(CODE_END_REPLACEMENT, replacement + CODE_END_REPLACEMENT.length())) {
+            if (index == replaceHistoryList.size()) {
+                logger.warn("BbCodeTagsProcessor called, but target decoded text \"" + bbDecodedText
+                        + "\" doesn't contain " + replaceHistoryList.size() + " expected temporary replacement "
+                        + "elements " + CODE_END_REPLACEMENT);
+                return bbDecodedText;
+            }
+            if (replaceHistoryList.get(index)) {
+                result.append(bbDecodedText, copied, replacement).append(TopicModificationService.CODE_JAVA_BBCODE_END);
+                copied = replacement + CODE_END_REPLACEMENT.length();
+            }
+            index++;
+        }
+        return result.append(bbDecodedText, copied, bbDecodedText.length()).toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void postProcess(String bbDecodedText, Writer out) throws IOException {
+        out.write(postProcess(bbDecodedText));
+    }
+
+    /**
+     * Gets current request
+     *
+     * @return native {@link HttpServletRequest}
+     */
+    @VisibleForTesting
+    protected HttpServletRequest getServletRequest() {
+        RequestAttributes attributes = RequestContextHolder.currentRequestAttributes();
+        return ((ServletRequestAttributes) attributes).getRequest();
+    }
+
+    /**
+     * Checks whether the text at the position is the opening tag of the list, like [list] or [list=1].
+     *
+     * @param bbEncodedText BB encoded text
+     * @param position      position of the tag start in the text
+     * @return {@code true} if the list starts at the position
+     */
+    private boolean isListOpenTag(String bbEncodedText, int position) {
+        int next = position + LIST_OPEN_TAG_START.length();
+        return next < bbEncodedText.length() && bbEncodedText.startsWith(LIST_OPEN_TAG_START, position)
+                && LIST_OPEN_TAG_NEXT_CHARS.indexOf(bbEncodedText.charAt(next)) != -1;
+    }
+
+    /**
+     * Checks in current request attributes Code Review token
+     *
+     * @return {@code true, false}
+     */
+    private boolean isCodeReviewPost(HttpServletRequest request) {
+        return request.getAttribute("isCodeReviewPost") != null;
+    }
+
+    /**
+     * Checks regular wrap [code=java]...[/code] in Code Review text
+     *
+     * @return {@code true, false}
+     */
+    private boolean isValidCodeReviewBbCodeString(String bbEncodedText) {
+        if (bbEncodedText.length() < TopicModificationService.CODE_JAVA_BBCODE_START.length()
+                + TopicModificationService.CODE_JAVA_BBCODE_END.length()
+                || !bbEncodedText.startsWith(TopicModificationService.CODE_JAVA_BBCODE_START)
+                || !bbEncodedText.endsWith(TopicModificationService.CODE_JAVA_BBCODE_END)) {
+            logger.warn("BbCodeTagsProcessor called, but target encoded text \"" + bbEncodedText
+                    + "\" doesn't wrapped with " + TopicModificationService.CODE_JAVA_BBCODE_START + "..."
+                    + TopicModificationService.CODE_JAVA_BBCODE_END
+                    + " BBCodes. Check \"isCodeReviewPost\" request attribute");
+            return false;
+        }
+        return true;
+    }
+}
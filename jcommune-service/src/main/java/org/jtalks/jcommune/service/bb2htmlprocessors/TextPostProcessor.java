@@ -15,6 +15,9 @@
 
 package org.jtalks.jcommune.service.bb2htmlprocessors;
 
+import java.io.IOException;
+import java.io.Writer;
+
 /**
  * bb2html post processor. It's applied to the text already converted to HTML if we need additional processing of it.
  *
@@ -29,4 +32,14 @@ public interface TextPostProcessor {
      * @return the result of text processing
      */
     String postProcess(String source);
+
+    /**
+     * Processes HTML text writing the result right to the output, so the result isn't copied once more when it's
+     * the last processing before the text is shown.
+     *
+     * @param source the HTML to be processed
+     * @param out    where to write the result of text processing
+     * @throws IOException if the result can't be written
+     */
+    void postProcess(String source, Writer out) throws IOException;
 }
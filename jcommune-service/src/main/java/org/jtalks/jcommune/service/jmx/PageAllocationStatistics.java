@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.jmx;
+
+import org.jtalks.jcommune.service.nontransactional.PageAllocationCounter;
+
+/**
+ * Exposes memory counted by the {@link PageAllocationCounter} via JMX.
+ */
+public class PageAllocationStatistics implements PageAllocationStatisticsMXBean {
+    private final PageAllocationCounter counter;
+
+    /**
+     * @param counter the counter of memory allocated while pages are rendered
+     */
+    public PageAllocationStatistics(PageAllocationCounter counter) {
+        this.counter = counter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPages() {
+        return counter.getPages();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getAllocatedBytes() {
+        return counter.getAllocatedBytes();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getAllocatedBytesPerPage() {
+        return counter.getAllocatedBytesPerPage();
+    }
+}
@@ -12,22 +12,25 @@
  * License along with this library; if not, write to the Free Software
  * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
  */
-package org.jtalks.jcommune.model.search;
+package org.jtalks.jcommune.service.jmx;
 
 /**
- * Deletes all invalid characters in the search text.
- * Valid characters are letters and numbers.
- * 
- * @author Anuar Nurmakanov
- *
+ * Exposes memory allocated while pages are rendered via JMX to compare allocation rates of different versions
+ * of rendering.
  */
-public class InvalidCharactersFilter implements SearchRequestFilter {
-    
+public interface PageAllocationStatisticsMXBean {
     /**
-     * {@inheritDoc}
+     * @return the number of pages rendered since the start
      */
-    @Override
-    public String filter(String searchText) {
-        return searchText.replaceAll("[^А-Яа-яёЁA-Za-z0-9ЇїЄєҐґÑñÁáÉéÍíÓóÚú]", " ").trim();
-    }
+    long getPages();
+
+    /**
+     * @return the memory allocated while the pages were rendered in bytes
+     */
+    long getAllocatedBytes();
+
+    /**
+     * @return the average memory allocated while a page was rendered in bytes
+     */
+    long getAllocatedBytesPerPage();
 }
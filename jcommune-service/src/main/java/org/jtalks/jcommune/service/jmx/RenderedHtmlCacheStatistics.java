@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.jmx;
+
+import org.jtalks.jcommune.service.nontransactional.RenderedHtmlCache;
+
+/**
+ * Exposes statistics of the {@link RenderedHtmlCache} via JMX.
+ */
+public class RenderedHtmlCacheStatistics implements RenderedHtmlCacheStatisticsMXBean {
+    private final RenderedHtmlCache cache;
+
+    /**
+     * @param cache the cache of HTML rendered from posts
+     */
+    public RenderedHtmlCacheStatistics(RenderedHtmlCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getHitRatio() {
+        return cache.getHitRatio();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSize() {
+        return cache.getSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCharacters() {
+        return cache.getCharacters();
+    }
+}
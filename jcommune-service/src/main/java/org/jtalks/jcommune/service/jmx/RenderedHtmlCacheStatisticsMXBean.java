@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.jmx;
+
+/**
+ * Exposes statistics of the cache of HTML rendered from posts via JMX to see whether the cache pays off.
+ */
+public interface RenderedHtmlCacheStatisticsMXBean {
+    /**
+     * @return the number of posts taken from the cache since the start
+     */
+    long getHits();
+
+    /**
+     * @return the number of posts which had to be rendered since the start
+     */
+    long getMisses();
+
+    /**
+     * @return the share of posts taken from the cache, from 0 to 1
+     */
+    double getHitRatio();
+
+    /**
+     * @return the number of cached variants of posts
+     */
+    int getSize();
+
+    /**
+     * @return the total length of cached HTML
+     */
+    long getCharacters();
+}
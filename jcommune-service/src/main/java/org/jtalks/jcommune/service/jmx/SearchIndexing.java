@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.jmx;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.search.backend.BackendQueueProcessorFactory;
+import org.hibernate.search.util.ContextHelper;
+import org.jtalks.jcommune.model.search.AsyncIndexingBackend;
+
+/**
+ * Exposes statistics of the {@link AsyncIndexingBackend} via JMX.
+ */
+public class SearchIndexing implements SearchIndexingMXBean {
+    private final SessionFactory sessionFactory;
+    private volatile BackendQueueProcessorFactory backend;
+
+    /**
+     * @param sessionFactory to get the backend of the search index from
+     */
+    public SearchIndexing(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getMode() {
+        AsyncIndexingBackend async = getAsyncBackend();
+        return async == null ? "synchronous" : async.getConsistency().name();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getQueuedWorks() {
+        AsyncIndexingBackend async = getAsyncBackend();
+        return async == null ? 0 : async.getQueuedWorks();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLagMillis() {
+        AsyncIndexingBackend async = getAsyncBackend();
+        return async == null ? 0 : async.getLagMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCommits() {
+        AsyncIndexingBackend async = getAsyncBackend();
+        return async == null ? 0 : async.getCommits();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCommittedWorks() {
+        AsyncIndexingBackend async = getAsyncBackend();
+        return async == null ? 0 : async.getCommittedWorks();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCoalescedWorks() {
+        AsyncIndexingBackend async = getAsyncBackend();
+        return async == null ? 0 : async.getCoalescedWorks();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLastCommitMillis() {
+        AsyncIndexingBackend async = getAsyncBackend();
+        return async == null ? 0 : async.getLastCommitMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getAverageCommitMillis() {
+        AsyncIndexingBackend async = getAsyncBackend();
+        return async == null ? 0 : async.getAverageCommitMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMaxCommitMillis() {
+        AsyncIndexingBackend async = getAsyncBackend();
+        return async == null ? 0 : async.getMaxCommitMillis();
+    }
+
+    /**
+     * @return the asynchronous backend or {@code null} if the index is written synchronously
+     */
+    private AsyncIndexingBackend getAsyncBackend() {
+        BackendQueueProcessorFactory current = getBackend();
+        return current instanceof AsyncIndexingBackend ? (AsyncIndexingBackend) current : null;
+    }
+
+    /**
+     * JMX calls come outside of transactions, so a separate session is opened to get to the search factory. The
+     * backend doesn't change, so it's looked up only once.
+     *
+     * @return the backend which writes changes to the search index
+     */
+    @VisibleForTesting
+    BackendQueueProcessorFactory getBackend() {
+        if (backend == null) {
+            Session session = sessionFactory.openSession();
+            try {
+                backend = ContextHelper.getSearchFactory(session).getBackendQueueProcessorFactory();
+            } finally {
+                session.close();
+            }
+        }
+        return backend;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.jmx;
+
+/**
+ * Exposes the state of the asynchronous writing to the search index via JMX so that we can see whether the index
+ * keeps up with changes. All the values are zeros if the index is written synchronously.
+ */
+public interface SearchIndexingMXBean {
+    /**
+     * @return {@code "synchronous"} or the consistency mode of the asynchronous writing ({@code EVENTUAL} or
+     *         {@code AUTHOR})
+     */
+    String getMode();
+
+    /**
+     * @return the number of works waiting in the queue or being written to the index
+     */
+    int getQueuedWorks();
+
+    /**
+     * @return how long in milliseconds the oldest changes in the queue wait to be written
+     */
+    long getLagMillis();
+
+    /**
+     * @return the number of commits to the index since the start
+     */
+    long getCommits();
+
+    /**
+     * @return the number of works written to the index since the start
+     */
+    long getCommittedWorks();
+
+    /**
+     * @return the number of works dropped since the start because later works for the same entity replaced them
+     */
+    long getCoalescedWorks();
+
+    /**
+     * @return the duration of the last commit in milliseconds
+     */
+    long getLastCommitMillis();
+
+    /**
+     * @return the average duration of commits in milliseconds
+     */
+    long getAverageCommitMillis();
+
+    /**
+     * @return the max duration of commits in milliseconds
+     */
+    long getMaxCommitMillis();
+}
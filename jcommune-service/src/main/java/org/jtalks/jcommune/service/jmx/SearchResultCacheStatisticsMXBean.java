@@ -12,21 +12,29 @@
  * License along with this library; if not, write to the Free Software
  * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
  */
-package org.jtalks.jcommune.model.search;
+package org.jtalks.jcommune.service.jmx;
 
 /**
- * Describes a filter for fixing dirty search requests.
- * 
- * @author Anuar Nurmakanov
- *
+ * Exposes statistics of the cache of search results via JMX to see whether the cache pays off.
  */
-public interface SearchRequestFilter {
-    
+public interface SearchResultCacheStatisticsMXBean {
     /**
-     * Filter the  search text.
-     * 
-     * @param searchText search text
-     * @return correct search text
+     * @return the number of searches answered from the cache since the start
      */
-    String filter(String searchText);
+    long getHits();
+
+    /**
+     * @return the number of searches which weren't found in the cache since the start
+     */
+    long getMisses();
+
+    /**
+     * @return the share of searches answered from the cache, from 0 to 1
+     */
+    double getHitRatio();
+
+    /**
+     * @return the number of cached pages of search results
+     */
+    int getSize();
 }
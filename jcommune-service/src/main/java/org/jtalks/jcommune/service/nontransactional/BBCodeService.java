@@ -16,10 +16,15 @@ package org.jtalks.jcommune.service.nontransactional;
 
 import org.apache.commons.lang.Validate;
 import org.jtalks.jcommune.model.entity.JCUser;
+import org.jtalks.jcommune.model.entity.Post;
+import org.jtalks.jcommune.model.entity.PrivateMessage;
+import org.jtalks.jcommune.model.search.BbCodeFilterBridge;
 import org.jtalks.jcommune.service.bb2htmlprocessors.TextPostProcessor;
 import ru.perm.kefir.bbcode.BBProcessorFactory;
 import ru.perm.kefir.bbcode.TextProcessor;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -29,6 +34,12 @@ import java.util.List;
  * @author Evgeniy Naumenko
  */
 public class BBCodeService {
+    /**
+     * Version of HTML produced from BB codes. It has to be increased each time kefirbb.xml or processors are changed,
+     * so that HTML stored with posts and private messages is rendered again.
+     */
+    public static final int RENDERER_VERSION = 1;
+
     private static final String QUOTE_PATEERN = "[quote=\"%s\"]%s[/quote]";
     /** Processor is thread safe as it's explicitly stated in documentation */
     private final TextProcessor processor = BBProcessorFactory.getInstance().create();
@@ -43,6 +54,21 @@ public class BBCodeService {
      */
     private final List<TextPostProcessor> postprocessors = new ArrayList<TextPostProcessor>();
 
+    /**
+     * Postprocessors which depend on the request the text is shown for, like marking of foreign links. They are
+     * applied each time the text is shown, so their results aren't stored with posts and private messages.
+     */
+    private final List<TextPostProcessor> requestPostprocessors = new ArrayList<TextPostProcessor>();
+
+    /** HTML of posts rendered already, posts are rendered each time if it's not set */
+    private RenderedHtmlCache renderedHtmlCache;
+
+    /** HTML of posts rendered again to be stored instead of the outdated one, it isn't stored if it's not set */
+    private PendingRenderedPosts pendingRenderedPosts;
+
+    /** HTML of private messages rendered again to be stored instead of the outdated one, it isn't stored if not set */
+    private PendingRenderedPosts pendingRenderedMessages;
+
     /**
      * Quotes text given as a valid BB-coded quote. Such a quotes are rendered automatically in posts or forum messages.
      * On UI you can find Quote button near each post.
@@ -68,14 +94,104 @@ public class BBCodeService {
      * @return the same text with HTML markup to be shown
      */
     public String convertBbToHtml(String bbEncodedText) {
-        for (TextProcessor preprocessor : preprocessors) {
-            bbEncodedText = preprocessor.process(bbEncodedText);
+        return applyRequestPostprocessors(convertBbToStoredHtml(bbEncodedText));
+    }
+
+    /**
+     * Converts content of the post into HTML the same way as {@link #convertBbToHtml(String)} does. HTML is taken from
+     * the cache if the post was rendered already and wasn't changed since then, otherwise HTML stored with the post
+     * is used. The post is rendered from BB codes only if its HTML was produced by an older version of the renderer.
+     *
+     * @param post    post to render
+     * @param variant variant of rendering which affects the HTML, like the server name to mark foreign links for
+     * @return content of the post with HTML markup to be shown
+     */
+    public String convertPostToHtml(Post post, String variant) {
+        String html = null;
+        if (renderedHtmlCache != null) {
+            html = renderedHtmlCache.get(post.getId(), post.getLastTouchedDate(), variant);
         }
-        bbEncodedText = processor.process(bbEncodedText);
-        for (TextPostProcessor postpreprocessor : postprocessors) {
-            bbEncodedText = postpreprocessor.postProcess(bbEncodedText);
+        if (html == null) {
+            html = applyRequestPostprocessors(getStoredHtml(post));
+            if (renderedHtmlCache != null) {
+                renderedHtmlCache.put(post.getId(), post.getLastTouchedDate(), variant, html);
+            }
         }
-        return bbEncodedText;
+        return html;
+    }
+
+    /**
+     * Converts body of the private message into HTML the same way as {@link #convertBbToHtml(String)} does, but uses
+     * HTML stored with the message if it was produced by the current version of the renderer.
+     *
+     * @param message private message to render
+     * @return body of the message with HTML markup to be shown
+     */
+    public String convertPrivateMessageToHtml(PrivateMessage message) {
+        return applyRequestPostprocessors(getStoredHtml(message));
+    }
+
+    /**
+     * Writes HTML converted from BB-encoded text the same way as {@link #convertBbToHtml(String)} does, but the last
+     * postprocessor writes its result right to the output instead of building one more copy of the whole text.
+     *
+     * @param bbEncodedText string with BB-style markup
+     * @param out           where to write the text with HTML markup, e.g. the writer of JSP page
+     * @throws IOException if HTML can't be written
+     */
+    public void writeBbAsHtml(String bbEncodedText, Writer out) throws IOException {
+        writeWithRequestPostprocessors(convertBbToStoredHtml(bbEncodedText), out);
+    }
+
+    /**
+     * Writes content of the post converted into HTML the same way as {@link #convertPostToHtml(Post, String)} does.
+     * HTML is written right to the output unless it has to be kept in the cache.
+     *
+     * @param post    post to render
+     * @param variant variant of rendering which affects the HTML, like the server name to mark foreign links for
+     * @param out     where to write the content with HTML markup, e.g. the writer of JSP page
+     * @throws IOException if HTML can't be written
+     */
+    public void writePostAsHtml(Post post, String variant, Writer out) throws IOException {
+        if (renderedHtmlCache == null) {
+            writeWithRequestPostprocessors(getStoredHtml(post), out);
+        } else {
+            out.write(convertPostToHtml(post, variant));
+        }
+    }
+
+    /**
+     * Writes body of the private message converted into HTML the same way as
+     * {@link #convertPrivateMessageToHtml(PrivateMessage)} does, HTML is written right to the output.
+     *
+     * @param message private message to render
+     * @param out     where to write the body with HTML markup, e.g. the writer of JSP page
+     * @throws IOException if HTML can't be written
+     */
+    public void writePrivateMessageAsHtml(PrivateMessage message, Writer out) throws IOException {
+        writeWithRequestPostprocessors(getStoredHtml(message), out);
+    }
+
+    /**
+     * Renders content of the post to be stored with it, so that the post isn't rendered each time it's shown. Should
+     * be called each time the content is changed.
+     *
+     * @param post post to render
+     */
+    public void renderPost(Post post) {
+        post.setRenderedContent(convertBbToStoredHtml(post.getPostContent()));
+        post.setRenderedVersion(RENDERER_VERSION);
+    }
+
+    /**
+     * Renders body of the private message to be stored with it, so that the message isn't rendered each time it's
+     * shown.
+     *
+     * @param message private message to render
+     */
+    public void renderPrivateMessage(PrivateMessage message) {
+        message.setRenderedBody(convertBbToStoredHtml(message.getBody()));
+        message.setRenderedVersion(RENDERER_VERSION);
     }
 
     /**
@@ -85,7 +201,7 @@ public class BBCodeService {
      * @return plain text without BB tags
      */
     public String removeBBCodes(String source) {
-        return source.replaceAll("\\[.*?\\]", "");
+        return BbCodeFilterBridge.removeBbCodes(source);
     }
 
     /** @param preprocessors objects that process input text from users post before the actual bb-converting is
@@ -103,4 +219,118 @@ public class BBCodeService {
         this.postprocessors.addAll(postprocessors);
     }
 
+    /**
+     * @param requestPostprocessors objects that process HTML each time it's shown as their result depends on the
+     *                              current request, e.g. on the server name
+     */
+    public void setRequestPostprocessors(List<TextPostProcessor> requestPostprocessors) {
+        this.requestPostprocessors.addAll(requestPostprocessors);
+    }
+
+    /**
+     * @param renderedHtmlCache cache of HTML of posts rendered already
+     */
+    public void setRenderedHtmlCache(RenderedHtmlCache renderedHtmlCache) {
+        this.renderedHtmlCache = renderedHtmlCache;
+    }
+
+    /**
+     * @param pendingRenderedPosts HTML of posts rendered again to be stored instead of the outdated one
+     */
+    public void setPendingRenderedPosts(PendingRenderedPosts pendingRenderedPosts) {
+        this.pendingRenderedPosts = pendingRenderedPosts;
+    }
+
+    /**
+     * @param pendingRenderedMessages HTML of private messages rendered again to be stored instead of the outdated one
+     */
+    public void setPendingRenderedMessages(PendingRenderedPosts pendingRenderedMessages) {
+        this.pendingRenderedMessages = pendingRenderedMessages;
+    }
+
+    /**
+     * Gets HTML stored with the post or renders the post again if the HTML was produced by an older version of the
+     * renderer. HTML rendered again is queued to be stored.
+     *
+     * @param post post to render
+     * @return HTML which doesn't depend on the current request
+     */
+    private String getStoredHtml(Post post) {
+        if (post.getRenderedVersion() == RENDERER_VERSION) {
+            return post.getRenderedContent();
+        }
+        String html = convertBbToStoredHtml(post.getPostContent());
+        if (pendingRenderedPosts != null && post.getId() != 0) {
+            pendingRenderedPosts.add(post.getId(), html);
+        }
+        return html;
+    }
+
+    /**
+     * Gets HTML stored with the private message or renders the message again if the HTML was produced by an older
+     * version of the renderer. HTML rendered again is queued to be stored.
+     *
+     * @param message private message to render
+     * @return HTML which doesn't depend on the current request
+     */
+    private String getStoredHtml(PrivateMessage message) {
+        if (message.getRenderedVersion() == RENDERER_VERSION) {
+            return message.getRenderedBody();
+        }
+        String html = convertBbToStoredHtml(message.getBody());
+        if (pendingRenderedMessages != null && message.getId() != 0) {
+            pendingRenderedMessages.add(message.getId(), html);
+        }
+        return html;
+    }
+
+    /**
+     * Converts BB-encoded text into HTML which doesn't depend on the current request and may be stored.
+     *
+     * @param bbEncodedText string with BB-style markup
+     * @return HTML to be processed by request postprocessors before it's shown
+     */
+    private String convertBbToStoredHtml(String bbEncodedText) {
+        for (TextProcessor preprocessor : preprocessors) {
+            bbEncodedText = preprocessor.process(bbEncodedText);
+        }
+        bbEncodedText = processor.process(bbEncodedText);
+        for (TextPostProcessor postpreprocessor : postprocessors) {
+            bbEncodedText = postpreprocessor.postProcess(bbEncodedText);
+        }
+        return bbEncodedText;
+    }
+
+    /**
+     * Applies postprocessors which depend on the current request.
+     *
+     * @param html HTML rendered from BB codes
+     * @return HTML to be shown
+     */
+    private String applyRequestPostprocessors(String html) {
+        for (TextPostProcessor postprocessor : requestPostprocessors) {
+            html = postprocessor.postProcess(html);
+        }
+        return html;
+    }
+
+    /**
+     * Applies postprocessors which depend on the current request, the last one writes its result to the output.
+     *
+     * @param html HTML rendered from BB codes
+     * @param out  where to write HTML to be shown
+     * @throws IOException if HTML can't be written
+     */
+    private void writeWithRequestPostprocessors(String html, Writer out) throws IOException {
+        int last = requestPostprocessors.size() - 1;
+        for (int i = 0; i < last; i++) {
+            html = requestPostprocessors.get(i).postProcess(html);
+        }
+        if (last < 0) {
+            out.write(html);
+        } else {
+            requestPostprocessors.get(last).postProcess(html, out);
+        }
+    }
+
 }
@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.nontransactional;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.joda.time.DateTime;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps indexes of last read posts of recently active users in memory, so that reading
+ * of topics neither queries nor updates last read posts in the database on every page view.
+ * <p/>
+ * Indexes of a user are loaded all at once and cached together. Changed indexes are also
+ * collected as pending ones, which are taken by {@link #drainPendingIndexes()} to be saved
+ * by batches. Pending indexes survive eviction of the user from the cache, so loading
+ * indexes again doesn't lose changes which aren't saved yet.
+ * <p/>
+ * Times when the user marked branches as read are cached the same way, they are changed
+ * in the database directly and so are just evicted.
+ */
+public class LastReadPostsCache {
+
+    private final Ehcache lastReadPostsCache;
+    private final Ehcache branchReadMarksCache;
+    private Map<Long, Map<Long, Integer>> pendingIndexes = new HashMap<Long, Map<Long, Integer>>();
+
+    /**
+     * @param lastReadPostsCache   cache of last read post indexes by topic ids, keyed by user id
+     * @param branchReadMarksCache cache of times of marking branches as read by branch ids, keyed by user id
+     */
+    public LastReadPostsCache(Ehcache lastReadPostsCache, Ehcache branchReadMarksCache) {
+        this.lastReadPostsCache = lastReadPostsCache;
+        this.branchReadMarksCache = branchReadMarksCache;
+    }
+
+    /**
+     * Gets cached indexes of last read posts of the user.
+     *
+     * @param userId id of the user
+     * @return indexes of last read posts by topic ids or {@code null} if they aren't loaded
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Long, Integer> getReadIndexes(long userId) {
+        Element element = lastReadPostsCache.get(userId);
+        if (element == null) {
+            return null;
+        }
+        return Collections.unmodifiableMap((Map<Long, Integer>) element.getObjectValue());
+    }
+
+    /**
+     * Puts indexes of last read posts of the user loaded from the database to the cache.
+     * Pending indexes of the user take precedence over loaded ones.
+     *
+     * @param userId       id of the user
+     * @param savedIndexes indexes of last read posts by topic ids saved in the database
+     * @return indexes of last read posts of the user, including pending ones
+     */
+    public Map<Long, Integer> putReadIndexes(long userId, Map<Long, Integer> savedIndexes) {
+        Map<Long, Integer> indexes = new ConcurrentHashMap<Long, Integer>(savedIndexes);
+        synchronized (this) {
+            Map<Long, Integer> pendingIndexesOfUser = pendingIndexes.get(userId);
+            if (pendingIndexesOfUser != null) {
+                indexes.putAll(pendingIndexesOfUser);
+            }
+        }
+        lastReadPostsCache.put(new Element(userId, indexes));
+        return Collections.unmodifiableMap(indexes);
+    }
+
+    /**
+     * Gets cached times when the user marked branches as read.
+     *
+     * @param userId id of the user
+     * @return times of marking as read by branch ids or {@code null} if they aren't loaded
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Long, DateTime> getBranchReadMarks(long userId) {
+        Element element = branchReadMarksCache.get(userId);
+        if (element == null) {
+            return null;
+        }
+        return (Map<Long, DateTime>) element.getObjectValue();
+    }
+
+    /**
+     * Puts times when the user marked branches as read loaded from the database to the cache.
+     *
+     * @param userId     id of the user
+     * @param savedMarks times of marking as read by branch ids saved in the database
+     * @return cached times of marking branches as read
+     */
+    public Map<Long, DateTime> putBranchReadMarks(long userId, Map<Long, DateTime> savedMarks) {
+        Map<Long, DateTime> marks = Collections.unmodifiableMap(new HashMap<Long, DateTime>(savedMarks));
+        branchReadMarksCache.put(new Element(userId, marks));
+        return marks;
+    }
+
+    /**
+     * Changes index of the last read post of the user in the topic. The index becomes
+     * pending until it's drained to be saved.
+     *
+     * @param userId  id of the user
+     * @param topicId id of the read topic
+     * @param index   index of the last read post, starting from 0
+     */
+    @SuppressWarnings("unchecked")
+    public void updateReadIndex(long userId, long topicId, int index) {
+        synchronized (this) {
+            Map<Long, Integer> pendingIndexesOfUser = pendingIndexes.get(userId);
+            if (pendingIndexesOfUser == null) {
+                pendingIndexesOfUser = new HashMap<Long, Integer>();
+                pendingIndexes.put(userId, pendingIndexesOfUser);
+            }
+            pendingIndexesOfUser.put(topicId, index);
+        }
+        Element element = lastReadPostsCache.get(userId);
+        if (element != null) {
+            ((Map<Long, Integer>) element.getObjectValue()).put(topicId, index);
+        }
+    }
+
+    /**
+     * Takes pending indexes of all the users.
+     *
+     * @return indexes of last read posts by topic ids, grouped by user ids
+     */
+    public Map<Long, Map<Long, Integer>> drainPendingIndexes() {
+        Map<Long, Map<Long, Integer>> drained;
+        synchronized (this) {
+            drained = pendingIndexes;
+            pendingIndexes = new HashMap<Long, Map<Long, Integer>>();
+        }
+        return drained;
+    }
+
+    /**
+     * Takes pending indexes of the user.
+     *
+     * @param userId id of the user
+     * @return indexes of last read posts by topic ids, empty if there are no pending ones
+     */
+    public Map<Long, Integer> drainPendingIndexes(long userId) {
+        Map<Long, Integer> drained;
+        synchronized (this) {
+            drained = pendingIndexes.remove(userId);
+        }
+        return drained == null ? new HashMap<Long, Integer>() : drained;
+    }
+
+    /**
+     * Removes cached read state of the user, it will be loaded again on the next access.
+     *
+     * @param userId id of the user
+     */
+    public void evict(long userId) {
+        lastReadPostsCache.remove(userId);
+        branchReadMarksCache.remove(userId);
+    }
+
+    /**
+     * Returns drained indexes which failed to be saved, so that they are saved next time.
+     * Indexes changed after draining are newer and take precedence.
+     *
+     * @param indexes indexes of last read posts by topic ids, grouped by user ids
+     */
+    public void restorePendingIndexes(Map<Long, Map<Long, Integer>> indexes) {
+        synchronized (this) {
+            for (Map.Entry<Long, Map<Long, Integer>> indexesOfUser : indexes.entrySet()) {
+                Map<Long, Integer> pendingIndexesOfUser = pendingIndexes.get(indexesOfUser.getKey());
+                if (pendingIndexesOfUser == null) {
+                    pendingIndexesOfUser = new HashMap<Long, Integer>();
+                    pendingIndexes.put(indexesOfUser.getKey(), pendingIndexesOfUser);
+                }
+                for (Map.Entry<Long, Integer> index : indexesOfUser.getValue().entrySet()) {
+                    if (!pendingIndexesOfUser.containsKey(index.getKey())) {
+                        pendingIndexesOfUser.put(index.getKey(), index.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves indexes of last read posts in the topic back by one after the post is deleted,
+     * if the post isn't after them. Cached indexes are changed in place, so that indexes of
+     * other topics don't have to be loaded again.
+     *
+     * @param topicId   id of the topic the post is deleted from
+     * @param postIndex index of the deleted post in the topic
+     */
+    @SuppressWarnings("unchecked")
+    public void shiftReadIndexes(long topicId, int postIndex) {
+        synchronized (this) {
+            for (Map<Long, Integer> pendingIndexesOfUser : pendingIndexes.values()) {
+                shiftReadIndex(pendingIndexesOfUser, topicId, postIndex);
+            }
+        }
+        for (Object userId : lastReadPostsCache.getKeys()) {
+            Element element = lastReadPostsCache.getQuiet(userId);
+            if (element != null) {
+                shiftReadIndex((Map<Long, Integer>) element.getObjectValue(), topicId, postIndex);
+            }
+        }
+    }
+
+    /**
+     * Moves index of the last read post in the topic back by one if the deleted post isn't after it.
+     *
+     * @param indexes   indexes of last read posts by topic ids
+     * @param topicId   id of the topic the post is deleted from
+     * @param postIndex index of the deleted post in the topic
+     */
+    private void shiftReadIndex(Map<Long, Integer> indexes, long topicId, int postIndex) {
+        Integer index = indexes.get(topicId);
+        if (index != null && index >= postIndex) {
+            indexes.put(topicId, index - 1);
+        }
+    }
+}
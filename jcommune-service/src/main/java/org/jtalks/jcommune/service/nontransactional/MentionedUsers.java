@@ -22,16 +22,15 @@ import org.jtalks.jcommune.model.entity.JCUser;
 import org.jtalks.jcommune.model.entity.Post;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.web.util.UriUtils;
 import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
 import javax.servlet.http.HttpServletRequest;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -55,6 +54,10 @@ public class MentionedUsers {
             Pattern.compile("\\[user\\].*?\\[/user\\]|\\[user notified=true\\].*?\\[/user\\]");
     private static final Pattern MENTIONED_AND_NOT_NOTIFIED_USERS_PATTERN = 
             Pattern.compile("\\[user\\].*?\\[/user\\]");
+    private static final Pattern BB_CODE_TAG_PATTERN = Pattern.compile("\\[.*?\\]");
+    /** Characters which escape sequences aren't decoded by JavaScript decodeURI */
+    private static final String RESERVED_URI_CHARS = ";/?:@&=+$,#";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
     public static final String MENTIONED_NOT_NOTIFIED_USER_TEMPLATE = "[user]%s[/user]";
     public static final String MENTIONED_AND_NOTIFIED_USER_TEMPLATE = "[user notified=true]%s[/user]";
     public static final String USER_WITH_LINK_TO_PROFILE_TEMPLATE = "[user=%s]%s[/user]";
@@ -151,19 +154,52 @@ public class MentionedUsers {
     /**
      * Returns post text with BB codes replaced by user profile links
      * @param userDao service for working with user objects
+     * @param mentionedUsersCache mentioned users shared by all the posts
      * @return text with BB codes replaced by user profile links
      */
-    public String getTextWithProcessedUserTags(UserDao userDao) {
+    public String getTextWithProcessedUserTags(UserDao userDao, MentionedUsersCache mentionedUsersCache) {
         Set<String> mentionedUsers = extractAllMentionedUsers(postContent);
+        if (mentionedUsers.isEmpty()) {
+            return postContent;
+        }
+        Map<String, Long> userIds = getUserIds(mentionedUsers, userDao, mentionedUsersCache);
+        String contextPath = null;
         Map<String, String> userToUserProfileLinkMap = new HashMap<String, String>();
         for (String mentionedUser: mentionedUsers) {
-            String mentionedUserProfileLink = getLinkToUserProfile(mentionedUser, userDao);
+            Long userId = userIds.get(mentionedUser);
+            String mentionedUserProfileLink = null;
+            if (userId != null) {
+                if (contextPath == null) {
+                    contextPath = getApplicationNameAsContextPath();
+                }
+                mentionedUserProfileLink = contextPath + "/users/" + userId;
+                LOGGER.debug("{} has the following url of profile - {}", mentionedUser, mentionedUserProfileLink);
+            } else {
+                LOGGER.debug("Mentioned user wasn't find: {}", mentionedUser);
+            }
             userToUserProfileLinkMap.put(mentionedUser, mentionedUserProfileLink);
         }
         return addLinksToUserProfileForMentionedUsers(postContent, userToUserProfileLinkMap);
     }
 
-
+    /**
+     * Looks up all the users mentioned in the posts with one query and puts them to the cache,
+     * so the posts are rendered without further queries.
+     *
+     * @param postContents contents of the posts which will be rendered
+     * @param userDao service for working with user objects
+     * @param mentionedUsersCache mentioned users shared by all the posts
+     */
+    public static void cacheMentionedUsers(Collection<String> postContents, UserDao userDao,
+                                           MentionedUsersCache mentionedUsersCache) {
+        Set<String> mentionedUsers = new HashSet<String>();
+        for (String postContent : postContents) {
+            mentionedUsers.addAll(parse(postContent).extractAllMentionedUsers(postContent));
+        }
+        if (!mentionedUsers.isEmpty()) {
+            getUserIds(mentionedUsers, userDao, mentionedUsersCache);
+        }
+    }
 
     /**
      * Extract names of all users that were mentioned in passed text.
@@ -197,7 +233,7 @@ public class MentionedUsers {
             Set<String> mentionedUsernames = new HashSet<String>();
             while (matcher.find()) {
                 String userBBCode = matcher.group();
-                String mentionedUser = userBBCode.replaceAll("\\[.*?\\]", StringUtils.EMPTY);
+                String mentionedUser = BB_CODE_TAG_PATTERN.matcher(userBBCode).replaceAll(StringUtils.EMPTY);
                 mentionedUsernames.add(decodeUsername(mentionedUser));
             }
             return mentionedUsernames;
@@ -206,16 +242,16 @@ public class MentionedUsers {
     }
 
     /**
+     * Decodes username encoded by JavaScript encodeURI on the client side and replaces placeholders
+     * of characters which break BB codes.
      *
-     * @param encodedUsername
-     * @return
+     * @param encodedUsername username as it's written in BB code
+     * @return decoded username
      */
     private String decodeUsername(String encodedUsername) {
-        String decodeUserName = encodedUsername;
-
-        Object jsDecodedName = invokeJavaScript("decodeURI", encodedUsername.replace("\\", "\\\\"));
-        if (jsDecodedName != null) {
-            decodeUserName = jsDecodedName.toString();
+        String decodeUserName = decodeUri(encodedUsername);
+        if (decodeUserName == null) {
+            decodeUserName = encodedUsername;
         }
 
         for (Map.Entry<String, String> decodeEntry : CHARS_PLACEHOLDERS.entrySet()) {
@@ -237,29 +273,87 @@ public class MentionedUsers {
     }
 
     /**
-     * Invokes JavaScript function via built-in JavaScript engine
-     * @param functionName name of the function to be invoked
-     * @param arguments arguments of the function joined in one string
-     * @return result of the invocation or null if some error happened
+     * Decodes UTF-8 escape sequences the same way as JavaScript decodeURI does: escape sequences
+     * of reserved characters are left as is.
+     *
+     * @param encoded text encoded by JavaScript encodeURI
+     * @return decoded text or null if the text contains malformed escape sequences
      */
-    private Object invokeJavaScript(String functionName, String arguments) {
-        Object result = null;
-
-        ScriptEngineManager factory = new ScriptEngineManager();
-        ScriptEngine engine = factory.getEngineByName("JavaScript");
-
-        if (engine == null) {
-            LOGGER.error("JavaScript engige was not found.");
-            return result;
+    static String decodeUri(String encoded) {
+        if (encoded.indexOf('%') < 0) {
+            return encoded;
         }
-
-        try {
-            result = engine.eval(functionName + "('" + arguments + "')").toString();
-        } catch (ScriptException e) {
-            LOGGER.error("Error while invoking JavaScript function.", e);
+        StringBuilder decoded = new StringBuilder(encoded.length());
+        int i = 0;
+        while (i < encoded.length()) {
+            char c = encoded.charAt(i);
+            if (c != '%') {
+                decoded.append(c);
+                i++;
+                continue;
+            }
+            int first = decodeEscapedByte(encoded, i);
+            if (first < 0) {
+                return null;
+            }
+            if (first < 0x80) {
+                if (RESERVED_URI_CHARS.indexOf(first) >= 0) {
+                    decoded.append(encoded, i, i + 3);
+                } else {
+                    decoded.append((char) first);
+                }
+                i += 3;
+                continue;
+            }
+            int length;
+            if ((first & 0xE0) == 0xC0) {
+                length = 2;
+            } else if ((first & 0xF0) == 0xE0) {
+                length = 3;
+            } else if ((first & 0xF8) == 0xF0) {
+                length = 4;
+            } else {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            bytes[0] = (byte) first;
+            for (int j = 1; j < length; j++) {
+                int next = decodeEscapedByte(encoded, i + 3 * j);
+                if (next < 0 || (next & 0xC0) != 0x80) {
+                    return null;
+                }
+                bytes[j] = (byte) next;
+            }
+            try {
+                decoded.append(UTF8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(ByteBuffer.wrap(bytes)));
+            } catch (CharacterCodingException e) {
+                return null;
+            }
+            i += 3 * length;
         }
+        return decoded.toString();
+    }
 
-        return result;
+    /**
+     * Decodes escape sequence like %D0.
+     *
+     * @param encoded text encoded by JavaScript encodeURI
+     * @param index   index of the escape sequence
+     * @return the byte from 0 to 255 or -1 if there is no valid escape sequence at the index
+     */
+    private static int decodeEscapedByte(String encoded, int index) {
+        if (index + 2 >= encoded.length() || encoded.charAt(index) != '%') {
+            return -1;
+        }
+        int high = Character.digit(encoded.charAt(index + 1), 16);
+        int low = Character.digit(encoded.charAt(index + 2), 16);
+        if (high < 0 || low < 0) {
+            return -1;
+        }
+        return (high << 4) | low;
     }
 
     /**
@@ -324,24 +418,54 @@ public class MentionedUsers {
     }
 
     /**
-     * Get link to user's profile.
+     * Gets identifiers of users by their usernames, users which aren't cached yet are looked up
+     * with one query.
      *
-     * @param username user's name
-     * @return null when user doesn't exist, otherwise link to user's profile
+     * @param usernames usernames of mentioned users
+     * @param userDao service for working with user objects
+     * @param mentionedUsersCache mentioned users shared by all the posts
+     * @return identifiers of users by their usernames, null if there is no user with such username
      */
-    private String getLinkToUserProfile(String username, UserDao userDao) {
-        String userPofileLink = null;
-
-        JCUser user = userDao.getByUsername(username);
-        if (user != null && user.getUsername().equals(username)) {
-            userPofileLink = getApplicationNameAsContextPath() + "/users/" + user.getId();
-            LOGGER.debug("{} has the following url of profile - {}" , username, userPofileLink);
+    private static Map<String, Long> getUserIds(Set<String> usernames, UserDao userDao,
+                                                MentionedUsersCache mentionedUsersCache) {
+        Map<String, Map<String, Long>> foundUsers = mentionedUsersCache.getUsers(usernames);
+        if (foundUsers.size() < usernames.size()) {
+            Set<String> notCachedUsernames = new HashSet<String>(usernames);
+            notCachedUsernames.removeAll(foundUsers.keySet());
+            List<JCUser> users = userDao.getByUsernamesIgnoringCase(notCachedUsernames);
+            for (String username : notCachedUsernames) {
+                Map<String, Long> userIds = new HashMap<String, Long>();
+                for (JCUser user : users) {
+                    if (user.getUsername().equalsIgnoreCase(username)) {
+                        userIds.put(user.getUsername(), user.getId());
+                    }
+                }
+                mentionedUsersCache.put(username, userIds);
+                foundUsers.put(username, userIds);
+            }
         }
-        else {
-            LOGGER.debug("Mentioned user wasn't find: {}", username);
+        Map<String, Long> userIds = new HashMap<String, Long>();
+        for (String username : usernames) {
+            userIds.put(username, getUserIdIgnoringCase(username, foundUsers.get(username)));
         }
+        return userIds;
+    }
 
-        return userPofileLink;
+    /**
+     * Finds the user with the given username ignoring case, the same way as
+     * {@link UserDao#getByUsername(String)}: if several users differ only in case,
+     * the one with exactly the same username is taken.
+     *
+     * @param username username of mentioned user
+     * @param userIds identifiers of users whose usernames differ only in case, by their usernames
+     * @return identifier of the user or null if there is no such user
+     */
+    private static Long getUserIdIgnoringCase(String username, Map<String, Long> userIds) {
+        Long userId = userIds.get(username);
+        if (userId == null && userIds.size() == 1) {
+            userId = userIds.values().iterator().next();
+        }
+        return userId;
     }
 
     /**
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.nontransactional;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Cache of users mentioned in posts by their usernames, it's shared by all the posts, so users
+ * mentioned on a page are looked up in the database once. As usernames are mentioned ignoring case,
+ * users are cached by case folded username: all the users whose usernames differ only in case are
+ * cached together. Usernames which don't belong to any user are cached too, without users.
+ * <p/>
+ * The cache is bounded by the number of usernames, the least recently used usernames are evicted.
+ * As users are also registered by other nodes of the cluster and by the administration application
+ * sharing the database, usernames are looked up again when they get older than configured age.
+ */
+public class MentionedUsersCache {
+    private final int maxUsernames;
+    private final long maxAgeMillis;
+    private final Map<String, CachedUsers> users = new LinkedHashMap<String, CachedUsers>(16, 0.75f, true);
+
+    /**
+     * @param maxUsernames max number of cached usernames, the least recently used usernames are evicted
+     * @param maxAgeMillis time in milliseconds after which cached username is looked up again
+     */
+    public MentionedUsersCache(int maxUsernames, long maxAgeMillis) {
+        this.maxUsernames = maxUsernames;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Gets cached users.
+     *
+     * @param usernames usernames of mentioned users
+     * @return identifiers of users whose usernames differ from the mentioned one only in case, by their
+     *         usernames, grouped by mentioned usernames; only cached and not expired usernames are included,
+     *         the group is empty if there is no user with such username
+     */
+    public Map<String, Map<String, Long>> getUsers(Collection<String> usernames) {
+        Map<String, Map<String, Long>> found = new HashMap<String, Map<String, Long>>();
+        long now = System.currentTimeMillis();
+        synchronized (users) {
+            for (String username : usernames) {
+                String folded = fold(username);
+                CachedUsers cached = users.get(folded);
+                if (cached == null) {
+                    continue;
+                }
+                if (now - cached.cachedTime > maxAgeMillis) {
+                    users.remove(folded);
+                } else {
+                    found.put(username, cached.userIds);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Puts users found by the username to the cache.
+     *
+     * @param username username of mentioned user
+     * @param userIds  identifiers of users whose usernames differ from the mentioned one only in case,
+     *                 by their usernames, empty if there is no user with such username
+     */
+    public void put(String username, Map<String, Long> userIds) {
+        CachedUsers cached = new CachedUsers(Collections.unmodifiableMap(new HashMap<String, Long>(userIds)));
+        synchronized (users) {
+            users.put(fold(username), cached);
+            if (users.size() > maxUsernames) {
+                users.remove(users.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * Removes the username from the cache in any case, it's needed when the user with such username
+     * is registered or deleted.
+     *
+     * @param username the username
+     */
+    public void invalidate(String username) {
+        synchronized (users) {
+            users.remove(fold(username));
+        }
+    }
+
+    /**
+     * @return number of cached usernames
+     */
+    public int getSize() {
+        synchronized (users) {
+            return users.size();
+        }
+    }
+
+    /**
+     * @param username the username
+     * @return the username in the case usernames are cached in
+     */
+    private static String fold(String username) {
+        return username.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Users found by one username and time they were looked up.
+     */
+    private static final class CachedUsers {
+        private final Map<String, Long> userIds;
+        private final long cachedTime = System.currentTimeMillis();
+
+        /**
+         * @param userIds identifiers of found users by their usernames
+         */
+        private CachedUsers(Map<String, Long> userIds) {
+            this.userIds = userIds;
+        }
+    }
+}
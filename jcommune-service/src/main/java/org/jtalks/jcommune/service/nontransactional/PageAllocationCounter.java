@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.nontransactional;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts memory allocated by threads while pages are rendered, so the effect of changes in rendering of posts on
+ * the allocation rate can be seen. Allocated memory is measured by HotSpot compatible JVMs only, nothing is counted
+ * on other JVMs.
+ */
+public class PageAllocationCounter {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * Gets memory allocated by the current thread since it was started, the difference of two values taken in the
+     * same thread is the memory allocated in between.
+     *
+     * @return allocated memory in bytes or -1 if the JVM doesn't measure it
+     */
+    public static long getCurrentThreadAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Counts the rendered page.
+     *
+     * @param pageAllocatedBytes memory allocated while the page was rendered in bytes
+     */
+    public void add(long pageAllocatedBytes) {
+        allocatedBytes.addAndGet(pageAllocatedBytes);
+        pages.incrementAndGet();
+    }
+
+    /**
+     * @return number of rendered pages
+     */
+    public long getPages() {
+        return pages.get();
+    }
+
+    /**
+     * @return memory allocated while the pages were rendered in bytes
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * @return average memory allocated while a page was rendered in bytes
+     */
+    public long getAllocatedBytesPerPage() {
+        long currentPages = pages.get();
+        return currentPages == 0 ? 0 : allocatedBytes.get() / currentPages;
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.nontransactional;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accumulates HTML of posts which were rendered when shown because HTML stored with them was produced by an older
+ * version of the renderer. Accumulated HTML is taken by {@link #drain()} to be saved by batches, so each post is
+ * rendered again only once after the renderer is changed. Bodies of private messages rendered again are accumulated
+ * the same way by a separate instance.
+ * <p/>
+ * The number of accumulated posts is limited, posts which don't fit are simply rendered again next time.
+ */
+public class PendingRenderedPosts {
+    private final int maxPosts;
+    private final Map<Long, String> renderedPosts = new HashMap<Long, String>();
+
+    /**
+     * @param maxPosts max number of posts accumulated between saves
+     */
+    public PendingRenderedPosts(int maxPosts) {
+        this.maxPosts = maxPosts;
+    }
+
+    /**
+     * Registers HTML rendered for the post.
+     *
+     * @param postId identifier of the post
+     * @param html   HTML rendered by the current version of the renderer
+     */
+    public void add(long postId, String html) {
+        synchronized (renderedPosts) {
+            if (renderedPosts.size() < maxPosts || renderedPosts.containsKey(postId)) {
+                renderedPosts.put(postId, html);
+            }
+        }
+    }
+
+    /**
+     * Takes all the accumulated HTML and resets the queue.
+     *
+     * @return HTML of posts by their ids
+     */
+    public Map<Long, String> drain() {
+        synchronized (renderedPosts) {
+            Map<Long, String> drained = new HashMap<Long, String>(renderedPosts);
+            renderedPosts.clear();
+            return drained;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.nontransactional;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+
+/**
+ * Cache of HTML rendered from BB codes of posts. The key is the identifier of the post, the date it was
+ * created or modified last time and the variant of rendering, like the server name foreign links are
+ * marked as nofollow for. An edited post gets a new key, so its old HTML is never shown.
+ * <p/>
+ * The cache is bounded by the total length of cached HTML, the least recently used posts are evicted.
+ * So HTML of edited and deleted posts isn't removed explicitly, it's evicted as it isn't used anymore.
+ */
+public class RenderedHtmlCache {
+    private final long maxCharacters;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final Map<Key, String> renderedPosts = new LinkedHashMap<Key, String>(16, 0.75f, true);
+    /** Total length of cached HTML, guarded by renderedPosts */
+    private long characters;
+
+    /**
+     * @param maxCharacters max total length of cached HTML, the least recently used posts are evicted
+     */
+    public RenderedHtmlCache(long maxCharacters) {
+        this.maxCharacters = maxCharacters;
+    }
+
+    /**
+     * Gets cached HTML of the post.
+     *
+     * @param postId          identifier of the post
+     * @param lastTouchedDate date the post was created or modified last time
+     * @param variant         the variant of rendering
+     * @return the cached HTML or <code>null</code> if the post isn't cached
+     */
+    public String get(long postId, DateTime lastTouchedDate, String variant) {
+        String html;
+        synchronized (renderedPosts) {
+            html = renderedPosts.get(new Key(postId, lastTouchedDate, variant));
+        }
+        if (html == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return html;
+    }
+
+    /**
+     * Puts HTML of the post to the cache. HTML longer than the cache itself isn't cached.
+     *
+     * @param postId          identifier of the post
+     * @param lastTouchedDate date the post was created or modified last time
+     * @param variant         the variant of rendering
+     * @param html            HTML rendered from the content of the post
+     */
+    public void put(long postId, DateTime lastTouchedDate, String variant, String html) {
+        if (html.length() > maxCharacters) {
+            return;
+        }
+        synchronized (renderedPosts) {
+            String replaced = renderedPosts.put(new Key(postId, lastTouchedDate, variant), html);
+            characters += html.length() - (replaced == null ? 0 : replaced.length());
+            Iterator<String> eldest = renderedPosts.values().iterator();
+            while (characters > maxCharacters) {
+                characters -= eldest.next().length();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * @return number of posts taken from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of posts which had to be rendered
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return share of posts taken from the cache, from 0 to 1
+     */
+    public double getHitRatio() {
+        long currentHits = hits.get();
+        long total = currentHits + misses.get();
+        return total == 0 ? 0 : (double) currentHits / total;
+    }
+
+    /**
+     * @return number of cached variants of posts
+     */
+    public int getSize() {
+        synchronized (renderedPosts) {
+            return renderedPosts.size();
+        }
+    }
+
+    /**
+     * @return total length of cached HTML
+     */
+    public long getCharacters() {
+        synchronized (renderedPosts) {
+            return characters;
+        }
+    }
+
+    /**
+     * Key of the cached HTML.
+     */
+    private static final class Key {
+        private final long postId;
+        private final long lastTouchedMillis;
+        private final String variant;
+
+        /**
+         * @param postId          identifier of the post
+         * @param lastTouchedDate date the post was created or modified last time
+         * @param variant         the variant of rendering
+         */
+        private Key(long postId, DateTime lastTouchedDate, String variant) {
+            this.postId = postId;
+            this.lastTouchedMillis = lastTouchedDate == null ? 0 : lastTouchedDate.getMillis();
+            this.variant = variant;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return postId == other.postId && lastTouchedMillis == other.lastTouchedMillis
+                    && (variant == null ? other.variant == null : variant.equals(other.variant));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            int result = (int) (postId ^ (postId >>> 32));
+            result = 31 * result + (int) (lastTouchedMillis ^ (lastTouchedMillis >>> 32));
+            return 31 * result + (variant == null ? 0 : variant.hashCode());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.nontransactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accumulates views of topics in memory, so that viewing of a topic doesn't update
+ * its row in the database. Accumulated views are taken by {@link #drain()} to be saved
+ * by batches.
+ * <p/>
+ * Topics are spread over a number of stripes guarded by their own locks, so concurrent
+ * views of different topics rarely wait for each other.
+ */
+public class TopicViewsCounter {
+    private static final int DEFAULT_STRIPES_COUNT = 16;
+
+    private final List<Map<Long, Integer>> stripes;
+
+    /**
+     * Creates counter with the default count of stripes.
+     */
+    public TopicViewsCounter() {
+        this(DEFAULT_STRIPES_COUNT);
+    }
+
+    /**
+     * @param stripesCount count of independently locked parts of the counter
+     */
+    public TopicViewsCounter(int stripesCount) {
+        stripes = new ArrayList<Map<Long, Integer>>(stripesCount);
+        for (int i = 0; i < stripesCount; i++) {
+            stripes.add(new HashMap<Long, Integer>());
+        }
+    }
+
+    /**
+     * Registers one more view of the topic.
+     *
+     * @param topicId id of the viewed topic
+     */
+    public void increment(long topicId) {
+        Map<Long, Integer> stripe = stripeOf(topicId);
+        synchronized (stripe) {
+            Integer views = stripe.get(topicId);
+            stripe.put(topicId, views == null ? 1 : views + 1);
+        }
+    }
+
+    /**
+     * Gets views of the topic which aren't saved yet.
+     *
+     * @param topicId id of the topic
+     * @return count of views accumulated since the last {@link #drain()}
+     */
+    public int getPendingViews(long topicId) {
+        Map<Long, Integer> stripe = stripeOf(topicId);
+        synchronized (stripe) {
+            Integer views = stripe.get(topicId);
+            return views == null ? 0 : views;
+        }
+    }
+
+    /**
+     * Takes all the accumulated views and resets the counter.
+     *
+     * @return counts of views accumulated for topics by their ids
+     */
+    public Map<Long, Integer> drain() {
+        Map<Long, Integer> views = new HashMap<Long, Integer>();
+        for (Map<Long, Integer> stripe : stripes) {
+            synchronized (stripe) {
+                views.putAll(stripe);
+                stripe.clear();
+            }
+        }
+        return views;
+    }
+
+    /**
+     * Finds the stripe the topic belongs to.
+     *
+     * @param topicId id of the topic
+     * @return stripe with views of the topic
+     */
+    private Map<Long, Integer> stripeOf(long topicId) {
+        int hash = (int) (topicId ^ (topicId >>> 32));
+        return stripes.get((hash & Integer.MAX_VALUE) % stripes.size());
+    }
+}
@@ -26,11 +26,13 @@ import org.jtalks.jcommune.model.entity.Branch;
 import org.jtalks.jcommune.model.entity.JCUser;
 import org.jtalks.jcommune.model.entity.Topic;
 import org.jtalks.jcommune.service.BranchService;
+import org.jtalks.jcommune.service.LastReadPostService;
 import org.jtalks.jcommune.service.TopicModificationService;
 import org.jtalks.jcommune.service.UserService;
 import org.jtalks.jcommune.service.exceptions.NotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.access.prepost.PreAuthorize;
 
 /**
@@ -50,6 +52,7 @@ public class TransactionalBranchService extends AbstractTransactionalEntityServi
     private TopicDao topicDao;
     private TopicModificationService topicService;
     private UserService userService;
+    private LastReadPostService lastReadPostService;
 
     /**
      * Create an instance of entity based service
@@ -59,18 +62,21 @@ public class TransactionalBranchService extends AbstractTransactionalEntityServi
      * @param topicDao     data access object for operations with topics
      * @param topicService service to perform complex operations with topics
      * @param userService  service to perform complex operations with users
+     * @param lastReadPostService service to find out which branches have unread posts
      */
     public TransactionalBranchService(
             BranchDao branchDao,
             SectionDao sectionDao,
             TopicDao topicDao,
             TopicModificationService topicService,
-            UserService userService) {
+            UserService userService,
+            LastReadPostService lastReadPostService) {
         super(branchDao);
         this.sectionDao = sectionDao;
         this.topicDao = topicDao;
         this.topicService = topicService;
         this.userService = userService;
+        this.lastReadPostService = lastReadPostService;
     }
 
     /**
@@ -110,22 +116,29 @@ public class TransactionalBranchService extends AbstractTransactionalEntityServi
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Counts of topics and posts are stored in the branches themselves and loaded
+     * together with them, so no queries are performed for them. Indicators of unread
+     * posts are filled for all branches at once.
      */
     @Override
     public void fillStatisticInfo(List<org.jtalks.common.model.entity.Branch> branches) {
-
+        List<Branch> jcommuneBranches = new ArrayList<Branch>(branches.size());
         for (org.jtalks.common.model.entity.Branch commonBranch : branches) {
-            Branch jcommuneBranch = (Branch) commonBranch;
-            int postsCount = getDao().getCountPostsInBranch(jcommuneBranch);
-            jcommuneBranch.setPostsCount(postsCount);
-            int topicsCount = topicDao.countTopics(jcommuneBranch);
-            jcommuneBranch.setTopicsCount(topicsCount);
-            //TODO Was removed till milestone 2 due to performance issues
-//            JCUser user = userService.getCurrentUser();
-//            if (!user.isAnonymous()) {
-//                boolean isUnreadPosts = getDao().isUnreadPostsInBranch(jcommuneBranch, user);
-//                jcommuneBranch.setUnreadPosts(isUnreadPosts);
-//            }
+            jcommuneBranches.add((Branch) commonBranch);
+        }
+        lastReadPostService.fillUnreadPostsInBranches(jcommuneBranches);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Scheduled(cron = "0 0 * * * *") // cron expression: invoke every hour at :00 min, e.g. 11:00, 12:00 and so on
+    public void recalculateStatisticInfo() {
+        int repairedBranches = getDao().recalculateStatisticInfo();
+        if (repairedBranches > 0) {
+            logger.warn("Counts of topics and posts were repaired in {} branches", repairedBranches);
         }
     }
 
@@ -16,44 +16,73 @@ package org.jtalks.jcommune.service.transactional;
 
 import org.apache.commons.collections.ListUtils;
 import org.joda.time.DateTime;
+import org.jtalks.jcommune.model.dao.BranchDao;
 import org.jtalks.jcommune.model.dao.LastReadPostDao;
 import org.jtalks.jcommune.model.dao.UserDao;
 import org.jtalks.jcommune.model.entity.*;
 import org.jtalks.jcommune.service.LastReadPostService;
 import org.jtalks.jcommune.service.UserService;
+import org.jtalks.jcommune.service.nontransactional.LastReadPostsCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Performs last read posts management to track topic updates
  * since user's last visit.
+ * <p/>
+ * Last read posts of active users are kept in {@link LastReadPostsCache}, reading of a topic
+ * only changes the cache and changes are saved by batches in {@link #flushLastReadPosts()}.
  *
  * @author Evgeniy Naumenko
  * @author Anuar_Nurmakanov
  */
-public class TransactionalLastReadPostService implements LastReadPostService {
+public class TransactionalLastReadPostService
+        implements LastReadPostService, ApplicationListener<ContextClosedEvent> {
+
+    private static final long LAST_READ_POSTS_FLUSH_DELAY = 30000;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final UserService userService;
     private final LastReadPostDao lastReadPostDao;
     private final UserDao userDao;
+    private final BranchDao branchDao;
+    private final LastReadPostsCache lastReadPostsCache;
 
     /**
      * Constructs an instance with required fields.
      *
-     * @param userService     to figure out the current user logged in
-     * @param lastReadPostDao to save/read last read post information from a database
-     * @param userDao         to save an information about user of forum
+     * @param userService        to figure out the current user logged in
+     * @param lastReadPostDao    to save/read last read post information from a database
+     * @param userDao            to save an information about user of forum
+     * @param branchDao          to find branches with unread posts
+     * @param lastReadPostsCache to keep last read posts of active users in memory
      */
     public TransactionalLastReadPostService(
             UserService userService,
             LastReadPostDao lastReadPostDao,
-            UserDao userDao) {
+            UserDao userDao,
+            BranchDao branchDao,
+            LastReadPostsCache lastReadPostsCache) {
         this.userService = userService;
         this.lastReadPostDao = lastReadPostDao;
         this.userDao = userDao;
+        this.branchDao = branchDao;
+        this.lastReadPostsCache = lastReadPostsCache;
     }
 
     /**
@@ -72,9 +101,7 @@ public class TransactionalLastReadPostService implements LastReadPostService {
     public List<Topic> fillLastReadPostForTopics(List<Topic> topics) {
         JCUser currentUser = userService.getCurrentUser();
         if (!currentUser.isAnonymous()) {
-            DateTime forumMarkedAsReadDate = currentUser.getAllForumMarkedAsReadTime();
-            List<Topic> notModifiedTopics = extractNotModifiedTopicsSinceForumMarkedAsRead(
-                    forumMarkedAsReadDate, topics);
+            List<Topic> notModifiedTopics = extractNotModifiedTopicsSinceMarkedAsRead(currentUser, topics);
             for (Topic notModifiedTopic : notModifiedTopics) {
                 int lastPostIndex = notModifiedTopic.getPostCount() - 1;
                 notModifiedTopic.setLastReadPostIndex(lastPostIndex);
@@ -88,57 +115,257 @@ public class TransactionalLastReadPostService implements LastReadPostService {
     }
 
     /**
-     * Extract topics that don't have modifications after marking all forum as read.
+     * Extract topics that don't have posts created after marking all forum or their branch as read.
      *
-     * @param forumMarkAsReadDate the date when user marked all forum as read
-     * @param sourceTopics        the list of topics that must be processed
-     * @return topics that don't have modification after marking all forum as read
+     * @param user         the user who marked forum or branches as read
+     * @param sourceTopics the list of topics that must be processed
+     * @return topics that don't have posts created after marking all forum or their branch as read
      */
-    private List<Topic> extractNotModifiedTopicsSinceForumMarkedAsRead(
-            DateTime forumMarkAsReadDate,
-            List<Topic> sourceTopics) {
+    private List<Topic> extractNotModifiedTopicsSinceMarkedAsRead(JCUser user, List<Topic> sourceTopics) {
         List<Topic> topics = new ArrayList<Topic>();
-        if (forumMarkAsReadDate != null) {
-            for (Topic topic : sourceTopics) {
-                if (topic.getModificationDate().isBefore(forumMarkAsReadDate)) {
-                    topics.add(topic);
-                }
+        if (sourceTopics.isEmpty()) {
+            return topics;
+        }
+        Map<Long, DateTime> branchReadMarks = getBranchReadMarks(user);
+        for (Topic topic : sourceTopics) {
+            if (hasNoPostsSinceMarkedAsRead(user, branchReadMarks, topic)) {
+                topics.add(topic);
             }
         }
         return topics;
     }
 
+    /**
+     * Checks whether the topic has no posts created since the user marked all forum or
+     * the branch of the topic as read. Edits of posts don't make the topic unread, the
+     * same as in queries of unread topics and branches.
+     *
+     * @param user            the user who marked forum or branches as read
+     * @param branchReadMarks times when the user marked branches as read by branch ids
+     * @param topic           topic to check
+     * @return {@code true} if the whole topic is read because of marking as read
+     */
+    private boolean hasNoPostsSinceMarkedAsRead(JCUser user, Map<Long, DateTime> branchReadMarks, Topic topic) {
+        DateTime branchMarkedAsReadDate = topic.getBranch() == null
+                ? null : branchReadMarks.get(topic.getBranch().getId());
+        // topics always have posts, modification date is checked only for ones not filled with them
+        DateTime lastPostDate = topic.getLastPostDate() == null ? topic.getModificationDate() : topic.getLastPostDate();
+        return isNotModifiedSinceMarkedAsRead(user, branchMarkedAsReadDate, lastPostDate);
+    }
+
+    /**
+     * Checks whether something modified at the given time was read because the user
+     * marked all forum or the branch as read after that.
+     *
+     * @param user                   the user who marked forum or branches as read
+     * @param branchMarkedAsReadDate time when the user marked the branch as read, may be {@code null}
+     * @param modificationDate       time of the modification
+     * @return {@code true} if the modification was before marking all forum or the branch as read
+     */
+    private boolean isNotModifiedSinceMarkedAsRead(JCUser user, DateTime branchMarkedAsReadDate,
+                                                   DateTime modificationDate) {
+        DateTime forumMarkedAsReadDate = user.getAllForumMarkedAsReadTime();
+        if (forumMarkedAsReadDate != null && modificationDate.isBefore(forumMarkedAsReadDate)) {
+            return true;
+        }
+        return branchMarkedAsReadDate != null && modificationDate.isBefore(branchMarkedAsReadDate);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Branches without topics modified since the user marked them or all forum as read are
+     * recognized as read in memory, using cached times of the last modification in branches.
+     * A topic is modified whenever a post is created in it, so such branches have no posts created
+     * since marking either. The rest of branches are checked by one query, so the whole main page
+     * costs at most two queries regardless of the number of branches.
+     */
+    @Override
+    public void fillUnreadPostsInBranches(List<Branch> branches) {
+        for (Branch branch : branches) {
+            branch.setUnreadPosts(false);
+        }
+        JCUser user = userService.getCurrentUser();
+        if (user.isAnonymous() || branches.isEmpty()) {
+            return;
+        }
+        Map<Long, DateTime> modificationTimes = branchDao.getLastTopicModificationTimes();
+        Map<Long, DateTime> branchReadMarks = getBranchReadMarks(user);
+        List<Long> candidateBranchIds = new ArrayList<Long>();
+        for (Branch branch : branches) {
+            DateTime lastModification = modificationTimes.get(branch.getId());
+            if (lastModification != null && !isNotModifiedSinceMarkedAsRead(
+                    user, branchReadMarks.get(branch.getId()), lastModification)) {
+                candidateBranchIds.add(branch.getId());
+            }
+        }
+        if (candidateBranchIds.isEmpty()) {
+            return;
+        }
+        saveLastReadPosts(user);
+        Set<Long> unreadBranchIds = branchDao.getBranchesWithUnreadPosts(user, candidateBranchIds);
+        for (Branch branch : branches) {
+            branch.setUnreadPosts(unreadBranchIds.contains(branch.getId()));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void saveLastReadPostsOfCurrentUser() {
+        JCUser user = userService.getCurrentUser();
+        if (!user.isAnonymous()) {
+            saveLastReadPosts(user);
+        }
+    }
+
+    /**
+     * Saves pending last read posts of the user, so that they can be taken into
+     * account by queries.
+     *
+     * @param user user to save last read posts of
+     */
+    private void saveLastReadPosts(JCUser user) {
+        Map<Long, Integer> pendingIndexes = lastReadPostsCache.drainPendingIndexes(user.getId());
+        if (!pendingIndexes.isEmpty()) {
+            saveDrainedIndexes(Collections.singletonMap(user.getId(), pendingIndexes));
+        }
+    }
+
+    /**
+     * Saves indexes drained from the cache. If saving fails or the transaction is rolled back,
+     * the indexes are returned to the cache to be saved next time.
+     *
+     * @param indexes indexes of last read posts by topic ids, grouped by user ids
+     */
+    private void saveDrainedIndexes(final Map<Long, Map<Long, Integer>> indexes) {
+        try {
+            lastReadPostDao.saveLastReadPostIndexes(indexes);
+        } catch (RuntimeException e) {
+            lastReadPostsCache.restorePendingIndexes(indexes);
+            throw e;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        lastReadPostsCache.restorePendingIndexes(indexes);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Gets times when the user marked branches as read from the cache, they are
+     * loaded from the database if the user isn't cached.
+     *
+     * @param user user to get times of marking branches as read for
+     * @return times of marking as read by branch ids
+     */
+    private Map<Long, DateTime> getBranchReadMarks(JCUser user) {
+        Map<Long, DateTime> branchReadMarks = lastReadPostsCache.getBranchReadMarks(user.getId());
+        if (branchReadMarks == null) {
+            branchReadMarks = lastReadPostsCache.putBranchReadMarks(
+                    user.getId(), lastReadPostDao.getBranchReadMarkTimes(user));
+        }
+        return branchReadMarks;
+    }
+
     /**
      * For topics modified since forum was marked as all read we need to calculate
-     * last read posts from data that were saved in repository.
+     * last read posts from data that were saved in repository. Topics without saved
+     * last read post are read up to the time of marking their branch or all forum as read.
      *
      * @param modifiedTopics the list of modified topics
      * @param currentUser    the current user of application
      */
     private void fillLastReadPostsForModifiedTopics(List<Topic> modifiedTopics, JCUser currentUser) {
-        List<LastReadPost> lastReadPosts = lastReadPostDao.getLastReadPosts(currentUser, modifiedTopics);
+        if (modifiedTopics.isEmpty()) {
+            return;
+        }
+        Map<Long, Integer> lastReadPostIndexes = getLastReadPostIndexes(currentUser);
+        List<Topic> topicsWithoutLastReadPost = new ArrayList<Topic>();
         for (Topic topic : modifiedTopics) {
-            LastReadPost lastReadPost = findLastReadPost(lastReadPosts, topic.getId());
-            if (lastReadPost != null) {
-                topic.setLastReadPostIndex(lastReadPost.getPostIndex());
+            Integer lastReadPostIndex = lastReadPostIndexes.get(topic.getId());
+            if (lastReadPostIndex != null) {
+                topic.setLastReadPostIndex(lastReadPostIndex);
+            } else {
+                topicsWithoutLastReadPost.add(topic);
             }
         }
+        fillLastReadPostsFromReadMarks(topicsWithoutLastReadPost, currentUser);
     }
 
     /**
-     * Find last read post in the list for given topic.
+     * Sets index of the last post created before the user marked the branch of the topic
+     * or all forum as read. Last read posts of such topics may be deleted by
+     * {@link #purgeLastReadPosts()} or have never existed, so a reply to a read topic
+     * makes unread only the reply. Posts are counted by one query per distinct time of marking.
      *
-     * @param lastReadPosts the list of last read posts where we are going to search
-     * @param topicId       an identifier of topic for which we find last read post in list
-     * @return last read post for given topic
+     * @param topics topics without last read posts
+     * @param user   the user who marked forum or branches as read
      */
-    private LastReadPost findLastReadPost(List<LastReadPost> lastReadPosts, long topicId) {
-        for (LastReadPost lastReadPost : lastReadPosts) {
-            if (lastReadPost.getTopic().getId() == topicId) {
-                return lastReadPost;
+    private void fillLastReadPostsFromReadMarks(List<Topic> topics, JCUser user) {
+        if (topics.isEmpty()) {
+            return;
+        }
+        Map<Long, DateTime> branchReadMarks = getBranchReadMarks(user);
+        Map<DateTime, List<Long>> topicIdsByReadMarks = new HashMap<DateTime, List<Long>>();
+        for (Topic topic : topics) {
+            DateTime readMark = getReadMark(user, branchReadMarks, topic);
+            if (readMark != null) {
+                if (!topicIdsByReadMarks.containsKey(readMark)) {
+                    topicIdsByReadMarks.put(readMark, new ArrayList<Long>());
+                }
+                topicIdsByReadMarks.get(readMark).add(topic.getId());
             }
         }
-        return null;
+        Map<Long, Integer> postCounts = new HashMap<Long, Integer>();
+        for (Map.Entry<DateTime, List<Long>> topicIds : topicIdsByReadMarks.entrySet()) {
+            postCounts.putAll(lastReadPostDao.getPostCountsCreatedBefore(topicIds.getValue(), topicIds.getKey()));
+        }
+        for (Topic topic : topics) {
+            Integer postCount = postCounts.get(topic.getId());
+            if (postCount != null) {
+                topic.setLastReadPostIndex(postCount - 1);
+            }
+        }
+    }
+
+    /**
+     * Gets the latest time when the user marked the branch of the topic or all forum as read.
+     *
+     * @param user            the user who marked forum or branches as read
+     * @param branchReadMarks times when the user marked branches as read by branch ids
+     * @param topic           topic to get the time for
+     * @return time of marking as read or {@code null} if neither the branch nor forum was marked
+     */
+    private DateTime getReadMark(JCUser user, Map<Long, DateTime> branchReadMarks, Topic topic) {
+        DateTime forumReadMark = user.getAllForumMarkedAsReadTime();
+        DateTime branchReadMark = topic.getBranch() == null ? null : branchReadMarks.get(topic.getBranch().getId());
+        if (branchReadMark == null || (forumReadMark != null && forumReadMark.isAfter(branchReadMark))) {
+            return forumReadMark;
+        }
+        return branchReadMark;
+    }
+
+    /**
+     * Gets indexes of last read posts of the user from the cache, they are
+     * loaded from the database by one query if the user isn't cached.
+     *
+     * @param user user to get last read posts for
+     * @return indexes of last read posts by topic ids
+     */
+    private Map<Long, Integer> getLastReadPostIndexes(JCUser user) {
+        Map<Long, Integer> lastReadPostIndexes = lastReadPostsCache.getReadIndexes(user.getId());
+        if (lastReadPostIndexes == null) {
+            lastReadPostIndexes = lastReadPostsCache.putReadIndexes(
+                    user.getId(), lastReadPostDao.getLastReadPostIndexes(user));
+        }
+        return lastReadPostIndexes;
     }
 
     /**
@@ -187,26 +414,61 @@ public class TransactionalLastReadPostService implements LastReadPostService {
     }
 
     /**
-     * Stores last read post info into database for the particular topic and user.
+     * Stores last read post info for the particular topic and user. It's changed in the cache
+     * only and is saved into database by {@link #flushLastReadPosts()}.
      *
      * @param user      user to save last read post data for
      * @param topic     topic to store info for
      * @param postIndex actual post index user has read last, starting from 0
      */
     private void saveLastReadPost(JCUser user, Topic topic, int postIndex) {
-        DateTime lastTimeForumWasMarkedRead = user.getAllForumMarkedAsReadTime();
-        DateTime topicModifiedDate = topic.getModificationDate();
-        if (lastTimeForumWasMarkedRead == null || topicModifiedDate.isAfter(lastTimeForumWasMarkedRead)) {
-            LastReadPost lastRead = lastReadPostDao.getLastReadPost(user, topic);
-            if (lastRead == null) {
-                lastRead = new LastReadPost(user, topic, postIndex);
-            } else {
-                lastRead.setPostIndex(Math.max(Math.min(topic.getPostCount() - 1, lastRead.getPostIndex()), postIndex));
+        if (!hasNoPostsSinceMarkedAsRead(user, getBranchReadMarks(user), topic)) {
+            Integer lastReadIndex = getLastReadPostIndexes(user).get(topic.getId());
+            if (lastReadIndex == null) {
+                fillLastReadPostsFromReadMarks(Collections.singletonList(topic), user);
+                lastReadIndex = topic.getLastReadPostIndex();
+            }
+            int newIndex = postIndex;
+            if (lastReadIndex != null) {
+                newIndex = Math.max(Math.min(topic.getPostCount() - 1, lastReadIndex), postIndex);
+            }
+            if (lastReadIndex == null || newIndex != lastReadIndex) {
+                lastReadPostsCache.updateReadIndex(user.getId(), topic.getId(), newIndex);
             }
-            lastReadPostDao.saveOrUpdate(lastRead);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Scheduled(fixedDelay = LAST_READ_POSTS_FLUSH_DELAY)
+    public void flushLastReadPosts() {
+        Map<Long, Map<Long, Integer>> indexes = lastReadPostsCache.drainPendingIndexes();
+        saveDrainedIndexes(indexes);
+        logger.debug("Last read posts of {} users were saved", indexes.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Scheduled(cron = "0 30 3 * * *")
+    public void purgeLastReadPosts() {
+        int deleted = lastReadPostDao.deleteLastReadPostsOfReadTopics();
+        logger.info("{} last read posts covered by marking branches or forum as read were deleted", deleted);
+    }
+
+    /**
+     * Saves last read posts which aren't saved yet when the application is shut down.
+     *
+     * @param event event of the application context closing
+     */
+    @Override
+    public void onApplicationEvent(ContextClosedEvent event) {
+        flushLastReadPosts();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -215,7 +477,9 @@ public class TransactionalLastReadPostService implements LastReadPostService {
     public void markAllTopicsAsRead(Branch branch) {
         JCUser user = userService.getCurrentUser();
         if (!user.isAnonymous()) {
+            saveLastReadPosts(user);
             lastReadPostDao.markAllRead(user, branch);
+            lastReadPostsCache.evict(user.getId());
         }
     }
 
@@ -229,7 +493,9 @@ public class TransactionalLastReadPostService implements LastReadPostService {
         currentUser.setAllForumMarkedAsReadTime(new DateTime());
         userDao.saveOrUpdate(currentUser);
 
+        lastReadPostsCache.drainPendingIndexes(currentUser.getId());
         lastReadPostDao.deleteLastReadPostsFor(currentUser);
+        lastReadPostsCache.evict(currentUser.getId());
     }
 
     /**
@@ -238,6 +504,7 @@ public class TransactionalLastReadPostService implements LastReadPostService {
     @Override
     @PreAuthorize("hasPermission(#post.topic.branch.id, 'BRANCH', 'BranchPermission.VIEW_TOPICS')")
     public void updateLastReadPostsWhenPostDeleted(Post post) {
+        flushLastReadPosts();
         List<LastReadPost> lastReadPosts = lastReadPostDao.getLastReadPostsInTopic(post.getTopic());
         for (LastReadPost lastReadPost : lastReadPosts) {
             int index = lastReadPost.getPostIndex();
@@ -246,5 +513,6 @@ public class TransactionalLastReadPostService implements LastReadPostService {
                 lastReadPostDao.saveOrUpdate(lastReadPost);
             }
         }
+        lastReadPostsCache.shiftReadIndexes(post.getTopic().getId(), post.getPostIndexInTopic());
     }
 }
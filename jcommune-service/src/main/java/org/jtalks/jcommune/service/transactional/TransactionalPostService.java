@@ -15,6 +15,7 @@
 package org.jtalks.jcommune.service.transactional;
 
 import org.jtalks.common.security.SecurityService;
+import org.jtalks.jcommune.model.dao.BranchDao;
 import org.jtalks.jcommune.model.dao.PostDao;
 import org.jtalks.jcommune.model.dao.TopicDao;
 import org.jtalks.jcommune.model.dto.JCommunePageRequest;
@@ -26,13 +27,18 @@ import org.jtalks.jcommune.service.BranchLastPostService;
 import org.jtalks.jcommune.service.LastReadPostService;
 import org.jtalks.jcommune.service.PostService;
 import org.jtalks.jcommune.service.UserService;
+import org.jtalks.jcommune.service.nontransactional.BBCodeService;
 import org.jtalks.jcommune.service.nontransactional.NotificationService;
+import org.jtalks.jcommune.service.nontransactional.PendingRenderedPosts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.prepost.PreAuthorize;
 
+import java.util.Map;
+
 
 /**
  * Post service class. This class contains method needed to manipulate with Post persistent entity.
@@ -42,41 +48,55 @@ import org.springframework.security.access.prepost.PreAuthorize;
  */
 public class TransactionalPostService extends AbstractTransactionalEntityService<Post, PostDao> implements PostService {
 
+    private static final long RENDERED_CONTENT_FLUSH_DELAY = 60000;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private TopicDao topicDao;
+    private BranchDao branchDao;
     private SecurityService securityService;
     private NotificationService notificationService;
     private LastReadPostService lastReadPostService;
     private UserService userService;
     private BranchLastPostService branchLastPostService;
+    private BBCodeService bbCodeService;
+    private PendingRenderedPosts pendingRenderedPosts;
 
     /**
      * Create an instance of Post entity based service
      *
      * @param dao                   data access object, which should be able do all CRUD operations with post entity.
      * @param topicDao              this dao used for checking branch existance
+     * @param branchDao             to change count of posts in the branch
      * @param securityService       service for authorization
      * @param notificationService   to send email updates for subscribed users
      * @param lastReadPostService   to modify last read post information when topic structure is changed
      * @param userService           to get current user
      * @param branchLastPostService to refresh the last post of the branch
+     * @param bbCodeService         to render edited posts
+     * @param pendingRenderedPosts  to save HTML of posts rendered again after the renderer is changed
      */
     public TransactionalPostService(
             PostDao dao,
             TopicDao topicDao,
+            BranchDao branchDao,
             SecurityService securityService,
             NotificationService notificationService,
             LastReadPostService lastReadPostService,
             UserService userService,
-            BranchLastPostService branchLastPostService) {
+            BranchLastPostService branchLastPostService,
+            BBCodeService bbCodeService,
+            PendingRenderedPosts pendingRenderedPosts) {
         super(dao);
         this.topicDao = topicDao;
+        this.branchDao = branchDao;
         this.securityService = securityService;
         this.notificationService = notificationService;
         this.lastReadPostService = lastReadPostService;
         this.userService = userService;
         this.branchLastPostService = branchLastPostService;
+        this.bbCodeService = bbCodeService;
+        this.pendingRenderedPosts = pendingRenderedPosts;
     }
 
     /**
@@ -100,6 +120,7 @@ public class TransactionalPostService extends AbstractTransactionalEntityService
         }
         post.setPostContent(postContent);
         post.updateModificationDate();
+        bbCodeService.renderPost(post);
 
         this.getDao().saveOrUpdate(post);
         notificationService.subscribedEntityChanged(post.getTopic());
@@ -125,6 +146,7 @@ public class TransactionalPostService extends AbstractTransactionalEntityService
         Topic topic = post.getTopic();
         topic.removePost(post);
         Branch branch = topic.getBranch();
+        branchDao.adjustCounts(branch, 0, -1);
         boolean deletedPostIsLastPostInBranch = branch.isLastPost(post);
         if (deletedPostIsLastPostInBranch) {
             branch.clearLastPost();
@@ -149,9 +171,10 @@ public class TransactionalPostService extends AbstractTransactionalEntityService
      * {@inheritDoc}
      */
     @Override
-    public Page<Post> getPostsOfUser(JCUser userCreated, int page, boolean pagingEnabled) {
+    public Page<Post> getPostsOfUser(JCUser userCreated, int page, Long lastSeenId, boolean pagingEnabled) {
         JCommunePageRequest pageRequest = new JCommunePageRequest(
                 page, userService.getCurrentUser().getPageSize(), pagingEnabled);
+        pageRequest.setLastSeenId(lastSeenId);
         return this.getDao().getUserPosts(userCreated, pageRequest);
     }
 
@@ -175,9 +198,10 @@ public class TransactionalPostService extends AbstractTransactionalEntityService
      * {@inheritDoc}
      */
     @Override
-    public Page<Post> getPosts(Topic topic, int page, boolean pagingEnabled) {
+    public Page<Post> getPosts(Topic topic, int page, Long lastSeenId, boolean pagingEnabled) {
         JCommunePageRequest pageRequest = new JCommunePageRequest(
                 page, userService.getCurrentUser().getPageSize(), pagingEnabled);
+        pageRequest.setLastSeenId(lastSeenId);
         return getDao().getPosts(topic, pageRequest);
     }
 
@@ -188,4 +212,23 @@ public class TransactionalPostService extends AbstractTransactionalEntityService
     public Post getLastPostFor(Branch branch) {
         return getDao().getLastPostFor(branch);
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Scheduled(fixedDelay = RENDERED_CONTENT_FLUSH_DELAY)
+    public void saveRenderedContent() {
+        Map<Long, String> renderedPosts = pendingRenderedPosts.drain();
+        for (Map.Entry<Long, String> rendered : renderedPosts.entrySet()) {
+            Post post = getDao().get(rendered.getKey());
+            // the post might be deleted or edited and rendered already since it was shown
+            if (post != null && post.getRenderedVersion() != BBCodeService.RENDERER_VERSION) {
+                post.setRenderedContent(rendered.getValue());
+                post.setRenderedVersion(BBCodeService.RENDERER_VERSION);
+                getDao().saveOrUpdate(post);
+            }
+        }
+        logger.debug("Rendered content of {} posts was saved", renderedPosts.size());
+    }
 }
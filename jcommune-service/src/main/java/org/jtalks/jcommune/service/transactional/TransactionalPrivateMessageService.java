@@ -25,14 +25,18 @@ import org.jtalks.jcommune.model.entity.PrivateMessageStatus;
 import org.jtalks.jcommune.service.PrivateMessageService;
 import org.jtalks.jcommune.service.UserService;
 import org.jtalks.jcommune.service.exceptions.NotFoundException;
+import org.jtalks.jcommune.service.nontransactional.BBCodeService;
 import org.jtalks.jcommune.service.nontransactional.MailService;
+import org.jtalks.jcommune.service.nontransactional.PendingRenderedPosts;
 import org.jtalks.jcommune.service.nontransactional.UserDataCacheService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.access.prepost.PreAuthorize;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * The implementation of PrivateMessageServices.
@@ -44,6 +48,8 @@ import java.util.List;
 public class TransactionalPrivateMessageService
         extends AbstractTransactionalEntityService<PrivateMessage, PrivateMessageDao> implements PrivateMessageService {
 
+    private static final long RENDERED_BODY_FLUSH_DELAY = 60000;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final SecurityService securityService;
@@ -51,6 +57,8 @@ public class TransactionalPrivateMessageService
     private final UserDataCacheService userDataCache;
     private final MailService mailService;
     private final JCommuneProperty sendingNotificationsEnabledProperty;
+    private final BBCodeService bbCodeService;
+    private final PendingRenderedPosts pendingRenderedMessages;
 
     /**
      * Creates the instance of service.
@@ -60,19 +68,25 @@ public class TransactionalPrivateMessageService
      * @param userService     for getting user by name
      * @param userDataCache   service for cache for user data
      * @param mailService     for sending email notifications
+     * @param bbCodeService   to render sent messages
+     * @param pendingRenderedMessages to save HTML of messages rendered again after the renderer is changed
      */
     public TransactionalPrivateMessageService(PrivateMessageDao pmDao,
                                               SecurityService securityService,
                                               UserService userService,
                                               UserDataCacheService userDataCache,
                                               MailService mailService,
-                                              JCommuneProperty sendingNotificationsEnabledProperty) {
+                                              JCommuneProperty sendingNotificationsEnabledProperty,
+                                              BBCodeService bbCodeService,
+                                              PendingRenderedPosts pendingRenderedMessages) {
         super(pmDao);
         this.securityService = securityService;
         this.userService = userService;
         this.userDataCache = userDataCache;
         this.mailService = mailService;
         this.sendingNotificationsEnabledProperty = sendingNotificationsEnabledProperty;
+        this.bbCodeService = bbCodeService;
+        this.pendingRenderedMessages = pendingRenderedMessages;
     }
 
     /**
@@ -108,6 +122,7 @@ public class TransactionalPrivateMessageService
         PrivateMessage pm = new PrivateMessage(recipient, userFrom, title, body);
         pm.setRead(false);
         pm.setStatus(PrivateMessageStatus.SENT);
+        bbCodeService.renderPrivateMessage(pm);
         this.getDao().saveOrUpdate(pm);
 
         userDataCache.incrementNewMessageCountFor(recipient.getUsername());
@@ -190,6 +205,7 @@ public class TransactionalPrivateMessageService
         pm.setId(id);
         pm.setRead(false);
         pm.setStatus(PrivateMessageStatus.SENT);
+        bbCodeService.renderPrivateMessage(pm);
         this.getDao().saveOrUpdate(pm);
 
         userDataCache.incrementNewMessageCountFor(recipient.getUsername());
@@ -305,4 +321,23 @@ public class TransactionalPrivateMessageService
     public void checkPermissionsToSend(Long senderId) {
         logger.debug("Check permission to send private message for user - " + senderId);
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Scheduled(fixedDelay = RENDERED_BODY_FLUSH_DELAY)
+    public void saveRenderedBodies() {
+        Map<Long, String> renderedMessages = pendingRenderedMessages.drain();
+        for (Map.Entry<Long, String> rendered : renderedMessages.entrySet()) {
+            PrivateMessage message = getDao().get(rendered.getKey());
+            // the message might be deleted or saved as a draft and rendered already since it was shown
+            if (message != null && message.getRenderedVersion() != BBCodeService.RENDERER_VERSION) {
+                message.setRenderedBody(rendered.getValue());
+                message.setRenderedVersion(BBCodeService.RENDERER_VERSION);
+                getDao().saveOrUpdate(message);
+            }
+        }
+        logger.debug("Rendered bodies of {} private messages were saved", renderedMessages.size());
+    }
 }
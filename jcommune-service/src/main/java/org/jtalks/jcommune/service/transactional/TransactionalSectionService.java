@@ -83,10 +83,11 @@ public class TransactionalSectionService extends AbstractTransactionalEntityServ
      * {@inheritDoc}
      */
     public void prepareSectionsForView(List<Section> sections) {
-        for(Section section: sections) {
-            List<Branch> branches = section.getBranches();
-            branchService.fillStatisticInfo(branches);
+        List<Branch> branches = new ArrayList<Branch>();
+        for (Section section : sections) {
+            branches.addAll(section.getBranches());
         }
+        branchService.fillStatisticInfo(branches);
     }
 
     /**
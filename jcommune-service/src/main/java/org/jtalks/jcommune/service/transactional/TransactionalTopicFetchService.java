@@ -18,47 +18,74 @@ import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
 import org.jtalks.jcommune.model.dao.TopicDao;
 import org.jtalks.jcommune.model.dao.search.TopicSearchDao;
+import org.jtalks.jcommune.model.dto.IndexRebuildProgress;
 import org.jtalks.jcommune.model.dto.JCommunePageRequest;
+import org.jtalks.jcommune.model.dto.TopicSearchFilter;
+import org.jtalks.jcommune.model.dto.TopicSearchHit;
+import org.jtalks.jcommune.model.dto.TopicSearchResult;
 import org.jtalks.jcommune.model.entity.Branch;
+import org.jtalks.jcommune.model.entity.JCUser;
 import org.jtalks.jcommune.model.entity.Topic;
+import org.jtalks.jcommune.service.LastReadPostService;
 import org.jtalks.jcommune.service.TopicFetchService;
 import org.jtalks.jcommune.service.UserService;
 import org.jtalks.jcommune.service.exceptions.NotFoundException;
+import org.jtalks.jcommune.service.nontransactional.TopicViewsCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.access.prepost.PreAuthorize;
 
 import java.util.Collections;
+import java.util.Map;
 
 /**
  * Performs load operations on topic based on various
  * conditions. Topic search operations are also performed here.
  */
 public class TransactionalTopicFetchService extends AbstractTransactionalEntityService<Topic, TopicDao>
-        implements TopicFetchService {
+        implements TopicFetchService, ApplicationListener<ContextClosedEvent> {
+
+    private static final long VIEWS_FLUSH_DELAY = 60000;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private UserService userService;
     private TopicSearchDao searchDao;
+    private TopicViewsCounter viewsCounter;
+    private LastReadPostService lastReadPostService;
 
     /**
-     * @param dao         topic dao for database manipulations
-     * @param userService to get current user and his preferences
-     * @param searchDao   for search index access
+     * @param dao          topic dao for database manipulations
+     * @param userService  to get current user and his preferences
+     * @param searchDao    for search index access
+     * @param viewsCounter to accumulate views of topics before saving them
+     * @param lastReadPostService to save read state of the current user before looking for unread topics
      */
-    public TransactionalTopicFetchService(TopicDao dao, UserService userService, TopicSearchDao searchDao) {
+    public TransactionalTopicFetchService(TopicDao dao, UserService userService, TopicSearchDao searchDao,
+                                          TopicViewsCounter viewsCounter, LastReadPostService lastReadPostService) {
         super(dao);
         this.userService = userService;
         this.searchDao = searchDao;
+        this.viewsCounter = viewsCounter;
+        this.lastReadPostService = lastReadPostService;
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * The view of the topic is counted, but isn't saved until {@link #flushViews()},
+     * so fetching of a topic doesn't update it.
      */
     @Override    
     public Topic get(Long id) throws NotFoundException {
         Topic topic = super.get(id);
-        topic.setViews(topic.getViews() + 1);
-        this.getDao().saveOrUpdate(topic);
+        viewsCounter.increment(id);
+        topic.setPendingViews(viewsCounter.getPendingViews(id));
         return topic;
     }
 
@@ -70,7 +97,8 @@ public class TransactionalTopicFetchService extends AbstractTransactionalEntityS
         int pageSize = userService.getCurrentUser().getPageSize();
         JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(page, pageSize);
         DateTime date24HoursAgo = new DateTime().minusDays(1);
-        return this.getDao().getTopicsUpdatedSince(date24HoursAgo, pageRequest, userService.getCurrentUser());
+        return withPendingViews(
+                this.getDao().getTopicsUpdatedSince(date24HoursAgo, pageRequest, userService.getCurrentUser()));
     }
 
     /**
@@ -80,32 +108,65 @@ public class TransactionalTopicFetchService extends AbstractTransactionalEntityS
     public Page<Topic> getUnansweredTopics(int page) {
         int pageSize = userService.getCurrentUser().getPageSize();
         JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(page, pageSize);
-        return this.getDao().getUnansweredTopics(pageRequest, userService.getCurrentUser());
+        return withPendingViews(this.getDao().getUnansweredTopics(pageRequest, userService.getCurrentUser()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Page<Topic> getUnreadTopics(int page) {
+        JCUser currentUser = userService.getCurrentUser();
+        JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(page, currentUser.getPageSize());
+        if (currentUser.isAnonymous()) {
+            return new PageImpl<Topic>(Collections.<Topic>emptyList(), pageRequest, 0);
+        }
+        lastReadPostService.saveLastReadPostsOfCurrentUser();
+        return withPendingViews(this.getDao().getUnreadTopics(pageRequest, currentUser));
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public Page<Topic> getTopics(Branch branch, int page, boolean pagingEnabled) {
+    public Page<Topic> getTopics(Branch branch, int page, Long lastSeenId, boolean pagingEnabled) {
         int pageSize = userService.getCurrentUser().getPageSize();
         JCommunePageRequest pageRequest = new JCommunePageRequest(page, pageSize, pagingEnabled);
-        return getDao().getTopics(branch, pageRequest);
+        pageRequest.setLastSeenId(lastSeenId);
+        return withPendingViews(getDao().getTopics(branch, pageRequest));
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public Page<Topic> searchByTitleAndContent(String phrase, int page) {
+    public TopicSearchResult searchByTitleAndContent(String phrase, TopicSearchFilter filter, int page) {
         if (!StringUtils.isEmpty(phrase)) {
-            int pageSize = userService.getCurrentUser().getPageSize();
-            JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(page, pageSize);
+            JCUser currentUser = userService.getCurrentUser();
+            JCommunePageRequest pageRequest = JCommunePageRequest.createWithPagingEnabled(
+                    page, currentUser.getPageSize());
             // hibernate search refuses to process long string throwing error
             String normalizedPhrase = StringUtils.left(phrase, 50);
-            return searchDao.searchByTitleAndContent(normalizedPhrase, pageRequest);
+            TopicSearchResult hits = searchDao.searchByTitleAndContent(normalizedPhrase, filter, pageRequest,
+                    currentUser);
+            for (TopicSearchHit hit : hits.getContent()) {
+                hit.getTopic().setPendingViews(viewsCounter.getPendingViews(hit.getTopic().getId()));
+            }
+            return hits;
+        }
+        return TopicSearchResult.empty(null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void awaitIndexingOfOwnPosts() {
+        JCUser currentUser = userService.getCurrentUser();
+        if (!currentUser.isAnonymous()) {
+            // the index is written asynchronously, the author should find his own posts
+            searchDao.awaitIndexingOfPostsBy(currentUser);
         }
-        return new PageImpl<Topic>(Collections.<Topic>emptyList());
     }
 
     /**
@@ -115,6 +176,48 @@ public class TransactionalTopicFetchService extends AbstractTransactionalEntityS
     public void rebuildSearchIndex() {
         searchDao.rebuildIndex();
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IndexRebuildProgress getSearchIndexRebuildProgress() {
+        return searchDao.getIndexRebuildProgress();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Scheduled(fixedDelay = VIEWS_FLUSH_DELAY)
+    public void flushViews() {
+        Map<Long, Integer> views = viewsCounter.drain();
+        getDao().addViews(views);
+        logger.debug("Views of {} topics were saved", views.size());
+    }
+
+    /**
+     * Saves views of topics which aren't saved yet when the application is shut down.
+     *
+     * @param event event of the application context closing
+     */
+    @Override
+    public void onApplicationEvent(ContextClosedEvent event) {
+        flushViews();
+    }
+
+    /**
+     * Adds views which aren't saved yet to topics of the page.
+     *
+     * @param topics page of topics to be shown
+     * @return the same page of topics
+     */
+    private Page<Topic> withPendingViews(Page<Topic> topics) {
+        for (Topic topic : topics.getContent()) {
+            topic.setPendingViews(viewsCounter.getPendingViews(topic.getId()));
+        }
+        return topics;
+    }
     
     /**
      * {@inheritDoc}
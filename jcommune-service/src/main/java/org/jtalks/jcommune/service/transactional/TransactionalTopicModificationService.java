@@ -19,9 +19,11 @@ import org.jtalks.common.security.SecurityService;
 import org.jtalks.common.service.security.SecurityContextFacade;
 import org.jtalks.jcommune.model.dao.BranchDao;
 import org.jtalks.jcommune.model.dao.TopicDao;
+import org.jtalks.jcommune.model.dao.search.TopicSearchDao;
 import org.jtalks.jcommune.model.entity.*;
 import org.jtalks.jcommune.service.*;
 import org.jtalks.jcommune.service.exceptions.NotFoundException;
+import org.jtalks.jcommune.service.nontransactional.BBCodeService;
 import org.jtalks.jcommune.service.nontransactional.NotificationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +62,8 @@ public class TransactionalTopicModificationService implements TopicModificationS
     private PermissionEvaluator permissionEvaluator;
     private SecurityContextFacade securityContextFacade;
     private BranchLastPostService branchLastPostService;
+    private TopicSearchDao searchDao;
+    private BBCodeService bbCodeService;
 
     /**
      * Create an instance of User entity based service
@@ -75,6 +79,8 @@ public class TransactionalTopicModificationService implements TopicModificationS
      * @param securityContextFacade authentication object retrieval
      * @param permissionEvaluator   for authorization purposes
      * @param branchLastPostService to refresh the last post of the branch
+     * @param searchDao             to reindex posts when the title or the branch of their topic changes
+     * @param bbCodeService         to render created and edited posts
      */
     public TransactionalTopicModificationService(TopicDao dao, SecurityService securityService,
                                                  BranchDao branchDao,
@@ -85,7 +91,9 @@ public class TransactionalTopicModificationService implements TopicModificationS
                                                  TopicFetchService topicFetchService,
                                                  SecurityContextFacade securityContextFacade,
                                                  PermissionEvaluator permissionEvaluator,
-                                                 BranchLastPostService branchLastPostService) {
+                                                 BranchLastPostService branchLastPostService,
+                                                 TopicSearchDao searchDao,
+                                                 BBCodeService bbCodeService) {
         this.dao = dao;
         this.securityService = securityService;
         this.branchDao = branchDao;
@@ -97,6 +105,8 @@ public class TransactionalTopicModificationService implements TopicModificationS
         this.securityContextFacade = securityContextFacade;
         this.permissionEvaluator = permissionEvaluator;
         this.branchLastPostService = branchLastPostService;
+        this.searchDao = searchDao;
+        this.bbCodeService = bbCodeService;
     }
 
     /**
@@ -112,6 +122,7 @@ public class TransactionalTopicModificationService implements TopicModificationS
         currentUser.setPostCount(currentUser.getPostCount() + 1);
 
         Post answer = new Post(currentUser, answerBody);
+        bbCodeService.renderPost(answer);
         topic.addPost(answer);
         if (currentUser.isAutosubscribe()) {
             Set<JCUser> topicSubscribers = topic.getSubscribers();
@@ -122,6 +133,7 @@ public class TransactionalTopicModificationService implements TopicModificationS
         Branch branch = topic.getBranch();
         branch.setLastPost(answer);
         branchDao.saveOrUpdate(branch);
+        branchDao.adjustCounts(branch, 0, 1);
 
         securityService.createAclBuilder().grant(GeneralPermission.WRITE).to(currentUser).on(answer).flush();
         notificationService.subscribedEntityChanged(topic);
@@ -162,12 +174,14 @@ public class TransactionalTopicModificationService implements TopicModificationS
         topic.setAnnouncement(topicDto.isAnnouncement());
         topic.setSticked(topicDto.isSticked());
         Post first = new Post(currentUser, bodyText);
+        bbCodeService.renderPost(first);
         topic.addPost(first);
         Branch branch = topicDto.getBranch();
 
         branch.addTopic(topic);
         branch.setLastPost(first);
         branchDao.saveOrUpdate(branch);
+        branchDao.adjustCounts(branch, 1, topic.getPostCount());
 
         JCUser user = userService.getCurrentUser();
         securityService.createAclBuilder().grant(GeneralPermission.WRITE).to(user).on(topic).flush();
@@ -197,6 +211,7 @@ public class TransactionalTopicModificationService implements TopicModificationS
         currentUser.setPostCount(currentUser.getPostCount() + 1);
         Topic topic = new Topic(currentUser, topicDto.getTitle());
         Post first = new Post(currentUser, wrapWithCodeTag(bodyText));
+        bbCodeService.renderPost(first);
         topic.addPost(first);
         CodeReview codeReview = new CodeReview();
         codeReview.setTopic(topic);
@@ -206,6 +221,7 @@ public class TransactionalTopicModificationService implements TopicModificationS
         branch.addTopic(topic);
         branch.setLastPost(first);
         branchDao.saveOrUpdate(branch);
+        branchDao.adjustCounts(branch, 1, topic.getPostCount());
 
         JCUser user = userService.getCurrentUser();
         securityService.createAclBuilder().grant(GeneralPermission.WRITE).to(user).on(topic).flush();
@@ -255,8 +271,10 @@ public class TransactionalTopicModificationService implements TopicModificationS
         }
         Post post = topic.getFirstPost();
         post.updateModificationDate();
+        bbCodeService.renderPost(post);
         this.createOrUpdatePoll(poll, topic);
         dao.saveOrUpdate(topic);
+        searchDao.reindexPosts(topic);
         notificationService.subscribedEntityChanged(topic);
         JCUser currentUser = userService.getCurrentUser();
         subscribeOnTopicIfNotificationsEnabled(topic, currentUser);
@@ -345,6 +363,7 @@ public class TransactionalTopicModificationService implements TopicModificationS
 
         branch.deleteTopic(topic);
         branchDao.saveOrUpdate(branch);
+        branchDao.adjustCounts(branch, -1, -topic.getPostCount());
 
         if (branchLastPostFromDeletedTopic) {
             branchLastPostService.refreshLastPostInBranch(branch);
@@ -361,9 +380,13 @@ public class TransactionalTopicModificationService implements TopicModificationS
     @Override
     public void moveTopic(Topic topic, Long branchId) throws NotFoundException {
         Branch sourceBranch = topic.getBranch();
+        // topic isn't removed from the source branch, it would be deleted as an orphan
+        branchDao.adjustCounts(sourceBranch, -1, -topic.getPostCount());
         Branch targetBranch = branchDao.get(branchId);
         targetBranch.addTopic(topic);
         branchDao.saveOrUpdate(targetBranch);
+        branchDao.adjustCounts(targetBranch, 1, topic.getPostCount());
+        searchDao.reindexPosts(topic);
 
         List<Post> topicPosts = topic.getPosts();
         if (topicPosts.contains(sourceBranch.getLastPost())) {
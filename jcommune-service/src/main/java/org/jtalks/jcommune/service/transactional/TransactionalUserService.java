@@ -24,6 +24,7 @@ import org.jtalks.common.security.SecurityService;
 import org.jtalks.common.service.security.SecurityContextHolderFacade;
 import org.jtalks.jcommune.model.dao.PostDao;
 import org.jtalks.jcommune.model.dao.UserDao;
+import org.jtalks.jcommune.model.dao.UsernamesIndex;
 import org.jtalks.jcommune.model.entity.AnonymousUser;
 import org.jtalks.jcommune.model.entity.JCUser;
 import org.jtalks.jcommune.model.entity.Post;
@@ -43,6 +44,8 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.web.authentication.RememberMeServices;
 import org.springframework.security.web.authentication.session.SessionAuthenticationStrategy;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -75,6 +78,8 @@ public class TransactionalUserService extends AbstractTransactionalEntityService
     private RememberMeServices rememberMeServices;
     private SessionAuthenticationStrategy sessionStrategy;
     private final PostDao postDao;
+    private final UsernamesIndex usernamesIndex;
+    private final MentionedUsersCache mentionedUsersCache;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TransactionalUserService.class);
 
@@ -95,6 +100,9 @@ public class TransactionalUserService extends AbstractTransactionalEntityService
      * @param sessionStrategy   used in login logic to call onAuthentication hook
      *                          which stored this user to online uses list.
      * @param postDao           for operations with posts
+     * @param usernamesIndex    to find usernames for the autocomplete, kept current on activation
+     *                          and deletion of users
+     * @param mentionedUsersCache users mentioned in posts, shared by all the posts
      */
     public TransactionalUserService(UserDao dao, 
                                     GroupDao groupDao,
@@ -107,7 +115,9 @@ public class TransactionalUserService extends AbstractTransactionalEntityService
                                     SecurityContextHolderFacade securityFacade,
                                     RememberMeServices rememberMeServices,
                                     SessionAuthenticationStrategy sessionStrategy,
-                                    PostDao postDao) {
+                                    PostDao postDao,
+                                    UsernamesIndex usernamesIndex,
+                                    MentionedUsersCache mentionedUsersCache) {
         super(dao);
         this.groupDao = groupDao;
         this.securityService = securityService;
@@ -120,6 +130,8 @@ public class TransactionalUserService extends AbstractTransactionalEntityService
         this.rememberMeServices = rememberMeServices;
         this.sessionStrategy = sessionStrategy;
         this.postDao = postDao;
+        this.usernamesIndex = usernamesIndex;
+        this.mentionedUsersCache = mentionedUsersCache;
     }
 
     /**
@@ -156,12 +168,7 @@ public class TransactionalUserService extends AbstractTransactionalEntityService
     @Override
     public List<String> getUsernames(String pattern){
         int usernameCount = 10;
-        List<JCUser> users = getDao().getUsernames(pattern, usernameCount);
-        List<String> usernames = new ArrayList<String>();
-        for(JCUser user : users){
-            usernames.add(user.getUsername());
-        }
-        return usernames;
+        return usernamesIndex.getUsernames(pattern, usernameCount);
     }
 
     /**
@@ -176,6 +183,7 @@ public class TransactionalUserService extends AbstractTransactionalEntityService
         user.setRegistrationDate(new DateTime());
         user.setAvatar(avatarService.getDefaultImage());
         this.getDao().saveOrUpdate(user);
+        invalidateMentionedUser(user.getUsername());
         mailService.sendAccountActivationMail(user);
         LOGGER.info("JCUser registered: {}", user.getUsername());
 
@@ -271,6 +279,26 @@ public class TransactionalUserService extends AbstractTransactionalEntityService
             
             user.setEnabled(true);
             this.getDao().saveOrUpdate(user);
+            usernamesIndex.add(user.getUsername());
+        }
+    }
+
+    /**
+     * Removes the username from the cache of mentioned users. Posts rendered concurrently
+     * may cache it again before the transaction is committed, so it's removed once more
+     * after the transaction is completed.
+     *
+     * @param username username of registered or deleted user
+     */
+    private void invalidateMentionedUser(final String username) {
+        mentionedUsersCache.invalidate(username);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    mentionedUsersCache.invalidate(username);
+                }
+            });
         }
     }
 
@@ -285,6 +313,8 @@ public class TransactionalUserService extends AbstractTransactionalEntityService
             Period period = new Period(user.getRegistrationDate(), today);
             if (period.getDays() > 0) {
                 this.getDao().delete(user);
+                usernamesIndex.remove(user.getUsername());
+                invalidateMentionedUser(user.getUsername());
             }
         }
     }
@@ -354,7 +384,21 @@ public class TransactionalUserService extends AbstractTransactionalEntityService
     @Override
     public String processUserBbCodesInPost(String postContent) {
         MentionedUsers mentionedUsers = MentionedUsers.parse(postContent);
-        return mentionedUsers.getTextWithProcessedUserTags(getDao());
+        return mentionedUsers.getTextWithProcessedUserTags(getDao(), mentionedUsersCache);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cacheMentionedUsers(List<Post> posts) {
+        List<String> postContents = new ArrayList<String>();
+        for (Post post : posts) {
+            if (post.getRenderedVersion() != BBCodeService.RENDERER_VERSION) {
+                postContents.add(post.getPostContent());
+            }
+        }
+        MentionedUsers.cacheMentionedUsers(postContents, getDao(), mentionedUsersCache);
     }
 
     /**
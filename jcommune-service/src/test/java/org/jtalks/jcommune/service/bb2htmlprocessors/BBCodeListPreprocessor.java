@@ -23,12 +23,16 @@ import ru.perm.kefir.bbcode.TextProcessor;
 /**
  * Preprocessor for bb2html encoding which replaces all list items like [*]
  * with [*]...[/*] tags. This allows create formatted text in list items. 
+ * <p/>
+ * Replaced by {@link BbCodeTagsProcessor}, it's kept as the reference its output is compared with.
  * @author Vyacheslav Mishcheryakov
  *
  */
 public class BBCodeListPreprocessor implements TextProcessor {
 
-    private static final String BBLIST_PATTERN = "(\\[list[\\]|=?\\]])(.*?)(\\[/list\\])";
+    private static final Pattern BBLIST_PATTERN =
+            Pattern.compile("(\\[list[\\]|=?\\]])(.*?)(\\[/list\\])", Pattern.DOTALL);
+    private static final String LIST_OPEN_TAG_START = "[list";
     private static final String LIST_ITEM_OPEN_TAG = "[*]";
     private static final String LIST_ITEM_CLOSE_TAG = "[/*]";
     
@@ -47,14 +51,16 @@ public class BBCodeListPreprocessor implements TextProcessor {
      * @return processed text
      */
     private StringBuilder preprocessLists(String bbEncodedText) {
-        Pattern pattern = Pattern.compile(BBLIST_PATTERN, Pattern.DOTALL);
-        Matcher matcher = pattern.matcher(bbEncodedText);
+        if (!bbEncodedText.contains(LIST_OPEN_TAG_START)) {
+            return new StringBuilder(bbEncodedText);
+        }
+        Matcher matcher = BBLIST_PATTERN.matcher(bbEncodedText);
 
-        StringBuilder result = new StringBuilder();
+        StringBuilder result = new StringBuilder(bbEncodedText.length());
         int lastEnd = 0;
         while (matcher.find())
         {
-            result.append(bbEncodedText.substring(lastEnd, matcher.start()));
+            result.append(bbEncodedText, lastEnd, matcher.start());
             result.append(matcher.group(1));
             String listItems = matcher.group(2);
             result.append(preprocessListItems(listItems));
@@ -62,7 +68,7 @@ public class BBCodeListPreprocessor implements TextProcessor {
             lastEnd = matcher.end();
         }
         
-        result.append(bbEncodedText.substring(lastEnd, bbEncodedText.length()));
+        result.append(bbEncodedText, lastEnd, bbEncodedText.length());
         
         return result;
      }
@@ -21,6 +21,8 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.StringWriter;
 
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.assertEquals;
@@ -55,6 +57,25 @@ public class BBForeignLinksPostprocessorTest {
         assertEquals(service.postProcess(incomingText), outcomingText);
     }
 
+    @Test(dataProvider = "preProcessingCommonLinks")
+    public void postprocessorShouldWriteTextWithNofollowAttributeToOutput(String incomingText, String outcomingText)
+            throws IOException {
+        when(request.getServerName()).thenReturn("javatalks.ru");
+        StringWriter out = new StringWriter();
+
+        service.postProcess("text " + incomingText + " text", out);
+
+        assertEquals(out.toString(), "text " + outcomingText + " text");
+    }
+
+    @Test
+    public void textWithoutLinksShouldBeReturnedWithoutLookingAtRequest() {
+        String text = "<span class=\"highlight\">a href=\"example.ru\"</span>";
+
+        assertEquals(service.postProcess(text), text);
+        verify(service, never()).getServletRequest();
+    }
+
     @DataProvider
     public Object[][] preProcessingCommonLinks() {
         return new Object[][]{  // {"incoming link (before)", "outcoming link (after)"}
@@ -26,6 +26,8 @@ import ru.perm.kefir.bbcode.TextProcessor;
 import ru.perm.kefir.bbcode.TextProcessorAdapter;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -41,6 +43,7 @@ import java.util.regex.Pattern;
  * means that internal [-code] is user input and not the work of our pre-processor [/code]</li> <li>In the {@link
  * #postProcess(String)} we find this attribute and we know what second [-code] should be replaced back to [/code]</li>
  * </ul>
+ * Replaced by {@link BbCodeTagsProcessor}, it's kept as the reference its output is compared with.
  *
  * @author Evgeny Kapinos
  * @see <a href="http://jira.jtalks.org/browse/JC-1261">JIRA</a> for high-level details.
@@ -50,6 +53,16 @@ public class BbCodeReviewProcessor extends TextProcessorAdapter implements TextP
 
     private static final String CODE_JAVA_BBCODE_END_REPLACEMENT = "[-code]";
     private static final String CODE_JAVA_BBCODE_END_REPLACEMENT_PATTERN = "\\[-code\\]";
+    /** We use Pattern.DOTALL flag for extend ".*" pattern behavior to line terminators too */
+    private static final Pattern CODE_REVIEW_PATTERN = Pattern.compile(
+            TopicModificationService.CODE_JAVA_BBCODE_START_PATTERN + ".*"
+                    + TopicModificationService.CODE_JAVA_BBCODE_END_PATTERN, Pattern.DOTALL);
+    private static final Pattern CODE_END_PATTERN = Pattern.compile(
+            TopicModificationService.CODE_JAVA_BBCODE_END_PATTERN);
+    private static final Pattern CODE_END_OR_REPLACEMENT_PATTERN = Pattern.compile(
+            TopicModificationService.CODE_JAVA_BBCODE_END_PATTERN + "|" + CODE_JAVA_BBCODE_END_REPLACEMENT_PATTERN);
+    private static final Pattern CODE_END_REPLACEMENT_PATTERN = Pattern.compile(
+            CODE_JAVA_BBCODE_END_REPLACEMENT_PATTERN);
     /**
      * This is an attribute in the http request which contains a list of bb-codes that should or should not be replaced
      * back.
@@ -120,6 +133,14 @@ public class BbCodeReviewProcessor extends TextProcessorAdapter implements TextP
         return removeTemporaryReplacementSubstitutionFromDecodedText(bbDecodedText, replaceHistoryList);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void postProcess(String bbDecodedText, Writer out) throws IOException {
+        out.write(postProcess(bbDecodedText));
+    }
+
     /**
      * Gets current request
      *
@@ -147,10 +168,7 @@ public class BbCodeReviewProcessor extends TextProcessorAdapter implements TextP
      * @return {@code true, false}
      */
     private boolean isValidCodeReviewBbCodeString(String bbEncodedText) {
-        // We use Pattern.DOTALL flag for extend ".*" pattern behavior to line terminators too 
-        Pattern pattern = Pattern.compile(TopicModificationService.CODE_JAVA_BBCODE_START_PATTERN + ".*"
-                + TopicModificationService.CODE_JAVA_BBCODE_END_PATTERN, Pattern.DOTALL); 
-        Matcher matcher = pattern.matcher(bbEncodedText);
+        Matcher matcher = CODE_REVIEW_PATTERN.matcher(bbEncodedText);
         if (!matcher.matches()) {
             logger.warn("BbCodeReviewProcessor called, but target encoded text \"" + bbEncodedText
                     + "\" doesn't wrapped with " + TopicModificationService.CODE_JAVA_BBCODE_START + "..."
@@ -182,9 +200,7 @@ public class BbCodeReviewProcessor extends TextProcessorAdapter implements TextP
 
         List<Boolean> replaceHistoryList = new ArrayList<Boolean>();
 
-        Pattern pattern = Pattern.compile(TopicModificationService.CODE_JAVA_BBCODE_END_PATTERN + "|"
-                + CODE_JAVA_BBCODE_END_REPLACEMENT_PATTERN);
-        Matcher matcher = pattern.matcher(textOnly);
+        Matcher matcher = CODE_END_OR_REPLACEMENT_PATTERN.matcher(textOnly);
         while (matcher.find()) {
             replaceHistoryList.add(matcher.group().equals(TopicModificationService.CODE_JAVA_BBCODE_END));
         }
@@ -198,8 +214,8 @@ public class BbCodeReviewProcessor extends TextProcessorAdapter implements TextP
      */
     private String substituteCloseCodeTagsWithTemporaryReplacementInEncodedText(String bbEncodedText) {
         return TopicModificationService.CODE_JAVA_BBCODE_START
-                + getUserCodeReviewText(bbEncodedText).replaceAll(TopicModificationService.CODE_JAVA_BBCODE_END_PATTERN,
-                CODE_JAVA_BBCODE_END_REPLACEMENT)
+                + CODE_END_PATTERN.matcher(getUserCodeReviewText(bbEncodedText))
+                        .replaceAll(Matcher.quoteReplacement(CODE_JAVA_BBCODE_END_REPLACEMENT))
                 + TopicModificationService.CODE_JAVA_BBCODE_END;
     }
 
@@ -216,8 +232,7 @@ public class BbCodeReviewProcessor extends TextProcessorAdapter implements TextP
     private String removeTemporaryReplacementSubstitutionFromDecodedText(String bbDecodedText,
                                                                          List<Boolean> replaceHistoryList) {
         int index = 0;
-        Pattern pattern = Pattern.compile(CODE_JAVA_BBCODE_END_REPLACEMENT_PATTERN);
-        Matcher matcher = pattern.matcher(bbDecodedText);
+        Matcher matcher = CODE_END_REPLACEMENT_PATTERN.matcher(bbDecodedText);
         StringBuffer sb = new StringBuffer();
         try {
             while (matcher.find()) {
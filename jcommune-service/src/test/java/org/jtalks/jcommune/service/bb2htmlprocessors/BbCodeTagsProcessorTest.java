@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.bb2htmlprocessors;
+
+import org.jtalks.jcommune.service.nontransactional.BBCodeService;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import ru.perm.kefir.bbcode.TextProcessor;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class BbCodeTagsProcessorTest {
+    private BbCodeTagsProcessor processor;
+    private MockHttpServletRequest request;
+
+    @BeforeMethod
+    public void setUp() {
+        processor = new BbCodeTagsProcessor();
+        request = new MockHttpServletRequest();
+        RequestContextHolder.setRequestAttributes(new ServletWebRequest(request));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    public void listItemsShouldBeClosed() {
+        assertEquals(processor.process("aaa[list=1][*]bbb[*]ccc[/list]ddd[list][*]eee[/list]"),
+                "aaa[list=1][*]bbb[/*][*]ccc[/*][/list]ddd[list][*]eee[/*][/list]");
+    }
+
+    @Test
+    public void listItemsShouldBeClosedInCharSequence() {
+        String bbCode = "[list][*]aaa[*]bbb[/list]";
+
+        CharSequence result = processor.process(new StringBuilder(bbCode).subSequence(0, bbCode.length()));
+
+        assertEquals(result.toString(), "[list][*]aaa[/*][*]bbb[/*][/list]");
+    }
+
+    @Test
+    public void textWithoutListsShouldBeReturnedAsIs() {
+        String bbCode = "aaa[b]bbb[/b][*]ccc";
+
+        assertEquals(processor.process(bbCode), bbCode);
+    }
+
+    @Test
+    public void closingCodeTagsOfUserShouldBeReplacedInCodeReview() {
+        request.setAttribute("isCodeReviewPost", "true");
+
+        assertEquals(processor.process("[code=java][code=js]int good=2;[/code][-code][/code]"),
+                "[code=java][code=js]int good=2;[-code][-code][/code]");
+        assertEquals(request.getAttribute(BbCodeTagsProcessor.REPLACE_HISTORY_LIST_ATTRIBUTE),
+                Arrays.asList(true, false));
+    }
+
+    @Test
+    public void closingCodeTagsShouldNotBeReplacedInRegularPost() {
+        String bbCode = "[code=java]int good=2;[/code][/code]";
+
+        assertEquals(processor.process(bbCode), bbCode);
+        assertNull(request.getAttribute(BbCodeTagsProcessor.REPLACE_HISTORY_LIST_ATTRIBUTE));
+    }
+
+    @Test
+    public void postprocessorShouldReturnBackOnlyReplacedClosingCodeTags() {
+        request.setAttribute("isCodeReviewPost", "true");
+        request.setAttribute(BbCodeTagsProcessor.REPLACE_HISTORY_LIST_ATTRIBUTE, Arrays.asList(true, false, true));
+
+        assertEquals(processor.postProcess("<pre>int good=2;[-code][-code][-code]</pre>"),
+                "<pre>int good=2;[/code][-code][/code]</pre>");
+        assertNull(request.getAttribute(BbCodeTagsProcessor.REPLACE_HISTORY_LIST_ATTRIBUTE));
+    }
+
+    @Test
+    public void postprocessorShouldNotChangeTextWithUnexpectedReplacements() {
+        request.setAttribute("isCodeReviewPost", "true");
+        request.setAttribute(BbCodeTagsProcessor.REPLACE_HISTORY_LIST_ATTRIBUTE, Arrays.asList(true));
+        String html = "<pre>[-code][-code]</pre>";
+
+        assertEquals(processor.postProcess(html), html);
+    }
+
+    @Test(dataProvider = "corpus")
+    public void htmlShouldBeTheSameAsRenderedByRegularExpressions(String bbCode) {
+        assertEquals(createService().convertBbToHtml(bbCode),
+                createReferenceService().convertBbToHtml(bbCode));
+    }
+
+    @Test(dataProvider = "corpus")
+    public void codeReviewHtmlShouldBeTheSameAsRenderedByRegularExpressions(String bbCode) {
+        request.setAttribute("isCodeReviewPost", "true");
+        String codeReview = "[code=java]" + bbCode + "[/code]";
+
+        assertEquals(createService().convertBbToHtml(codeReview),
+                createReferenceService().convertBbToHtml(codeReview));
+    }
+
+    private BBCodeService createService() {
+        BbCodeTagsProcessor tagsProcessor = new BbCodeTagsProcessor();
+        BBCodeService service = new BBCodeService();
+        service.setPreprocessors(Collections.<TextProcessor>singletonList(tagsProcessor));
+        service.setPostprocessors(Collections.<TextPostProcessor>singletonList(tagsProcessor));
+        service.setRequestPostprocessors(Collections.<TextPostProcessor>singletonList(
+                new BBForeignLinksPostprocessor()));
+        return service;
+    }
+
+    /**
+     * Creates the service with processors which prepared tags by regular expressions before they were replaced
+     * by {@link BbCodeTagsProcessor}.
+     */
+    private BBCodeService createReferenceService() {
+        BbCodeReviewProcessor codeReviewProcessor = new BbCodeReviewProcessor();
+        BBCodeService service = new BBCodeService();
+        service.setPreprocessors(Arrays.<TextProcessor>asList(new BBCodeListPreprocessor(), codeReviewProcessor));
+        service.setPostprocessors(Collections.<TextPostProcessor>singletonList(codeReviewProcessor));
+        service.setRequestPostprocessors(Collections.<TextPostProcessor>singletonList(
+                new BBForeignLinksPostprocessor()));
+        return service;
+    }
+
+    @DataProvider
+    public Object[][] corpus() {
+        return new Object[][]{
+                {""},
+                {"plain text without tags"},
+                {"[b]bold[/b] [i]italic[/i] [u]underlined[/u] [s]striked[/s]"},
+                {"[list][*]aaa[*]bbb[/list]"},
+                {"aaa[list=1][*][b]bbb[/b][*][padding=10]ccc[/padding][/list]ddd"},
+                {"[list=a]\n[*]first\n[*]second\n[/list]\n[list]\n[*]third\n[/list]"},
+                {"[list][*]outer[list][*]inner[/list][*]tail[/list]"},
+                {"[list][*]not closed list"},
+                {"[list]no items[/list]"},
+                {"[list][/list][list]"},
+                {"[*]item outside of list[list][*]item[/list][*]"},
+                {"[list"},
+                {"[listing][*]not a list[/list]"},
+                {"[LIST][*]upper case[/LIST]"},
+                {"[code]int a = 1;[/code]"},
+                {"[code=java]int a = 1;[/code][/code]"},
+                {"[code=java]if (a[i] > b[j]) {[-code]}[/code]"},
+                {"[code=js][list][*]code[/list][/code]"},
+                {"[quote=\"user\"][list][*]quoted[*]list[/list][/quote]"},
+                {"[url=http://example.com]foreign[/url] [url]http://localhost/topics/1[/url]"},
+                {"[img]http://example.com/image.png[/img][url=/topics/1]local[/url]"},
+                {"[[[]]] [/] [-code] [/code] [ list] [list ]"},
+                {"[size=20][color=ff0000]Текст[/color][/size]\n\nпо-русски"},
+                {"[spoiler][list=1][*][code=java]x[/code][*][/spoiler][/list]"},
+                {"<a href=\"http://example.com\">not a tag</a> & < > \""}
+        };
+    }
+}
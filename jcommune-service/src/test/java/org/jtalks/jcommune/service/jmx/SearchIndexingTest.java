@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.jmx;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.search.backend.BackendQueueProcessorFactory;
+import org.jtalks.jcommune.model.search.AsyncIndexingBackend;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+public class SearchIndexingTest {
+    private SearchIndexing sut;
+
+    @BeforeMethod
+    public void initSut() {
+        sut = spy(new SearchIndexing(mock(SessionFactory.class)));
+    }
+
+    @Test
+    public void statisticsShouldBeTakenFromAsyncBackend() {
+        AsyncIndexingBackend backend = mock(AsyncIndexingBackend.class);
+        when(backend.getConsistency()).thenReturn(AsyncIndexingBackend.Consistency.AUTHOR);
+        when(backend.getQueuedWorks()).thenReturn(10);
+        when(backend.getLagMillis()).thenReturn(200L);
+        when(backend.getCommits()).thenReturn(3L);
+        when(backend.getAverageCommitMillis()).thenReturn(40L);
+        doReturn(backend).when(sut).getBackend();
+
+        assertEquals(sut.getMode(), "AUTHOR");
+        assertEquals(sut.getQueuedWorks(), 10);
+        assertEquals(sut.getLagMillis(), 200L);
+        assertEquals(sut.getCommits(), 3L);
+        assertEquals(sut.getAverageCommitMillis(), 40L);
+    }
+
+    @Test
+    public void statisticsShouldBeZerosForSynchronousBackend() {
+        doReturn(mock(BackendQueueProcessorFactory.class)).when(sut).getBackend();
+
+        assertEquals(sut.getMode(), "synchronous");
+        assertEquals(sut.getQueuedWorks(), 0);
+        assertEquals(sut.getLagMillis(), 0L);
+        assertEquals(sut.getMaxCommitMillis(), 0L);
+    }
+}
@@ -14,12 +14,26 @@
  */
 package org.jtalks.jcommune.service.nontransactional;
 
+import org.joda.time.DateTimeUtils;
 import org.jtalks.jcommune.model.entity.JCUser;
+import org.jtalks.jcommune.model.entity.Post;
+import org.jtalks.jcommune.model.entity.PrivateMessage;
+import org.jtalks.jcommune.service.bb2htmlprocessors.TextPostProcessor;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 
 /**
  * @author Evgeniy Naumenko
@@ -49,6 +63,167 @@ public class BBCodeServiceTest {
         assertEquals(service.removeBBCodes(incoming), expected);
     }
 
+    @Test
+    public void renderedPostShouldBeTakenFromCache() {
+        RenderedHtmlCache cache = new RenderedHtmlCache(1000);
+        service.setRenderedHtmlCache(cache);
+        Post post = new Post(USER, "[b]Bold text[/b]");
+        post.setId(1L);
+
+        String html = service.convertPostToHtml(post, "jtalks.org");
+
+        assertEquals(html, "<span style=\"font-weight:bold;\">Bold text</span>");
+        assertSame(service.convertPostToHtml(post, "jtalks.org"), html);
+        assertEquals(cache.getHits(), 1);
+        assertEquals(cache.getMisses(), 1);
+    }
+
+    @Test
+    public void modifiedPostShouldBeRenderedAgain() {
+        service.setRenderedHtmlCache(new RenderedHtmlCache(1000));
+        Post post = new Post(USER, "[b]Bold text[/b]");
+        post.setId(1L);
+        service.convertPostToHtml(post, "jtalks.org");
+
+        post.setPostContent("[i]Italic text[/i]");
+        DateTimeUtils.setCurrentMillisFixed(post.getCreationDate().plusMinutes(1).getMillis());
+        try {
+            post.updateModificationDate();
+        } finally {
+            DateTimeUtils.setCurrentMillisSystem();
+        }
+
+        assertEquals(service.convertPostToHtml(post, "jtalks.org"),
+                "<span style=\"font-style:italic;\">Italic text</span>");
+    }
+
+    @Test
+    public void postShouldBeRenderedWithoutCache() {
+        Post post = new Post(USER, "[b]Bold text[/b]");
+
+        assertEquals(service.convertPostToHtml(post, "jtalks.org"),
+                "<span style=\"font-weight:bold;\">Bold text</span>");
+    }
+
+    @Test
+    public void storedHtmlShouldBeShownForPostRenderedByCurrentRenderer() {
+        Post post = new Post(USER, "[b]Bold text[/b]");
+        post.setRenderedContent("stored");
+        post.setRenderedVersion(BBCodeService.RENDERER_VERSION);
+
+        assertEquals(service.convertPostToHtml(post, "jtalks.org"), "stored");
+    }
+
+    @Test
+    public void postRenderedByOlderRendererShouldBeQueuedToBeStored() {
+        PendingRenderedPosts pendingRenderedPosts = new PendingRenderedPosts(10);
+        service.setPendingRenderedPosts(pendingRenderedPosts);
+        Post post = new Post(USER, "[b]Bold text[/b]");
+        post.setId(1L);
+        post.setRenderedContent("outdated");
+        post.setRenderedVersion(BBCodeService.RENDERER_VERSION - 1);
+
+        String html = service.convertPostToHtml(post, "jtalks.org");
+
+        assertEquals(html, "<span style=\"font-weight:bold;\">Bold text</span>");
+        assertEquals(pendingRenderedPosts.drain(), Collections.singletonMap(1L, html));
+    }
+
+    @Test
+    public void requestPostprocessorsShouldBeAppliedToStoredHtml() {
+        TextPostProcessor postprocessor = mock(TextPostProcessor.class);
+        when(postprocessor.postProcess("stored")).thenReturn("processed");
+        service.setRequestPostprocessors(Collections.singletonList(postprocessor));
+        Post post = new Post(USER, "[b]Bold text[/b]");
+        post.setRenderedContent("stored");
+        post.setRenderedVersion(BBCodeService.RENDERER_VERSION);
+
+        assertEquals(service.convertPostToHtml(post, "jtalks.org"), "processed");
+    }
+
+    @Test
+    public void lastRequestPostprocessorShouldWriteHtmlToOutput() throws IOException {
+        TextPostProcessor first = mock(TextPostProcessor.class);
+        TextPostProcessor last = mock(TextPostProcessor.class);
+        when(first.postProcess("stored")).thenReturn("processed");
+        service.setRequestPostprocessors(Arrays.asList(first, last));
+        PrivateMessage message = new PrivateMessage(USER, USER, "title", "[b]Bold text[/b]");
+        message.setRenderedBody("stored");
+        message.setRenderedVersion(BBCodeService.RENDERER_VERSION);
+        Writer out = new StringWriter();
+
+        service.writePrivateMessageAsHtml(message, out);
+
+        verify(last).postProcess("processed", out);
+    }
+
+    @Test
+    public void htmlShouldBeWrittenToOutputWithoutPostprocessors() throws IOException {
+        StringWriter out = new StringWriter();
+
+        service.writeBbAsHtml("[b]Bold text[/b]", out);
+
+        assertEquals(out.toString(), "<span style=\"font-weight:bold;\">Bold text</span>");
+    }
+
+    @Test
+    public void cachedHtmlOfPostShouldBeWrittenToOutput() throws IOException {
+        service.setRenderedHtmlCache(new RenderedHtmlCache(1000));
+        Post post = new Post(USER, "[b]Bold text[/b]");
+        post.setRenderedContent("stored");
+        post.setRenderedVersion(BBCodeService.RENDERER_VERSION);
+        StringWriter out = new StringWriter();
+
+        service.writePostAsHtml(post, "jtalks.org", out);
+        service.writePostAsHtml(post, "jtalks.org", out);
+
+        assertEquals(out.toString(), "storedstored");
+    }
+
+    @Test
+    public void renderedPostShouldBeStampedWithRendererVersion() {
+        Post post = new Post(USER, "[b]Bold text[/b]");
+
+        service.renderPost(post);
+
+        assertEquals(post.getRenderedContent(), "<span style=\"font-weight:bold;\">Bold text</span>");
+        assertEquals(post.getRenderedVersion(), BBCodeService.RENDERER_VERSION);
+    }
+
+    @Test
+    public void storedHtmlShouldBeShownForPrivateMessage() {
+        PrivateMessage message = new PrivateMessage(USER, USER, "title", "[b]Bold text[/b]");
+        service.renderPrivateMessage(message);
+        message.setBody("changed without rendering");
+
+        assertEquals(service.convertPrivateMessageToHtml(message),
+                "<span style=\"font-weight:bold;\">Bold text</span>");
+    }
+
+    @Test
+    public void privateMessageRenderedByOlderRendererShouldBeRenderedAgain() {
+        PrivateMessage message = new PrivateMessage(USER, USER, "title", "[b]Bold text[/b]");
+        message.setRenderedBody("outdated");
+        message.setRenderedVersion(BBCodeService.RENDERER_VERSION - 1);
+
+        assertEquals(service.convertPrivateMessageToHtml(message),
+                "<span style=\"font-weight:bold;\">Bold text</span>");
+    }
+
+    @Test
+    public void privateMessageRenderedAgainShouldBeQueuedToBeStored() {
+        PendingRenderedPosts pendingRenderedMessages = new PendingRenderedPosts(10);
+        service.setPendingRenderedMessages(pendingRenderedMessages);
+        PrivateMessage message = new PrivateMessage(USER, USER, "title", "[b]Bold text[/b]");
+        message.setId(1L);
+        message.setRenderedBody("outdated");
+        message.setRenderedVersion(BBCodeService.RENDERER_VERSION - 1);
+
+        String html = service.convertPrivateMessageToHtml(message);
+
+        assertEquals(pendingRenderedMessages.drain(), Collections.singletonMap(1L, html));
+    }
+
     @Test(dataProvider = "validBBCodes")
     public void testBBCodeConversion(String bbCode, String expectedResult) {
         assertEquals(service.convertBbToHtml(bbCode), expectedResult);
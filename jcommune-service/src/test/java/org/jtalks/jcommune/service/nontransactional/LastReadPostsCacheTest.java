@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.nontransactional;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+public class LastReadPostsCacheTest {
+    private static final long USER_ID = 1L;
+    private static final long TOPIC_ID = 2L;
+
+    private Ehcache ehcache;
+    private Ehcache marksEhcache;
+    private LastReadPostsCache cache;
+
+    @BeforeMethod
+    public void setUp() {
+        ehcache = mock(Ehcache.class);
+        marksEhcache = mock(Ehcache.class);
+        cache = new LastReadPostsCache(ehcache, marksEhcache);
+    }
+
+    @Test
+    public void getReadIndexesShouldReturnNullForNotLoadedUser() {
+        assertNull(cache.getReadIndexes(USER_ID));
+    }
+
+    @Test
+    public void getReadIndexesShouldReturnCachedIndexes() {
+        Map<Long, Integer> indexes = new HashMap<Long, Integer>();
+        indexes.put(TOPIC_ID, 3);
+        when(ehcache.get(USER_ID)).thenReturn(new Element(USER_ID, indexes));
+
+        assertEquals(cache.getReadIndexes(USER_ID), indexes);
+    }
+
+    @Test
+    public void putReadIndexesShouldCacheSavedIndexes() {
+        Map<Long, Integer> indexes = cache.putReadIndexes(USER_ID, Collections.singletonMap(TOPIC_ID, 3));
+
+        assertEquals(indexes, Collections.singletonMap(TOPIC_ID, 3));
+        verify(ehcache).put(any(Element.class));
+    }
+
+    @Test
+    public void putReadIndexesShouldPreferPendingIndexes() {
+        cache.updateReadIndex(USER_ID, TOPIC_ID, 5);
+
+        Map<Long, Integer> indexes = cache.putReadIndexes(USER_ID, Collections.singletonMap(TOPIC_ID, 3));
+
+        assertEquals(indexes.get(TOPIC_ID), Integer.valueOf(5));
+    }
+
+    @Test
+    public void updateReadIndexShouldChangeCachedIndexes() {
+        Map<Long, Integer> indexes = new HashMap<Long, Integer>();
+        when(ehcache.get(USER_ID)).thenReturn(new Element(USER_ID, indexes));
+
+        cache.updateReadIndex(USER_ID, TOPIC_ID, 5);
+
+        assertEquals(indexes.get(TOPIC_ID), Integer.valueOf(5));
+    }
+
+    @Test
+    public void drainPendingIndexesShouldTakeAllPendingIndexes() {
+        cache.updateReadIndex(USER_ID, TOPIC_ID, 5);
+        cache.updateReadIndex(USER_ID + 1, TOPIC_ID, 6);
+
+        Map<Long, Map<Long, Integer>> drained = cache.drainPendingIndexes();
+
+        assertEquals(drained.size(), 2);
+        assertEquals(drained.get(USER_ID).get(TOPIC_ID), Integer.valueOf(5));
+        assertTrue(cache.drainPendingIndexes().isEmpty());
+    }
+
+    @Test
+    public void drainPendingIndexesOfUserShouldLeaveIndexesOfOtherUsers() {
+        cache.updateReadIndex(USER_ID, TOPIC_ID, 5);
+        cache.updateReadIndex(USER_ID + 1, TOPIC_ID, 6);
+
+        Map<Long, Integer> drained = cache.drainPendingIndexes(USER_ID);
+
+        assertEquals(drained, Collections.singletonMap(TOPIC_ID, 5));
+        assertEquals(cache.drainPendingIndexes().keySet(), Collections.singleton(USER_ID + 1));
+    }
+
+    @Test
+    public void drainPendingIndexesOfUserWithoutChangesShouldReturnEmptyMap() {
+        assertTrue(cache.drainPendingIndexes(USER_ID).isEmpty());
+    }
+
+    @Test
+    public void restorePendingIndexesShouldNotReplaceIndexesChangedAfterDraining() {
+        cache.updateReadIndex(USER_ID, TOPIC_ID, 5);
+        Map<Long, Map<Long, Integer>> drained = cache.drainPendingIndexes();
+        cache.updateReadIndex(USER_ID, TOPIC_ID, 6);
+        Map<Long, Integer> failedIndexes = new HashMap<Long, Integer>(drained.get(USER_ID));
+        failedIndexes.put(TOPIC_ID + 1, 7);
+
+        cache.restorePendingIndexes(Collections.singletonMap(USER_ID, failedIndexes));
+
+        Map<Long, Integer> pending = cache.drainPendingIndexes(USER_ID);
+        assertEquals(pending.get(TOPIC_ID), Integer.valueOf(6));
+        assertEquals(pending.get(TOPIC_ID + 1), Integer.valueOf(7));
+    }
+
+    @Test
+    public void shiftReadIndexesShouldMoveBackIndexesNotBeforeDeletedPost() {
+        Map<Long, Integer> indexes = new HashMap<Long, Integer>();
+        indexes.put(TOPIC_ID, 3);
+        indexes.put(TOPIC_ID + 1, 3);
+        when(ehcache.getKeys()).thenReturn(Arrays.asList(USER_ID, USER_ID + 1));
+        when(ehcache.getQuiet(USER_ID)).thenReturn(new Element(USER_ID, indexes));
+        cache.updateReadIndex(USER_ID + 2, TOPIC_ID, 1);
+
+        cache.shiftReadIndexes(TOPIC_ID, 2);
+
+        assertEquals(indexes.get(TOPIC_ID), Integer.valueOf(2));
+        assertEquals(indexes.get(TOPIC_ID + 1), Integer.valueOf(3));
+        assertEquals(cache.drainPendingIndexes(USER_ID + 2).get(TOPIC_ID), Integer.valueOf(1));
+        verify(ehcache, never()).removeAll();
+    }
+
+    @Test
+    public void getBranchReadMarksShouldReturnNullForNotLoadedUser() {
+        assertNull(cache.getBranchReadMarks(USER_ID));
+    }
+
+    @Test
+    public void putBranchReadMarksShouldCacheSavedMarks() {
+        Map<Long, DateTime> marks = Collections.singletonMap(3L, new DateTime());
+
+        assertEquals(cache.putBranchReadMarks(USER_ID, marks), marks);
+        verify(marksEhcache).put(any(Element.class));
+    }
+
+    @Test
+    public void evictShouldRemoveUserFromCache() {
+        cache.evict(USER_ID);
+
+        verify(ehcache).remove(USER_ID);
+        verify(marksEhcache).remove(USER_ID);
+    }
+}
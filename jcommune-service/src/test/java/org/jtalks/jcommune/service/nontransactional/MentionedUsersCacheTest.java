@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.nontransactional;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class MentionedUsersCacheTest {
+
+    @Test
+    public void getUsersShouldReturnOnlyCachedUsernames() {
+        MentionedUsersCache cache = new MentionedUsersCache(10, 60000);
+        cache.put("Shogun", Collections.singletonMap("Shogun", 100L));
+        cache.put("jk1", Collections.<String, Long>emptyMap());
+
+        Map<String, Map<String, Long>> users = cache.getUsers(Arrays.asList("Shogun", "jk1", "masyan"));
+
+        assertEquals(users.size(), 2);
+        assertEquals(users.get("Shogun"), Collections.singletonMap("Shogun", 100L));
+        assertTrue(users.get("jk1").isEmpty());
+        assertFalse(users.containsKey("masyan"));
+    }
+
+    @Test
+    public void getUsersShouldFindUsernamesInOtherCase() {
+        MentionedUsersCache cache = new MentionedUsersCache(10, 60000);
+        cache.put("Shogun", Collections.singletonMap("Shogun", 100L));
+
+        Map<String, Map<String, Long>> users = cache.getUsers(Arrays.asList("SHOGUN"));
+
+        assertEquals(users.get("SHOGUN"), Collections.singletonMap("Shogun", 100L));
+    }
+
+    @Test
+    public void getUsersShouldNotReturnExpiredUsernames() {
+        MentionedUsersCache cache = new MentionedUsersCache(10, -1);
+        cache.put("Shogun", Collections.<String, Long>emptyMap());
+
+        assertTrue(cache.getUsers(Arrays.asList("Shogun")).isEmpty());
+        assertEquals(cache.getSize(), 0);
+    }
+
+    @Test
+    public void putShouldEvictLeastRecentlyUsedUsername() {
+        MentionedUsersCache cache = new MentionedUsersCache(2, 60000);
+        cache.put("Shogun", Collections.singletonMap("Shogun", 100L));
+        cache.put("jk1", Collections.singletonMap("jk1", 200L));
+        cache.getUsers(Arrays.asList("Shogun"));
+
+        cache.put("masyan", Collections.singletonMap("masyan", 300L));
+
+        assertEquals(cache.getSize(), 2);
+        assertEquals(cache.getUsers(Arrays.asList("Shogun", "jk1", "masyan")).keySet().size(), 2);
+        assertFalse(cache.getUsers(Arrays.asList("jk1")).containsKey("jk1"));
+    }
+
+    @Test
+    public void invalidateShouldRemoveUsernameInAnyCase() {
+        MentionedUsersCache cache = new MentionedUsersCache(10, 60000);
+        cache.put("shogun", Collections.<String, Long>emptyMap());
+
+        cache.invalidate("Shogun");
+
+        assertTrue(cache.getUsers(Arrays.asList("shogun")).isEmpty());
+    }
+}
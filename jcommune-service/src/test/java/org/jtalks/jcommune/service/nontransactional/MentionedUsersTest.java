@@ -56,10 +56,12 @@ public class MentionedUsersTest {
     private UserDao userDao;
     @Mock 
     private PostDao postDao;
+    private MentionedUsersCache mentionedUsersCache;
  
     @BeforeMethod
     public void init() {
         initMocks(this);
+        mentionedUsersCache = new MentionedUsersCache(100, 60000);
     }
     
     @Test
@@ -305,9 +307,9 @@ public class MentionedUsersTest {
         String cyrillicCharsUserNameWithSpaces = "П е т р о в";
 
         JCUser cyrillicCharsUser = getUser(cyrillicCharsUserName, 100L);
-        when(userDao.getByUsername(cyrillicCharsUserName)).thenReturn(cyrillicCharsUser);
         JCUser notifiedMentionedUser = getUser(cyrillicCharsUserNameWithSpaces, 101L);
-        when(userDao.getByUsername(cyrillicCharsUserNameWithSpaces)).thenReturn(notifiedMentionedUser);
+        when(userDao.getByUsernamesIgnoringCase(asSet(cyrillicCharsUserName, cyrillicCharsUserNameWithSpaces)))
+                .thenReturn(asList(cyrillicCharsUser, notifiedMentionedUser));
         //
         String cyrillicCharsUserProfile = "/forum/users/" + cyrillicCharsUser.getId();
         String cyrillicCharsUserWithSpaceProfile = "/forum/users/" + notifiedMentionedUser.getId();
@@ -319,7 +321,7 @@ public class MentionedUsersTest {
                 cyrillicCharsUserProfile, cyrillicCharsUserName,
                 cyrillicCharsUserWithSpaceProfile, cyrillicCharsUserNameWithSpaces);
 
-        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao);
+        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao, mentionedUsersCache);
 
         assertEquals(actualAfterProcess, expectedAfterProcess);
     }
@@ -332,9 +334,9 @@ public class MentionedUsersTest {
         String userNameWithCloseBracket = "yak";
 
         JCUser userWithOpenBracketInName = getUser(userNameWithOpenBracket, 100L);
-        when(userDao.getByUsername(userNameWithOpenBracket)).thenReturn(userWithOpenBracketInName);
         JCUser userWithCloseBracketInName = getUser(userNameWithCloseBracket, 101L);
-        when(userDao.getByUsername(userNameWithCloseBracket)).thenReturn(userWithCloseBracketInName);
+        when(userDao.getByUsernamesIgnoringCase(asSet(userNameWithOpenBracket, userNameWithCloseBracket)))
+                .thenReturn(asList(userWithOpenBracketInName, userWithCloseBracketInName));
         //
         String withOpenBracketUserProfile = "/forum/users/" + userWithOpenBracketInName.getId();
         String withCloseBracketUserProfile = "/forum/users/" + userWithCloseBracketInName.getId();
@@ -346,7 +348,7 @@ public class MentionedUsersTest {
                 withOpenBracketUserProfile, userNameWithOpenBracket,
                 withCloseBracketUserProfile, userNameWithCloseBracket);
 
-        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao);
+        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao, mentionedUsersCache);
 
         assertEquals(actualAfterProcess, expectedAfterProcess);
     }
@@ -359,9 +361,9 @@ public class MentionedUsersTest {
         String userNameWithBackSlash = "\\yak";
 
         JCUser userWithSlashInName = getUser(userNameWithSlash, 100L);
-        when(userDao.getByUsername(userNameWithSlash)).thenReturn(userWithSlashInName);
         JCUser userWithBackSlashInName = getUser(userNameWithBackSlash, 101L);
-        when(userDao.getByUsername(userNameWithBackSlash)).thenReturn(userWithBackSlashInName);
+        when(userDao.getByUsernamesIgnoringCase(asSet(userNameWithSlash, userNameWithBackSlash)))
+                .thenReturn(asList(userWithSlashInName, userWithBackSlashInName));
         //
         String withSlashUserProfile = "/forum/users/" + userWithSlashInName.getId();
         String withBackSlashUserProfile = "/forum/users/" + userWithBackSlashInName.getId();
@@ -373,7 +375,7 @@ public class MentionedUsersTest {
                 withSlashUserProfile, userNameWithSlash,
                 withBackSlashUserProfile, userNameWithBackSlash);
 
-        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao);
+        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao, mentionedUsersCache);
 
         assertEquals(actualAfterProcess, expectedAfterProcess);
     }
@@ -386,9 +388,9 @@ public class MentionedUsersTest {
         String userNameWithGreater = ">yak";
 
         JCUser userWithLowerInName = getUser(userNameWithLower, 100L);
-        when(userDao.getByUsername(userNameWithLower)).thenReturn(userWithLowerInName);
         JCUser userWithGreaterInName = getUser(userNameWithGreater, 101L);
-        when(userDao.getByUsername(userNameWithGreater)).thenReturn(userWithGreaterInName);
+        when(userDao.getByUsernamesIgnoringCase(asSet(userNameWithLower, userNameWithGreater)))
+                .thenReturn(asList(userWithLowerInName, userWithGreaterInName));
         //
         String withLowerUserProfile = "/forum/users/" + userWithLowerInName.getId();
         String withGreaterUserProfile = "/forum/users/" + userWithGreaterInName.getId();
@@ -400,7 +402,7 @@ public class MentionedUsersTest {
                 withLowerUserProfile, userNameWithLower,
                 withGreaterUserProfile, userNameWithGreater);
 
-        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao);
+        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao, mentionedUsersCache);
 
         assertEquals(actualAfterProcess, expectedAfterProcess);
     }
@@ -413,9 +415,9 @@ public class MentionedUsersTest {
         String userNameWithPipeSymbol = "|yak";
 
         JCUser userWithPercentsInName = getUser(userNameWithPercents, 100L);
-        when(userDao.getByUsername(userNameWithPercents)).thenReturn(userWithPercentsInName);
         JCUser userWithPipeSymbolInName = getUser(userNameWithPipeSymbol, 101L);
-        when(userDao.getByUsername(userNameWithPipeSymbol)).thenReturn(userWithPipeSymbolInName);
+        when(userDao.getByUsernamesIgnoringCase(asSet(userNameWithPercents, userNameWithPipeSymbol)))
+                .thenReturn(asList(userWithPercentsInName, userWithPipeSymbolInName));
         //
         String withPercentsUserProfile = "/forum/users/" + userWithPercentsInName.getId();
         String withPipeSymbolUserProfile = "/forum/users/" + userWithPipeSymbolInName.getId();
@@ -427,7 +429,7 @@ public class MentionedUsersTest {
                 withPercentsUserProfile, userNameWithPercents,
                 withPipeSymbolUserProfile, userNameWithPipeSymbol);
 
-        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao);
+        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao, mentionedUsersCache);
 
         assertEquals(actualAfterProcess, expectedAfterProcess);
     }
@@ -440,9 +442,9 @@ public class MentionedUsersTest {
         String cyrillicCharsUserNameWithSpaces = "%D0%9F %D0%B5 %D1%82 %D1%80 %D0%BE %D0%B2";
 
         JCUser cyrillicCharsUser = getUser("Иванов", 100L);
-        when(userDao.getByUsername(cyrillicCharsUser.getUsername())).thenReturn(cyrillicCharsUser);
         JCUser cyrillicCharsWithSpacesUser = getUser("П е т р о в", 101L);
-        when(userDao.getByUsername(cyrillicCharsWithSpacesUser.getUsername())).thenReturn(cyrillicCharsWithSpacesUser);
+        when(userDao.getByUsernamesIgnoringCase(asSet(cyrillicCharsUser.getUsername(), cyrillicCharsWithSpacesUser.getUsername())))
+                .thenReturn(asList(cyrillicCharsUser, cyrillicCharsWithSpacesUser));
         //
         String cyrillicCharsUserProfile = "/forum/users/" + cyrillicCharsUser.getId();
         String cyrillicCharsUserWithSpaceProfile = "/forum/users/" + cyrillicCharsWithSpacesUser.getId();
@@ -454,7 +456,7 @@ public class MentionedUsersTest {
                 cyrillicCharsUserProfile, cyrillicCharsUserName,
                 cyrillicCharsUserWithSpaceProfile, cyrillicCharsUserNameWithSpaces);
 
-        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao);
+        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao, mentionedUsersCache);
 
         assertEquals(actualAfterProcess, expectedAfterProcess);
     }
@@ -467,9 +469,9 @@ public class MentionedUsersTest {
         String userNameWithCloseBracket = "@w0956756wo@yak";
 
         JCUser userWithOpenBracketInName = getUser("[yak", 100L);
-        when(userDao.getByUsername("[yak")).thenReturn(userWithOpenBracketInName);
         JCUser userWithCloseBracketInName = getUser("]yak", 101L);
-        when(userDao.getByUsername("]yak")).thenReturn(userWithCloseBracketInName);
+        when(userDao.getByUsernamesIgnoringCase(asSet("[yak", "]yak")))
+                .thenReturn(asList(userWithOpenBracketInName, userWithCloseBracketInName));
         //
         String withOpenBracketUserProfile = "/forum/users/" + userWithOpenBracketInName.getId();
         String withCloseBracketUserProfile = "/forum/users/" + userWithCloseBracketInName.getId();
@@ -481,7 +483,7 @@ public class MentionedUsersTest {
                 withOpenBracketUserProfile, userNameWithOpenBracket,
                 withCloseBracketUserProfile, userNameWithCloseBracket);
 
-        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao);
+        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao, mentionedUsersCache);
 
         assertEquals(actualAfterProcess, expectedAfterProcess);
     }
@@ -494,9 +496,9 @@ public class MentionedUsersTest {
         String userNameWithGreater = ">yak";
 
         JCUser userWithLowerInName = getUser("<yak", 100L);
-        when(userDao.getByUsername("<yak")).thenReturn(userWithLowerInName);
         JCUser userWithGreaterInName = getUser(">yak", 101L);
-        when(userDao.getByUsername(">yak")).thenReturn(userWithGreaterInName);
+        when(userDao.getByUsernamesIgnoringCase(asSet("<yak", ">yak")))
+                .thenReturn(asList(userWithLowerInName, userWithGreaterInName));
         //
         String withLowerUserProfile = "/forum/users/" + userWithLowerInName.getId();
         String withGreaterUserProfile = "/forum/users/" + userWithGreaterInName.getId();
@@ -508,7 +510,7 @@ public class MentionedUsersTest {
                 withLowerUserProfile, userNameWithLower,
                 withGreaterUserProfile, userNameWithGreater);
 
-        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao);
+        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao, mentionedUsersCache);
 
         assertEquals(actualAfterProcess, expectedAfterProcess);
     }
@@ -521,9 +523,9 @@ public class MentionedUsersTest {
         String userNameWithBackSlash = "14@123435vggv4fyak";
 
         JCUser userWithSlashInName = getUser(userNameWithSlash, 100L);
-        when(userDao.getByUsername(userNameWithSlash)).thenReturn(userWithSlashInName);
         JCUser userWithBackSlashInName = getUser("\\yak", 101L);
-        when(userDao.getByUsername("\\yak")).thenReturn(userWithBackSlashInName);
+        when(userDao.getByUsernamesIgnoringCase(asSet(userNameWithSlash, "\\yak")))
+                .thenReturn(asList(userWithSlashInName, userWithBackSlashInName));
         //
         String withSlashUserProfile = "/forum/users/" + userWithSlashInName.getId();
         String withBackSlashUserProfile = "/forum/users/" + userWithBackSlashInName.getId();
@@ -535,8 +537,85 @@ public class MentionedUsersTest {
                 withSlashUserProfile, userNameWithSlash,
                 withBackSlashUserProfile, userNameWithBackSlash);
 
-        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao);
+        String actualAfterProcess = mentionedUsers.getTextWithProcessedUserTags(userDao, mentionedUsersCache);
 
         assertEquals(actualAfterProcess, expectedAfterProcess);
     }
+
+    @Test
+    public void processShouldTakeCachedUsersWithoutQueries() {
+        setupRequestAttributes();
+        when(userDao.getByUsernamesIgnoringCase(asSet("Shogun", "jk1"))).thenReturn(asList(getUser("Shogun", 100L)));
+        MentionedUsers.cacheMentionedUsers(asList("[user]Shogun[/user]", "[user]jk1[/user]"),
+                userDao, mentionedUsersCache);
+
+        String actualAfterProcess = MentionedUsers.parse(format(MENTIONING_TEMPLATE, "Shogun", "jk1"))
+                .getTextWithProcessedUserTags(userDao, mentionedUsersCache);
+
+        assertEquals(actualAfterProcess, "This post contains not notified [user=/forum/users/100]Shogun[/user] " +
+                "mentioning and notified jk1 mentioning");
+        verify(userDao).getByUsernamesIgnoringCase(anySetOf(String.class));
+        verify(userDao, never()).getByUsername(anyString());
+    }
+
+    @Test
+    public void processShouldLinkUsersMentionedWithOtherCaseOfUsername() {
+        setupRequestAttributes();
+        when(userDao.getByUsernamesIgnoringCase(asSet("shogun"))).thenReturn(asList(getUser("Shogun", 100L)));
+
+        String actualAfterProcess = MentionedUsers.parse("[user]shogun[/user]")
+                .getTextWithProcessedUserTags(userDao, mentionedUsersCache);
+
+        assertEquals(actualAfterProcess, "[user=/forum/users/100]shogun[/user]");
+    }
+
+    @Test
+    public void processShouldPreferUserWithExactlyTheSameCaseOfUsername() {
+        setupRequestAttributes();
+        when(userDao.getByUsernamesIgnoringCase(asSet("Shogun", "shogun")))
+                .thenReturn(asList(getUser("shogun", 200L), getUser("Shogun", 100L)));
+
+        String actualAfterProcess = MentionedUsers.parse("[user]Shogun[/user] [user]shogun[/user]")
+                .getTextWithProcessedUserTags(userDao, mentionedUsersCache);
+
+        assertEquals(actualAfterProcess,
+                "[user=/forum/users/100]Shogun[/user] [user=/forum/users/200]shogun[/user]");
+    }
+
+    @Test
+    public void processShouldNotLinkUsersWhenSeveralUsernamesDifferOnlyInOtherCase() {
+        when(userDao.getByUsernamesIgnoringCase(asSet("SHOGUN")))
+                .thenReturn(asList(getUser("shogun", 200L), getUser("Shogun", 100L)));
+
+        String actualAfterProcess = MentionedUsers.parse("[user]SHOGUN[/user]")
+                .getTextWithProcessedUserTags(userDao, mentionedUsersCache);
+
+        assertEquals(actualAfterProcess, "SHOGUN");
+    }
+
+    @Test
+    public void processShouldNotQueryUsersWhenNobodyIsMentioned() {
+        String actualAfterProcess = MentionedUsers.parse("[b]text[/b]")
+                .getTextWithProcessedUserTags(userDao, mentionedUsersCache);
+
+        assertEquals(actualAfterProcess, "[b]text[/b]");
+        verifyZeroInteractions(userDao);
+    }
+
+    @Test
+    public void decodeUriShouldDecodeLikeJavaScriptDecodeUri() {
+        assertEquals(MentionedUsers.decodeUri("%D0%98%D0%B2%D0%B0%D0%BD%D0%BE%D0%B2"), "Иванов");
+        assertEquals(MentionedUsers.decodeUri("%5Cyak%20%F0%9F%98%80"), "\\yak \uD83D\uDE00");
+        assertEquals(MentionedUsers.decodeUri("a%2Fb%23c%3Bd"), "a%2Fb%23c%3Bd");
+        assertEquals(MentionedUsers.decodeUri("yak"), "yak");
+    }
+
+    @Test
+    public void decodeUriShouldReturnNullForMalformedSequences() {
+        assertEquals(MentionedUsers.decodeUri("%yak"), null);
+        assertEquals(MentionedUsers.decodeUri("yak%D0"), null);
+        assertEquals(MentionedUsers.decodeUri("%D0%41"), null);
+        assertEquals(MentionedUsers.decodeUri("%C0%AF"), null);
+        assertEquals(MentionedUsers.decodeUri("%FF"), null);
+    }
 }
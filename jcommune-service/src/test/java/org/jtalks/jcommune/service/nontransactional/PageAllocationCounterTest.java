@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.nontransactional;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class PageAllocationCounterTest {
+
+    @Test
+    public void allocatedBytesShouldBeAveragedByPages() {
+        PageAllocationCounter counter = new PageAllocationCounter();
+
+        counter.add(1000);
+        counter.add(3000);
+
+        assertEquals(counter.getPages(), 2);
+        assertEquals(counter.getAllocatedBytes(), 4000);
+        assertEquals(counter.getAllocatedBytesPerPage(), 2000);
+    }
+
+    @Test
+    public void allocatedBytesPerPageShouldBeZeroWithoutPages() {
+        assertEquals(new PageAllocationCounter().getAllocatedBytesPerPage(), 0);
+    }
+
+    @Test
+    public void allocatedBytesOfCurrentThreadShouldGrowOrBeUnknown() {
+        long before = PageAllocationCounter.getCurrentThreadAllocatedBytes();
+        byte[][] garbage = new byte[100][];
+        for (int i = 0; i < garbage.length; i++) {
+            garbage[i] = new byte[1024];
+        }
+        long after = PageAllocationCounter.getCurrentThreadAllocatedBytes();
+
+        assertTrue(before == -1 ? after == -1 : after - before >= garbage.length * 1024);
+    }
+}
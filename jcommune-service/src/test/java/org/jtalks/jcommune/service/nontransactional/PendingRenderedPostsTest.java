@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.nontransactional;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class PendingRenderedPostsTest {
+    private PendingRenderedPosts pendingRenderedPosts;
+
+    @BeforeMethod
+    public void setUp() {
+        pendingRenderedPosts = new PendingRenderedPosts(2);
+    }
+
+    @Test
+    public void drainShouldReturnRenderedPostsAndResetQueue() {
+        pendingRenderedPosts.add(1, "first");
+        pendingRenderedPosts.add(2, "second");
+
+        Map<Long, String> renderedPosts = pendingRenderedPosts.drain();
+
+        assertEquals(renderedPosts.size(), 2);
+        assertEquals(renderedPosts.get(1L), "first");
+        assertEquals(renderedPosts.get(2L), "second");
+        assertTrue(pendingRenderedPosts.drain().isEmpty());
+    }
+
+    @Test
+    public void postsOverLimitShouldBeSkipped() {
+        pendingRenderedPosts.add(1, "first");
+        pendingRenderedPosts.add(2, "second");
+
+        pendingRenderedPosts.add(3, "third");
+
+        assertEquals(pendingRenderedPosts.drain().size(), 2);
+    }
+
+    @Test
+    public void queuedPostShouldBeReplacedEvenWhenQueueIsFull() {
+        pendingRenderedPosts.add(1, "first");
+        pendingRenderedPosts.add(2, "second");
+
+        pendingRenderedPosts.add(1, "changed");
+
+        assertEquals(pendingRenderedPosts.drain().get(1L), "changed");
+    }
+}
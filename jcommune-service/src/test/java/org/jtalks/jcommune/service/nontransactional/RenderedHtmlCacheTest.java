@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.nontransactional;
+
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class RenderedHtmlCacheTest {
+    private static final DateTime CREATED = new DateTime(2013, 1, 1, 0, 0, 0, 0);
+    private static final String SERVER = "jtalks.org";
+
+    private RenderedHtmlCache cache;
+
+    @BeforeMethod
+    public void setUp() {
+        cache = new RenderedHtmlCache(10);
+    }
+
+    @Test
+    public void cachedHtmlShouldBeReturned() {
+        cache.put(1, CREATED, SERVER, "html");
+
+        assertEquals(cache.get(1, CREATED, SERVER), "html");
+        assertEquals(cache.getHits(), 1);
+        assertEquals(cache.getMisses(), 0);
+    }
+
+    @Test
+    public void modifiedPostShouldNotBeFound() {
+        cache.put(1, CREATED, SERVER, "html");
+
+        assertNull(cache.get(1, CREATED.plusMinutes(1), SERVER));
+        assertEquals(cache.getMisses(), 1);
+    }
+
+    @Test
+    public void postRenderedForAnotherServerShouldNotBeFound() {
+        cache.put(1, CREATED, SERVER, "html");
+
+        assertNull(cache.get(1, CREATED, "localhost"));
+    }
+
+    @Test
+    public void postWithoutDateShouldBeCached() {
+        cache.put(1, null, SERVER, "html");
+
+        assertEquals(cache.get(1, null, SERVER), "html");
+    }
+
+    @Test
+    public void leastRecentlyUsedPostsShouldBeEvictedWhenHtmlIsTooLong() {
+        cache.put(1, CREATED, SERVER, "1234");
+        cache.put(2, CREATED, SERVER, "1234");
+        cache.get(1, CREATED, SERVER);
+
+        cache.put(3, CREATED, SERVER, "1234");
+
+        assertEquals(cache.get(1, CREATED, SERVER), "1234");
+        assertNull(cache.get(2, CREATED, SERVER));
+        assertEquals(cache.get(3, CREATED, SERVER), "1234");
+        assertEquals(cache.getSize(), 2);
+        assertEquals(cache.getCharacters(), 8);
+    }
+
+    @Test
+    public void htmlLongerThanCacheShouldNotBeCached() {
+        cache.put(1, CREATED, SERVER, "1234");
+
+        cache.put(2, CREATED, SERVER, "12345678901");
+
+        assertNull(cache.get(2, CREATED, SERVER));
+        assertEquals(cache.get(1, CREATED, SERVER), "1234");
+    }
+
+    @Test
+    public void replacedHtmlShouldNotBeCountedTwice() {
+        cache.put(1, CREATED, SERVER, "1234");
+
+        cache.put(1, CREATED, SERVER, "123");
+
+        assertEquals(cache.getCharacters(), 3);
+    }
+
+    @Test
+    public void hitRatioShouldBeZeroWithoutRequests() {
+        assertEquals(cache.getHitRatio(), 0.0);
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.service.nontransactional;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TopicViewsCounterTest {
+    private TopicViewsCounter counter;
+
+    @BeforeMethod
+    public void setUp() {
+        counter = new TopicViewsCounter(4);
+    }
+
+    @Test
+    public void incrementShouldAccumulateViewsOfTopic() {
+        counter.increment(1L);
+        counter.increment(1L);
+        counter.increment(2L);
+
+        assertEquals(counter.getPendingViews(1L), 2);
+        assertEquals(counter.getPendingViews(2L), 1);
+        assertEquals(counter.getPendingViews(3L), 0);
+    }
+
+    @Test
+    public void drainShouldReturnViewsOfAllStripesAndResetThem() {
+        for (long topicId = 1; topicId <= 10; topicId++) {
+            counter.increment(topicId);
+        }
+
+        Map<Long, Integer> views = counter.drain();
+
+        assertEquals(views.size(), 10);
+        assertEquals(views.get(7L).intValue(), 1);
+        assertEquals(counter.getPendingViews(7L), 0);
+        assertTrue(counter.drain().isEmpty());
+    }
+
+    @Test
+    public void concurrentViewsShouldNotBeLost() throws InterruptedException {
+        Thread[] viewers = new Thread[4];
+        for (int i = 0; i < viewers.length; i++) {
+            viewers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int view = 0; view < 1000; view++) {
+                        counter.increment(1L);
+                    }
+                }
+            };
+            viewers[i].start();
+        }
+        for (Thread viewer : viewers) {
+            viewer.join();
+        }
+
+        assertEquals(counter.getPendingViews(1L), 4000);
+    }
+}
@@ -21,6 +21,7 @@ import org.jtalks.jcommune.model.dao.SectionDao;
 import org.jtalks.jcommune.model.dao.TopicDao;
 import org.jtalks.jcommune.model.entity.*;
 import org.jtalks.jcommune.service.BranchService;
+import org.jtalks.jcommune.service.LastReadPostService;
 import org.jtalks.jcommune.service.TopicModificationService;
 import org.jtalks.jcommune.service.UserService;
 import org.jtalks.jcommune.service.exceptions.NotFoundException;
@@ -64,6 +65,8 @@ public class TransactionalBranchServiceTest {
     private TopicModificationService topicService;
     @Mock
     private UserService userService;
+    @Mock
+    private LastReadPostService lastReadPostService;
 
     @BeforeMethod
     public void setUp() throws Exception {
@@ -73,7 +76,8 @@ public class TransactionalBranchServiceTest {
                 sectionDao,
                 topicDao,
                 topicService,
-                userService);
+                userService,
+                lastReadPostService);
     }
 
     @Test
@@ -172,52 +176,41 @@ public class TransactionalBranchServiceTest {
     }
 
     @Test
-    public void testFillStatisticInfoToRegisteredUser() {
-        int expectedPostsCount = 10;
-        int expectedTopicsCount = 20;
-        boolean expectedUnreadPostsCount = true;
-        JCUser user = new JCUser("username", "email", "password");
+    public void fillStatisticInfoShouldNotCountTopicsAndPosts() {
         Branch branch = new Branch(BRANCH_NAME, BRANCH_DESCRIPTION);
+        branch.setTopicsCount(20);
+        branch.setPostsCount(10);
         org.jtalks.common.model.entity.Branch commonBranch = branch;
-
-        when(branchDao.getCountPostsInBranch(branch)).thenReturn(expectedPostsCount);
-        when(topicDao.countTopics(branch)).thenReturn(expectedTopicsCount);
-        when(userService.getCurrentUser()).thenReturn(user);
-        //TODO Was removed till milestone 2 due to performance issues
-//        when(branchDao.isUnreadPostsInBranch(branch, user)).thenReturn(expectedUnreadPostsCount);
+        when(userService.getCurrentUser()).thenReturn(new JCUser("username", "email", "password"));
 
         branchService.fillStatisticInfo(Arrays.asList(commonBranch));
 
-        assertEquals(branch.getTopicCount(), expectedTopicsCount,
-                "Incorrect count of topics");
-        assertEquals(branch.getPostCount(), expectedPostsCount,
-                "Incorrect count of posts");
-//        assertEquals(branch.isUnreadPosts(), expectedUnreadPostsCount,
-//                "Incorrect unread posts state");
+        assertEquals(branch.getTopicCount(), 20, "Incorrect count of topics");
+        assertEquals(branch.getPostCount(), 10, "Incorrect count of posts");
+        verify(branchDao, never()).getCountPostsInBranch(branch);
+        verify(topicDao, never()).countTopics(branch);
     }
 
     @Test
-    public void testFillStatisticInfoToAnnonumous() {
-        int expectedPostsCount = 10;
-        int expectedTopicsCount = 20;
-        boolean expectedUnreadPostsCount = true;
-        JCUser user = new AnonymousUser();
-        Branch branch = new Branch(BRANCH_NAME, BRANCH_DESCRIPTION);
-        org.jtalks.common.model.entity.Branch commonBranch = branch;
+    public void fillStatisticInfoShouldFillUnreadPostsOfAllBranchesAtOnce() {
+        Branch first = new Branch(BRANCH_NAME, BRANCH_DESCRIPTION);
+        Branch second = new Branch(BRANCH_NAME, BRANCH_DESCRIPTION);
+        List<org.jtalks.common.model.entity.Branch> branches =
+                Arrays.<org.jtalks.common.model.entity.Branch>asList(first, second);
 
-        when(branchDao.getCountPostsInBranch(branch)).thenReturn(expectedPostsCount);
-        when(topicDao.countTopics(branch)).thenReturn(expectedTopicsCount);
-        when(userService.getCurrentUser()).thenReturn(user);
-        //TODO fWas removed till milestone 2 due to performance issues
-//        when(branchDao.isUnreadPostsInBranch(branch, user)).thenReturn(expectedUnreadPostsCount);
+        branchService.fillStatisticInfo(branches);
 
-        branchService.fillStatisticInfo(Arrays.asList(commonBranch));
+        verify(lastReadPostService).fillUnreadPostsInBranches(Arrays.asList(first, second));
+        verify(branchDao, never()).isUnreadPostsInBranch(any(Branch.class), any(JCUser.class));
+    }
+
+    @Test
+    public void recalculateStatisticInfoShouldRepairCountsInDao() {
+        when(branchDao.recalculateStatisticInfo()).thenReturn(1);
+
+        branchService.recalculateStatisticInfo();
 
-        assertEquals(branch.getTopicCount(), expectedTopicsCount,
-                "Incorrect count of topics");
-        assertEquals(branch.getPostCount(), expectedPostsCount,
-                "Incorrect count of posts");
-//        verify(branchDao, times(0)).isUnreadPostsInBranch(branch, user);
+        verify(branchDao).recalculateStatisticInfo();
     }
 
     @Test
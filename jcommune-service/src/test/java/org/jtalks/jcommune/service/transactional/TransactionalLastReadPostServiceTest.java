@@ -16,22 +16,29 @@ package org.jtalks.jcommune.service.transactional;
 
 import org.hibernate.TransientObjectException;
 import org.joda.time.DateTime;
+import org.jtalks.jcommune.model.dao.BranchDao;
 import org.jtalks.jcommune.model.dao.LastReadPostDao;
 import org.jtalks.jcommune.model.dao.UserDao;
 import org.jtalks.jcommune.model.entity.*;
 import org.jtalks.jcommune.service.UserService;
-import org.mockito.ArgumentMatcher;
+import org.jtalks.jcommune.service.nontransactional.LastReadPostsCache;
 import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.testng.Assert.*;
@@ -49,6 +56,10 @@ public class TransactionalLastReadPostServiceTest {
     private UserService userService;
     @Mock
     private UserDao userDao;
+    @Mock
+    private BranchDao branchDao;
+    @Mock
+    private LastReadPostsCache lastReadPostsCache;
     //
     private TransactionalLastReadPostService lastReadPostService;
 
@@ -60,14 +71,15 @@ public class TransactionalLastReadPostServiceTest {
         lastReadPostService = new TransactionalLastReadPostService(
                 userService,
                 lastReadPostDao,
-                userDao);
+                userDao,
+                branchDao,
+                lastReadPostsCache);
+        when(lastReadPostsCache.getBranchReadMarks(anyLong())).thenReturn(new HashMap<Long, DateTime>());
     }
 
     @Test
     public void userShouldNotSeeUpdatesWhenForumMarkedAsAllReadAndTopicsDoNotHaveModificationsAfter() {
         List<Topic> topicList = ObjectsFactory.topics(user, 1);
-        when(lastReadPostDao.getLastReadPosts(user, Collections.<Topic>emptyList()))
-                .thenReturn(Collections.<LastReadPost>emptyList());
         DateTime forumMarkedAsReadDate = new DateTime().plusYears(1);
         user.setAllForumMarkedAsReadTime(forumMarkedAsReadDate);
         when(userService.getCurrentUser()).thenReturn(user);
@@ -76,6 +88,7 @@ public class TransactionalLastReadPostServiceTest {
 
         assertEquals(1, result.size());
         assertFalse(result.get(0).isHasUpdates());
+        verifyZeroInteractions(lastReadPostDao);
     }
 
     @Test
@@ -84,8 +97,7 @@ public class TransactionalLastReadPostServiceTest {
         user.setAllForumMarkedAsReadTime(forumMarkedAsReadDate);
         when(userService.getCurrentUser()).thenReturn(user);
         List<Topic> topics = ObjectsFactory.topics(user, 1);
-        when(lastReadPostDao.getLastReadPosts(user, Collections.<Topic>emptyList()))
-                .thenReturn(Collections.<LastReadPost>emptyList());
+        givenSavedLastReadPostIndexes(new HashMap<Long, Integer>());
 
         List<Topic> result = lastReadPostService.fillLastReadPostForTopics(topics);
 
@@ -93,31 +105,153 @@ public class TransactionalLastReadPostServiceTest {
         assertTrue(result.get(0).isHasUpdates());
     }
 
+    @Test
+    public void userShouldNotSeeUpdatesWhenBranchMarkedAsReadAndTopicsDoNotHaveModificationsAfter() {
+        List<Topic> topicList = ObjectsFactory.topics(user, 1);
+        Topic topic = topicList.get(0);
+        when(userService.getCurrentUser()).thenReturn(user);
+        when(lastReadPostsCache.getBranchReadMarks(user.getId())).thenReturn(Collections.singletonMap(
+                topic.getBranch().getId(), topic.getModificationDate().plusSeconds(1)));
+
+        List<Topic> result = lastReadPostService.fillLastReadPostForTopics(topicList);
+
+        assertFalse(result.get(0).isHasUpdates());
+        verifyZeroInteractions(lastReadPostDao);
+    }
+
+    @Test
+    public void userShouldSeeUpdatesWhenBranchMarkedAsReadAndTopicsHaveModificationsAfter() {
+        List<Topic> topicList = ObjectsFactory.topics(user, 1);
+        Topic topic = topicList.get(0);
+        when(userService.getCurrentUser()).thenReturn(user);
+        when(lastReadPostsCache.getBranchReadMarks(user.getId())).thenReturn(Collections.singletonMap(
+                topic.getBranch().getId(), topic.getModificationDate().minusSeconds(1)));
+        givenSavedLastReadPostIndexes(new HashMap<Long, Integer>());
+
+        List<Topic> result = lastReadPostService.fillLastReadPostForTopics(topicList);
+
+        assertTrue(result.get(0).isHasUpdates());
+    }
+
+    @Test
+    public void userShouldNotSeeUpdatesWhenPostsWereOnlyEditedSinceBranchMarkedAsRead() {
+        List<Topic> topicList = ObjectsFactory.topics(user, 1);
+        Topic topic = topicList.get(0);
+        ReflectionTestUtils.setField(topic, "modificationDate", topic.getLastPostDate().plusDays(2));
+        when(userService.getCurrentUser()).thenReturn(user);
+        when(lastReadPostsCache.getBranchReadMarks(user.getId())).thenReturn(Collections.singletonMap(
+                topic.getBranch().getId(), topic.getLastPostDate().plusDays(1)));
+
+        List<Topic> result = lastReadPostService.fillLastReadPostForTopics(topicList);
+
+        assertFalse(result.get(0).isHasUpdates());
+        verifyZeroInteractions(lastReadPostDao);
+    }
+
+    @Test
+    public void postsCreatedBeforeBranchMarkShouldBeReadWhenTopicHasNoLastReadPost() {
+        Topic topic = createTestTopic();
+        topic.setBranch(branchWithId(1));
+        DateTime branchMarkedAsReadDate = topic.getModificationDate().minusSeconds(1);
+        when(userService.getCurrentUser()).thenReturn(user);
+        when(lastReadPostsCache.getBranchReadMarks(user.getId())).thenReturn(Collections.singletonMap(
+                topic.getBranch().getId(), branchMarkedAsReadDate));
+        givenSavedLastReadPostIndexes(new HashMap<Long, Integer>());
+        when(lastReadPostDao.getPostCountsCreatedBefore(Arrays.asList(topic.getId()), branchMarkedAsReadDate))
+                .thenReturn(Collections.singletonMap(topic.getId(), 9));
+
+        lastReadPostService.fillLastReadPostForTopics(Arrays.asList(topic));
+
+        assertEquals(topic.getLastReadPostIndex(), Integer.valueOf(8));
+        assertTrue(topic.isHasUpdates());
+    }
+
+    @Test
+    public void postsCreatedBeforeForumMarkShouldBeReadWhenItIsLaterThanBranchMark() {
+        Topic topic = createTestTopic();
+        topic.setBranch(branchWithId(1));
+        DateTime forumMarkedAsReadDate = topic.getModificationDate().minusSeconds(1);
+        user.setAllForumMarkedAsReadTime(forumMarkedAsReadDate);
+        when(userService.getCurrentUser()).thenReturn(user);
+        when(lastReadPostsCache.getBranchReadMarks(user.getId())).thenReturn(Collections.singletonMap(
+                topic.getBranch().getId(), forumMarkedAsReadDate.minusDays(1)));
+        givenSavedLastReadPostIndexes(new HashMap<Long, Integer>());
+        when(lastReadPostDao.getPostCountsCreatedBefore(Arrays.asList(topic.getId()), forumMarkedAsReadDate))
+                .thenReturn(Collections.singletonMap(topic.getId(), 5));
+
+        lastReadPostService.fillLastReadPostForTopics(Arrays.asList(topic));
+
+        assertEquals(topic.getLastReadPostIndex(), Integer.valueOf(4));
+    }
+
+    @Test
+    public void postsShouldNotBeCountedWhenTopicHasLastReadPost() {
+        Topic topic = createTestTopic();
+        topic.setBranch(branchWithId(1));
+        when(userService.getCurrentUser()).thenReturn(user);
+        when(lastReadPostsCache.getBranchReadMarks(user.getId())).thenReturn(Collections.singletonMap(
+                topic.getBranch().getId(), topic.getModificationDate().minusSeconds(1)));
+        givenSavedLastReadPostIndexes(Collections.singletonMap(topic.getId(), 2));
+
+        lastReadPostService.fillLastReadPostForTopics(Arrays.asList(topic));
+
+        assertEquals(topic.getLastReadPostIndex(), Integer.valueOf(2));
+        verify(lastReadPostDao, never()).getPostCountsCreatedBefore(
+                Matchers.<List<Long>>any(), Matchers.<DateTime>any());
+    }
+
+    @Test
+    public void branchReadMarksShouldBeLoadedWhenNotCached() {
+        List<Topic> topicList = ObjectsFactory.topics(user, 1);
+        when(userService.getCurrentUser()).thenReturn(user);
+        when(lastReadPostsCache.getBranchReadMarks(user.getId())).thenReturn(null);
+        Map<Long, DateTime> marks = new HashMap<Long, DateTime>();
+        when(lastReadPostDao.getBranchReadMarkTimes(user)).thenReturn(marks);
+        when(lastReadPostsCache.putBranchReadMarks(user.getId(), marks)).thenReturn(marks);
+        givenSavedLastReadPostIndexes(new HashMap<Long, Integer>());
+
+        lastReadPostService.fillLastReadPostForTopics(topicList);
+
+        verify(lastReadPostsCache).putBranchReadMarks(user.getId(), marks);
+    }
+
     @Test
     public void authenticatedUserShouldSeeReadTopicAsTopicWithoutUpdates() {
         List<Topic> topicList = ObjectsFactory.topics(user, 1);
-        LastReadPost post = new LastReadPost(user, topicList.get(0), 0);
         when(userService.getCurrentUser()).thenReturn(user);
-        when(lastReadPostDao.getLastReadPosts(user, topicList)).thenReturn(Collections.singletonList(post));
+        givenSavedLastReadPostIndexes(Collections.singletonMap(topicList.get(0).getId(), 0));
 
         List<Topic> result = lastReadPostService.fillLastReadPostForTopics(topicList);
         assertEquals(1, result.size());
         assertFalse(result.get(0).isHasUpdates());
     }
 
+    @Test
+    public void cachedLastReadPostsShouldBeUsedWithoutQueries() {
+        List<Topic> topicList = ObjectsFactory.topics(user, 1);
+        when(userService.getCurrentUser()).thenReturn(user);
+        when(lastReadPostsCache.getReadIndexes(user.getId()))
+                .thenReturn(Collections.singletonMap(topicList.get(0).getId(), 0));
+
+        List<Topic> result = lastReadPostService.fillLastReadPostForTopics(topicList);
+
+        assertFalse(result.get(0).isHasUpdates());
+        verifyZeroInteractions(lastReadPostDao);
+    }
+
     @Test
     public void anonymousUserShouldSeeAllTopicsAsNotRead() {
         when(userService.getCurrentUser()).thenReturn(new AnonymousUser());
 
         lastReadPostService.fillLastReadPostForTopics(new ArrayList<Topic>());
-        verify(lastReadPostDao, never()).getLastReadPosts(Matchers.<JCUser>any(), Matchers.<List<Topic>>any());
+        verify(lastReadPostDao, never()).getLastReadPostIndexes(Matchers.<JCUser>any());
     }
 
     @Test
     public void authenticatedUserShouldSeeNotReadTopicAsTopicWithUpdates() {
         List<Topic> topicList = ObjectsFactory.topics(user, 1);
         when(userService.getCurrentUser()).thenReturn(user);
-        when(lastReadPostDao.getLastReadPosts(user, topicList)).thenReturn(Collections.<LastReadPost>emptyList());
+        givenSavedLastReadPostIndexes(new HashMap<Long, Integer>());
 
         List<Topic> result = lastReadPostService.fillLastReadPostForTopics(topicList);
         assertEquals(1, result.size());
@@ -131,46 +265,74 @@ public class TransactionalLastReadPostServiceTest {
         Topic topic = this.createTestTopic();
 
         lastReadPostService.markTopicPageAsRead(topic, 1, true);
-        verifyZeroInteractions(lastReadPostDao);
+        verifyZeroInteractions(lastReadPostDao, lastReadPostsCache);
     }
 
     @Test
     public void updateLastReadPostToAuthUserWhenAllForumMarkedBefore() {
         Topic topic = this.createTestTopic();
         user.setAllForumMarkedAsReadTime(topic.getModificationDate().minusSeconds(1));
-        LastReadPost post = new LastReadPost(user, topic, 0);
         when(userService.getCurrentUser()).thenReturn(user);
-        when(lastReadPostDao.getLastReadPost(user, topic)).thenReturn(post);
+        givenSavedLastReadPostIndexes(Collections.singletonMap(topic.getId(), 0));
 
         lastReadPostService.markTopicPageAsRead(topic, 1, false);
 
-        verify(lastReadPostDao).saveOrUpdate(post);
+        verify(lastReadPostsCache).updateReadIndex(user.getId(), topic.getId(), topic.getPostCount() - 1);
     }
 
     @Test
     public void updateLastReadPostToAuthUserWhenAllForumMarkedNull() {
         Topic topic = this.createTestTopic();
         user.setAllForumMarkedAsReadTime(null);
-        LastReadPost post = new LastReadPost(user, topic, 0);
         when(userService.getCurrentUser()).thenReturn(user);
-        when(lastReadPostDao.getLastReadPost(user, topic)).thenReturn(post);
+        givenSavedLastReadPostIndexes(Collections.singletonMap(topic.getId(), 0));
 
         lastReadPostService.markTopicPageAsRead(topic, 1, false);
 
-        verify(lastReadPostDao).saveOrUpdate(post);
+        verify(lastReadPostsCache).updateReadIndex(user.getId(), topic.getId(), topic.getPostCount() - 1);
     }
 
     @Test
     public void notUpdateLastReadPostToAuthUserWhenAllForumAfter() {
         Topic topic = this.createTestTopic();
         user.setAllForumMarkedAsReadTime(topic.getModificationDate().plusSeconds(1));
-        LastReadPost post = new LastReadPost(user, topic, 0);
         when(userService.getCurrentUser()).thenReturn(user);
-        when(lastReadPostDao.getLastReadPost(user, topic)).thenReturn(post);
+        givenSavedLastReadPostIndexes(Collections.singletonMap(topic.getId(), 0));
 
         lastReadPostService.markTopicPageAsRead(topic, 1, false);
 
-        verify(lastReadPostDao, never()).saveOrUpdate(post);
+        verify(lastReadPostsCache, never()).updateReadIndex(anyLong(), anyLong(), anyInt());
+    }
+
+    @Test
+    public void notUpdateLastReadPostWhenBranchMarkedAsReadAfter() {
+        Topic topic = this.createTestTopic();
+        topic.setBranch(new Branch("branch name", "branch description"));
+        when(userService.getCurrentUser()).thenReturn(user);
+        when(lastReadPostsCache.getBranchReadMarks(user.getId())).thenReturn(Collections.singletonMap(
+                topic.getBranch().getId(), topic.getModificationDate().plusSeconds(1)));
+
+        lastReadPostService.markTopicPageAsRead(topic, 1, false);
+
+        verify(lastReadPostsCache, never()).updateReadIndex(anyLong(), anyLong(), anyInt());
+    }
+
+    @Test
+    public void markTopicPageAsReadShouldNotMoveBackPositionReadBecauseOfBranchMark() {
+        Topic topic = createTestTopic();
+        topic.setBranch(branchWithId(1));
+        DateTime branchMarkedAsReadDate = topic.getModificationDate().minusSeconds(1);
+        user.setPageSize(3);
+        when(userService.getCurrentUser()).thenReturn(user);
+        when(lastReadPostsCache.getBranchReadMarks(user.getId())).thenReturn(Collections.singletonMap(
+                topic.getBranch().getId(), branchMarkedAsReadDate));
+        givenSavedLastReadPostIndexes(new HashMap<Long, Integer>());
+        when(lastReadPostDao.getPostCountsCreatedBefore(Collections.singletonList(topic.getId()),
+                branchMarkedAsReadDate)).thenReturn(Collections.singletonMap(topic.getId(), 9));
+
+        lastReadPostService.markTopicPageAsRead(topic, 1, true);
+
+        verify(lastReadPostsCache, never()).updateReadIndex(anyLong(), anyLong(), anyInt());
     }
 
     @Test
@@ -178,37 +340,47 @@ public class TransactionalLastReadPostServiceTest {
         Topic topic = this.createTestTopic();
         user.setPageSize(3);
         when(userService.getCurrentUser()).thenReturn(user);
+        givenSavedLastReadPostIndexes(new HashMap<Long, Integer>());
 
         lastReadPostService.markTopicPageAsRead(topic, 2, true);
 
-        verify(lastReadPostDao).saveOrUpdate(argThat(
-                new LastReadPostMatcher(topic, 5)));
+        verify(lastReadPostsCache).updateReadIndex(user.getId(), topic.getId(), 5);
     }
 
     @Test
-    public void markTopicPageAsReadShouldReupdateLastReadPostInRepository() {
+    public void markTopicPageAsReadShouldNotAccessRepository() {
         Topic topic = this.createTestTopic();
-        LastReadPost post = new LastReadPost(user, topic, 0);
         when(userService.getCurrentUser()).thenReturn(user);
-        when(lastReadPostDao.getLastReadPost(user, topic)).thenReturn(post);
+        when(lastReadPostsCache.getReadIndexes(user.getId()))
+                .thenReturn(Collections.singletonMap(topic.getId(), 0));
 
         lastReadPostService.markTopicPageAsRead(topic, 1, false);
 
-        verify(lastReadPostDao).saveOrUpdate(argThat(
-                new LastReadPostMatcher(topic, topic.getPostCount() - 1)));
+        verify(lastReadPostsCache).updateReadIndex(user.getId(), topic.getId(), topic.getPostCount() - 1);
+        verifyZeroInteractions(lastReadPostDao);
+    }
+
+    @Test
+    public void markTopicPageAsReadShouldNotUpdateNotChangedLastReadPost() {
+        Topic topic = this.createTestTopic();
+        when(userService.getCurrentUser()).thenReturn(user);
+        when(lastReadPostsCache.getReadIndexes(user.getId()))
+                .thenReturn(Collections.singletonMap(topic.getId(), topic.getPostCount() - 1));
+
+        lastReadPostService.markTopicPageAsRead(topic, 1, false);
+
+        verify(lastReadPostsCache, never()).updateReadIndex(anyLong(), anyLong(), anyInt());
     }
 
     @Test
     public void testMarkTopicPageAsReadUpdateExistingDbRecordWithWrongPostIndex() {
         Topic topic = this.createTestTopic();
-        LastReadPost post = new LastReadPost(user, topic, 1000);
         when(userService.getCurrentUser()).thenReturn(user);
-        when(lastReadPostDao.getLastReadPost(user, topic)).thenReturn(post);
+        givenSavedLastReadPostIndexes(Collections.singletonMap(topic.getId(), 1000));
 
         lastReadPostService.markTopicPageAsRead(topic, 1, false);
 
-        verify(lastReadPostDao).saveOrUpdate(argThat(
-                new LastReadPostMatcher(topic, topic.getPostCount() - 1)));
+        verify(lastReadPostsCache).updateReadIndex(user.getId(), topic.getId(), topic.getPostCount() - 1);
     }
 
     @Test
@@ -224,20 +396,25 @@ public class TransactionalLastReadPostServiceTest {
     public void authenticatedUserShouldHaveAbilityToMarkAllTopicsInBranchAsRead() throws Exception {
         Branch branch = new Branch("branch name", "branch description");
         when(userService.getCurrentUser()).thenReturn(user);
+        Map<Long, Integer> pendingIndexes = Collections.singletonMap(1L, 2);
+        when(lastReadPostsCache.drainPendingIndexes(user.getId())).thenReturn(pendingIndexes);
 
         lastReadPostService.markAllTopicsAsRead(branch);
 
         verify(userService).getCurrentUser();
+        verify(lastReadPostDao).saveLastReadPostIndexes(Collections.singletonMap(user.getId(), pendingIndexes));
         verify(lastReadPostDao).markAllRead(user, branch);
+        verify(lastReadPostsCache).evict(user.getId());
     }
 
     @Test
     public void authenticatedUserShouldHaveAbilityToMarkTopicAsRead() {
         Topic topic = this.createTestTopic();
         when(userService.getCurrentUser()).thenReturn(user);
+        givenSavedLastReadPostIndexes(new HashMap<Long, Integer>());
 
         lastReadPostService.markTopicAsRead(topic);
-        verify(lastReadPostDao).saveOrUpdate(argThat(new LastReadPostMatcher(topic, topic.getPostCount() - 1)));
+        verify(lastReadPostsCache).updateReadIndex(user.getId(), topic.getId(), topic.getPostCount() - 1);
     }
 
     @Test
@@ -247,54 +424,47 @@ public class TransactionalLastReadPostServiceTest {
         Topic topic = this.createTestTopic();
 
         lastReadPostService.markTopicAsRead(topic);
-        verifyZeroInteractions(lastReadPostDao);
+        verifyZeroInteractions(lastReadPostDao, lastReadPostsCache);
     }
 
     @Test
-    public void markTopicAsReadShouldReupdateLastReadPostInRepository() {
+    public void markTopicAsReadShouldUpdateLastReadPost() {
         Topic topic = this.createTestTopic();
-        LastReadPost post = new LastReadPost(user, topic, 0);
         when(userService.getCurrentUser()).thenReturn(user);
-        when(lastReadPostDao.getLastReadPost(user, topic)).thenReturn(post);
+        givenSavedLastReadPostIndexes(Collections.singletonMap(topic.getId(), 0));
 
         lastReadPostService.markTopicAsRead(topic);
 
-        verify(lastReadPostDao).saveOrUpdate(argThat(
-                new LastReadPostMatcher(topic, topic.getPostCount() - 1)));
+        verify(lastReadPostsCache).updateReadIndex(user.getId(), topic.getId(), topic.getPostCount() - 1);
     }
 
     @Test
     public void testMarkTopicReadUpdateExistingDbRecordWithWrongPostIndex() {
         Topic topic = this.createTestTopic();
-        LastReadPost post = new LastReadPost(user, topic, 1000);
         when(userService.getCurrentUser()).thenReturn(user);
-        when(lastReadPostDao.getLastReadPost(user, topic)).thenReturn(post);
+        givenSavedLastReadPostIndexes(Collections.singletonMap(topic.getId(), 1000));
 
         lastReadPostService.markTopicAsRead(topic);
 
-        verify(lastReadPostDao).saveOrUpdate(argThat(
-                new LastReadPostMatcher(topic, topic.getPostCount() - 1)));
+        verify(lastReadPostsCache).updateReadIndex(user.getId(), topic.getId(), topic.getPostCount() - 1);
     }
 
     @Test
     public void getLastReadPostInTopicShouldReturnLastReadByUser() {
         Topic topic = this.createTestTopic();
-        LastReadPost post = new LastReadPost(user, topic, 1);
         when(userService.getCurrentUser()).thenReturn(user);
-        when(lastReadPostDao.getLastReadPosts(user, Arrays.asList(topic)))
-                .thenReturn(Collections.singletonList(post));
+        givenSavedLastReadPostIndexes(Collections.singletonMap(topic.getId(), 1));
 
         int actual = lastReadPostService.getLastReadPostForTopic(topic);
 
-        assertEquals(actual, post.getPostIndex());
+        assertEquals(actual, 1);
     }
 
     @Test
     public void getLastReadPostInTopicShouldReturnNullWhenUserDidNotReadTopic() {
         Topic topic = createTestTopic();
         when(userService.getCurrentUser()).thenReturn(user);
-        when(lastReadPostDao.getLastReadPosts(user, Arrays.asList(topic)))
-                .thenReturn(Collections.<LastReadPost>emptyList());
+        givenSavedLastReadPostIndexes(new HashMap<Long, Integer>());
 
         assertNull(lastReadPostService.getLastReadPostForTopic(topic));
     }
@@ -304,24 +474,91 @@ public class TransactionalLastReadPostServiceTest {
         Topic topic = this.createTestTopic();
         JCUser anonymous = new AnonymousUser();
         when(userService.getCurrentUser()).thenReturn(anonymous);
-        when(lastReadPostDao.getLastReadPost(anonymous, topic))
+        when(lastReadPostDao.getLastReadPostIndexes(anonymous))
                 .thenThrow(new TransientObjectException("Object reference to unsaved object"));
 
         assertNull(lastReadPostService.getLastReadPostForTopic(topic));
     }
 
+    @Test
+    public void flushLastReadPostsShouldSavePendingLastReadPostsByBatch() {
+        Map<Long, Map<Long, Integer>> pendingIndexes = new HashMap<Long, Map<Long, Integer>>();
+        pendingIndexes.put(1L, Collections.singletonMap(2L, 3));
+        when(lastReadPostsCache.drainPendingIndexes()).thenReturn(pendingIndexes);
+
+        lastReadPostService.flushLastReadPosts();
+
+        verify(lastReadPostDao).saveLastReadPostIndexes(pendingIndexes);
+    }
+
+    @Test
+    public void flushLastReadPostsShouldReturnPendingLastReadPostsWhenSavingFailed() {
+        Map<Long, Map<Long, Integer>> pendingIndexes = new HashMap<Long, Map<Long, Integer>>();
+        pendingIndexes.put(1L, Collections.singletonMap(2L, 3));
+        when(lastReadPostsCache.drainPendingIndexes()).thenReturn(pendingIndexes);
+        RuntimeException deadlock = new RuntimeException("Deadlock found when trying to get lock");
+        doThrow(deadlock).when(lastReadPostDao).saveLastReadPostIndexes(pendingIndexes);
+
+        try {
+            lastReadPostService.flushLastReadPosts();
+            fail("Failure of saving should be propagated");
+        } catch (RuntimeException e) {
+            assertSame(e, deadlock);
+        }
+
+        verify(lastReadPostsCache).restorePendingIndexes(pendingIndexes);
+    }
+
+    @Test
+    public void saveLastReadPostsOfCurrentUserShouldReturnPendingLastReadPostsWhenTransactionIsRolledBack() {
+        when(userService.getCurrentUser()).thenReturn(user);
+        Map<Long, Integer> pendingIndexes = Collections.singletonMap(1L, 2);
+        when(lastReadPostsCache.drainPendingIndexes(user.getId())).thenReturn(pendingIndexes);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            lastReadPostService.saveLastReadPostsOfCurrentUser();
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+            }
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(lastReadPostsCache).restorePendingIndexes(Collections.singletonMap(user.getId(), pendingIndexes));
+    }
+
+    @Test
+    public void pendingLastReadPostsShouldBeSavedOnShutdown() {
+        Map<Long, Map<Long, Integer>> pendingIndexes = new HashMap<Long, Map<Long, Integer>>();
+        when(lastReadPostsCache.drainPendingIndexes()).thenReturn(pendingIndexes);
+
+        lastReadPostService.onApplicationEvent(null);
+
+        verify(lastReadPostDao).saveLastReadPostIndexes(pendingIndexes);
+    }
+
+    @Test
+    public void purgeLastReadPostsShouldDeleteLastReadPostsOfReadTopics() {
+        lastReadPostService.purgeLastReadPosts();
+
+        verify(lastReadPostDao).deleteLastReadPostsOfReadTopics();
+    }
+
     @Test
     public void updateAfterPostDeletingShouldUpdateLastReadPostWhenIndexChanged() {
         Topic topic = createTestTopic();
         int postIndex = 1;
         LastReadPost lastReadPost = new LastReadPost(user, topic, postIndex);
         List<LastReadPost> lastReadPosts = Arrays.asList(lastReadPost);
-
+        Map<Long, Map<Long, Integer>> pendingIndexes = new HashMap<Long, Map<Long, Integer>>();
+        when(lastReadPostsCache.drainPendingIndexes()).thenReturn(pendingIndexes);
         when(lastReadPostDao.getLastReadPostsInTopic(topic)).thenReturn(lastReadPosts);
 
         lastReadPostService.updateLastReadPostsWhenPostDeleted(topic.getFirstPost());
 
+        verify(lastReadPostDao).saveLastReadPostIndexes(pendingIndexes);
         verify(lastReadPostDao).saveOrUpdate(lastReadPost);
+        verify(lastReadPostsCache).shiftReadIndexes(topic.getId(), 0);
         assertEquals(lastReadPost.getPostIndex(), postIndex - 1, "The index should be reduced.");
     }
 
@@ -331,6 +568,7 @@ public class TransactionalLastReadPostServiceTest {
         int postIndex = 0;
         LastReadPost lastReadPost = new LastReadPost(user, topic, postIndex);
         List<LastReadPost> lastReadPosts = Arrays.asList(lastReadPost);
+        when(lastReadPostsCache.drainPendingIndexes()).thenReturn(new HashMap<Long, Map<Long, Integer>>());
         when(lastReadPostDao.getLastReadPostsInTopic(topic)).thenReturn(lastReadPosts);
 
         lastReadPostService.updateLastReadPostsWhenPostDeleted(topic.getLastPost());
@@ -348,35 +586,110 @@ public class TransactionalLastReadPostServiceTest {
 
         assertNotNull(user.getAllForumMarkedAsReadTime(), "Mark date should be remembered for user.");
         verify(userDao).saveOrUpdate(user);
+        verify(lastReadPostsCache).drainPendingIndexes(user.getId());
         verify(lastReadPostDao).deleteLastReadPostsFor(user);
+        verify(lastReadPostsCache).evict(user.getId());
+    }
+
+    @Test
+    public void anonymousUserShouldSeeAllBranchesAsRead() {
+        Branch branch = branchWithId(1L);
+        branch.setUnreadPosts(true);
+        when(userService.getCurrentUser()).thenReturn(new AnonymousUser());
+
+        lastReadPostService.fillUnreadPostsInBranches(Arrays.asList(branch));
 
+        assertFalse(branch.isUnreadPosts());
+        verifyZeroInteractions(branchDao);
     }
 
-    private Topic createTestTopic() {
-        Topic topic = new Topic(user, "title");
-        for (int i = 0; i < 10; i++) {
-            topic.addPost(new Post(user, "content"));
-        }
-        return topic;
+    @Test
+    public void branchesNotModifiedSinceMarkedAsReadShouldBeReadWithoutQuery() {
+        Branch markedBranch = branchWithId(1L);
+        Branch forumMarkedBranch = branchWithId(2L);
+        Branch emptyBranch = branchWithId(3L);
+        DateTime now = new DateTime();
+        user.setAllForumMarkedAsReadTime(now.minusDays(1));
+        when(userService.getCurrentUser()).thenReturn(user);
+        Map<Long, DateTime> modificationTimes = new HashMap<Long, DateTime>();
+        modificationTimes.put(markedBranch.getId(), now.minusHours(2));
+        modificationTimes.put(forumMarkedBranch.getId(), now.minusDays(2));
+        when(branchDao.getLastTopicModificationTimes()).thenReturn(modificationTimes);
+        when(lastReadPostsCache.getBranchReadMarks(user.getId()))
+                .thenReturn(Collections.singletonMap(markedBranch.getId(), now.minusHours(1)));
+
+        lastReadPostService.fillUnreadPostsInBranches(Arrays.asList(markedBranch, forumMarkedBranch, emptyBranch));
+
+        assertFalse(markedBranch.isUnreadPosts());
+        assertFalse(forumMarkedBranch.isUnreadPosts());
+        assertFalse(emptyBranch.isUnreadPosts());
+        verify(branchDao, never()).getBranchesWithUnreadPosts(any(JCUser.class), anyCollectionOf(Long.class));
+    }
+
+    @Test
+    public void branchesModifiedSinceMarkedAsReadShouldBeCheckedByOneQuery() {
+        Branch readBranch = branchWithId(1L);
+        Branch unreadBranch = branchWithId(2L);
+        Branch markedBranch = branchWithId(3L);
+        DateTime now = new DateTime();
+        when(userService.getCurrentUser()).thenReturn(user);
+        Map<Long, DateTime> modificationTimes = new HashMap<Long, DateTime>();
+        modificationTimes.put(readBranch.getId(), now);
+        modificationTimes.put(unreadBranch.getId(), now);
+        modificationTimes.put(markedBranch.getId(), now.minusHours(1));
+        when(branchDao.getLastTopicModificationTimes()).thenReturn(modificationTimes);
+        when(lastReadPostsCache.getBranchReadMarks(user.getId()))
+                .thenReturn(Collections.singletonMap(markedBranch.getId(), now));
+        Map<Long, Integer> pendingIndexes = Collections.singletonMap(1L, 2);
+        when(lastReadPostsCache.drainPendingIndexes(user.getId())).thenReturn(pendingIndexes);
+        when(branchDao.getBranchesWithUnreadPosts(user, Arrays.asList(readBranch.getId(), unreadBranch.getId())))
+                .thenReturn(Collections.singleton(unreadBranch.getId()));
+
+        lastReadPostService.fillUnreadPostsInBranches(Arrays.asList(readBranch, unreadBranch, markedBranch));
+
+        assertFalse(readBranch.isUnreadPosts());
+        assertTrue(unreadBranch.isUnreadPosts());
+        assertFalse(markedBranch.isUnreadPosts());
+        verify(lastReadPostDao).saveLastReadPostIndexes(Collections.singletonMap(user.getId(), pendingIndexes));
+    }
+
+    @Test
+    public void saveLastReadPostsOfCurrentUserShouldSavePendingLastReadPosts() {
+        when(userService.getCurrentUser()).thenReturn(user);
+        Map<Long, Integer> pendingIndexes = Collections.singletonMap(1L, 2);
+        when(lastReadPostsCache.drainPendingIndexes(user.getId())).thenReturn(pendingIndexes);
+
+        lastReadPostService.saveLastReadPostsOfCurrentUser();
+
+        verify(lastReadPostDao).saveLastReadPostIndexes(Collections.singletonMap(user.getId(), pendingIndexes));
     }
 
-    private class LastReadPostMatcher extends ArgumentMatcher<LastReadPost> {
+    @Test
+    public void saveLastReadPostsOfCurrentUserShouldNotSaveWhenNothingPending() {
+        when(userService.getCurrentUser()).thenReturn(user);
 
-        private Topic topic;
-        private int index;
+        lastReadPostService.saveLastReadPostsOfCurrentUser();
 
-        private LastReadPostMatcher(Topic topic, int index) {
-            this.topic = topic;
-            this.index = index;
-        }
+        verifyZeroInteractions(lastReadPostDao);
+    }
 
-        @Override
-        public boolean matches(Object argument) {
-            LastReadPost post = (LastReadPost) argument;
-            boolean result = post.getTopic().equals(topic);
-            result &= post.getUser().equals(user);
-            result &= (post.getPostIndex() == index);
-            return result;
+    private Branch branchWithId(long id) {
+        Branch branch = new Branch("branch name", "branch description");
+        branch.setId(id);
+        return branch;
+    }
+
+    private void givenSavedLastReadPostIndexes(Map<Long, Integer> indexes) {
+        when(lastReadPostsCache.getReadIndexes(user.getId())).thenReturn(null);
+        when(lastReadPostDao.getLastReadPostIndexes(user)).thenReturn(indexes);
+        when(lastReadPostsCache.putReadIndexes(user.getId(), indexes)).thenReturn(indexes);
+    }
+
+    private Topic createTestTopic() {
+        Topic topic = new Topic(user, "title");
+        for (int i = 0; i < 10; i++) {
+            topic.addPost(new Post(user, "content"));
         }
+        return topic;
     }
 }
@@ -15,6 +15,7 @@
 package org.jtalks.jcommune.service.transactional;
 
 import org.jtalks.common.security.SecurityService;
+import org.jtalks.jcommune.model.dao.BranchDao;
 import org.jtalks.jcommune.model.dao.PostDao;
 import org.jtalks.jcommune.model.dao.TopicDao;
 import org.jtalks.jcommune.model.dto.JCommunePageRequest;
@@ -24,8 +25,11 @@ import org.jtalks.jcommune.service.LastReadPostService;
 import org.jtalks.jcommune.service.PostService;
 import org.jtalks.jcommune.service.UserService;
 import org.jtalks.jcommune.service.exceptions.NotFoundException;
+import org.jtalks.jcommune.service.nontransactional.BBCodeService;
 import org.jtalks.jcommune.service.nontransactional.MentionedUsers;
 import org.jtalks.jcommune.service.nontransactional.NotificationService;
+import org.jtalks.jcommune.service.nontransactional.PendingRenderedPosts;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -69,6 +73,8 @@ public class TransactionalPostServiceTest {
     @Mock
     private TopicDao topicDao;
     @Mock
+    private BranchDao branchDao;
+    @Mock
     private LastReadPostService lastReadPostService;
     @Mock
     private UserService userService;
@@ -76,6 +82,10 @@ public class TransactionalPostServiceTest {
     private BranchLastPostService branchLastPostService;
     @Mock
     private MentionedUsers mentionedUsers;
+    @Mock
+    private BBCodeService bbCodeService;
+    @Mock
+    private PendingRenderedPosts pendingRenderedPosts;
 
     private PostService postService;
 
@@ -94,11 +104,14 @@ public class TransactionalPostServiceTest {
         postService = new TransactionalPostService(
                 postDao,
                 topicDao,
+                branchDao,
                 securityService,
                 notificationService,
                 lastReadPostService,
                 userService,
-                branchLastPostService);
+                branchLastPostService,
+                bbCodeService,
+                pendingRenderedPosts);
     }
 
     @Test
@@ -136,6 +149,8 @@ public class TransactionalPostServiceTest {
 
         assertEquals(post.getPostContent(), newBody);
 
+        verify(bbCodeService).renderPost(post);
+
         verify(notificationService).subscribedEntityChanged(topic);
 
         verify(postDao).saveOrUpdate(post);
@@ -152,6 +167,42 @@ public class TransactionalPostServiceTest {
         postService.updatePost(post, null);
     }
 
+    @Test
+    public void renderedContentShouldBeSavedForOutdatedPosts() {
+        Post post = new Post(user, "content");
+        when(pendingRenderedPosts.drain()).thenReturn(Collections.singletonMap(POST_ID, "html"));
+        when(postDao.get(POST_ID)).thenReturn(post);
+
+        postService.saveRenderedContent();
+
+        assertEquals(post.getRenderedContent(), "html");
+        assertEquals(post.getRenderedVersion(), BBCodeService.RENDERER_VERSION);
+        verify(postDao).saveOrUpdate(post);
+    }
+
+    @Test
+    public void renderedContentShouldNotOverwritePostRenderedAfterEditing() {
+        Post post = new Post(user, "new content");
+        post.setRenderedContent("new html");
+        post.setRenderedVersion(BBCodeService.RENDERER_VERSION);
+        when(pendingRenderedPosts.drain()).thenReturn(Collections.singletonMap(POST_ID, "html"));
+        when(postDao.get(POST_ID)).thenReturn(post);
+
+        postService.saveRenderedContent();
+
+        assertEquals(post.getRenderedContent(), "new html");
+        verify(postDao, Mockito.never()).saveOrUpdate(post);
+    }
+
+    @Test
+    public void renderedContentOfDeletedPostShouldBeSkipped() {
+        when(pendingRenderedPosts.drain()).thenReturn(Collections.singletonMap(POST_ID, "html"));
+
+        postService.saveRenderedContent();
+
+        verify(postDao, Mockito.never()).saveOrUpdate(Matchers.<Post>any());
+    }
+
     /**
      * Creates a code review with the first post.
      *
@@ -180,12 +231,13 @@ public class TransactionalPostServiceTest {
         topic.addPost(postForDelete);
         topic.recalculateModificationDate();
         Branch branch = new Branch("branch", "branch description");
-        topic.setBranch(branch);
+        branch.addTopic(topic);
         user.setPostCount(2);
 
         postService.deletePost(postForDelete);
 
         assertEquals(user.getPostCount(), 1);
+        verify(branchDao).adjustCounts(branch, 0, -1);
         assertEquals(topic.getModificationDate(), topic.getFirstPost().getModificationDate());
         verify(topicDao).saveOrUpdate(topic);
         verify(securityService).deleteFromAcl(postForDelete);
@@ -277,7 +329,7 @@ public class TransactionalPostServiceTest {
 
         currentUser.setPageSize(pageSize);
 
-        Page<Post> actualPostsPage = postService.getPostsOfUser(user, page, pagingEnabled);
+        Page<Post> actualPostsPage = postService.getPostsOfUser(user, page, null, pagingEnabled);
 
         assertEquals(actualPostsPage, expectedPostsPage);
         verify(postDao).getUserPosts(
@@ -376,13 +428,27 @@ public class TransactionalPostServiceTest {
                 Matchers.any(Topic.class), Matchers.any(JCommunePageRequest.class)))
                 .thenReturn(expectedPage);
 
-        Page<Post> actualPage = postService.getPosts(topic, pageSize, true);
+        Page<Post> actualPage = postService.getPosts(topic, pageSize, null, true);
 
         assertEquals(actualPage, expectedPage, "Service returned incorrect data for one page of posts");
         verify(postDao).getPosts(
                 Matchers.any(Topic.class), Matchers.any(JCommunePageRequest.class));
     }
 
+    @Test
+    public void testGetPostsPassesLastSeenPostToDao() {
+        Topic topic = new Topic(user, "");
+        long lastSeenId = 42L;
+        currentUser.setPageSize(50);
+
+        postService.getPosts(topic, 2, lastSeenId, true);
+
+        ArgumentCaptor<JCommunePageRequest> pageRequest = ArgumentCaptor.forClass(JCommunePageRequest.class);
+        verify(postDao).getPosts(Matchers.eq(topic), pageRequest.capture());
+        assertEquals(pageRequest.getValue().getLastSeenId(), Long.valueOf(lastSeenId));
+        assertEquals(pageRequest.getValue().getPageNumber(), 2);
+    }
+
     @Test
     public void testGetLastPostForBranch() {
         Branch postBranch = new Branch(null, null);
@@ -28,7 +28,9 @@ import org.jtalks.jcommune.model.entity.PrivateMessage;
 import org.jtalks.jcommune.model.entity.PrivateMessageStatus;
 import org.jtalks.jcommune.service.UserService;
 import org.jtalks.jcommune.service.exceptions.NotFoundException;
+import org.jtalks.jcommune.service.nontransactional.BBCodeService;
 import org.jtalks.jcommune.service.nontransactional.MailService;
+import org.jtalks.jcommune.service.nontransactional.PendingRenderedPosts;
 import org.jtalks.jcommune.service.nontransactional.UserDataCacheService;
 import org.mockito.Matchers;
 import org.mockito.Mock;
@@ -38,6 +40,7 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.jtalks.jcommune.service.TestUtils.mockAclBuilder;
@@ -76,6 +79,10 @@ public class TransactionalPrivateMessageServiceTest {
     private MailService mailService;
     @Mock
     private PropertyDao propertyDao;
+    @Mock
+    private BBCodeService bbCodeService;
+    @Mock
+    private PendingRenderedPosts pendingRenderedMessages;
     private JCommuneProperty sendingNotificationsEnabledProperty = JCommuneProperty.SENDING_NOTIFICATIONS_ENABLED;
 
     private TransactionalPrivateMessageService pmService;
@@ -98,7 +105,7 @@ public class TransactionalPrivateMessageServiceTest {
         sendingNotificationsEnabledProperty.setPropertyDao(propertyDao);
         aclBuilder = mockAclBuilder();
         pmService = new TransactionalPrivateMessageService(pmDao, securityService, userService, userDataCache,
-                mailService, sendingNotificationsEnabledProperty);
+                mailService, sendingNotificationsEnabledProperty, bbCodeService, pendingRenderedMessages);
         when(userService.getCurrentUser()).thenReturn(user);
     }
 
@@ -143,6 +150,7 @@ public class TransactionalPrivateMessageServiceTest {
         assertEquals(pm.getStatus(), PrivateMessageStatus.SENT);
         verify(userDataCache).incrementNewMessageCountFor(USERNAME);
         verify(mailService).sendReceivedPrivateMessageNotification(JC_USER, pm);
+        verify(bbCodeService).renderPrivateMessage(pm);
         verify(pmDao).saveOrUpdate(pm);
         verify(aclBuilder, times(2)).grant(GeneralPermission.READ);
         verify(propertyDao).getByName(PROPERTY_NAME);
@@ -524,4 +532,40 @@ public class TransactionalPrivateMessageServiceTest {
         //todo  verify(pmDao).get(2L);
     }*/
 
+    @Test
+    public void renderedBodiesShouldBeSaved() {
+        PrivateMessage message = new PrivateMessage(user, user, "title", "body");
+        message.setRenderedVersion(BBCodeService.RENDERER_VERSION - 1);
+        when(pendingRenderedMessages.drain()).thenReturn(Collections.singletonMap(PM_ID, "html"));
+        when(pmDao.get(PM_ID)).thenReturn(message);
+
+        pmService.saveRenderedBodies();
+
+        assertEquals(message.getRenderedBody(), "html");
+        assertEquals(message.getRenderedVersion(), BBCodeService.RENDERER_VERSION);
+        verify(pmDao).saveOrUpdate(message);
+    }
+
+    @Test
+    public void renderedBodyShouldNotOverwriteMessageRenderedAfterEditing() {
+        PrivateMessage message = new PrivateMessage(user, user, "title", "new body");
+        message.setRenderedBody("new html");
+        message.setRenderedVersion(BBCodeService.RENDERER_VERSION);
+        when(pendingRenderedMessages.drain()).thenReturn(Collections.singletonMap(PM_ID, "html"));
+        when(pmDao.get(PM_ID)).thenReturn(message);
+
+        pmService.saveRenderedBodies();
+
+        assertEquals(message.getRenderedBody(), "new html");
+        verify(pmDao, never()).saveOrUpdate(message);
+    }
+
+    @Test
+    public void renderedBodyOfDeletedMessageShouldBeSkipped() {
+        when(pendingRenderedMessages.drain()).thenReturn(Collections.singletonMap(PM_ID, "html"));
+
+        pmService.saveRenderedBodies();
+
+        verify(pmDao, never()).saveOrUpdate(any(PrivateMessage.class));
+    }
 }
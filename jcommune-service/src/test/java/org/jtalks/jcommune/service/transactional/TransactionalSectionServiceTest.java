@@ -23,7 +23,6 @@ import org.jtalks.jcommune.service.BranchService;
 import org.jtalks.jcommune.service.SectionService;
 import org.jtalks.jcommune.service.UserService;
 import org.jtalks.jcommune.service.exceptions.NotFoundException;
-import org.mockito.Mockito;
 import org.springframework.security.access.AccessDeniedException;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -122,13 +121,16 @@ public class TransactionalSectionServiceTest {
     
     @Test
     public void testPrepareSectionsForView() {
-        List<Section> sections = Arrays.asList(new Section(SECTION_NAME), new Section(SECTION_NAME));
-        int sectionSize = sections.size();
-        
+        Section first = new Section(SECTION_NAME);
+        first.addOrUpdateBranch(new Branch(null, null));
+        Section second = new Section(SECTION_NAME);
+        second.addOrUpdateBranch(new Branch(null, null));
+        List<Section> sections = Arrays.asList(first, second);
+
         sectionService.prepareSectionsForView(sections);
 
-        verify(branchService, Mockito.times(sectionSize))
-            .fillStatisticInfo(Mockito.anyListOf(Branch.class));
+        verify(branchService).fillStatisticInfo(
+                Arrays.asList(first.getBranches().get(0), second.getBranches().get(0)));
     }
     
     @Test
@@ -18,13 +18,22 @@ import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
 import org.jtalks.jcommune.model.dao.TopicDao;
 import org.jtalks.jcommune.model.dao.search.TopicSearchDao;
+import org.jtalks.jcommune.model.dto.IndexRebuildProgress;
 import org.jtalks.jcommune.model.dto.JCommunePageRequest;
+import org.jtalks.jcommune.model.dto.SearchFacet;
+import org.jtalks.jcommune.model.dto.TopicSearchFilter;
+import org.jtalks.jcommune.model.dto.TopicSearchHit;
+import org.jtalks.jcommune.model.dto.TopicSearchResult;
+import org.jtalks.jcommune.model.entity.AnonymousUser;
 import org.jtalks.jcommune.model.entity.Branch;
 import org.jtalks.jcommune.model.entity.JCUser;
 import org.jtalks.jcommune.model.entity.Topic;
+import org.jtalks.jcommune.service.LastReadPostService;
 import org.jtalks.jcommune.service.TopicFetchService;
 import org.jtalks.jcommune.service.UserService;
 import org.jtalks.jcommune.service.exceptions.NotFoundException;
+import org.jtalks.jcommune.service.nontransactional.TopicViewsCounter;
+import org.mockito.InOrder;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -39,6 +48,8 @@ import java.util.Collections;
 import java.util.List;
 
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -53,6 +64,10 @@ public class TransactionalTopicFetchServiceTest {
     private UserService userService;
     @Mock
     private TopicSearchDao searchDao;
+    @Mock
+    private LastReadPostService lastReadPostService;
+
+    private TopicViewsCounter viewsCounter;
 
     private TopicFetchService topicFetchService;
 
@@ -61,7 +76,9 @@ public class TransactionalTopicFetchServiceTest {
     @BeforeMethod
     public void init(){
         initMocks(this);
-        topicFetchService = new TransactionalTopicFetchService(topicDao, userService, searchDao);
+        viewsCounter = new TopicViewsCounter();
+        topicFetchService = new TransactionalTopicFetchService(
+                topicDao, userService, searchDao, viewsCounter, lastReadPostService);
         user = new JCUser("username", "email@mail.com", "password");
         when(userService.getCurrentUser()).thenReturn(user);
     }
@@ -80,6 +97,35 @@ public class TransactionalTopicFetchServiceTest {
         assertEquals(actualTopic, expectedTopic, "Topics aren't equal");
         verify(topicDao).isExist(999L);
         verify(topicDao).get(999L);
+        verify(topicDao, never()).saveOrUpdate(expectedTopic);
+    }
+
+    @Test
+    public void flushViewsShouldSaveAccumulatedViews() throws NotFoundException {
+        Topic topic = new Topic(user, "title");
+        when(topicDao.isExist(999L)).thenReturn(true);
+        when(topicDao.get(999L)).thenReturn(topic);
+        topicFetchService.get(999L);
+        topicFetchService.get(999L);
+
+        topicFetchService.flushViews();
+
+        verify(topicDao).addViews(Collections.singletonMap(999L, 2));
+        assertEquals(viewsCounter.getPendingViews(999L), 0);
+    }
+
+    @Test
+    public void getTopicsShouldShowViewsWhichAreNotSavedYet() {
+        Topic topic = new Topic(user, "title");
+        topic.setId(999L);
+        topic.setViews(10);
+        viewsCounter.increment(999L);
+        when(topicDao.getTopics(Matchers.any(Branch.class), Matchers.any(JCommunePageRequest.class)))
+                .thenReturn(new PageImpl<Topic>(Collections.singletonList(topic)));
+
+        Page<Topic> page = topicFetchService.getTopics(createBranch(), 1, null, true);
+
+        assertEquals(page.getContent().get(0).getViews(), 11);
     }
 
     @Test(expectedExceptions = {NotFoundException.class})
@@ -124,6 +170,30 @@ public class TransactionalTopicFetchServiceTest {
         assertEquals(actualPage, expectedPage);
     }
 
+    @Test
+    public void getUnreadTopicsShouldSaveReadStateBeforeQuery() {
+        List<Topic> expectedList = Collections.nCopies(2, new Topic(user, "title"));
+        Page<Topic> expectedPage = new PageImpl<Topic>(expectedList);
+        when(topicDao.getUnreadTopics(Matchers.<JCommunePageRequest>any(), eq(user))).thenReturn(expectedPage);
+
+        Page<Topic> actualPage = topicFetchService.getUnreadTopics(1);
+
+        assertEquals(actualPage, expectedPage);
+        InOrder inOrder = inOrder(lastReadPostService, topicDao);
+        inOrder.verify(lastReadPostService).saveLastReadPostsOfCurrentUser();
+        inOrder.verify(topicDao).getUnreadTopics(Matchers.<JCommunePageRequest>any(), eq(user));
+    }
+
+    @Test
+    public void anonymousUserShouldNotHaveUnreadTopics() {
+        when(userService.getCurrentUser()).thenReturn(new AnonymousUser());
+
+        Page<Topic> actualPage = topicFetchService.getUnreadTopics(1);
+
+        assertEquals(actualPage.getTotalElements(), 0);
+        verify(topicDao, never()).getUnreadTopics(Matchers.<JCommunePageRequest>any(), Matchers.<JCUser>any());
+    }
+
     @Test
     public void testGetTopics() {
         int pageSize = 50;
@@ -137,7 +207,7 @@ public class TransactionalTopicFetchServiceTest {
                 Matchers.any(Branch.class), Matchers.any(JCommunePageRequest.class)))
                 .thenReturn(expectedPage);
 
-        Page<Topic> actualPage = topicFetchService.getTopics(branch, pageSize, true);
+        Page<Topic> actualPage = topicFetchService.getTopics(branch, pageSize, null, true);
 
         assertEquals(actualPage, expectedPage, "Service returned incorrect data for one page of topics");
         verify(topicDao).getTopics(
@@ -154,16 +224,66 @@ public class TransactionalTopicFetchServiceTest {
     @Test
     public void testSearchPosts() {
         String phrase = "phrase";
+        TopicSearchFilter filter = new TopicSearchFilter(1L, 2L, new DateTime(0), new DateTime());
+        when(searchDao.searchByTitleAndContent(Matchers.anyString(), Matchers.<TopicSearchFilter>any(),
+                Matchers.<JCommunePageRequest>any(), Matchers.<JCUser>any()))
+                .thenReturn(TopicSearchResult.empty(null));
+
+        topicFetchService.searchByTitleAndContent(phrase, filter, 50);
+
+        Mockito.verify(searchDao).searchByTitleAndContent(Matchers.anyString(), eq(filter),
+                Matchers.<JCommunePageRequest> any(), eq(user));
+    }
+
+    @Test
+    public void searchShouldAddPendingViewsToFoundTopics() {
+        Topic topic = new Topic(user, "title");
+        topic.setId(999L);
+        viewsCounter.increment(999L);
+        when(searchDao.searchByTitleAndContent(Matchers.anyString(), Matchers.<TopicSearchFilter>any(),
+                Matchers.<JCommunePageRequest>any(), Matchers.<JCUser>any()))
+                .thenReturn(new TopicSearchResult(Collections.singletonList(new TopicSearchHit(topic, "<b>title</b>")),
+                        null, 1, Collections.<SearchFacet<Branch>>emptyList(),
+                        Collections.<SearchFacet<JCUser>>emptyList()));
+
+        TopicSearchResult searchResultPage = topicFetchService.searchByTitleAndContent(
+                "title", TopicSearchFilter.NONE, 1);
+
+        assertEquals(searchResultPage.getContent().get(0).getTopic().getViews(), 1);
+        assertEquals(searchResultPage.getContent().get(0).getFragment(), "<b>title</b>");
+    }
+
+    @Test
+    public void awaitIndexingOfOwnPostsShouldWaitForPostsOfCurrentUser() {
+        topicFetchService.awaitIndexingOfOwnPosts();
+
+        verify(searchDao).awaitIndexingOfPostsBy(user);
+    }
+
+    @Test
+    public void awaitIndexingOfOwnPostsShouldNotWaitForAnonymousUser() {
+        when(userService.getCurrentUser()).thenReturn(new AnonymousUser());
+
+        topicFetchService.awaitIndexingOfOwnPosts();
+
+        verify(searchDao, never()).awaitIndexingOfPostsBy(Matchers.<JCUser>any());
+    }
 
-        topicFetchService.searchByTitleAndContent(phrase, 50);
+    @Test
+    public void searchShouldNotWaitForIndexing() {
+        when(searchDao.searchByTitleAndContent(Matchers.anyString(), Matchers.<TopicSearchFilter>any(),
+                Matchers.<JCommunePageRequest>any(), Matchers.<JCUser>any()))
+                .thenReturn(TopicSearchResult.empty(null));
+
+        topicFetchService.searchByTitleAndContent("phrase", TopicSearchFilter.NONE, 1);
 
-        Mockito.verify(searchDao).searchByTitleAndContent(
-                Matchers.anyString(), Matchers.<JCommunePageRequest> any());
+        verify(searchDao, never()).awaitIndexingOfPostsBy(Matchers.<JCUser>any());
     }
 
     @Test(dataProvider = "parameterSearchPostsWithEmptySearchPhrase")
     public void testSearchPostsWithEmptySearchPhrase(String phrase) {
-        Page<Topic> searchResultPage = topicFetchService.searchByTitleAndContent(phrase, 50);
+        TopicSearchResult searchResultPage = topicFetchService.searchByTitleAndContent(
+                phrase, TopicSearchFilter.NONE, 50);
 
         Assert.assertTrue(!searchResultPage.hasContent(), "The search result must be empty.");
     }
@@ -182,4 +302,12 @@ public class TransactionalTopicFetchServiceTest {
 
         Mockito.verify(searchDao).rebuildIndex();
     }
+
+    @Test
+    public void rebuildProgressShouldBeTakenFromSearchDao() {
+        IndexRebuildProgress progress = new IndexRebuildProgress(IndexRebuildProgress.State.RUNNING, 100, 10, 1000);
+        when(searchDao.getIndexRebuildProgress()).thenReturn(progress);
+
+        assertEquals(topicFetchService.getSearchIndexRebuildProgress(), progress);
+    }
 }
@@ -22,9 +22,11 @@ import org.jtalks.common.service.security.SecurityContextFacade;
 import org.jtalks.jcommune.model.dao.BranchDao;
 import org.jtalks.jcommune.model.dao.PostDao;
 import org.jtalks.jcommune.model.dao.TopicDao;
+import org.jtalks.jcommune.model.dao.search.TopicSearchDao;
 import org.jtalks.jcommune.model.entity.*;
 import org.jtalks.jcommune.service.*;
 import org.jtalks.jcommune.service.exceptions.NotFoundException;
+import org.jtalks.jcommune.service.nontransactional.BBCodeService;
 import org.jtalks.jcommune.service.nontransactional.MentionedUsers;
 import org.jtalks.jcommune.service.nontransactional.NotificationService;
 import org.mockito.Matchers;
@@ -97,6 +99,10 @@ public class TransactionalTopicModificationServiceTest {
     private MentionedUsers mentionedUsers;
     @Mock
     private PostDao postDao;
+    @Mock
+    private BBCodeService bbCodeService;
+    @Mock
+    private TopicSearchDao searchDao;
 
     private CompoundAclBuilder<User> aclBuilder;
 
@@ -115,7 +121,9 @@ public class TransactionalTopicModificationServiceTest {
                 topicFetchService,
                 securityContextFacade,
                 permissionEvaluator,
-                branchLastPostService);
+                branchLastPostService,
+                searchDao,
+                bbCodeService);
 
         user = new JCUser("username", "email@mail.com", "password");
         when(securityContextFacade.getContext()).thenReturn(securityContext);
@@ -134,11 +142,13 @@ public class TransactionalTopicModificationServiceTest {
         assertEquals(createdPost.getPostContent(), ANSWER_BODY);
         assertEquals(createdPost.getUserCreated(), user);
         assertEquals(user.getPostCount(), 1);
+        verify(branchDao).adjustCounts(answeredTopic.getBranch(), 0, 1);
 
         verify(aclBuilder).grant(GeneralPermission.WRITE);
         verify(aclBuilder).to(user);
         verify(aclBuilder).on(createdPost);
         verify(notificationService).subscribedEntityChanged(answeredTopic);
+        verify(bbCodeService).renderPost(createdPost);
     }
 
     @Test
@@ -207,6 +217,7 @@ public class TransactionalTopicModificationServiceTest {
         assertEquals(createdPost.getPostContent(), ANSWER_BODY);
         assertEquals(createdPost.getUserCreated(), user);
         assertEquals(user.getPostCount(), 1);
+        verify(branchDao).adjustCounts(answeredTopic.getBranch(), 0, 1);
 
         verify(aclBuilder).grant(GeneralPermission.WRITE);
         verify(aclBuilder).to(user);
@@ -322,6 +333,7 @@ public class TransactionalTopicModificationServiceTest {
         assertEquals(createdPost.getUserCreated(), user);
         assertEquals(createdPost.getPostContent(), ANSWER_BODY);
         assertEquals(user.getPostCount(), 1);
+        verify(bbCodeService).renderPost(createdPost);
     }
 
     private void createCodeReviewAssertions(Branch branch, Topic createdTopic, Post createdPost) {
@@ -331,6 +343,7 @@ public class TransactionalTopicModificationServiceTest {
         assertEquals(createdPost.getUserCreated(), user);
         assertEquals(createdPost.getPostContent(), "[code=java]" + ANSWER_BODY + "[/code]");
         assertEquals(user.getPostCount(), 1);
+        verify(bbCodeService).renderPost(createdPost);
         assertFalse(createdTopic.isAnnouncement());
         assertFalse(createdTopic.isSticked());
         assertNotNull(createdTopic.getCodeReview());
@@ -341,6 +354,7 @@ public class TransactionalTopicModificationServiceTest {
     private void createTopicVerifications(Branch branch)
             throws NotFoundException {
         verify(branchDao).saveOrUpdate(branch);
+        verify(branchDao).adjustCounts(branch, 1, 1);
         verify(aclBuilder, times(2)).grant(GeneralPermission.WRITE);
         verify(notificationService).subscribedEntityChanged(branch);
     }
@@ -381,8 +395,10 @@ public class TransactionalTopicModificationServiceTest {
         topicService.deleteTopicSilent(TOPIC_ID);
 
         assertEquals(branch.getTopicCount(), 0);
+        assertEquals(branch.getPostCount(), 0);
         assertEquals(user.getPostCount(), 0);
         verify(branchDao).saveOrUpdate(branch);
+        verify(branchDao).adjustCounts(branch, -1, -1);
         verify(securityService).deleteFromAcl(Topic.class, TOPIC_ID);
     }
 
@@ -455,6 +471,7 @@ public class TransactionalTopicModificationServiceTest {
 
         verify(notificationService).subscribedEntityChanged(topic);
         verify(subscriptionService).toggleTopicSubscription(topic);
+        verify(searchDao).reindexPosts(topic);
     }
 
     @Test
@@ -517,6 +534,7 @@ public class TransactionalTopicModificationServiceTest {
 
         topicService.updateTopic(topic, null);
 
+        verify(bbCodeService).renderPost(post);
         verify(topicDao).saveOrUpdate(topic);
         verify(notificationService).subscribedEntityChanged(topic);
     }
@@ -547,8 +565,12 @@ public class TransactionalTopicModificationServiceTest {
         topicService.moveTopic(topic, BRANCH_ID);
 
         assertEquals(targetBranch.getTopicCount(), 1);
+        assertEquals(targetBranch.getPostCount(), 1);
+        verify(branchDao).adjustCounts(currentBranch, -1, -1);
+        verify(branchDao).adjustCounts(targetBranch, 1, 1);
         verify(branchDao).saveOrUpdate(targetBranch);
         verify(notificationService).topicMoved(topic, TOPIC_ID);
+        verify(searchDao).reindexPosts(topic);
     }
 
     @Test
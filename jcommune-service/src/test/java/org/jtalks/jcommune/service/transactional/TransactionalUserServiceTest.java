@@ -25,9 +25,11 @@ import org.jtalks.common.security.acl.builders.CompoundAclBuilder;
 import org.jtalks.common.service.security.SecurityContextHolderFacade;
 import org.jtalks.jcommune.model.dao.PostDao;
 import org.jtalks.jcommune.model.dao.UserDao;
+import org.jtalks.jcommune.model.dao.UsernamesIndex;
 import org.jtalks.jcommune.model.entity.AnonymousUser;
 import org.jtalks.jcommune.model.entity.JCUser;
 import org.jtalks.jcommune.model.entity.Language;
+import org.jtalks.jcommune.model.entity.Post;
 import org.jtalks.jcommune.service.UserService;
 import org.jtalks.jcommune.service.dto.UserInfoContainer;
 import org.jtalks.jcommune.service.exceptions.MailingFailedException;
@@ -46,6 +48,8 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.web.authentication.RememberMeServices;
 import org.springframework.security.web.authentication.session.SessionAuthenticationStrategy;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -56,6 +60,7 @@ import java.util.*;
 import static java.lang.String.format;
 import static org.jtalks.jcommune.service.TestUtils.mockAclBuilder;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.matches;
@@ -127,6 +132,10 @@ public class TransactionalUserServiceTest {
     private SessionAuthenticationStrategy sessionStrategy;
     @Mock
     private PostDao postDao;
+    @Mock
+    private UsernamesIndex usernamesIndex;
+    @Mock
+    private MentionedUsersCache mentionedUsersCache;
 
     @BeforeMethod
     public void setUp() throws Exception {
@@ -148,7 +157,9 @@ public class TransactionalUserServiceTest {
                 securityFacade,
                 rememberMeServices,
                 sessionStrategy,
-                postDao);
+                postDao,
+                usernamesIndex,
+                mentionedUsersCache);
 
     }
 
@@ -184,6 +195,25 @@ public class TransactionalUserServiceTest {
         assertTrue(new Interval(registeredUser.getRegistrationDate(), now)
                 .toDuration().getMillis() <= MAX_REGISTRATION_TIMEOUT);
         verify(userDao).saveOrUpdate(user);
+        verify(mentionedUsersCache).invalidate(USERNAME);
+    }
+
+    @Test
+    public void registerUserShouldInvalidateMentionedUserAgainAfterTransactionCompletion() {
+        JCUser user = getUser(USERNAME);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            userService.registerUser(user);
+            verify(mentionedUsersCache).invalidate(USERNAME);
+
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            }
+
+            verify(mentionedUsersCache, times(2)).invalidate(USERNAME);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
     }
 
     @Test
@@ -343,6 +373,7 @@ public class TransactionalUserServiceTest {
         assertTrue(user.isEnabled());
         verify(groupDao).saveOrUpdate(group);
         assertTrue(group.getUsers().contains(user));
+        verify(usernamesIndex).add(USERNAME);
     }
 
     @Test(expectedExceptions = NotFoundException.class)
@@ -365,6 +396,7 @@ public class TransactionalUserServiceTest {
         assertTrue(user.isEnabled());
         verify(groupDao, never()).saveOrUpdate(any(Group.class));
         assertFalse(group.getUsers().contains(user));
+        verify(usernamesIndex, never()).add(anyString());
     }
 
     @Test
@@ -386,6 +418,17 @@ public class TransactionalUserServiceTest {
         verify(userDao).delete(user2);
         verify(userDao).delete(user3);
         verify(userDao, never()).delete(user1);
+        verify(usernamesIndex, times(2)).remove(USERNAME);
+        verify(mentionedUsersCache, times(2)).invalidate(USERNAME);
+    }
+
+    @Test
+    public void getUsernamesShouldFindFirstTenInIndex() {
+        List<String> usernames = Arrays.asList("masyan", "masyanya");
+        when(usernamesIndex.getUsernames("mas", 10)).thenReturn(usernames);
+
+        assertEquals(userService.getUsernames("mas"), usernames);
+        verifyZeroInteractions(userDao);
     }
 
     @Test
@@ -506,9 +549,9 @@ public class TransactionalUserServiceTest {
         long notNotifiedMentionedUserId = 100L;
         long notifiedMentionedUserId = 200L;
         JCUser notNotifiedMentionedUser = getUser(notNotifiedMentionedUserName, notNotifiedMentionedUserId);
-        when(userDao.getByUsername(notNotifiedMentionedUserName)).thenReturn(notNotifiedMentionedUser);
         JCUser notifiedMentionedUser = getUser(notifiedMentionedUserName, notifiedMentionedUserId);
-        when(userDao.getByUsername(notifiedMentionedUserName)).thenReturn(notifiedMentionedUser);
+        when(userDao.getByUsernamesIgnoringCase(asSet(notNotifiedMentionedUserName, notifiedMentionedUserName)))
+                .thenReturn(Arrays.asList(notNotifiedMentionedUser, notifiedMentionedUser));
         //
         String expectedNotNotifiedUserProfile = "/forum/users/" + notNotifiedMentionedUserId;
         String expectedNotifiedUserProfile = "/forum/users/" + notifiedMentionedUserId;
@@ -536,8 +579,8 @@ public class TransactionalUserServiceTest {
     public void processShouldNotAttachProfileLinkToNotExistUsers() throws NotFoundException {
         String firstMentionedUserName = "Shogun";
         String secondMentionedUserName = "jk1";
-        when(userDao.getByUsername(firstMentionedUserName)).thenReturn(null);
-        when(userDao.getByUsername(secondMentionedUserName)).thenReturn(null);
+        when(userDao.getByUsernamesIgnoringCase(asSet(firstMentionedUserName, secondMentionedUserName)))
+                .thenReturn(Collections.<JCUser>emptyList());
         String notProcessedSource = format(MENTIONING_TEMPLATE, firstMentionedUserName, secondMentionedUserName);
 
         MentionedUsers mentionedUsers = mock(MentionedUsers.class);
@@ -552,6 +595,20 @@ public class TransactionalUserServiceTest {
         assertEquals(actualAfterProcess, msgWithNotFoundUsers);
     }
 
+    @Test
+    public void cacheMentionedUsersShouldLookUpUsersOfNotRenderedPostsWithOneQuery() {
+        Post notRenderedPost = new Post(getUser(USERNAME), "[user]Shogun[/user] [user]jk1[/user]");
+        Post otherNotRenderedPost = new Post(getUser(USERNAME), "[user]jk1[/user] [user]masyan[/user]");
+        Post renderedPost = new Post(getUser(USERNAME), "[user]masyanya[/user]");
+        renderedPost.setRenderedVersion(BBCodeService.RENDERER_VERSION);
+        Xnew HashMap<String, Long>());
+
+        userService.cacheMentionedUsers(Arrays.asList(notRenderedPost, otherNotRenderedPost, renderedPost));
+
+        verify(userDao).getByUsernamesIgnoringCase(asSet("Shogun", "jk1", "masyan"));
+        verify(userDao, never()).getByUsername(anyString());
+    }
+
     public static <T> Set<T> asSet(T... values) {
         return new HashSet<T>(Arrays.asList(values));
     }
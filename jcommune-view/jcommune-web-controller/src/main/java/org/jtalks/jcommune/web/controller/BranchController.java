@@ -55,6 +55,7 @@ public class BranchController {
 
     public static final String PAGE = "page";
     public static final String PAGING_ENABLED = "pagingEnabled";
+    public static final String AFTER = "after";
     private BranchService branchService;
     private TopicFetchService topicFetchService;
     private LastReadPostService lastReadPostService;
@@ -93,6 +94,7 @@ public class BranchController {
      *
      * @param branchId      branch for display
      * @param page          page
+     * @param after         id of the last topic on the previous page, if known
      * @param pagingEnabled number of posts on the page
      * @return {@code ModelAndView} with topics list and vars for pagination
      * @throws org.jtalks.jcommune.service.exceptions.NotFoundException
@@ -101,12 +103,13 @@ public class BranchController {
     @RequestMapping(value = "/branches/{branchId}", method = RequestMethod.GET)
     public ModelAndView showPage(@PathVariable("branchId") long branchId,
                                  @RequestParam(value = PAGE, defaultValue = "1", required = false) int page,
+                                 @RequestParam(value = AFTER, required = false) Long after,
                                  @RequestParam(value = PAGING_ENABLED, defaultValue = "true",
                                          required = false) Boolean pagingEnabled
     ) throws NotFoundException {
 
         Branch branch = branchService.get(branchId);
-        Page<Topic> topicsPage = topicFetchService.getTopics(branch, page, pagingEnabled);
+        Page<Topic> topicsPage = topicFetchService.getTopics(branch, page, after, pagingEnabled);
         lastReadPostService.fillLastReadPostForTopics(topicsPage.getContent());
 
         JCUser currentUser = userService.getCurrentUser();
@@ -155,6 +158,22 @@ public class BranchController {
                 .addObject(PAGING_ENABLED, true);
     }
 
+    /**
+     * Displays to user a list of topics not read by the user yet.
+     *
+     * @param page page
+     * @return {@code ModelAndView} with topics list and vars for pagination
+     */
+    @RequestMapping("/topics/unread")
+    public ModelAndView unreadTopicsPage(@RequestParam(value = PAGE, defaultValue = "1", required = false)
+                                         int page) {
+        Page<Topic> topicsPage = topicFetchService.getUnreadTopics(page);
+        lastReadPostService.fillLastReadPostForTopics(topicsPage.getContent());
+        return new ModelAndView("unreadTopics")
+                .addObject("topicsPage", topicsPage)
+                .addObject(PAGING_ENABLED, true);
+    }
+
     /**
      * Provides all available for move topic branches from section with given sectionId as JSON array.
      *
@@ -193,6 +193,7 @@ public class TopicController {
      *
      * @param topicId       the id of selected Topic
      * @param page          page
+     * @param after         id of the last post on the previous page, if known
      * @param pagingEnabled if output data should be divided by pages
      * @return {@code ModelAndView}
      * @throws NotFoundException when topic or branch not found
@@ -200,12 +201,14 @@ public class TopicController {
     @RequestMapping(value = "/topics/{topicId}", method = RequestMethod.GET)
     public ModelAndView showTopicPage(@PathVariable(TOPIC_ID) Long topicId,
                                       @RequestParam(value = "page", defaultValue = "1", required = false) int page,
+                                      @RequestParam(value = "after", required = false) Long after,
                                       @RequestParam(value = PAGING_ENABLED, defaultValue = "true",
                                               required = false) Boolean pagingEnabled) throws NotFoundException {
 
         Topic topic = topicFetchService.get(topicId);
         topicFetchService.checkViewTopicPermission(topic.getBranch().getId());
-        Page<Post> postsPage = postService.getPosts(topic, page, pagingEnabled);
+        Page<Post> postsPage = postService.getPosts(topic, page, after, pagingEnabled);
+        userService.cacheMentionedUsers(postsPage.getContent());
         JCUser currentUser = userService.getCurrentUser();
         Integer lastReadPostIndex = lastReadPostService.getLastReadPostForTopic(topic);
         lastReadPostService.markTopicPageAsRead(topic, page, pagingEnabled);
@@ -220,6 +223,24 @@ public class TopicController {
                 .addObject("pagingEnabled", pagingEnabled);
     }
 
+    /**
+     * Redirects user to the first post of the topic he hasn't read yet. Topic listings link here
+     * instead of calculating the first unread post themselves, as it would require loading posts
+     * of every topic listed. If all the posts are read, user is redirected to the last post.
+     *
+     * @param topicId the id of selected Topic
+     * @return redirect to the first unread post of the topic
+     * @throws NotFoundException when topic was not found
+     */
+    @RequestMapping(value = "/topics/{topicId}/unread", method = RequestMethod.GET)
+    public String redirectToFirstUnreadPost(@PathVariable(TOPIC_ID) Long topicId) throws NotFoundException {
+        Topic topic = topicFetchService.get(topicId);
+        topicFetchService.checkViewTopicPermission(topic.getBranch().getId());
+        lastReadPostService.getLastReadPostForTopic(topic);
+        long postId = topic.isHasUpdates() ? topic.getFirstUnreadPostId() : topic.getLastPost().getId();
+        return "redirect:/posts/" + postId;
+    }
+
     /**
      * Shows edit topic page with form, populated with fields from topic.
      *
@@ -14,16 +14,28 @@
  */
 package org.jtalks.jcommune.web.controller;
 
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.jtalks.jcommune.model.dto.TopicSearchFilter;
+import org.jtalks.jcommune.model.dto.TopicSearchHit;
+import org.jtalks.jcommune.model.dto.TopicSearchResult;
 import org.jtalks.jcommune.model.entity.Topic;
 import org.jtalks.jcommune.service.LastReadPostService;
 import org.jtalks.jcommune.service.TopicFetchService;
+import org.jtalks.jcommune.web.dto.json.JsonResponse;
+import org.jtalks.jcommune.web.dto.json.JsonResponseStatus;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.ModelAndView;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * The controller for the full-text search topics.
  *
@@ -46,6 +58,18 @@ public class TopicSearchController {
     public static final String SEARCH_TEXT_ATTRIBUTE_NAME = "searchText";
 
     public static final String PAGING_ENABLED = "pagingEnabled";
+    /**
+     * The name attribute for the {@link TopicSearchFilter} of the search.
+     */
+    public static final String SEARCH_FILTER_ATTRIBUTE_NAME = "searchFilter";
+    /**
+     * The name attribute for parameters of the filter added to links of pages.
+     */
+    public static final String FILTER_PARAMS_ATTRIBUTE_NAME = "filterParams";
+    public static final String BRANCH_ID = "branchId";
+    public static final String AUTHOR_ID = "authorId";
+    public static final String FROM = "from";
+    public static final String TO = "to";
 
     private static final String SEARCH_RESULT_VIEW_NAME = "searchResult";
 
@@ -67,7 +91,7 @@ public class TopicSearchController {
     }
 
     /**
-     * This method performs a indexing the data from the database.
+     * This method starts indexing the data from the database in the background.
      */
     @RequestMapping(value = "/search/index/rebuild")
     @ResponseStatus(value = HttpStatus.NO_CONTENT)
@@ -75,45 +99,114 @@ public class TopicSearchController {
         topicSearchService.rebuildSearchIndex();
     }
 
+    /**
+     * Shows the progress of the index rebuild: indexed posts, posts per second and the remaining time.
+     *
+     * @return the progress of the current or the last rebuild
+     */
+    @RequestMapping(value = "/search/index/rebuild/progress", method = RequestMethod.GET)
+    @ResponseBody
+    public JsonResponse getRebuildProgress() {
+        return new JsonResponse(JsonResponseStatus.SUCCESS, topicSearchService.getSearchIndexRebuildProgress());
+    }
+
     /**
      * Full-text search for topics. It needed to start the search.
      *
      * @param searchText search text
+     * @param branchId   the branch to search in, any branch if absent
+     * @param authorId   the author of posts to search, any author if absent
+     * @param from       the first day of creation of posts, no lower bound if absent
+     * @param to         the last day of creation of posts, no upper bound if absent
      * @return redirect to the answer page
      */
     @RequestMapping(value = "/search", method = RequestMethod.GET)
-    public ModelAndView initSearch(@RequestParam String searchText) {
+    public ModelAndView initSearch(@RequestParam String searchText,
+            @RequestParam(value = BRANCH_ID, required = false) Long branchId,
+            @RequestParam(value = AUTHOR_ID, required = false) Long authorId,
+            @RequestParam(value = FROM, required = false) @DateTimeFormat(iso = ISO.DATE) DateTime from,
+            @RequestParam(value = TO, required = false) @DateTimeFormat(iso = ISO.DATE) DateTime to) {
         int firstPage = 1;
-        return search(searchText, firstPage);
+        return search(searchText, branchId, authorId, from, to, firstPage);
     }
 
     /**
      * Full-text search for topics. It needed to continue the search.
      *
      * @param searchText search text
+     * @param branchId   the branch to search in, any branch if absent
+     * @param authorId   the author of posts to search, any author if absent
+     * @param from       the first day of creation of posts, no lower bound if absent
+     * @param to         the last day of creation of posts, no upper bound if absent
      * @param page       page number
      * @return redirect to answer page
      */
     @RequestMapping(value = "/search/{searchText}", method = RequestMethod.GET)
     public ModelAndView continueSearch(@PathVariable String searchText,
+            @RequestParam(value = BRANCH_ID, required = false) Long branchId,
+            @RequestParam(value = AUTHOR_ID, required = false) Long authorId,
+            @RequestParam(value = FROM, required = false) @DateTimeFormat(iso = ISO.DATE) DateTime from,
+            @RequestParam(value = TO, required = false) @DateTimeFormat(iso = ISO.DATE) DateTime to,
             @RequestParam(value = "page", defaultValue = "1", required = true) int page) {
-        return search(searchText, page);
+        return search(searchText, branchId, authorId, from, to, page);
     }
 
     /**
      * Contains a common logic for searching the text.
      *
      * @param searchText search text
+     * @param branchId   the branch to search in or <code>null</code>
+     * @param authorId   the author of posts to search or <code>null</code>
+     * @param from       the first day of creation of posts or <code>null</code>
+     * @param to         the last day of creation of posts or <code>null</code>
      * @param page       page number
      * @return result of the search
      */
-    private ModelAndView search(String searchText, int page) {
-        Page<Topic> searchResultPage = topicSearchService.searchByTitleAndContent(searchText, page);
-        lastReadPostService.fillLastReadPostForTopics(searchResultPage.getContent());
+    private ModelAndView search(String searchText, Long branchId, Long authorId, DateTime from, DateTime to,
+                                int page) {
+        // the last day is included, so posts are searched up to the beginning of the next one
+        TopicSearchFilter filter = new TopicSearchFilter(branchId, authorId, from,
+                to == null ? null : to.plusDays(1));
+        // waits outside of the transaction of the search
+        topicSearchService.awaitIndexingOfOwnPosts();
+        TopicSearchResult searchResultPage = topicSearchService.searchByTitleAndContent(searchText, filter, page);
+        List<Topic> topics = new ArrayList<Topic>(searchResultPage.getNumberOfElements());
+        for (TopicSearchHit hit : searchResultPage.getContent()) {
+            topics.add(hit.getTopic());
+        }
+        lastReadPostService.fillLastReadPostForTopics(topics);
         return new ModelAndView(SEARCH_RESULT_VIEW_NAME).
                 addObject(SEARCH_RESULT_ATTRIBUTE_NAME, searchResultPage).
                 addObject(URI_ATTRIBUTE_NAME, searchText).
                 addObject(SEARCH_TEXT_ATTRIBUTE_NAME, searchText).
-                addObject(PAGING_ENABLED, true);
+                addObject(PAGING_ENABLED, true).
+                addObject(SEARCH_FILTER_ATTRIBUTE_NAME, filter).
+                addObject(FILTER_PARAMS_ATTRIBUTE_NAME, getFilterParams(branchId, authorId, from, to));
+    }
+
+    /**
+     * Makes parameters of the filter to keep it on other pages of the search results.
+     *
+     * @param branchId the branch to search in or <code>null</code>
+     * @param authorId the author of posts to search or <code>null</code>
+     * @param from     the first day of creation of posts or <code>null</code>
+     * @param to       the last day of creation of posts or <code>null</code>
+     * @return parameters of the filter each starting with '&amp;', empty string if there is no filter
+     */
+    private String getFilterParams(Long branchId, Long authorId, DateTime from, DateTime to) {
+        StringBuilder params = new StringBuilder();
+        if (branchId != null) {
+            params.append('&').append(BRANCH_ID).append('=').append(branchId);
+        }
+        if (authorId != null) {
+            params.append('&').append(AUTHOR_ID).append('=').append(authorId);
+        }
+        if (from != null) {
+            params.append('&').append(FROM).append('=').append(ISODateTimeFormat.date().print(from));
+        }
+        if (to != null) {
+            params.append('&').append(TO).append('=').append(ISODateTimeFormat.date().print(to));
+        }
+        return params.toString();
     }
 }
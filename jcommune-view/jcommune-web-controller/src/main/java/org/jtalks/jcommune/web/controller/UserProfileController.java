@@ -221,6 +221,7 @@ public class UserProfileController {
      * even dots, which Spring MVC uses as file extension delimiters by default.
      *
      * @param page            number current page
+     * @param after           id of the last post on the previous page, if known
      * @param pagingEnabled   flag on/OffScreenImage paging
      * @param id database user identifier
      * @return post list of user
@@ -230,11 +231,13 @@ public class UserProfileController {
     public ModelAndView showUserPostList(@PathVariable Long id,
                                          @RequestParam(value = "page", defaultValue = "1",
                                                  required = false) int page,
+                                         @RequestParam(value = "after", required = false) Long after,
                                          @RequestParam(value = "pagingEnabled", defaultValue = "true", required = false
                                          ) Boolean pagingEnabled
     ) throws NotFoundException {
         JCUser user = userService.get(id);
-        Page<Post> postsPage = postService.getPostsOfUser(user, page, pagingEnabled);
+        Page<Post> postsPage = postService.getPostsOfUser(user, page, after, pagingEnabled);
+        userService.cacheMentionedUsers(postsPage.getContent());
         return new ModelAndView("userPostList")
                 .addObject("user", user)
                 .addObject("postsPage", postsPage)
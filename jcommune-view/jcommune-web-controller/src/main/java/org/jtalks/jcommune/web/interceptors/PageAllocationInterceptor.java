@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.web.interceptors;
+
+import org.jtalks.jcommune.service.nontransactional.PageAllocationCounter;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Measures memory allocated while the page is handled and rendered, requests which don't render a view, like
+ * redirects and AJAX calls returning JSON, aren't counted.
+ */
+public class PageAllocationInterceptor extends HandlerInterceptorAdapter {
+    static final String ALLOCATED_BYTES_ATTRIBUTE = "PageAllocationInterceptor_allocatedBytes";
+    static final String VIEW_RENDERED_ATTRIBUTE = "PageAllocationInterceptor_viewRendered";
+    private final PageAllocationCounter pageAllocationCounter;
+
+    /**
+     * @param pageAllocationCounter to count memory allocated while pages are rendered
+     */
+    public PageAllocationInterceptor(PageAllocationCounter pageAllocationCounter) {
+        this.pageAllocationCounter = pageAllocationCounter;
+    }
+
+    /**
+     * Remembers memory allocated by the thread before the request is handled.
+     *
+     * @param request  HttpServletRequest
+     * @param response HttpServletResponse
+     * @param handler  handler
+     * @return true, as processing should be continued anyway
+     */
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        long allocatedBytes = PageAllocationCounter.getCurrentThreadAllocatedBytes();
+        if (allocatedBytes >= 0) {
+            request.setAttribute(ALLOCATED_BYTES_ATTRIBUTE, allocatedBytes);
+        }
+        return true;
+    }
+
+    /**
+     * Marks the request as the one which renders a view.
+     *
+     * @param request      HttpServletRequest
+     * @param response     HttpServletResponse
+     * @param handler      handler
+     * @param modelAndView view to be rendered
+     */
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+        if (modelAndView != null && modelAndView.getViewName() != null
+                && !modelAndView.getViewName().startsWith("redirect:")) {
+            request.setAttribute(VIEW_RENDERED_ATTRIBUTE, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Counts memory allocated since the request was started to be handled, when the view is rendered.
+     *
+     * @param request  HttpServletRequest
+     * @param response HttpServletResponse
+     * @param handler  handler
+     * @param ex       exception thrown while the request was handled, if any
+     */
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Long allocatedBytesBefore = (Long) request.getAttribute(ALLOCATED_BYTES_ATTRIBUTE);
+        if (allocatedBytesBefore != null && ex == null && request.getAttribute(VIEW_RENDERED_ATTRIBUTE) != null) {
+            pageAllocationCounter.add(PageAllocationCounter.getCurrentThreadAllocatedBytes() - allocatedBytesBefore);
+        }
+    }
+}
@@ -19,6 +19,7 @@ import com.sun.syndication.feed.rss.Channel;
 import com.sun.syndication.feed.rss.Content;
 import com.sun.syndication.feed.rss.Description;
 import com.sun.syndication.feed.rss.Item;
+import org.jtalks.jcommune.model.entity.Post;
 import org.jtalks.jcommune.model.entity.Topic;
 import org.springframework.web.servlet.view.feed.AbstractRssFeedView;
 
@@ -93,17 +94,18 @@ public class RssViewer extends AbstractRssFeedView {
     private Item createFeedItem(Topic topic, String url) {
 
         Item item = new Item();
+        Post lastPost = topic.getLastPost();
         Description description = new Description();
         description.setType("text");
-        description.setValue(topic.getLastPost().getPostContent());
+        description.setValue(lastPost.getPostContent());
 
         Content content = new Content();
         item.setContent(content);
 
         item.setTitle(topic.getTitle());
-        item.setAuthor(topic.getLastPost().getUserCreated().getUsername());
+        item.setAuthor(lastPost.getUserCreated().getUsername());
 
-        item.setLink(url + "/posts/" + topic.getLastPost().getId());
+        item.setLink(url + "/posts/" + lastPost.getId());
 
         item.setComments(topic.getTopicStarter().getSignature());
         item.setDescription(description);
@@ -93,13 +93,13 @@ public class BranchControllerTest {
         Page<Topic> topicsPage = new PageImpl<Topic>(Collections.<Topic> emptyList(), pageRequest, 0);
         //set expectations
         when(branchService.get(branchId)).thenReturn(branch);
-        when(topicFetchService.getTopics(branch, page, pagingEnabled)).thenReturn(topicsPage);
+        when(topicFetchService.getTopics(branch, page, null, pagingEnabled)).thenReturn(topicsPage);
         when(breadcrumbBuilder.getForumBreadcrumb(branchService.get(branchId)))
                 .thenReturn(new ArrayList<Breadcrumb>());
         when(forumStatisticsProvider.getOnlineRegisteredUsers()).thenReturn(new ArrayList<Object>());
 
         //invoke the object under test
-        ModelAndView mav = controller.showPage(branchId, page, pagingEnabled);
+        ModelAndView mav = controller.showPage(branchId, page, null, pagingEnabled);
 
         //check expectations
         verify(breadcrumbBuilder).getForumBreadcrumb(branchService.get(branchId));
@@ -155,6 +155,20 @@ public class BranchControllerTest {
         assertAndReturnModelAttributeOfType(mav, "topicsPage", Page.class);
     }
 
+    @Test
+    public void unreadTopicsPage() {
+        int page = 1;
+        Page<Topic> topicsPage = new PageImpl<Topic>(new ArrayList<Topic>());
+        when(topicFetchService.getUnreadTopics(page)).thenReturn(topicsPage);
+
+        ModelAndView mav = controller.unreadTopicsPage(page);
+
+        verify(topicFetchService).getUnreadTopics(page);
+        verify(lastReadPostService).fillLastReadPostForTopics(topicsPage.getContent());
+        assertViewName(mav, "unreadTopics");
+        assertAndReturnModelAttributeOfType(mav, "topicsPage", Page.class);
+    }
+
     @Test
     public void testViewList() throws NotFoundException {
         long branchId = 1L;
@@ -169,9 +183,9 @@ public class BranchControllerTest {
         when(breadcrumbBuilder.getForumBreadcrumb(branchService.get(branchId)))
                 .thenReturn(new ArrayList<Breadcrumb>());
         when(forumStatisticsProvider.getOnlineRegisteredUsers()).thenReturn(new ArrayList<Object>());
-        when(topicFetchService.getTopics(branch, page, pagingEnabled)).thenReturn(topicsPage);
+        when(topicFetchService.getTopics(branch, page, null, pagingEnabled)).thenReturn(topicsPage);
 
-        ModelAndView mav = controller.showPage(branchId, page, pagingEnabled);
+        ModelAndView mav = controller.showPage(branchId, page, null, pagingEnabled);
 
         List<?> actualViewList = assertAndReturnModelAttributeOfType(mav, "viewList", List.class);
         assertEquals(actualViewList, new ArrayList<String>());
@@ -23,6 +23,8 @@ import org.jtalks.jcommune.web.dto.TopicDto;
 import org.jtalks.jcommune.web.util.BreadcrumbBuilder;
 import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.springframework.beans.propertyeditors.StringTrimmerEditor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
@@ -131,14 +133,15 @@ public class TopicControllerTest {
         //
         when(topicFetchService.get(TOPIC_ID)).thenReturn(topic);
         when(breadcrumbBuilder.getForumBreadcrumb(topic)).thenReturn(new ArrayList<Breadcrumb>());
-        when(postService.getPosts(topic, page, pagingEnabled)).thenReturn(postsPage);
+        when(postService.getPosts(topic, page, null, pagingEnabled)).thenReturn(postsPage);
 
-        ModelAndView mav = controller.showTopicPage(TOPIC_ID, page, pagingEnabled);
+        ModelAndView mav = controller.showTopicPage(TOPIC_ID, page, null, pagingEnabled);
 
         verify(topicFetchService).get(TOPIC_ID);
         verify(topicFetchService).checkViewTopicPermission(branch.getId());
         verify(breadcrumbBuilder).getForumBreadcrumb(topic);
         verify(lastReadPostService).markTopicPageAsRead(topic, page, pagingEnabled);
+        verify(userService).cacheMentionedUsers(postsPage.getContent());
         //
         assertViewName(mav, "postList");
         assertAndReturnModelAttributeOfType(mav, "postsPage", Page.class);
@@ -148,6 +151,57 @@ public class TopicControllerTest {
         assertModelAttributeAvailable(mav, "breadcrumbList");
     }
 
+    @Test
+    public void redirectToFirstUnreadPostShouldRedirectToPostAfterLastReadOne() throws NotFoundException {
+        Topic topic = createTopicWithPosts(3);
+        when(topicFetchService.get(TOPIC_ID)).thenReturn(topic);
+        when(lastReadPostService.getLastReadPostForTopic(topic)).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                Topic topic = (Topic) invocation.getArguments()[0];
+                topic.setLastReadPostIndex(0);
+                return 0;
+            }
+        });
+
+        String view = controller.redirectToFirstUnreadPost(TOPIC_ID);
+
+        assertEquals(view, "redirect:/posts/" + topic.getPosts().get(1).getId());
+        verify(topicFetchService).checkViewTopicPermission(branch.getId());
+    }
+
+    @Test
+    public void redirectToFirstUnreadPostShouldRedirectToFirstPostIfTopicIsNotRead() throws NotFoundException {
+        Topic topic = createTopicWithPosts(3);
+        when(topicFetchService.get(TOPIC_ID)).thenReturn(topic);
+
+        String view = controller.redirectToFirstUnreadPost(TOPIC_ID);
+
+        assertEquals(view, "redirect:/posts/" + topic.getFirstPost().getId());
+    }
+
+    @Test
+    public void redirectToFirstUnreadPostShouldRedirectToLastPostIfTopicIsRead() throws NotFoundException {
+        Topic topic = createTopicWithPosts(3);
+        topic.setLastReadPostIndex(2);
+        when(topicFetchService.get(TOPIC_ID)).thenReturn(topic);
+
+        String view = controller.redirectToFirstUnreadPost(TOPIC_ID);
+
+        assertEquals(view, "redirect:/posts/" + topic.getLastPost().getId());
+    }
+
+    private Topic createTopicWithPosts(int postCount) {
+        Topic topic = new Topic(user, "title");
+        branch.addTopic(topic);
+        for (int i = 0; i < postCount; i++) {
+            Post post = new Post(user, "content");
+            post.setId(i + 1);
+            topic.addPost(post);
+        }
+        return topic;
+    }
+
     @Test
     public void createTopicShouldPassAndRedirectToNewTopicIfItIsValid() throws Exception {
         Branch branch = createBranch();
@@ -17,15 +17,29 @@ package org.jtalks.jcommune.web.controller;
 import java.util.Collections;
 import java.util.Map;
 
+import org.joda.time.DateTime;
+
+import org.jtalks.jcommune.model.dto.IndexRebuildProgress;
+import org.jtalks.jcommune.model.dto.SearchFacet;
+import org.jtalks.jcommune.model.dto.TopicSearchFilter;
+import org.jtalks.jcommune.model.dto.TopicSearchHit;
+import org.jtalks.jcommune.model.dto.TopicSearchResult;
+import org.jtalks.jcommune.model.entity.Branch;
+import org.jtalks.jcommune.model.entity.JCUser;
 import org.jtalks.jcommune.model.entity.Topic;
 import org.jtalks.jcommune.service.LastReadPostService;
 import org.jtalks.jcommune.service.TopicFetchService;
+import org.jtalks.jcommune.web.dto.json.JsonResponse;
+import org.jtalks.jcommune.web.dto.json.JsonResponseStatus;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.MockitoAnnotations;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.web.servlet.ModelAndView;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
@@ -44,6 +58,7 @@ public class TopicSearchControllerTest {
 	private LastReadPostService lastReadPostService;
 
 	private TopicSearchController topicSearchController;
+	private Topic topic = new Topic();
 
 	@BeforeMethod
 	public void init() {
@@ -57,41 +72,105 @@ public class TopicSearchControllerTest {
 		
 		verify(topicFetchService).rebuildSearchIndex();
 	}
+
+	@Test
+	public void rebuildProgressShouldBeReturnedAsJson() {
+		IndexRebuildProgress progress = new IndexRebuildProgress(IndexRebuildProgress.State.RUNNING, 100, 10, 1000);
+		when(topicFetchService.getSearchIndexRebuildProgress()).thenReturn(progress);
+
+		JsonResponse response = topicSearchController.getRebuildProgress();
+
+		Assert.assertEquals(response.getStatus(), JsonResponseStatus.SUCCESS);
+		Assert.assertEquals(response.getResult(), progress);
+	}
 	
 	@Test
 	public void testInitSearch() {
-		Page<Topic> searchResultPage = new PageImpl<Topic>(Collections.<Topic> emptyList());
+		TopicSearchResult searchResultPage = createSearchResult();
 		
-		when(topicFetchService.searchByTitleAndContent(DEFAULT_SEARCH_TEXT, START_PAGE))
+		when(topicFetchService.searchByTitleAndContent(eq(DEFAULT_SEARCH_TEXT), any(TopicSearchFilter.class),
+		        eq(START_PAGE)))
 				.thenReturn(searchResultPage);
 
-		ModelAndView modelAndView = topicSearchController.initSearch(DEFAULT_SEARCH_TEXT);
+		ModelAndView modelAndView = topicSearchController.initSearch(DEFAULT_SEARCH_TEXT, null, null, null, null);
 		Map<String, Object> model = modelAndView.getModel();
 		
 		Assert.assertEquals(searchResultPage, model.get(TopicSearchController.SEARCH_RESULT_ATTRIBUTE_NAME), 
 				"The controller must return the result of TopicFullSearchService.");
 		Assert.assertEquals(DEFAULT_SEARCH_TEXT, model.get(TopicSearchController.URI_ATTRIBUTE_NAME),
 				"Uri and the search text must be identical.");
-		verify(topicFetchService).searchByTitleAndContent(DEFAULT_SEARCH_TEXT, START_PAGE);
-		verify(lastReadPostService).fillLastReadPostForTopics(searchResultPage.getContent());
+		verify(topicFetchService).searchByTitleAndContent(eq(DEFAULT_SEARCH_TEXT), any(TopicSearchFilter.class),
+		        eq(START_PAGE));
+		verify(lastReadPostService).fillLastReadPostForTopics(Collections.singletonList(topic));
 	}
 
     @Test
 	public void testContinueSearch() {
-        Page<Topic> searchResultPage = new PageImpl<Topic>(Collections.<Topic> emptyList());
+        TopicSearchResult searchResultPage = createSearchResult();
 		int page = 2;
 
-        when(topicFetchService.searchByTitleAndContent(DEFAULT_SEARCH_TEXT, page))
+        when(topicFetchService.searchByTitleAndContent(eq(DEFAULT_SEARCH_TEXT), any(TopicSearchFilter.class),
+                eq(page)))
 				.thenReturn(searchResultPage);
 
-		ModelAndView modelAndView = topicSearchController.continueSearch(DEFAULT_SEARCH_TEXT, page);
+		ModelAndView modelAndView = topicSearchController.continueSearch(DEFAULT_SEARCH_TEXT, null, null, null, null, page);
 		Map<String, Object> model = modelAndView.getModel();
 		
 		Assert.assertEquals(searchResultPage, model.get(TopicSearchController.SEARCH_RESULT_ATTRIBUTE_NAME), 
 				"The controller must return the result of TopicFullSearchService.");
 		Assert.assertEquals(DEFAULT_SEARCH_TEXT, model.get(TopicSearchController.URI_ATTRIBUTE_NAME),
 				"Uri and the search text must be identical.");
-		verify(topicFetchService).searchByTitleAndContent(DEFAULT_SEARCH_TEXT, page);
-		verify(lastReadPostService).fillLastReadPostForTopics(searchResultPage.getContent());
+		verify(topicFetchService).searchByTitleAndContent(eq(DEFAULT_SEARCH_TEXT), any(TopicSearchFilter.class),
+		        eq(page));
+		verify(lastReadPostService).fillLastReadPostForTopics(Collections.singletonList(topic));
 	}
+
+    @Test
+    public void filterShouldBePassedToSearchAndKeptInLinksOfPages() {
+        DateTime from = new DateTime(2013, 1, 1, 0, 0, 0, 0);
+        DateTime to = new DateTime(2013, 1, 31, 0, 0, 0, 0);
+        when(topicFetchService.searchByTitleAndContent(eq(DEFAULT_SEARCH_TEXT), any(TopicSearchFilter.class),
+                eq(START_PAGE))).thenReturn(createSearchResult());
+
+        ModelAndView modelAndView = topicSearchController.continueSearch(DEFAULT_SEARCH_TEXT, 1L, 2L, from, to,
+                START_PAGE);
+
+        ArgumentCaptor<TopicSearchFilter> filter = ArgumentCaptor.forClass(TopicSearchFilter.class);
+        verify(topicFetchService).searchByTitleAndContent(eq(DEFAULT_SEARCH_TEXT), filter.capture(),
+                eq(START_PAGE));
+        Assert.assertEquals(filter.getValue().getBranchId(), Long.valueOf(1L));
+        Assert.assertEquals(filter.getValue().getAuthorId(), Long.valueOf(2L));
+        Assert.assertEquals(filter.getValue().getFrom(), from);
+        Assert.assertEquals(filter.getValue().getTo(), to.plusDays(1), "The last day should be included.");
+        Assert.assertEquals(modelAndView.getModel().get(TopicSearchController.FILTER_PARAMS_ATTRIBUTE_NAME),
+                "&branchId=1&authorId=2&from=2013-01-01&to=2013-01-31");
+    }
+
+    @Test
+    public void searchShouldWaitForIndexingOfOwnPostsBeforeSearching() {
+        when(topicFetchService.searchByTitleAndContent(eq(DEFAULT_SEARCH_TEXT), any(TopicSearchFilter.class),
+                eq(START_PAGE))).thenReturn(createSearchResult());
+
+        topicSearchController.initSearch(DEFAULT_SEARCH_TEXT, null, null, null, null);
+
+        InOrder inOrder = inOrder(topicFetchService);
+        inOrder.verify(topicFetchService).awaitIndexingOfOwnPosts();
+        inOrder.verify(topicFetchService).searchByTitleAndContent(eq(DEFAULT_SEARCH_TEXT),
+                any(TopicSearchFilter.class), eq(START_PAGE));
+    }
+
+    @Test
+    public void searchWithoutFilterShouldHaveNoFilterParams() {
+        when(topicFetchService.searchByTitleAndContent(eq(DEFAULT_SEARCH_TEXT), any(TopicSearchFilter.class),
+                eq(START_PAGE))).thenReturn(createSearchResult());
+
+        ModelAndView modelAndView = topicSearchController.initSearch(DEFAULT_SEARCH_TEXT, null, null, null, null);
+
+        Assert.assertEquals(modelAndView.getModel().get(TopicSearchController.FILTER_PARAMS_ATTRIBUTE_NAME), "");
+    }
+
+    private TopicSearchResult createSearchResult() {
+        return new TopicSearchResult(Collections.singletonList(new TopicSearchHit(topic, "<b>text</b>")), null, 1,
+                Collections.<SearchFacet<Branch>>emptyList(), Collections.<SearchFacet<JCUser>>emptyList());
+    }
 }
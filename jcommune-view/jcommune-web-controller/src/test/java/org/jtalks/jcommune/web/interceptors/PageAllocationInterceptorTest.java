@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2011  JTalks.org Team
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.jtalks.jcommune.web.interceptors;
+
+import org.jtalks.jcommune.service.nontransactional.PageAllocationCounter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.HttpRequestHandler;
+import org.springframework.web.servlet.ModelAndView;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertTrue;
+
+public class PageAllocationInterceptorTest {
+    private PageAllocationInterceptor interceptor;
+    private PageAllocationCounter counter;
+    private HttpRequestHandler handler;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @BeforeMethod
+    public void setUp() {
+        counter = mock(PageAllocationCounter.class);
+        handler = mock(HttpRequestHandler.class);
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        interceptor = new PageAllocationInterceptor(counter);
+    }
+
+    @Test
+    public void renderedPageShouldBeCounted() {
+        assertTrue(interceptor.preHandle(request, response, handler));
+        request.setAttribute(PageAllocationInterceptor.ALLOCATED_BYTES_ATTRIBUTE, 0L);
+
+        interceptor.postHandle(request, response, handler, new ModelAndView("postList"));
+        interceptor.afterCompletion(request, response, handler, null);
+
+        verify(counter).add(anyLong());
+    }
+
+    @Test
+    public void redirectShouldNotBeCounted() {
+        request.setAttribute(PageAllocationInterceptor.ALLOCATED_BYTES_ATTRIBUTE, 0L);
+
+        interceptor.postHandle(request, response, handler, new ModelAndView("redirect:/topics/1"));
+        interceptor.afterCompletion(request, response, handler, null);
+
+        verify(counter, never()).add(anyLong());
+    }
+
+    @Test
+    public void failedRequestShouldNotBeCounted() {
+        request.setAttribute(PageAllocationInterceptor.ALLOCATED_BYTES_ATTRIBUTE, 0L);
+
+        interceptor.postHandle(request, response, handler, new ModelAndView("postList"));
+        interceptor.afterCompletion(request, response, handler, new IllegalStateException());
+
+        verify(counter, never()).add(anyLong());
+    }
+}
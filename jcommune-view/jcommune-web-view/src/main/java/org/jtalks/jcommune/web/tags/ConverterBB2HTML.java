@@ -15,11 +15,14 @@
 
 package org.jtalks.jcommune.web.tags;
 
+import org.jtalks.jcommune.model.entity.Post;
+import org.jtalks.jcommune.model.entity.PrivateMessage;
 import org.jtalks.jcommune.service.nontransactional.BBCodeService;
 import org.springframework.context.ApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
 
 import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.JspWriter;
 import javax.servlet.jsp.PageContext;
 import javax.servlet.jsp.tagext.TagSupport;
 import java.io.IOException;
@@ -27,13 +30,16 @@ import java.io.IOException;
 /**
  * Converts BB-codes into html representation. This tag also replaces newline symbols with html line break tag <br>.
  * Take a look at {@code kefirbb.xml} file that configures what are the bb codes and how they should be replaced with
- * HTML tags.
+ * HTML tags. When the post or the private message itself is given, HTML stored with it is shown if it's up to date.
+ * HTML is written right to the page, so the whole text isn't copied once more.
  *
  * @author Evgeny Kapinos
  * @see BBCodeService
  */
 public class ConverterBB2HTML extends TagSupport {
     private String bbCode;
+    private Post post;
+    private PrivateMessage message;
     /** We get this from Spring App Context in {@link #setPageContext(PageContext)}. */
     private BBCodeService service;
 
@@ -42,8 +48,16 @@ public class ConverterBB2HTML extends TagSupport {
     @Override
     public int doStartTag() throws JspException {
         try {
-            String html = service.convertBbToHtml(bbCode);
-            pageContext.getOut().print(html);
+            JspWriter out = pageContext.getOut();
+            if (post != null && !isCodeReviewPost()) {
+                service.writePostAsHtml(post, pageContext.getRequest().getServerName(), out);
+            } else if (post != null) {
+                service.writeBbAsHtml(post.getPostContent(), out);
+            } else if (message != null) {
+                service.writePrivateMessageAsHtml(message, out);
+            } else {
+                service.writeBbAsHtml(bbCode, out);
+            }
             return SKIP_BODY;
         } catch (IOException e) {
             throw new JspException(e);
@@ -59,6 +73,43 @@ public class ConverterBB2HTML extends TagSupport {
         this.bbCode = bbCode;
     }
 
+    /**
+     * Feeds the post from the JSP page, its content is formatted as HTML instead of the BB-encoded text.
+     *
+     * @param post post to render
+     */
+    public void setPost(Post post) {
+        this.post = post;
+    }
+
+    /**
+     * Feeds the private message from the JSP page, its body is formatted as HTML instead of the BB-encoded text.
+     *
+     * @param message private message to render
+     */
+    public void setMessage(PrivateMessage message) {
+        this.message = message;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void release() {
+        super.release();
+        bbCode = null;
+        post = null;
+        message = null;
+    }
+
+    /**
+     * The first post of a code review is rendered differently on the topic page, so neither stored nor cached HTML
+     * can be used for it.
+     *
+     * @return whether the post is shown as a code review
+     */
+    private boolean isCodeReviewPost() {
+        return pageContext.getRequest().getAttribute("isCodeReviewPost") != null;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void setPageContext(PageContext pageContext) {
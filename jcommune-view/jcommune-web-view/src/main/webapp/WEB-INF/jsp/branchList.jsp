@@ -45,9 +45,9 @@
             <c:when test="${!(empty section.branches)}">
                 <thead>
                 <tr>
-                        <%--<sec:authorize access="isAuthenticated()">--%>
-                        <%--<th class="status-col"></th>--%>
-                        <%--</sec:authorize>--%>
+                    <sec:authorize access="isAuthenticated()">
+                        <th class="status-col"></th>
+                    </sec:authorize>
                     <th><spring:message code="label.section.header.branches"/></th>
                     <th class="topics-posts forum-posts-view-header shrink-to-fit">
                         <spring:message code="label.branch.header.topics_posts"/>
@@ -63,23 +63,22 @@
                     <jtalks:hasPermission targetId='${branch.id}' targetType='BRANCH'
                                           permission='BranchPermission.VIEW_TOPICS'>
                         <tr>
-                                <%--TODO: fix in milstone 2--%>
-                                <%--<sec:authorize access="isAuthenticated()">--%>
-                                <%--<td class="status-col">--%>
-                                <%--<c:choose>--%>
-                                <%--<c:when test="${branch.unreadPosts}">--%>
-                                <%--<img class="status-img"--%>
-                                <%--src="${pageContext.request.contextPath}/resources/images/new-posts.png"--%>
-                                <%--title="<spring:message code="label.topic.new_posts"/>"/>--%>
-                                <%--</c:when>--%>
-                                <%--<c:otherwise>--%>
-                                <%--<img class="status-img"--%>
-                                <%--src="${pageContext.request.contextPath}/resources/images/no-new-posts.png"--%>
-                                <%--title="<spring:message code="label.topic.no_new_posts"/>"/>--%>
-                                <%--</c:otherwise>--%>
-                                <%--</c:choose>--%>
-                                <%--</td>--%>
-                                <%--</sec:authorize>--%>
+                            <sec:authorize access="isAuthenticated()">
+                                <td class="status-col">
+                                    <c:choose>
+                                        <c:when test="${branch.unreadPosts}">
+                                            <img class="status-img"
+                                                 src="${pageContext.request.contextPath}/resources/images/new-posts.png"
+                                                 title="<spring:message code="label.topic.new_posts"/>"/>
+                                        </c:when>
+                                        <c:otherwise>
+                                            <img class="status-img"
+                                                 src="${pageContext.request.contextPath}/resources/images/no-new-posts.png"
+                                                 title="<spring:message code="label.topic.no_new_posts"/>"/>
+                                        </c:otherwise>
+                                    </c:choose>
+                                </td>
+                            </sec:authorize>
                             <td>
                                 <a href="${pageContext.request.contextPath}/branches/${branch.id}">
                                     <c:out value="${branch.name}"/>
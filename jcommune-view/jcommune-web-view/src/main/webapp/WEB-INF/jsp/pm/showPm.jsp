@@ -87,7 +87,7 @@
                     </div>
                 </div>
                 <div class="pm-text-box">
-                    <jtalks:postContent text="${pm.body}" signature="${pm.userFrom.signature}"/>
+                    <jtalks:postContent message="${pm}" signature="${pm.userFrom.signature}"/>
                 </div>
             </div>
 
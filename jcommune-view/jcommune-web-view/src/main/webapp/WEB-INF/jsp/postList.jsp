@@ -90,7 +90,7 @@
     <div class="span9">
         <div class="pagination pull-right forum-pagination">
             <ul>
-                <jtalks:pagination uri="${topicId}" page="${postsPage}" pagingEnabled="${pagingEnabled}"/>
+                <jtalks:pagination uri="${topicId}" page="${postsPage}" pagingEnabled="${pagingEnabled}" seekable="true"/>
             </ul>
         </div>
     </div>
@@ -328,7 +328,7 @@
                 </div>
             </td>
             <td class='post-content-td'>
-                <jtalks:postContent text="${post.postContent}"
+                <jtalks:postContent post="${post}"
                                     signature="${post.userCreated.signature}"
                                     modificationDate="${post.modificationDate}"/>
             </td>
@@ -355,7 +355,7 @@
     <div class="span9">
         <div class="pagination pull-right forum-pagination">
             <ul>
-                <jtalks:pagination uri="${topicId}" page="${postsPage}" pagingEnabled="${pagingEnabled}"/>
+                <jtalks:pagination uri="${topicId}" page="${postsPage}" pagingEnabled="${pagingEnabled}" seekable="true"/>
             </ul>
         </div>
     </div>
@@ -151,7 +151,7 @@
             <td class="latest-by shrink-to-fit">
               <i class="icon-calendar"></i>
               <a class="date" href="${pageContext.request.contextPath}/posts/${topic.lastPost.id}">
-                <jtalks:format value="${topic.lastPost.creationDate}"/>
+                <jtalks:format value="${topic.lastPostDate}"/>
               </a>
               <spring:message code="label.topic.last_post_by"/>
               <a href="${pageContext.request.contextPath}/users/${topic.lastPost.userCreated.id}">
@@ -36,12 +36,80 @@
     <div class="span9">
       <div class="pagination pull-right forum-pagination">
         <ul>
-          <jtalks:pagination uri="${uri}" page="${searchResultPage}" pagingEnabled="${pagingEnabled}"/>
+          <jtalks:pagination uri="${uri}" page="${searchResultPage}" pagingEnabled="${pagingEnabled}"
+                             params="${filterParams}"/>
         </ul>
       </div>
     </div>
   </div>
 
+  <%-- Filters of the search, counts of facets are numbers of topics found with the value chosen --%>
+  <div class="row-fluid search-filters">
+    <div class="span4">
+      <strong><spring:message code="label.search.header.branch"/>:</strong>
+      <c:url var="allBranchesUrl" value="/search">
+        <c:param name="searchText" value="${searchText}"/>
+        <c:param name="authorId" value="${searchFilter.authorId}"/>
+        <c:param name="from" value="${param.from}"/>
+        <c:param name="to" value="${param.to}"/>
+      </c:url>
+      <a href="${allBranchesUrl}" class="${empty searchFilter.branchId ? 'selected' : ''}">
+        <spring:message code="label.search.filter.all"/></a>
+      <c:forEach var="facet" items="${searchResultPage.branchFacets}">
+        <c:url var="branchUrl" value="/search">
+          <c:param name="searchText" value="${searchText}"/>
+          <c:param name="branchId" value="${facet.value.id}"/>
+          <c:param name="authorId" value="${searchFilter.authorId}"/>
+          <c:param name="from" value="${param.from}"/>
+          <c:param name="to" value="${param.to}"/>
+        </c:url>
+        <a href="${branchUrl}" class="${facet.value.id == searchFilter.branchId ? 'selected' : ''}">
+          <c:out value="${facet.value.name}"/></a>&nbsp;(${facet.count})
+      </c:forEach>
+    </div>
+    <div class="span4">
+      <strong><spring:message code="label.search.header.author"/>:</strong>
+      <c:url var="allAuthorsUrl" value="/search">
+        <c:param name="searchText" value="${searchText}"/>
+        <c:param name="branchId" value="${searchFilter.branchId}"/>
+        <c:param name="from" value="${param.from}"/>
+        <c:param name="to" value="${param.to}"/>
+      </c:url>
+      <a href="${allAuthorsUrl}" class="${empty searchFilter.authorId ? 'selected' : ''}">
+        <spring:message code="label.search.filter.all"/></a>
+      <c:forEach var="facet" items="${searchResultPage.authorFacets}">
+        <c:url var="authorUrl" value="/search">
+          <c:param name="searchText" value="${searchText}"/>
+          <c:param name="branchId" value="${searchFilter.branchId}"/>
+          <c:param name="authorId" value="${facet.value.id}"/>
+          <c:param name="from" value="${param.from}"/>
+          <c:param name="to" value="${param.to}"/>
+        </c:url>
+        <a href="${authorUrl}" class="${facet.value.id == searchFilter.authorId ? 'selected' : ''}">
+          <c:out value="${facet.value.username}"/></a>&nbsp;(${facet.count})
+      </c:forEach>
+    </div>
+    <div class="span4">
+      <form action="${pageContext.request.contextPath}/search" method="GET" class="form-inline">
+        <input type="hidden" name="searchText" value="<c:out value="${searchText}"/>"/>
+        <c:if test="${!(empty searchFilter.branchId)}">
+          <input type="hidden" name="branchId" value="${searchFilter.branchId}"/>
+        </c:if>
+        <c:if test="${!(empty searchFilter.authorId)}">
+          <input type="hidden" name="authorId" value="${searchFilter.authorId}"/>
+        </c:if>
+        <strong><spring:message code="label.search.header.date"/>:</strong>
+        <spring:message code="label.search.filter.from"/>
+        <input type="text" name="from" class="input-small" placeholder="yyyy-mm-dd"
+               value="<c:out value="${param.from}"/>"/>
+        <spring:message code="label.search.filter.to"/>
+        <input type="text" name="to" class="input-small" placeholder="yyyy-mm-dd"
+               value="<c:out value="${param.to}"/>"/>
+        <button type="submit" class="btn btn-small"><spring:message code="label.search.filter.apply"/></button>
+      </form>
+    </div>
+  </div>
+
   <%-- Topics table --%>
   <table id="topics-table" class="table table-row table-bordered">
     <c:choose>
@@ -64,7 +132,8 @@
         </tr>
         </thead>
         <tbody>
-        <c:forEach var="topic" items="${searchResultPage.content}" varStatus="i">
+        <c:forEach var="hit" items="${searchResultPage.content}" varStatus="i">
+          <c:set var="topic" value="${hit.topic}"/>
           <tr>
             <sec:authorize access="isAuthenticated()">
               <td class="status-col-small">
@@ -89,6 +158,10 @@
                   <c:out value="${topic.topicStarter.username}"/>
                 </a>
               </sub>
+                <%--The fragment is escaped by the search, only the highlighting tags are left--%>
+              <c:if test="${!(empty hit.fragment)}">
+                <div class="search-fragment">${hit.fragment}</div>
+              </c:if>
             </td>
             <td class="author-col shrink-to-fit">
               <a href='${pageContext.request.contextPath}/users/${topic.topicStarter.id}'
@@ -110,7 +183,7 @@
             <td class="latest-by shrink-to-fit">
               <i class="icon-calendar"></i>
               <a class="date" href="${pageContext.request.contextPath}/posts/${topic.lastPost.id}">
-                <jtalks:format value="${topic.lastPost.creationDate}"/>
+                <jtalks:format value="${topic.lastPostDate}"/>
               </a>
               <spring:message code="label.topic.last_post_by"/>
               <a href="${pageContext.request.contextPath}/users/${topic.lastPost.userCreated.id}">
@@ -137,7 +210,8 @@
     <div class="span12">
       <div class="pagination pull-right forum-pagination">
         <ul>
-          <jtalks:pagination uri="${uri}" page="${searchResultPage}" pagingEnabled="${pagingEnabled}"/>
+          <jtalks:pagination uri="${uri}" page="${searchResultPage}" pagingEnabled="${pagingEnabled}"
+                             params="${filterParams}"/>
         </ul>
       </div>
     </div>
@@ -51,6 +51,13 @@
                   class="forum-sections-recent-unanswered">
                    <spring:message code="label.messagesWithoutAnswers"/>
                </a>
+               <sec:authorize access="isAuthenticated()">
+                   <br/>
+                   <a href="${pageContext.request.contextPath}/topics/unread" title=""
+                      class="forum-sections-recent-unanswered">
+                       <spring:message code="label.unreadTopics"/>
+                   </a>
+               </sec:authorize>
            </span>
             <a href="${pageContext.request.contextPath}/topics/recent.rss"
                title="<spring:message code='label.tips.feed_subsription'/>">
@@ -65,8 +72,7 @@
         <tbody>
         <c:set var="colspanOfSectionName" value="3"/>
         <sec:authorize access="isAuthenticated()">
-            <%-- TODO: change to 4 during below fix about unread posts --%>
-            <c:set var="colspanOfSectionName" value="3"/>
+            <c:set var="colspanOfSectionName" value="4"/>
         </sec:authorize>
 
         <c:forEach var="section" items="${sectionList}">
@@ -82,23 +88,22 @@
                     <jtalks:hasPermission targetId='${branch.id}' targetType='BRANCH'
                                           permission='BranchPermission.VIEW_TOPICS'>
                         <tr>
-                                <%--TODO: fix in milstone 2--%>
-                                <%--<sec:authorize access="isAuthenticated()">--%>
-                                <%--<td class="status-col">--%>
-                                <%--<c:choose>--%>
-                                <%--<c:when test="${branch.unreadPosts}">--%>
-                                <%--<img class="status-img"--%>
-                                <%--src="${pageContext.request.contextPath}/resources/images/new-posts.png"--%>
-                                <%--title="<spring:message code="label.topic.new_posts"/>"/>--%>
-                                <%--</c:when>--%>
-                                <%--<c:otherwise>--%>
-                                <%--<img class="status-img"--%>
-                                <%--src="${pageContext.request.contextPath}/resources/images/no-new-posts.png"--%>
-                                <%--title="<spring:message code="label.topic.no_new_posts"/>"/>--%>
-                                <%--</c:otherwise>--%>
-                                <%--</c:choose>--%>
-                                <%--</td>--%>
-                                <%--</sec:authorize>--%>
+                            <sec:authorize access="isAuthenticated()">
+                                <td class="status-col">
+                                    <c:choose>
+                                        <c:when test="${branch.unreadPosts}">
+                                            <img class="status-img"
+                                                 src="${pageContext.request.contextPath}/resources/images/new-posts.png"
+                                                 title="<spring:message code="label.topic.new_posts"/>"/>
+                                        </c:when>
+                                        <c:otherwise>
+                                            <img class="status-img"
+                                                 src="${pageContext.request.contextPath}/resources/images/no-new-posts.png"
+                                                 title="<spring:message code="label.topic.no_new_posts"/>"/>
+                                        </c:otherwise>
+                                    </c:choose>
+                                </td>
+                            </sec:authorize>
                             <td class="title-col">
                                 <a class="branch-title" href="${pageContext.request.contextPath}/branches/${branch.id}">
                                     <c:out value="${branch.name}"/>
@@ -101,7 +101,7 @@
   <div class="span8">
     <div class="pagination pull-right forum-pagination">
       <ul>
-        <jtalks:pagination uri="${branch.id}" page="${topicsPage}" pagingEnabled="${pagingEnabled}"/>
+        <jtalks:pagination uri="${branch.id}" page="${topicsPage}" pagingEnabled="${pagingEnabled}" seekable="true"/>
       </ul>
     </div>
   </div>
@@ -172,7 +172,7 @@
           <td class="latest-by shrink-to-fit">
             <i class="icon-calendar"></i>
             <a class="date" href="${pageContext.request.contextPath}/posts/${topic.lastPost.id}">
-              <jtalks:format value="${topic.lastPost.creationDate}"/>
+              <jtalks:format value="${topic.lastPostDate}"/>
             </a>
             <spring:message code="label.topic.last_post_by"/>
             <a href="${pageContext.request.contextPath}/users/${topic.lastPost.userCreated.id}">
@@ -222,7 +222,7 @@
   <div class="span8">
     <div class="pagination pull-right forum-pagination">
       <ul>
-        <jtalks:pagination uri="${branch.id}" page="${topicsPage}" pagingEnabled="${pagingEnabled}"/>
+        <jtalks:pagination uri="${branch.id}" page="${topicsPage}" pagingEnabled="${pagingEnabled}" seekable="true"/>
       </ul>
     </div>
   </div>
@@ -113,7 +113,7 @@
             <td class="latest-by shrink-to-fit">
               <i class="icon-calendar"></i>
               <a class="date" href="${pageContext.request.contextPath}/posts/${item.lastPost.id}">
-                <jtalks:format value="${item.lastPost.creationDate}"/>
+                <jtalks:format value="${item.lastPostDate}"/>
               </a>
               <spring:message code="label.topic.last_post_by"/>
               <a href="${pageContext.request.contextPath}/users/${item.lastPost.userCreated.id}">
@@ -37,7 +37,7 @@
             <div class="pagination pull-right forum-pagination">
                 <ul>
                     <jtalks:pagination uri="${topicId}" page="${postsPage}" numberLink="3"
-                                       pagingEnabled="${pagingEnabled}"/>
+                                       pagingEnabled="${pagingEnabled}" seekable="true"/>
                 </ul>
             </div>
         </div>
@@ -89,7 +89,7 @@
                                     <br/>
                                 </td>
                                 <td class='post-content-td'>
-                                    <jtalks:postContent text="${post.postContent}"/>
+                                    <jtalks:postContent post="${post}"/>
                                     <br/>
                                 </td>
                             </tr>
@@ -116,7 +116,7 @@
             <div class="pagination pull-right forum-pagination">
                 <ul>
                     <jtalks:pagination uri="${topicId}" page="${postsPage}" numberLink="3"
-                                       pagingEnabled="${pagingEnabled}"/>
+                                       pagingEnabled="${pagingEnabled}" seekable="true"/>
                 </ul>
             </div>
         </div>
@@ -14,7 +14,11 @@
  */
 package org.jtalks.jcommune.web.tags;
 
+import org.jtalks.jcommune.model.entity.Post;
+import org.jtalks.jcommune.model.entity.PrivateMessage;
 import org.jtalks.jcommune.service.nontransactional.BBCodeService;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.springframework.beans.BeanUtils;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockPageContext;
@@ -27,10 +31,14 @@ import org.testng.annotations.Test;
 import javax.servlet.ServletContext;
 import javax.servlet.jsp.JspException;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 
 public class ConverterBB2HTMLTest {
@@ -57,7 +65,7 @@ public class ConverterBB2HTMLTest {
     public void testConverterTag() throws JspException, UnsupportedEncodingException {
         String expected = "result";
         String source = "source";
-        when(bbCodeService.convertBbToHtml(source)).thenReturn(expected);
+        doAnswer(write(expected)).when(bbCodeService).writeBbAsHtml(eq(source), any(Writer.class));
 
         tag.setPageContext(pageContext);
         tag.setBbCode(source);
@@ -68,6 +76,57 @@ public class ConverterBB2HTMLTest {
         assertEquals(output, expected);
     }
 
+    @Test
+    public void postShouldBeRenderedForServerNameOfRequest() throws JspException, UnsupportedEncodingException {
+        Post post = new Post(null, "source");
+        doAnswer(write("result")).when(bbCodeService).writePostAsHtml(eq(post), eq("localhost"), any(Writer.class));
+
+        tag.setPageContext(pageContext);
+        tag.setPost(post);
+
+        tag.doStartTag();
+
+        String output = ((MockHttpServletResponse) pageContext.getResponse()).getContentAsString();
+        assertEquals(output, "result");
+    }
+
+    @Test
+    public void firstPostOfCodeReviewShouldBeRenderedFromContent() throws JspException, UnsupportedEncodingException {
+        Post post = new Post(null, "source");
+        doAnswer(write("result")).when(bbCodeService).writeBbAsHtml(eq("source"), any(Writer.class));
+        pageContext.getRequest().setAttribute("isCodeReviewPost", "true");
+
+        tag.setPageContext(pageContext);
+        tag.setPost(post);
+
+        tag.doStartTag();
+
+        String output = ((MockHttpServletResponse) pageContext.getResponse()).getContentAsString();
+        assertEquals(output, "result");
+    }
 
+    @Test
+    public void privateMessageShouldBeRendered() throws JspException, UnsupportedEncodingException {
+        PrivateMessage message = new PrivateMessage(null, null, "title", "source");
+        doAnswer(write("result")).when(bbCodeService).writePrivateMessageAsHtml(eq(message), any(Writer.class));
+
+        tag.setPageContext(pageContext);
+        tag.setMessage(message);
 
+        tag.doStartTag();
+
+        String output = ((MockHttpServletResponse) pageContext.getResponse()).getContentAsString();
+        assertEquals(output, "result");
+    }
+
+    private Answer<Void> write(final String html) {
+        return new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws IOException {
+                Object[] arguments = invocation.getArguments();
+                ((Writer) arguments[arguments.length - 1]).write(html);
+                return null;
+            }
+        };
+    }
 }